@@ -1,30 +1,73 @@
 package com.example.download;
 
+import com.example.download.batch.BatchDownloadRunner;
 import com.example.download.core.MultiThreadDownloader;
+import com.example.download.model.DownloadTaskInfo;
+
+import java.util.concurrent.TimeUnit;
 
 public class DownloadMain {
     public static void main(String[] args) {
+        if (args.length > 0 && ("--batch".equals(args[0]) || "--manifest".equals(args[0]))) {
+            System.exit(BatchDownloadRunner.run(args));
+        }
+
         if (args.length < 2) {
-            System.out.println("使用方法: java DownloadMain <文件URL> <保存路径> [线程数]");
+            System.out.println("使用方法: java DownloadMain <文件URL> <保存路径> [线程数] [--progressive] [--wait-offset 字节偏移] [--extract 解压目录]");
+            System.out.println("      或: java DownloadMain --batch <列表文件|-> [--concurrency 任务数] [--threads 每任务线程数] [--connections 总连接数] [--dir 保存目录]");
+            System.out.println("      或: java DownloadMain --manifest <清单文件|-> [--concurrency 同时下载的对象数] [--threads 大对象线程数] [--connections 总连接数] [--dir 保存目录]");
             System.out.println("示例: java DownloadMain https://example.com/file.zip D:\\Downloads\\file.zip 4");
             return;
         }
 
         String fileUrl = args[0];
         String savePath = args[1];
-        int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int threadCount = 4;
+        boolean progressive = false;
+        long waitOffset = -1;
+        String extractDir = null;
+        for (int i = 2; i < args.length; i++) {
+            if ("--progressive".equals(args[i])) {
+                progressive = true;
+            } else if ("--wait-offset".equals(args[i]) && i + 1 < args.length) {
+                // 等待某个偏移可读取时按偏移顺序下载
+                waitOffset = Long.parseLong(args[++i]);
+                progressive = true;
+            } else if ("--extract".equals(args[i]) && i + 1 < args.length) {
+                // 压缩包边下载边解压
+                extractDir = args[++i];
+            } else {
+                threadCount = Integer.parseInt(args[i]);
+            }
+        }
 
         MultiThreadDownloader downloader = new MultiThreadDownloader();
+        DownloadTaskInfo taskInfo = new DownloadTaskInfo();
+        taskInfo.setUrl(fileUrl);
+        taskInfo.setSavePath(savePath);
+        taskInfo.setThreadCount(threadCount);
+        taskInfo.setProgressive(progressive);
+        taskInfo.setExtractDir(extractDir);
+        Thread notifier = waitOffset >= 0 ? startReadyNotifier(downloader, taskInfo, waitOffset) : null;
 
         try {
             System.out.println("开始下载文件: " + fileUrl);
             System.out.println("保存路径: " + savePath);
             System.out.println("线程数: " + threadCount);
+            if (progressive) {
+                System.out.println("渐进模式: 按偏移顺序下载");
+            }
+            if (extractDir != null) {
+                System.out.println("边下载边解压到: " + extractDir);
+            }
             System.out.println("========================================");
 
             long startTime = System.currentTimeMillis();
-            downloader.download(fileUrl, savePath, threadCount);
+            downloader.download(taskInfo, null);
             long endTime = System.currentTimeMillis();
+            if (notifier != null) {
+                notifier.join(1000);
+            }
 
             System.out.println("========================================");
             System.out.println("下载完成，总耗时: " + (endTime - startTime) / 1000 + " 秒");
@@ -33,4 +76,22 @@ public class DownloadMain {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 后台等待指定偏移之前的数据写入文件后输出提示，供脚本在下载完成前开始读取文件
+     */
+    private static Thread startReadyNotifier(MultiThreadDownloader downloader, DownloadTaskInfo taskInfo, long offset) {
+        Thread notifier = new Thread(() -> {
+            try {
+                if (downloader.waitForOffset(taskInfo, offset, TimeUnit.DAYS.toMillis(365))) {
+                    System.out.println("数据已就绪: 偏移 " + offset + " 及之前的数据可读取，当前连续可用 " + downloader.getAvailableBytes(taskInfo) + " 字节");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "ready-notifier");
+        notifier.setDaemon(true);
+        notifier.start();
+        return notifier;
+    }
+}
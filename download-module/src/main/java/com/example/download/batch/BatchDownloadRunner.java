@@ -0,0 +1,578 @@
+package com.example.download.batch;
+
+import com.example.download.core.DownloadManifest;
+import com.example.download.core.ManifestJob;
+import com.example.download.core.MultiThreadDownloader;
+import com.example.download.daemon.Json;
+import com.example.download.manager.ConfigManager;
+import com.example.download.model.DownloadTaskInfo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量下载：在同一个JVM中按有界并发执行一组下载任务
+ *
+ * 列表文件每行一个任务，格式为 {@code URL [目标路径] [算法:校验和]}，以空白分隔，
+ * 支持的校验算法为md5、sha1、sha256和sha512，以#开头的行为注释。
+ * 任务ID由URL和目标路径确定，中断后重新执行同一列表会沿用 .temp-{id} 中的断点继续下载。
+ * 所有任务共用一个下载引擎和连接预算，运行期间在标准错误输出汇总进度，结束后在标准输出打印JSON摘要。
+ *
+ * 以 --manifest 指定清单时，全部对象作为一个清单作业执行（见 {@link ManifestJob}），不为每个对象保存任务信息，
+ * 进度记录保存在保存目录下的 .manifest-{指纹}.progress 中，适合上万个对象的清单。
+ */
+public class BatchDownloadRunner {
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+
+    private final MultiThreadDownloader downloader;
+    private final int concurrency;
+    private final int threadCount;
+    private final PrintStream progressOut;
+    private ConfigManager configManager; // 为null时不使用主机配置
+
+    public BatchDownloadRunner(MultiThreadDownloader downloader, int concurrency, int threadCount, PrintStream progressOut) {
+        this.downloader = downloader;
+        this.concurrency = Math.max(1, concurrency);
+        this.threadCount = Math.max(1, threadCount);
+        this.progressOut = progressOut;
+    }
+
+    /**
+     * 设置配置管理器：每个条目按主机配置下载，完成后记录主机的学习值
+     *
+     * @param configManager 配置管理器
+     */
+    public void setConfigManager(ConfigManager configManager) {
+        this.configManager = configManager;
+        configManager.restoreLearnedLimits(downloader.getConcurrencyController());
+    }
+
+    /**
+     * 命令行入口
+     *
+     * 用法: --batch &lt;列表文件|-&gt; [--concurrency 任务数] [--threads 每任务线程数] [--connections 总连接数] [--dir 保存目录]
+     *    或: --manifest &lt;清单文件|-&gt; [--concurrency 同时下载的对象数] [--threads 大对象线程数] [--connections 总连接数] [--dir 保存目录]
+     *
+     * @return 进程退出码：0全部成功，1存在失败任务，2参数错误
+     */
+    public static int run(String[] args) {
+        String listPath = null;
+        boolean manifestMode = false;
+        int concurrency = 4;
+        int threads = 4;
+        int connections = 0;
+        File dir = new File(".");
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("缺少参数值: " + arg);
+                }
+                if ("--batch".equals(arg) || "--manifest".equals(arg)) {
+                    listPath = args[++i];
+                    manifestMode = "--manifest".equals(arg);
+                } else if ("--concurrency".equals(arg)) {
+                    concurrency = Integer.parseInt(args[++i]);
+                } else if ("--threads".equals(arg)) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if ("--connections".equals(arg)) {
+                    connections = Integer.parseInt(args[++i]);
+                } else if ("--dir".equals(arg)) {
+                    dir = new File(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("未知参数: " + arg);
+                }
+            }
+            if (listPath == null) {
+                throw new IllegalArgumentException("缺少 --batch 或 --manifest 参数");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("使用方法: java DownloadMain --batch <列表文件|-> [--concurrency 任务数] [--threads 每任务线程数] [--connections 总连接数] [--dir 保存目录]");
+            System.err.println("      或: java DownloadMain --manifest <清单文件|-> [--concurrency 同时下载的对象数] [--threads 大对象线程数] [--connections 总连接数] [--dir 保存目录]");
+            return 2;
+        }
+
+        List<Entry> entries = null;
+        DownloadManifest manifest = null;
+        try (Reader reader = "-".equals(listPath)
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : new InputStreamReader(new FileInputStream(listPath), StandardCharsets.UTF_8)) {
+            if (manifestMode) {
+                manifest = DownloadManifest.parse(new BufferedReader(reader), dir);
+            } else {
+                entries = parse(new BufferedReader(reader), dir);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("读取下载列表失败: " + e.getMessage());
+            return 2;
+        }
+
+        // JVM的keep-alive连接池默认每个主机只保留5个空闲连接，超出的连接用完即关闭；按总并发数放宽，
+        // 同一主机的大量小文件可以一直复用已建立的连接（必须在发出第一个请求之前设置）
+        if (System.getProperty("http.maxConnections") == null) {
+            int pooled = connections > 0 ? connections : concurrency * threads;
+            System.setProperty("http.maxConnections", String.valueOf(Math.max(5, pooled)));
+        }
+
+        MultiThreadDownloader downloader = new MultiThreadDownloader();
+        downloader.setConsoleLogging(false);
+        ConfigManager configManager = new ConfigManager();
+        boolean adaptive = configManager.isAdaptiveConcurrency();
+        downloader.setAdaptiveConcurrency(adaptive);
+        downloader.setWriteMode(configManager.getWriteMode());
+        downloader.setWriteBufferBytes(configManager.getWriteBufferMb() * 1024L * 1024);
+        downloader.setDownloadCache(configManager.createDownloadCache());
+        downloader.setCheckpointIntervalMillis(configManager.getCheckpointIntervalMillis());
+        downloader.setSampleIntervalMillis(configManager.getSpeedSampleIntervalMillis());
+        downloader.setSmallFileThresholdBytes(configManager.getSmallFileThresholdKb() * 1024);
+        // 未指定总连接数时：自适应并发由各主机的并发控制器限制，否则按并发任务数和每任务线程数的乘积限制
+        downloader.setConnectionBudget(connections > 0 ? connections : adaptive ? 0 : concurrency * threads);
+
+        BatchDownloadRunner runner = new BatchDownloadRunner(downloader, concurrency, threads, System.err);
+        runner.setConfigManager(configManager);
+        if (manifest != null) {
+            return runner.executeManifest(manifest, new File(dir, ".manifest-" + manifest.getFingerprint() + ".progress"));
+        }
+        long begin = System.currentTimeMillis();
+        List<Result> results = runner.execute(entries);
+        System.out.println(Json.write(summary(results, System.currentTimeMillis() - begin)));
+        for (Result result : results) {
+            if (!result.isSucceeded()) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 解析下载列表
+     *
+     * @param reader  列表内容
+     * @param baseDir 相对路径和未指定路径时使用的保存目录
+     * @return 下载条目
+     */
+    static List<Entry> parse(BufferedReader reader, File baseDir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            String url = tokens[0];
+            String target = null;
+            String algorithm = null;
+            String checksum = null;
+            for (int i = 1; i < tokens.length; i++) {
+                int colon = tokens[i].indexOf(':');
+                String prefix = colon > 0 ? tokens[i].substring(0, colon).toLowerCase(Locale.ROOT) : "";
+                String digestAlgorithm = DownloadManifest.digestAlgorithm(prefix);
+                if (digestAlgorithm != null && tokens[i].substring(colon + 1).matches("[0-9a-fA-F]+")) {
+                    algorithm = digestAlgorithm;
+                    checksum = tokens[i].substring(colon + 1).toLowerCase(Locale.ROOT);
+                } else if (target == null) {
+                    target = tokens[i];
+                } else {
+                    throw new IllegalArgumentException("第" + lineNumber + "行格式错误: " + line);
+                }
+            }
+            entries.add(new Entry(url, resolveTarget(url, target, baseDir), algorithm, checksum));
+        }
+        return entries;
+    }
+
+    private static File resolveTarget(String url, String target, File baseDir) {
+        if (target == null) {
+            return new File(baseDir, MultiThreadDownloader.extractFileName(url)).getAbsoluteFile();
+        }
+        File file = new File(target);
+        return (file.isAbsolute() ? file : new File(baseDir, target)).getAbsoluteFile();
+    }
+
+    /**
+     * 以有界并发执行全部条目，返回与输入顺序一致的结果
+     */
+    public List<Result> execute(List<Entry> entries) {
+        List<Result> results = new ArrayList<>();
+        for (Entry entry : entries) {
+            results.add(new Result(entry));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        ScheduledExecutorService progressTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "batch-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        ProgressLine progressLine = new ProgressLine(results);
+        progressTimer.scheduleAtFixedRate(progressLine, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Result result : results) {
+                futures.add(executor.submit(() -> runEntry(result)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    // runEntry自身记录所有异常
+                }
+            }
+        } finally {
+            executor.shutdown();
+            progressTimer.shutdownNow();
+            progressLine.run();
+            if (progressOut != null) {
+                progressOut.println();
+            }
+        }
+        return results;
+    }
+
+    private void runEntry(Result result) {
+        Entry entry = result.entry;
+        DownloadTaskInfo taskInfo = new DownloadTaskInfo(entry.getTaskId());
+        taskInfo.setUrl(entry.getUrl());
+        // 保存路径设为所在目录并指定文件名，没有扩展名的目标（如LICENSE）不会被当作目录
+        File saveDir = entry.getTarget().getParentFile();
+        saveDir.mkdirs();
+        taskInfo.setSavePath(saveDir.getPath());
+        taskInfo.setFileName(entry.getTarget().getName());
+        taskInfo.setThreadCount(threadCount);
+        if (configManager != null) {
+            configManager.applyProfile(taskInfo);
+        }
+        result.taskInfo = taskInfo;
+
+        long begin = System.currentTimeMillis();
+        try {
+            File tempDir = new File(saveDir, ".temp-" + entry.getTaskId());
+            if (entry.getTarget().isFile() && entry.getTarget().length() > 0 && !tempDir.exists() && isAlreadyDownloaded(entry, taskInfo)) {
+                // 上一次执行已完成该条目
+                long size = entry.getTarget().length();
+                taskInfo.setFileSize(size);
+                taskInfo.setDownloadedSize(size);
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+                result.skipped = true;
+            } else {
+                downloader.download(taskInfo, null);
+                if (configManager != null) {
+                    configManager.recordTransfer(taskInfo, downloader.getConcurrencyController());
+                }
+            }
+
+            if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.COMPLETED) {
+                result.error = "下载未完成，状态: " + taskInfo.getStatus();
+            } else if (result.skipped && entry.getChecksum() != null) {
+                // 跳过前已校验
+                result.checksumVerified = true;
+            } else if (entry.getChecksum() != null) {
+                String actual = DownloadManifest.digest(entry.getTarget(), entry.getAlgorithm());
+                result.checksumVerified = actual.equals(entry.getChecksum());
+                if (!result.checksumVerified) {
+                    result.error = "校验和不匹配: " + actual;
+                }
+            }
+        } catch (Exception e) {
+            taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+            result.error = String.valueOf(e.getMessage());
+        } finally {
+            result.elapsedMillis = System.currentTimeMillis() - begin;
+            result.finished = true;
+        }
+    }
+
+    /**
+     * 目标文件已存在且没有断点目录时，判断它是否就是上次下载完成的文件：给出校验和时比较校验和，
+     * 否则与远程文件大小比较（探测结果保存在任务中，需要重新下载时不再重复探测）
+     */
+    private boolean isAlreadyDownloaded(Entry entry, DownloadTaskInfo taskInfo) throws Exception {
+        if (entry.getChecksum() != null) {
+            return entry.getChecksum().equals(DownloadManifest.digest(entry.getTarget(), entry.getAlgorithm()));
+        }
+        long remoteSize = downloader.probe(taskInfo).getSize();
+        return remoteSize >= 0 && remoteSize == entry.getTarget().length();
+    }
+
+    /**
+     * 将清单作为一个作业执行，结束后在标准输出打印JSON摘要（只列出失败的对象）
+     *
+     * @param manifest     清单
+     * @param progressFile 进度文件
+     * @return 进程退出码：0全部成功，1存在失败对象
+     */
+    public int executeManifest(DownloadManifest manifest, File progressFile) {
+        ManifestJob job = new ManifestJob(manifest, progressFile);
+        job.setConcurrency(concurrency);
+        job.setThreadsPerObject(threadCount);
+        if (configManager != null) {
+            job.setTaskConfigurer(configManager::applyProfile);
+        }
+
+        ScheduledExecutorService progressTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "batch-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        ManifestProgressLine progressLine = new ManifestProgressLine(job);
+        progressTimer.scheduleAtFixedRate(progressLine, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        long begin = System.currentTimeMillis();
+        String error = null;
+        try {
+            downloader.downloadManifest(job);
+        } catch (Exception e) {
+            error = String.valueOf(e.getMessage());
+        } finally {
+            progressTimer.shutdownNow();
+            progressLine.run();
+            if (progressOut != null) {
+                progressOut.println();
+            }
+        }
+
+        List<Object> failures = new ArrayList<>();
+        for (Map.Entry<Integer, String> failure : job.getFailures().entrySet()) {
+            DownloadManifest.Entry entry = manifest.get(failure.getKey());
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("index", failure.getKey());
+            item.put("url", entry.getUrl());
+            item.put("path", entry.getTarget().getPath());
+            item.put("error", failure.getValue());
+            failures.add(item);
+        }
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("total", manifest.size());
+        summary.put("succeeded", job.getCompletedCount());
+        summary.put("failed", manifest.size() - job.getCompletedCount());
+        summary.put("bytes", job.getDownloadedBytes());
+        summary.put("elapsedMillis", System.currentTimeMillis() - begin);
+        summary.put("status", job.getStatus());
+        summary.put("error", error);
+        summary.put("failures", failures);
+        System.out.println(Json.write(summary));
+        return error == null && job.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED ? 0 : 1;
+    }
+
+    static Map<String, Object> summary(List<Result> results, long elapsedMillis) {
+        int succeeded = 0;
+        long totalBytes = 0;
+        List<Object> tasks = new ArrayList<>();
+        for (Result result : results) {
+            if (result.isSucceeded()) {
+                succeeded++;
+            }
+            DownloadTaskInfo taskInfo = result.taskInfo;
+            long bytes = taskInfo != null ? taskInfo.getDownloadedSize() : 0;
+            totalBytes += bytes;
+
+            Map<String, Object> task = new LinkedHashMap<>();
+            task.put("id", result.entry.getTaskId());
+            task.put("url", result.entry.getUrl());
+            task.put("path", result.entry.getTarget().getPath());
+            task.put("status", taskInfo != null ? taskInfo.getStatus() : DownloadTaskInfo.TaskStatus.FAILED);
+            task.put("bytes", bytes);
+            task.put("elapsedMillis", result.elapsedMillis);
+            task.put("skipped", result.skipped);
+            task.put("checksumVerified", result.checksumVerified);
+            task.put("error", result.error);
+            tasks.add(task);
+        }
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("total", results.size());
+        summary.put("succeeded", succeeded);
+        summary.put("failed", results.size() - succeeded);
+        summary.put("bytes", totalBytes);
+        summary.put("elapsedMillis", elapsedMillis);
+        summary.put("tasks", tasks);
+        return summary;
+    }
+
+    /**
+     * 定时在同一行刷新的汇总进度
+     */
+    private class ProgressLine implements Runnable {
+        private final List<Result> results;
+        private long lastBytes;
+        private long lastNanos = System.nanoTime();
+
+        ProgressLine(List<Result> results) {
+            this.results = results;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (progressOut == null) {
+                return;
+            }
+            int done = 0;
+            int failed = 0;
+            int active = 0;
+            long downloaded = 0;
+            long total = 0;
+            for (Result result : results) {
+                DownloadTaskInfo taskInfo = result.taskInfo;
+                if (taskInfo == null) {
+                    continue;
+                }
+                downloaded += taskInfo.getDownloadedSize();
+                total += taskInfo.getFileSize();
+                if (!result.finished) {
+                    active++;
+                } else if (result.isSucceeded()) {
+                    done++;
+                } else {
+                    failed++;
+                }
+            }
+            long now = System.nanoTime();
+            double seconds = (now - lastNanos) / 1_000_000_000.0;
+            double speed = seconds > 0 ? Math.max(0, downloaded - lastBytes) / seconds : 0;
+            lastBytes = downloaded;
+            lastNanos = now;
+            progressOut.print(String.format("\r完成 %d/%d  失败 %d  进行中 %d  %.1f/%.1f MB  %.1f MB/s   ",
+                    done, results.size(), failed, active, downloaded / 1048576.0, total / 1048576.0, speed / 1048576.0));
+            progressOut.flush();
+        }
+    }
+
+    /**
+     * 定时在同一行刷新的清单作业进度
+     */
+    private class ManifestProgressLine implements Runnable {
+        private final ManifestJob job;
+        private long lastBytes;
+        private long lastNanos = System.nanoTime();
+
+        ManifestProgressLine(ManifestJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (progressOut == null) {
+                return;
+            }
+            long downloaded = job.getDownloadedBytes();
+            long now = System.nanoTime();
+            double seconds = (now - lastNanos) / 1_000_000_000.0;
+            double speed = seconds > 0 ? Math.max(0, downloaded - lastBytes) / seconds : 0;
+            lastBytes = downloaded;
+            lastNanos = now;
+            progressOut.print(String.format("\r完成 %d/%d  失败 %d  进行中 %d  %.1f/%.1f MB  %.1f MB/s   ",
+                    job.getCompletedCount(), job.getManifest().size(), job.getFailedCount(), job.getActiveCount(),
+                    downloaded / 1048576.0, job.getManifest().getTotalBytes() / 1048576.0, speed / 1048576.0));
+            progressOut.flush();
+        }
+    }
+
+    /**
+     * 下载列表中的一个条目
+     */
+    public static class Entry {
+        private final String url;
+        private final File target;
+        private final String algorithm;
+        private final String checksum;
+        private final String taskId;
+
+        public Entry(String url, File target, String algorithm, String checksum) {
+            this.url = url;
+            this.target = target;
+            this.algorithm = algorithm;
+            this.checksum = checksum;
+            this.taskId = stableTaskId(url, target);
+        }
+
+        /**
+         * 由URL和目标路径生成稳定的任务ID，保证重新执行时找到同一个临时目录
+         */
+        private static String stableTaskId(String url, File target) {
+            try {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                byte[] hash = sha1.digest((url + "\n" + target.getPath()).getBytes(StandardCharsets.UTF_8));
+                StringBuilder id = new StringBuilder("batch_");
+                for (int i = 0; i < 8; i++) {
+                    id.append(String.format("%02x", hash[i]));
+                }
+                return id.toString();
+            } catch (Exception e) {
+                return "batch_" + Integer.toHexString((url + "\n" + target.getPath()).hashCode());
+            }
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public File getTarget() {
+            return target;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+    }
+
+    /**
+     * 单个条目的执行结果
+     */
+    public static class Result {
+        private final Entry entry;
+        private volatile DownloadTaskInfo taskInfo;
+        private volatile boolean finished;
+        private volatile boolean skipped;
+        private volatile Boolean checksumVerified;
+        private volatile String error;
+        private volatile long elapsedMillis;
+
+        Result(Entry entry) {
+            this.entry = entry;
+        }
+
+        public boolean isSucceeded() {
+            return finished && error == null && taskInfo != null
+                    && taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED;
+        }
+
+        public Entry getEntry() {
+            return entry;
+        }
+
+        public DownloadTaskInfo getTaskInfo() {
+            return taskInfo;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
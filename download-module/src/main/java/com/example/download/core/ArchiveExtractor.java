@@ -0,0 +1,144 @@
+package com.example.download.core;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * 压缩包解压的公共部分：把条目路径限制在解压目录之内，并写出条目数据
+ *
+ * 解压在下载进行中执行，只读取已连续写入文件的数据，尚未下载到的部分阻塞等待。
+ * 重新开始下载（恢复或重试）时从头解压，已解压的文件被覆盖。
+ */
+abstract class ArchiveExtractor {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final File targetDir;
+    protected final Consumer<String> log;
+    private int entryCount;
+    private long extractedBytes;
+
+    /**
+     * @param targetDir 解压目录
+     * @param log       日志输出
+     */
+    ArchiveExtractor(File targetDir, Consumer<String> log) {
+        this.targetDir = targetDir.getAbsoluteFile();
+        this.log = log;
+    }
+
+    /**
+     * 解压全部条目，读到压缩包结尾后返回
+     */
+    abstract void extract() throws IOException;
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    long getExtractedBytes() {
+        return extractedBytes;
+    }
+
+    /**
+     * 将条目路径解析为解压目录中的文件，绝对路径和含 ".." 跳出解压目录的条目被拒绝
+     */
+    protected File resolveEntry(String name) throws IOException {
+        String relative = name.replace('\\', '/');
+        if (relative.startsWith("/") || relative.matches("[A-Za-z]:.*")) {
+            throw new IOException("压缩包条目使用绝对路径: " + name);
+        }
+        File file = new File(targetDir, relative).getCanonicalFile();
+        String root = targetDir.getCanonicalPath();
+        if (!file.getPath().equals(root) && !file.getPath().startsWith(root + File.separator)) {
+            throw new IOException("压缩包条目路径超出解压目录: " + name);
+        }
+        return file;
+    }
+
+    protected void createDirectory(String name) throws IOException {
+        File dir = resolveEntry(name);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("创建目录失败: " + dir);
+        }
+    }
+
+    /**
+     * 写出一个文件条目
+     *
+     * @param name 条目路径
+     * @param data 条目数据，读到结尾为止
+     * @return 写出的字节数
+     */
+    protected long writeFile(String name, InputStream data) throws IOException {
+        File file = resolveEntry(name);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("创建目录失败: " + parent);
+        }
+        long written = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = new FileOutputStream(file)) {
+            int n;
+            while ((n = data.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                written += n;
+            }
+        }
+        entryCount++;
+        extractedBytes += written;
+        return written;
+    }
+
+    /**
+     * 只读取底层流中接下来length个字节的视图，关闭时不关闭底层流；底层流提前结束时抛出EOFException
+     */
+    protected static InputStream bounded(InputStream in, long length) {
+        return new FilterInputStream(in) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n == -1) {
+                    throw new EOFException("压缩包数据不完整，缺少 " + remaining + " 字节");
+                }
+                remaining -= n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * 读取并丢弃接下来的length个字节
+     */
+    protected static void skipFully(InputStream in, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, length))];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new EOFException("压缩包数据不完整，缺少 " + remaining + " 字节");
+            }
+            remaining -= n;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.download.core;
+
+import java.util.Locale;
+
+/**
+ * 支持边下载边解压的压缩包格式，按文件扩展名识别
+ */
+public enum ArchiveFormat {
+    TAR(".tar"),
+    TAR_GZ(".tar.gz", ".tgz"),
+    ZIP(".zip");
+
+    private final String[] extensions;
+
+    ArchiveFormat(String... extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * 按文件名识别压缩包格式
+     *
+     * @param fileName 文件名
+     * @return 格式，不是支持的压缩包时返回null
+     */
+    public static ArchiveFormat detect(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        for (ArchiveFormat format : values()) {
+            for (String extension : format.extensions) {
+                if (lower.endsWith(extension)) {
+                    return format;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 去掉压缩包扩展名的文件名，用作默认的解压目录名
+     */
+    public String baseName(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : extensions) {
+            if (lower.endsWith(extension) && fileName.length() > extension.length()) {
+                return fileName.substring(0, fileName.length() - extension.length());
+            }
+        }
+        return fileName;
+    }
+}
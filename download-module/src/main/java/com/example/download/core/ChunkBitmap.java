@@ -0,0 +1,181 @@
+package com.example.download.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按区块编号记录完成情况的位图
+ *
+ * 每个区块占1位，100万个区块约125KB。置位使用CAS，工作线程可以不加锁地查询和标记区块。
+ */
+public class ChunkBitmap {
+    private final int size;
+    private final AtomicLongArray words;
+    private final AtomicInteger cardinality = new AtomicInteger();
+
+    /**
+     * @param size 区块数量
+     */
+    public ChunkBitmap(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 已置位的区块数
+     */
+    public int cardinality() {
+        return cardinality.get();
+    }
+
+    public boolean get(int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * 标记区块
+     *
+     * @return 本次调用是否改变了该位（之前未置位）
+     */
+    public boolean set(int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(word, current, current | mask));
+        cardinality.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 统计 [from, to) 范围内已置位的区块数，按64位字计数
+     */
+    public int cardinality(int from, int to) {
+        to = Math.min(to, size);
+        if (from >= to) {
+            return 0;
+        }
+        int firstWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+        int count = 0;
+        for (int word = firstWord; word <= lastWord; word++) {
+            long bits = words.get(word);
+            if (word == firstWord) {
+                bits &= -1L << from;
+            }
+            if (word == lastWord) {
+                bits &= -1L >>> (63 - ((to - 1) & 63));
+            }
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+    /**
+     * @return 当前标记的副本，之后对本位图的修改不影响副本
+     */
+    public ChunkBitmap copy() {
+        ChunkBitmap copy = new ChunkBitmap(size);
+        int count = 0;
+        for (int word = 0; word < words.length(); word++) {
+            long bits = words.get(word);
+            copy.words.set(word, bits);
+            count += Long.bitCount(bits);
+        }
+        copy.cardinality.set(count);
+        return copy;
+    }
+
+    /**
+     * 清除所有标记
+     */
+    public void clear() {
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, 0);
+        }
+        cardinality.set(0);
+    }
+
+    /**
+     * @return from及之后第一个已置位的编号，没有时返回-1
+     */
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = words.get(word) & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return index < size ? index : -1;
+            }
+            if (++word >= words.length()) {
+                return -1;
+            }
+            bits = words.get(word);
+        }
+    }
+
+    /**
+     * @return from及之后第一个未置位的编号，全部置位时返回size
+     */
+    public int nextClearBit(int from) {
+        if (from >= size) {
+            return size;
+        }
+        int word = from >>> 6;
+        long bits = ~words.get(word) & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return Math.min((word << 6) + Long.numberOfTrailingZeros(bits), size);
+            }
+            if (++word >= words.length()) {
+                return size;
+            }
+            bits = ~words.get(word);
+        }
+    }
+
+    /**
+     * 导出为字节数组（小端序，第i个区块对应第i/8个字节的第i%8位），用于写入索引文件
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[(size + 7) >>> 3];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words.get(i >>> 3) >>> ((i & 7) << 3));
+        }
+        return bytes;
+    }
+
+    /**
+     * 从 {@link #toByteArray()} 的结果恢复，超出区块数量的位被忽略
+     */
+    public static ChunkBitmap fromByteArray(int size, byte[] bytes) {
+        ChunkBitmap bitmap = new ChunkBitmap(size);
+        int limit = Math.min(bytes.length, (size + 7) >>> 3);
+        int count = 0;
+        for (int word = 0; word < bitmap.words.length(); word++) {
+            long bits = 0;
+            for (int i = 0; i < 8 && (word << 3) + i < limit; i++) {
+                bits |= (bytes[(word << 3) + i] & 0xFFL) << (i << 3);
+            }
+            int remaining = size - (word << 6);
+            if (remaining < 64) {
+                bits &= (1L << remaining) - 1;
+            }
+            bitmap.words.set(word, bits);
+            count += Long.bitCount(bits);
+        }
+        bitmap.cardinality.set(count);
+        return bitmap;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.download.core;
+
+import com.example.download.core.MultiThreadDownloader.DownloadRange;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 断点索引文件（index.txt）的读写
+ *
+ * 格式：
+ * <pre>
+ * chunks &lt;文件大小&gt; &lt;分块大小&gt;
+ * done &lt;已完成区块位图的Base64编码&gt;
+ * &lt;起始偏移&gt;-&lt;结束偏移&gt;-0-&lt;已写入文件的字节数&gt;    （每个部分完成的区块一行）
+ * </pre>
+ * 索引大小与区块数成正比（每个区块1位），100万个区块约170KB。
+ * 兼容旧格式：每个区块一行"起始偏移-结束偏移-状态"，读取后按当前区块划分换算，下次保存时改写为新格式。
+ */
+class ChunkIndex {
+    private static final String PLAN_PREFIX = "chunks ";
+    private static final String DONE_PREFIX = "done ";
+
+    private ChunkPlan plan;                                   // 索引记录的区块划分，旧格式为null
+    private byte[] done;                                      // 已完成区块位图
+    private final List<long[]> legacyCompleted = new ArrayList<>(); // 旧格式中已完成的区间 {起始, 结束}
+    private final List<long[]> partial = new ArrayList<>();         // 部分完成的区块 {起始, 结束, 已写入字节数}
+
+    private ChunkIndex() {
+    }
+
+    /**
+     * 读取索引文件，文件不存在时返回空索引
+     */
+    static ChunkIndex read(File indexFile) throws IOException {
+        ChunkIndex index = new ChunkIndex();
+        if (indexFile == null || !indexFile.isFile()) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    index.parseLine(line);
+                } catch (IllegalArgumentException e) {
+                    // 跳过损坏的行（包括NumberFormatException）
+                }
+            }
+        }
+        return index;
+    }
+
+    private void parseLine(String line) {
+        if (line.startsWith(PLAN_PREFIX)) {
+            String[] fields = line.substring(PLAN_PREFIX.length()).trim().split(" ");
+            plan = ChunkPlan.withChunkSize(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+            return;
+        }
+        if (line.startsWith(DONE_PREFIX)) {
+            done = Base64.getDecoder().decode(line.substring(DONE_PREFIX.length()).trim());
+            return;
+        }
+        // 区块行：startByte-endByte-status[-已写入字节数]，旧格式也可能只有startByte-endByte（已完成）
+        String[] parts = line.split("-");
+        long start = Long.parseLong(parts[0]);
+        long end = Long.parseLong(parts[1]);
+        if (parts.length == 4) {
+            partial.add(new long[]{start, end, Long.parseLong(parts[3])});
+        } else if (plan == null && (parts.length == 2 || (parts.length == 3 && parts[2].equals("1")))) {
+            // 只有旧格式有已完成的区块行；新格式中的这类行是写到一半的部分完成区块，忽略
+            legacyCompleted.add(new long[]{start, end});
+        }
+    }
+
+    /**
+     * @return 索引记录的区块划分，旧格式为null
+     */
+    ChunkPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return 索引是否为新格式且区块划分与给定划分一致，一致时不需要重写
+     */
+    boolean matches(ChunkPlan current) {
+        return plan != null && done != null && plan.sameAs(current);
+    }
+
+    /**
+     * 按给定的区块划分恢复已完成的区块；索引记录的划分不同时，完全落在已完成区间内的区块视为已完成
+     */
+    ChunkBitmap completedChunks(ChunkPlan current) {
+        if (matches(current)) {
+            return ChunkBitmap.fromByteArray(current.getChunkCount(), done);
+        }
+        ChunkBitmap completed = new ChunkBitmap(current.getChunkCount());
+        if (plan != null && done != null) {
+            ChunkBitmap recorded = ChunkBitmap.fromByteArray(plan.getChunkCount(), done);
+            int from = recorded.nextSetBit(0);
+            while (from >= 0) {
+                int to = recorded.nextClearBit(from);
+                markCovered(current, completed, plan.startOf(from), plan.endOf(to - 1));
+                from = recorded.nextSetBit(to);
+            }
+        }
+        for (long[] range : legacyCompleted) {
+            markCovered(current, completed, range[0], range[1]);
+        }
+        return completed;
+    }
+
+    /**
+     * 按给定的区块划分恢复部分完成区块的断点，与划分不一致或已完成的区块忽略
+     */
+    List<DownloadRange> partialRanges(ChunkPlan current, ChunkBitmap completed) {
+        List<DownloadRange> ranges = new ArrayList<>();
+        for (long[] entry : partial) {
+            int chunk = current.indexOf(entry[0], entry[1]);
+            long persisted = entry[2];
+            // 只接受区块范围内的断点，异常值按未下载处理
+            if (chunk < 0 || completed.get(chunk) || persisted <= 0 || persisted >= current.lengthOf(chunk)) {
+                continue;
+            }
+            DownloadRange range = current.range(chunk);
+            range.setReceivedBytes(persisted);
+            range.advancePersistedBytes(persisted);
+            ranges.add(range);
+        }
+        return ranges;
+    }
+
+    /**
+     * @return 索引记录的已写入文件的数据量（已完成区块加部分完成区块的断点）
+     */
+    long persistedBytes() {
+        long bytes = 0;
+        if (plan != null && done != null) {
+            bytes += plan.completedBytes(ChunkBitmap.fromByteArray(plan.getChunkCount(), done));
+        }
+        for (long[] range : legacyCompleted) {
+            bytes += range[1] - range[0] + 1;
+        }
+        for (long[] entry : partial) {
+            if (entry[2] > 0 && entry[2] < entry[1] - entry[0] + 1) {
+                bytes += entry[2];
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 写入索引文件：先写临时文件再替换，写到一半时进程退出不会损坏原有索引
+     */
+    static void write(File indexFile, ChunkPlan plan, ChunkBitmap completed, Collection<DownloadRange> partialRanges) throws IOException {
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(PLAN_PREFIX + plan.getFileSize() + " " + plan.getChunkSize());
+            writer.newLine();
+            writer.write(DONE_PREFIX + Base64.getEncoder().encodeToString(completed.toByteArray()));
+            writer.newLine();
+            for (DownloadRange range : partialRanges) {
+                // 部分完成的区块：startByte-endByte-0-已写入文件的字节数
+                if (!range.isDownloaded() && range.getPersistedBytes() > 0) {
+                    writer.write(range.getStartByte() + "-" + range.getEndByte() + "-0-" + range.getPersistedBytes());
+                    writer.newLine();
+                }
+            }
+        }
+        try {
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 将完全落在 [start, end] 内的区块标记为已完成
+     */
+    private static void markCovered(ChunkPlan plan, ChunkBitmap bitmap, long start, long end) {
+        if (plan.getChunkCount() == 0 || end < start) {
+            return;
+        }
+        long chunkSize = plan.getChunkSize();
+        long first = (start + chunkSize - 1) / chunkSize;
+        for (long i = first; i < plan.getChunkCount() && plan.endOf((int) i) <= end; i++) {
+            bitmap.set((int) i);
+        }
+    }
+}
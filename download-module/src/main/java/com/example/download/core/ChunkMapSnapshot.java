@@ -0,0 +1,114 @@
+package com.example.download.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 任务区块状态的快照，供界面绘制区块图：区块划分、已完成区块位图的副本、部分完成区块的已接收字节数，
+ * 以及正在进行的分段连接
+ *
+ * 快照的大小与区块数成正比（每个区块1位），10万个区块约12KB，可以每秒获取一次。
+ */
+public class ChunkMapSnapshot {
+    private final ChunkPlan plan;
+    private final ChunkBitmap completed;
+    private final Map<Integer, Long> partialBytes;
+    private final List<Connection> connections;
+
+    ChunkMapSnapshot(ChunkPlan plan, ChunkBitmap completed, Map<Integer, Long> partialBytes, List<Connection> connections) {
+        this.plan = plan;
+        this.completed = completed;
+        this.partialBytes = Collections.unmodifiableMap(partialBytes);
+        this.connections = Collections.unmodifiableList(connections);
+    }
+
+    public ChunkPlan getPlan() {
+        return plan;
+    }
+
+    public int getChunkCount() {
+        return plan.getChunkCount();
+    }
+
+    /**
+     * @return 已完成区块位图的副本
+     */
+    public ChunkBitmap getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return 部分完成区块的编号 -> 已接收字节数
+     */
+    public Map<Integer, Long> getPartialBytes() {
+        return partialBytes;
+    }
+
+    /**
+     * @return 正在进行的分段连接，任务未在下载时为空
+     */
+    public List<Connection> getConnections() {
+        return connections;
+    }
+
+    /**
+     * 一个正在进行的分段连接
+     */
+    public static class Connection {
+        private final String worker;
+        private final int chunkIndex;
+        private final long startByte;
+        private final long endByte;
+        private final long receivedBytes;
+        private final long elapsedMillis;
+        private final double bytesPerSecond;
+
+        /**
+         * @param worker         工作线程名
+         * @param chunkIndex     区块编号
+         * @param startByte      区块起始偏移
+         * @param endByte        区块结束偏移
+         * @param receivedBytes  区块内已接收的字节数
+         * @param elapsedMillis  本次请求已进行的时间
+         * @param bytesPerSecond 本次请求的平均速度（字节/秒）
+         */
+        Connection(String worker, int chunkIndex, long startByte, long endByte, long receivedBytes, long elapsedMillis, double bytesPerSecond) {
+            this.worker = worker;
+            this.chunkIndex = chunkIndex;
+            this.startByte = startByte;
+            this.endByte = endByte;
+            this.receivedBytes = receivedBytes;
+            this.elapsedMillis = elapsedMillis;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        public String getWorker() {
+            return worker;
+        }
+
+        public int getChunkIndex() {
+            return chunkIndex;
+        }
+
+        public long getStartByte() {
+            return startByte;
+        }
+
+        public long getEndByte() {
+            return endByte;
+        }
+
+        public long getReceivedBytes() {
+            return receivedBytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.download.core;
+
+/**
+ * 文件区块划分：按文件大小和分块大小计算出的区块序列
+ *
+ * 区块只由编号确定，起止偏移按需计算，不为每个区块创建对象；下载时只为已领取的区块创建
+ * {@link MultiThreadDownloader.DownloadRange}，区块完成情况由 {@link ChunkBitmap} 按编号记录。
+ * 文件小于10MB时分为10块，否则按配置的分块大小划分，最后一块包含剩余的字节。
+ */
+public final class ChunkPlan {
+    private static final long SMALL_FILE_THRESHOLD = 10 * 1024 * 1024;
+    private static final int SMALL_FILE_CHUNKS = 10;
+
+    private final long fileSize;
+    private final long chunkSize;
+    private final int chunkCount;
+
+    private ChunkPlan(long fileSize, long chunkSize) {
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        long count = fileSize > 0 ? (fileSize + chunkSize - 1) / chunkSize : 0;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("区块数量过多: " + count + "，请增大分块大小");
+        }
+        this.chunkCount = (int) count;
+    }
+
+    /**
+     * 按文件大小确定分块规则
+     *
+     * @param fileSize  文件大小
+     * @param chunkSize 文件不小于10MB时的分块大小，不大于0时使用defaultChunkSize
+     */
+    public static ChunkPlan of(long fileSize, long chunkSize, long defaultChunkSize) {
+        if (fileSize < SMALL_FILE_THRESHOLD) {
+            // 小于10MB时分为10块（向上取整，最后一块可能较小）
+            return new ChunkPlan(fileSize, Math.max(1, (fileSize + SMALL_FILE_CHUNKS - 1) / SMALL_FILE_CHUNKS));
+        }
+        return new ChunkPlan(fileSize, chunkSize > 0 ? chunkSize : defaultChunkSize);
+    }
+
+    /**
+     * 以指定的分块大小划分，不套用小文件规则；用于读取索引文件中记录的划分
+     */
+    public static ChunkPlan withChunkSize(long fileSize, long chunkSize) {
+        return new ChunkPlan(fileSize, Math.max(1, chunkSize));
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return 区块的起始偏移（包含）
+     */
+    public long startOf(int index) {
+        return index * chunkSize;
+    }
+
+    /**
+     * @return 区块的结束偏移（包含）
+     */
+    public long endOf(int index) {
+        return Math.min(startOf(index) + chunkSize, fileSize) - 1;
+    }
+
+    public long lengthOf(int index) {
+        return endOf(index) - startOf(index) + 1;
+    }
+
+    /**
+     * 查找起止偏移与给定范围完全一致的区块
+     *
+     * @return 区块编号，不是本划分中的区块时返回-1
+     */
+    public int indexOf(long startByte, long endByte) {
+        if (startByte < 0 || startByte >= fileSize || startByte % chunkSize != 0) {
+            return -1;
+        }
+        int index = (int) (startByte / chunkSize);
+        return endOf(index) == endByte ? index : -1;
+    }
+
+    /**
+     * 创建区块对象，下载时由任务队列按需调用
+     */
+    public MultiThreadDownloader.DownloadRange range(int index) {
+        return new MultiThreadDownloader.DownloadRange(index, startOf(index), endOf(index));
+    }
+
+    /**
+     * 统计已完成区块的总字节数，按连续的已完成区段累加
+     */
+    public long completedBytes(ChunkBitmap completed) {
+        long bytes = 0;
+        int from = completed.nextSetBit(0);
+        while (from >= 0 && from < chunkCount) {
+            int to = Math.min(completed.nextClearBit(from), chunkCount);
+            bytes += endOf(to - 1) - startOf(from) + 1;
+            from = completed.nextSetBit(to);
+        }
+        return bytes;
+    }
+
+    /**
+     * 与另一划分的区块是否完全一致
+     */
+    public boolean sameAs(ChunkPlan other) {
+        return other != null && fileSize == other.fileSize && chunkSize == other.chunkSize;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.download.core;
+
+import com.example.download.core.MultiThreadDownloader.DownloadRange;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载任务队列：按区块划分逐个生成待下载的区块，不预先为所有区块创建对象
+ *
+ * 区块来源有两个：按顺序推进的游标（跳过已完成的区块），以及放回队列的区块（重试、写入目标暂时无法接收、
+ * 恢复下载时部分完成的区块）。顺序模式下总是先取偏移最小的区块，失败重试的区块也优先处理；
+ * 乱序模式下游标按与区块数互质的步长遍历所有编号，放回的区块排在游标之后，恢复的部分完成区块最先处理。
+ */
+class ChunkQueue {
+    private final ChunkPlan plan;
+    private final ChunkBitmap completed;
+    private final boolean ordered;
+    private final Queue<DownloadRange> resumed = new ArrayDeque<>(); // 恢复下载时部分完成的区块
+    private final Queue<DownloadRange> returned;                     // 放回队列的区块
+    private final Set<Integer> seeded = new HashSet<>();             // 以对象形式入队的区块编号，游标跳过
+    private final long stride;
+    private final long offset;
+    private final long createdNanos = System.nanoTime();
+    private final int taskCount;
+    private int cursor;
+
+    /**
+     * @param plan      区块划分
+     * @param completed 已完成的区块，游标跳过这些区块
+     * @param partial   部分完成、从断点继续的区块
+     * @param ordered   是否按偏移升序领取
+     */
+    ChunkQueue(ChunkPlan plan, ChunkBitmap completed, Collection<DownloadRange> partial, boolean ordered) {
+        this.plan = plan;
+        this.completed = completed;
+        this.ordered = ordered;
+        this.returned = ordered ? new PriorityQueue<>(Comparator.comparingLong(DownloadRange::getStartByte)) : new ArrayDeque<>();
+        int count = plan.getChunkCount();
+        if (ordered || count <= 1) {
+            stride = 1;
+            offset = 0;
+        } else {
+            // 步长与区块数互质时 (k * stride + offset) mod n 遍历每个编号恰好一次
+            long s = ThreadLocalRandom.current().nextLong(count / 2, count) | 1;
+            while (gcd(s, count) != 1) {
+                s++;
+            }
+            stride = s % count;
+            offset = ThreadLocalRandom.current().nextLong(count);
+        }
+        for (DownloadRange range : partial) {
+            if (!completed.get(range.getChunkIndex()) && seeded.add(range.getChunkIndex())) {
+                range.setQueuedAtNanos(createdNanos);
+                (ordered ? returned : resumed).add(range);
+            }
+        }
+        this.taskCount = count - completed.cardinality();
+    }
+
+    /**
+     * @return 创建队列时未完成的区块数
+     */
+    int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * 放回区块
+     */
+    synchronized void offer(DownloadRange range) {
+        returned.add(range);
+        notifyAll();
+    }
+
+    /**
+     * 取出下一个区块
+     *
+     * @return 区块，超时仍没有可领取的区块时返回null
+     */
+    synchronized DownloadRange poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            DownloadRange next = takeNext();
+            if (next != null) {
+                return next;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private DownloadRange takeNext() {
+        if (!resumed.isEmpty()) {
+            return resumed.poll();
+        }
+        int index = peekCursor();
+        if (ordered) {
+            DownloadRange head = returned.peek();
+            if (head != null && (index < 0 || head.getStartByte() <= plan.startOf(index))) {
+                return returned.poll();
+            }
+        }
+        if (index >= 0) {
+            cursor++;
+            DownloadRange range = plan.range(index);
+            range.setQueuedAtNanos(createdNanos);
+            return range;
+        }
+        return returned.poll();
+    }
+
+    /**
+     * 将游标移到下一个需要下载的区块
+     *
+     * @return 区块编号，游标已遍历完时返回-1
+     */
+    private int peekCursor() {
+        int count = plan.getChunkCount();
+        while (cursor < count) {
+            if (ordered) {
+                // 连续的已完成区块一次跳过
+                cursor = completed.nextClearBit(cursor);
+                if (cursor >= count) {
+                    break;
+                }
+            }
+            int index = (int) ((cursor * stride + offset) % count);
+            if (!completed.get(index) && !seeded.contains(index)) {
+                return index;
+            }
+            cursor++;
+        }
+        return -1;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
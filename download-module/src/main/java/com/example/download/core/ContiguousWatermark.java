@@ -0,0 +1,94 @@
+package com.example.download.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连续可用字节水位：从文件开头起已完整写入文件的字节数
+ *
+ * 区块可能乱序完成，水位之后已完成的区间暂存起来，前面的空缺补齐后一并推进水位。
+ * 读取方可以等待某个偏移变为可用，在文件下载完成前开始处理已就绪的部分。
+ */
+public class ContiguousWatermark {
+    private final TreeMap<Long, Long> pending = new TreeMap<>(); // 水位之后已完成的区间：起点 -> 终点（不含）
+    private long watermark;
+    private boolean finished;
+
+    /**
+     * 清空状态，重新开始一次下载时调用
+     */
+    public synchronized void reset() {
+        pending.clear();
+        watermark = 0;
+        finished = false;
+    }
+
+    /**
+     * 记录已写入文件的区间
+     *
+     * @param start 起始偏移（包含）
+     * @param end   结束偏移（不包含）
+     */
+    public synchronized void add(long start, long end) {
+        if (end <= watermark) {
+            return;
+        }
+        if (start > watermark) {
+            // 与相邻或重叠的区间合并，暂存的区间数不超过空缺数
+            Map.Entry<Long, Long> floor = pending.floorEntry(start);
+            if (floor != null && floor.getValue() >= start) {
+                start = floor.getKey();
+                end = Math.max(end, floor.getValue());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = pending.ceilingEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                pending.remove(next.getKey());
+            }
+            pending.put(start, end);
+            return;
+        }
+        watermark = end;
+        Map.Entry<Long, Long> next;
+        while ((next = pending.firstEntry()) != null && next.getKey() <= watermark) {
+            watermark = Math.max(watermark, next.getValue());
+            pending.pollFirstEntry();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 标记下载已结束（完成、暂停或失败），等待中的调用立即返回
+     */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * @return 从文件开头起连续可用的字节数
+     */
+    public synchronized long get() {
+        return watermark;
+    }
+
+    /**
+     * 等待指定偏移处的字节可用
+     *
+     * @param offset        偏移
+     * @param timeoutMillis 最长等待时间
+     * @return 该偏移及之前的数据已可读取时返回true；超时或下载已结束仍未就绪时返回false
+     */
+    public synchronized boolean await(long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (watermark <= offset && !finished) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return watermark > offset;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.download.core;
+
+import com.example.download.metrics.DownloadMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+
+/**
+ * 直接写入：工作线程通过共享的文件通道按位置写入，不经过缓冲
+ */
+class DirectRangeSink implements RangeSink {
+    private final FileChannel channel;
+    private final String taskId;
+
+    DirectRangeSink(File file, String taskId) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        this.taskId = taskId;
+    }
+
+    @Override
+    public RangeWriter open(long offset, long length, LongConsumer onPersisted) {
+        return new PositionalWriter(channel, taskId, offset, onPersisted);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 在指定位置写入缓冲区的全部数据（按位置写入不改变通道位置，可被多个线程同时调用）
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * 从指定偏移开始按位置写入的写入器，写入即落盘，提交时立即执行回调
+     */
+    static class PositionalWriter implements RangeWriter {
+        private final FileChannel channel;
+        private final String taskId;
+        private final DownloadEventSink events = DownloadEvents.sink();
+        private final LongConsumer onPersisted;
+        private long position;
+
+        PositionalWriter(FileChannel channel, String taskId, long offset, LongConsumer onPersisted) {
+            this.channel = channel;
+            this.taskId = taskId;
+            this.position = offset;
+            this.onPersisted = onPersisted;
+        }
+
+        @Override
+        public void write(byte[] buffer, int off, int len) throws IOException {
+            long writeStartNanos = System.nanoTime();
+            writeFully(channel, ByteBuffer.wrap(buffer, off, len), position);
+            long writeNanos = System.nanoTime() - writeStartNanos;
+            DownloadMetrics.DISK_WRITE_LATENCY.observeNanos(writeNanos);
+            DownloadMetrics.BYTES_WRITTEN.add(len);
+            events.fileWrite(taskId, position, len, writeNanos);
+            position += len;
+            if (onPersisted != null) {
+                onPersisted.accept(position);
+            }
+        }
+
+        @Override
+        public void commit(Runnable onPersisted) {
+            onPersisted.run();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
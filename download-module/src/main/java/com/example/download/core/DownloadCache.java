@@ -0,0 +1,385 @@
+package com.example.download.core;
+
+import com.example.download.model.RemoteFileInfo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地下载缓存：按URL和服务器返回的校验信息（ETag、Last-Modified、文件大小）保存已下载完成的文件
+ *
+ * 再次下载同一个未变化的文件时，直接从缓存复制生成目标文件，不访问网络。
+ * <ul>
+ *     <li>服务器没有返回ETag和Last-Modified时无法判断文件是否变化，不使用缓存</li>
+ *     <li>开启内容去重后，加入缓存时计算文件的SHA-256，不同URL的相同内容只保存一份</li>
+ *     <li>缓存总大小超过上限时按最近使用时间淘汰，没有条目引用的对象文件随之删除</li>
+ *     <li>对象文件与目标文件不共享数据：下载过程会原地改写目标文件（断点续传、重新下载），硬链接会连带改写缓存对象。
+ *     对象文件的大小或修改时间与记录不符时，该条目视为失效并删除</li>
+ *     <li>命中时只更新内存中的最近使用时间，索引文件最多每{@value #ACCESS_SAVE_INTERVAL_MILLIS}毫秒保存一次，
+ *     或随下一次加入、淘汰一起保存；异常退出只会丢失这段时间内的使用顺序</li>
+ * </ul>
+ * 缓存目录结构：objects/下保存对象文件，index.txt每行记录一个条目。
+ */
+public class DownloadCache {
+    private static final String INDEX_FILE = "index.txt";
+    private static final String OBJECTS_DIR = "objects";
+    static final long ACCESS_SAVE_INTERVAL_MILLIS = 60_000;
+
+    private final File directory;
+    private final File objectsDir;
+    private final File indexFile;
+    private final long maxBytes;
+    private volatile boolean contentHashing;
+
+    // 以下字段均由this保护；entries按访问顺序排列，最久未使用的在最前
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> objectRefs = new HashMap<>();
+    private long totalBytes;
+    private boolean accessDirty;
+    private long lastSaveMillis;
+
+    /**
+     * @param directory 缓存目录，不存在时自动创建
+     * @param maxBytes  缓存总大小上限
+     */
+    public DownloadCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.objectsDir = new File(directory, OBJECTS_DIR);
+        this.indexFile = new File(directory, INDEX_FILE);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.objectsDir.mkdirs();
+        loadIndex();
+        // 退出时写出尚未保存的使用时间
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "download-cache-flush"));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isContentHashing() {
+        return contentHashing;
+    }
+
+    /**
+     * 设置加入缓存时是否按内容去重，开启后每个加入的文件需要完整读取一遍计算SHA-256
+     */
+    public void setContentHashing(boolean contentHashing) {
+        this.contentHashing = contentHashing;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * 计算缓存键
+     *
+     * @param url    文件URL
+     * @param remote HEAD请求得到的远程文件信息
+     * @return 缓存键，服务器没有返回校验信息或文件大小未知时返回null
+     */
+    public static String cacheKey(String url, RemoteFileInfo remote) {
+        if (url == null || remote == null || !remote.hasValidator() || remote.getSize() <= 0) {
+            return null;
+        }
+        return sha256Hex((url + "\n" + remote.getEtag() + "\n" + remote.getLastModified() + "\n" + remote.getSize())
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 从缓存生成目标文件
+     *
+     * @param key    缓存键
+     * @param target 目标文件，已存在时被替换
+     * @return 缓存命中并已生成目标文件时返回true
+     */
+    public boolean materialize(String key, File target) {
+        if (key == null) {
+            return false;
+        }
+        File object;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return false;
+            }
+            object = objectFile(entry.object);
+            if (!object.isFile() || object.length() != entry.size || object.lastModified() != entry.modified) {
+                removeEntry(key);
+                saveIndex();
+                return false;
+            }
+            entry.lastAccess = System.currentTimeMillis();
+            accessDirty = true;
+            if (entry.lastAccess - lastSaveMillis >= ACCESS_SAVE_INTERVAL_MILLIS) {
+                saveIndex();
+            }
+        }
+
+        // 先生成到同目录下的临时文件再替换目标，失败时不破坏已有的目标文件
+        Path targetPath = target.toPath().toAbsolutePath();
+        Path tempPath = targetPath.resolveSibling(targetPath.getFileName() + ".cache-tmp");
+        try {
+            Files.deleteIfExists(tempPath);
+            Files.copy(object.toPath(), tempPath, StandardCopyOption.REPLACE_EXISTING);
+            moveReplacing(tempPath, targetPath);
+            return true;
+        } catch (IOException e) {
+            // 对象文件可能在复制期间被淘汰，按未命中处理
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {
+                // 忽略
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 将下载完成的文件加入缓存
+     *
+     * @param key  缓存键
+     * @param file 下载完成的文件
+     * @throws IOException 读取或写入缓存目录失败
+     */
+    public void admit(String key, File file) throws IOException {
+        if (key == null || !file.isFile() || file.length() > maxBytes) {
+            return;
+        }
+        String objectName = contentHashing ? hashFile(file) : key;
+        File object = objectFile(objectName);
+
+        synchronized (this) {
+            Entry existing = entries.get(key);
+            if (existing != null && existing.object.equals(objectName) && object.isFile()) {
+                existing.lastAccess = System.currentTimeMillis();
+                saveIndex();
+                return;
+            }
+            if (existing != null) {
+                removeEntry(key);
+            }
+            // 相同内容的对象已存在时只增加引用
+            if (!objectRefs.containsKey(objectName) || !object.isFile()) {
+                Path tempPath = new File(objectsDir, objectName + ".tmp").toPath();
+                Files.deleteIfExists(tempPath);
+                Files.copy(file.toPath(), tempPath, StandardCopyOption.REPLACE_EXISTING);
+                moveReplacing(tempPath, object.toPath());
+                if (!objectRefs.containsKey(objectName)) {
+                    totalBytes += object.length();
+                }
+            }
+            Entry entry = new Entry(objectName, object.length(), object.lastModified(), System.currentTimeMillis());
+            entries.put(key, entry);
+            objectRefs.merge(objectName, 1, Integer::sum);
+            // 同一对象的其他条目记录的修改时间与对象保持一致
+            for (Entry other : entries.values()) {
+                if (other.object.equals(objectName)) {
+                    other.modified = entry.modified;
+                }
+            }
+            evict(key);
+            saveIndex();
+        }
+    }
+
+    /**
+     * 保存命中后尚未写入索引文件的最近使用时间
+     */
+    public synchronized void flush() {
+        if (accessDirty) {
+            saveIndex();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        for (String key : new ArrayList<>(entries.keySet())) {
+            removeEntry(key);
+        }
+        saveIndex();
+    }
+
+    /**
+     * 按最近使用时间淘汰条目，直到总大小不超过上限；刚加入的条目不淘汰
+     */
+    private void evict(String keepKey) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        List<String> victims = new ArrayList<>();
+        long bytes = totalBytes;
+        Map<String, Integer> refs = new HashMap<>(objectRefs);
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> candidate = iterator.next();
+            if (candidate.getKey().equals(keepKey)) {
+                continue;
+            }
+            victims.add(candidate.getKey());
+            String object = candidate.getValue().object;
+            if (refs.merge(object, -1, Integer::sum) <= 0) {
+                bytes -= candidate.getValue().size;
+            }
+        }
+        for (String victim : victims) {
+            removeEntry(victim);
+        }
+    }
+
+    private void removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        int refs = objectRefs.merge(entry.object, -1, Integer::sum);
+        if (refs <= 0) {
+            objectRefs.remove(entry.object);
+            totalBytes -= entry.size;
+            objectFile(entry.object).delete();
+        }
+    }
+
+    private File objectFile(String objectName) {
+        return new File(objectsDir, objectName);
+    }
+
+    private static void moveReplacing(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void loadIndex() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // 格式：缓存键 对象名 大小 修改时间 最近使用时间
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 5) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                    if (!objectFile(entry.object).isFile()) {
+                        continue;
+                    }
+                    entries.put(fields[0], entry);
+                    if (objectRefs.merge(entry.object, 1, Integer::sum) == 1) {
+                        totalBytes += entry.size;
+                    }
+                } catch (NumberFormatException e) {
+                    // 跳过损坏的行
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("读取缓存索引失败: " + e.getMessage());
+        }
+        // 按最近使用时间恢复访问顺序
+        List<Map.Entry<String, Entry>> loaded = new ArrayList<>(entries.entrySet());
+        loaded.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+        entries.clear();
+        for (Map.Entry<String, Entry> entry : loaded) {
+            entries.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，避免写到一半时退出导致索引损坏
+     */
+    private void saveIndex() {
+        File tempFile = new File(directory, INDEX_FILE + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    writer.write(e.getKey() + " " + entry.object + " " + entry.size + " " + entry.modified + " " + entry.lastAccess);
+                    writer.newLine();
+                }
+            }
+            moveReplacing(tempFile.toPath(), indexFile.toPath());
+            accessDirty = false;
+            lastSaveMillis = System.currentTimeMillis();
+        } catch (IOException e) {
+            System.err.println("保存缓存索引失败: " + e.getMessage());
+        }
+    }
+
+    private static String hashFile(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String sha256Hex(byte[] data) {
+        return toHex(newSha256().digest(data));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("不支持SHA-256", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        private final String object;
+        private final long size;
+        private long modified;
+        private long lastAccess;
+
+        Entry(String object, long size, long modified, long lastAccess) {
+            this.object = object;
+            this.size = size;
+            this.modified = modified;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.download.core;
+
+/**
+ * 下载生命周期事件接收器，默认实现为空操作
+ *
+ * 所有方法只接收基本类型参数，调用方不需要为事件分配对象；耗时参数单位均为纳秒。
+ */
+public interface DownloadEventSink {
+
+    /** 分段请求发出 */
+    void rangeRequested(String taskId, long startByte, long endByte);
+
+    /** 分段收到响应头 */
+    void rangeFirstByte(String taskId, long startByte, long endByte, long durationNanos);
+
+    /** 分段下载完成 */
+    void rangeCompleted(String taskId, long startByte, long endByte, long bytes, long durationNanos);
+
+    /** 分段下载失败或不完整 */
+    void rangeFailed(String taskId, long startByte, long endByte, long bytes, long durationNanos, String reason);
+
+    /** 索引文件写入，lockWaitNanos为等待索引锁的时间 */
+    void indexPersisted(String taskId, int entries, long lockWaitNanos, long durationNanos);
+
+    /** 单次文件写入 */
+    void fileWrite(String taskId, long offset, long bytes, long durationNanos);
+
+    /** 分段从进入队列到被工作线程取出的等待时间 */
+    void queueWait(String taskId, long startByte, long durationNanos);
+
+    /**
+     * 空实现
+     */
+    DownloadEventSink NOOP = new DownloadEventSink() {
+        @Override
+        public void rangeRequested(String taskId, long startByte, long endByte) {
+        }
+
+        @Override
+        public void rangeFirstByte(String taskId, long startByte, long endByte, long durationNanos) {
+        }
+
+        @Override
+        public void rangeCompleted(String taskId, long startByte, long endByte, long bytes, long durationNanos) {
+        }
+
+        @Override
+        public void rangeFailed(String taskId, long startByte, long endByte, long bytes, long durationNanos, String reason) {
+        }
+
+        @Override
+        public void indexPersisted(String taskId, int entries, long lockWaitNanos, long durationNanos) {
+        }
+
+        @Override
+        public void fileWrite(String taskId, long offset, long bytes, long durationNanos) {
+        }
+
+        @Override
+        public void queueWait(String taskId, long startByte, long durationNanos) {
+        }
+    };
+}
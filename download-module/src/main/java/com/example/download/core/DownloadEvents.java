@@ -0,0 +1,42 @@
+package com.example.download.core;
+
+/**
+ * 下载事件门面
+ *
+ * JDK 11+构建且运行时包含jdk.jfr模块时加载JFR实现（{@code JfrDownloadEventSink}，位于 src/main/java11），
+ * 否则使用空实现，Java 8构建不受影响。设置系统属性 download.jfr=false 可禁用。
+ */
+public final class DownloadEvents {
+    private static final String JFR_SINK_CLASS = "com.example.download.core.JfrDownloadEventSink";
+    private static final DownloadEventSink SINK = loadSink();
+
+    private DownloadEvents() {
+    }
+
+    /**
+     * @return 当前使用的事件接收器
+     */
+    public static DownloadEventSink sink() {
+        return SINK;
+    }
+
+    /**
+     * @return 是否启用了真实的事件实现
+     */
+    public static boolean isAvailable() {
+        return SINK != DownloadEventSink.NOOP;
+    }
+
+    private static DownloadEventSink loadSink() {
+        if ("false".equalsIgnoreCase(System.getProperty("download.jfr"))) {
+            return DownloadEventSink.NOOP;
+        }
+        try {
+            Class<?> sinkClass = Class.forName(JFR_SINK_CLASS);
+            return (DownloadEventSink) sinkClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Java 8运行时或未包含JFR实现的构建
+            return DownloadEventSink.NOOP;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.download.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 下载清单：一组 URL → 目标路径 的对象，附带可选的大小和校验和，作为一个作业整体下载
+ *
+ * 清单文件每行一个对象，格式为 {@code URL 目标路径 [大小] [算法:校验和]}，以空白分隔，
+ * 支持的校验算法为md5、sha1、sha256和sha512，以#开头的行为注释。
+ * 给出大小时下载前不再发送HEAD请求。清单内容的指纹用于判断进度记录是否属于同一份清单。
+ */
+public class DownloadManifest {
+    private final List<Entry> entries;
+    private final String fingerprint;
+    private final long totalBytes;
+
+    public DownloadManifest(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        long bytes = 0;
+        MessageDigest sha1 = newDigest("SHA-1");
+        for (Entry entry : this.entries) {
+            if (entry.getSize() > 0) {
+                bytes += entry.getSize();
+            }
+            sha1.update((entry.getUrl() + "\n" + entry.getTarget().getPath() + "\n" + entry.getSize() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        this.totalBytes = bytes;
+        this.fingerprint = toHex(sha1.digest()).substring(0, 16);
+    }
+
+    /**
+     * 解析清单
+     *
+     * @param reader  清单内容
+     * @param baseDir 相对路径使用的保存目录
+     * @return 清单
+     */
+    public static DownloadManifest parse(BufferedReader reader, File baseDir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            if (tokens.length < 2) {
+                throw new IllegalArgumentException("第" + lineNumber + "行缺少目标路径: " + line);
+            }
+            long size = -1;
+            String algorithm = null;
+            String checksum = null;
+            for (int i = 2; i < tokens.length; i++) {
+                int colon = tokens[i].indexOf(':');
+                String prefix = colon > 0 ? tokens[i].substring(0, colon).toLowerCase(Locale.ROOT) : "";
+                String digestAlgorithm = digestAlgorithm(prefix);
+                if (digestAlgorithm != null && tokens[i].substring(colon + 1).matches("[0-9a-fA-F]+")) {
+                    algorithm = digestAlgorithm;
+                    checksum = tokens[i].substring(colon + 1).toLowerCase(Locale.ROOT);
+                } else if (size < 0 && tokens[i].matches("\\d+")) {
+                    size = Long.parseLong(tokens[i]);
+                } else {
+                    throw new IllegalArgumentException("第" + lineNumber + "行格式错误: " + line);
+                }
+            }
+            File target = new File(tokens[1]);
+            entries.add(new Entry(tokens[0], (target.isAbsolute() ? target : new File(baseDir, tokens[1])).getAbsoluteFile(),
+                    size, algorithm, checksum));
+        }
+        return new DownloadManifest(entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return 已给出大小的对象的总字节数
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return 由全部条目的URL、路径和大小计算的指纹
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * 将清单中的校验算法前缀转换为 {@link MessageDigest} 的算法名
+     *
+     * @return 算法名，不支持时返回null
+     */
+    public static String digestAlgorithm(String prefix) {
+        switch (prefix) {
+            case "md5":
+                return "MD5";
+            case "sha1":
+                return "SHA-1";
+            case "sha256":
+                return "SHA-256";
+            case "sha512":
+                return "SHA-512";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 计算文件摘要（小写十六进制）
+     */
+    public static String digest(File file, String algorithm) throws IOException {
+        MessageDigest messageDigest = newDigest(algorithm);
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, n);
+            }
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("不支持的校验算法: " + algorithm, e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 清单中的一个对象
+     */
+    public static class Entry {
+        private final String url;
+        private final File target;
+        private final long size;
+        private final String algorithm;
+        private final String checksum;
+
+        /**
+         * @param url       对象URL
+         * @param target    保存路径
+         * @param size      大小，未知时为-1
+         * @param algorithm 校验算法（{@link MessageDigest}算法名），可为null
+         * @param checksum  校验和（小写十六进制），可为null
+         */
+        public Entry(String url, File target, long size, String algorithm, String checksum) {
+            this.url = url;
+            this.target = target;
+            this.size = size;
+            this.algorithm = algorithm;
+            this.checksum = checksum;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public File getTarget() {
+            return target;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+    }
+}
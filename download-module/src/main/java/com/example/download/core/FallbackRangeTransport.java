@@ -0,0 +1,51 @@
+package com.example.download.core;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带自动回退的分段传输：优先使用首选传输，连续失败达到阈值后永久切换到备用传输
+ *
+ * 首选传输失败的单次请求会立即改用备用传输重试，避免该范围被丢弃。
+ */
+class FallbackRangeTransport implements RangeTransport {
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    private final RangeTransport primary;
+    private final RangeTransport fallback;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+    private volatile boolean fallenBack = false;
+
+    FallbackRangeTransport(RangeTransport primary, RangeTransport fallback) {
+        this.primary = primary;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public RangeConnection open(String fileUrl, long startByte, long endByte) throws IOException {
+        if (!fallenBack) {
+            try {
+                RangeConnection connection = primary.open(fileUrl, startByte, endByte);
+                consecutiveFailures.set(0);
+                return connection;
+            } catch (IOException e) {
+                if (consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+                    fallenBack = true;
+                }
+            }
+        }
+        return fallback.open(fileUrl, startByte, endByte);
+    }
+
+    /**
+     * @return 是否已经回退到备用传输
+     */
+    boolean isFallenBack() {
+        return fallenBack;
+    }
+
+    @Override
+    public String getName() {
+        return fallenBack ? fallback.getName() : primary.getName() + " -> " + fallback.getName();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.download.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按主机的熔断器
+ *
+ * 同一主机连续失败达到阈值后熔断一段时间，期间该主机的区块不发出请求而是延后重新排队；
+ * 熔断时间随连续熔断次数翻倍，冷却后放行请求试探，成功一次即恢复。
+ */
+public class HostCircuitBreaker {
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MILLIS = 2_000;
+    private static final long MAX_OPEN_MILLIS = 60_000;
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    public HostCircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    public HostCircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @param host 主机名
+     * @return 熔断剩余毫秒数，0表示可以发出请求
+     */
+    public long remainingOpenMillis(String host) {
+        State state = states.get(host);
+        if (state == null) {
+            return 0;
+        }
+        synchronized (state) {
+            return Math.max(0, state.openUntilMillis - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 记录一次成功请求，清除该主机的失败计数
+     */
+    public void recordSuccess(String host) {
+        State state = states.get(host);
+        if (state != null) {
+            synchronized (state) {
+                state.consecutiveFailures = 0;
+                state.trips = 0;
+            }
+        }
+    }
+
+    /**
+     * 记录一次失败请求
+     *
+     * @return 本次失败是否触发熔断
+     */
+    public boolean recordFailure(String host) {
+        State state = states.computeIfAbsent(host, key -> new State());
+        synchronized (state) {
+            state.consecutiveFailures++;
+            long now = System.currentTimeMillis();
+            if (state.consecutiveFailures >= failureThreshold && state.openUntilMillis <= now) {
+                state.trips++;
+                long duration = Math.min(MAX_OPEN_MILLIS, openMillis << Math.min(state.trips - 1, 10));
+                state.openUntilMillis = now + duration;
+                // 冷却后的试探请求再失败一次即重新熔断
+                state.consecutiveFailures = failureThreshold - 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class State {
+        private int consecutiveFailures;
+        private int trips;
+        private long openUntilMillis;
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.download.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按主机自适应调整并发连接数的控制器（AIMD：加性增、乘性减）
+ *
+ * 每个主机维护一个并发上限，工作线程发起分段请求前需取得许可。每隔一个评估周期按该主机的总吞吐量调整上限：
+ * <ul>
+ *     <li>并发已用满且总吞吐量比上个周期提高超过5%时，上限加1；吞吐量持平若干周期后也加1进行试探</li>
+ *     <li>并发已用满、单连接吞吐量跌到历史最佳的一半以下且总吞吐量没有提高时，上限乘以0.75</li>
+ *     <li>请求出错或连接被重置时，上限减半（每个周期最多一次）</li>
+ * </ul>
+ * 总吞吐量最高时的上限作为该主机的学习值，后续任务（或长时间空闲后再次访问该主机时）从学习值开始。
+ */
+public class HostConcurrencyController {
+    private static final long EVALUATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long IDLE_RESET_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final double INCREASE_THRESHOLD = 1.05;
+    private static final double GOODPUT_DROP_RATIO = 0.5;
+    private static final double GOODPUT_DECREASE_FACTOR = 0.75;
+    private static final double ERROR_DECREASE_FACTOR = 0.5;
+    private static final int PROBE_AFTER_STABLE_WINDOWS = 5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final Map<String, Integer> learnedLimits = new ConcurrentHashMap<>();
+
+    public HostConcurrencyController(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+    }
+
+    /**
+     * 获取一个到指定主机的连接许可
+     *
+     * @param host          主机名
+     * @param initialLimit  该主机没有学习值时的初始上限（通常为任务的线程数）
+     * @param timeoutMillis 最长等待时间
+     * @return 是否取得许可，超时返回false
+     */
+    public boolean tryAcquire(String host, int initialLimit, long timeoutMillis) throws InterruptedException {
+        HostState state = hosts.computeIfAbsent(host, key -> new HostState(startLimit(key, initialLimit)));
+        synchronized (state) {
+            long now = System.nanoTime();
+            if (state.inFlight == 0 && now - state.lastActivityNanos > IDLE_RESET_NANOS) {
+                // 长时间空闲后网络状况可能已变化，从学习值重新开始
+                state.reset(startLimit(host, initialLimit), now);
+            }
+            long deadline = now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (state.inFlight >= state.limit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(state, remaining);
+            }
+            state.inFlight++;
+            state.peakInFlight = Math.max(state.peakInFlight, state.inFlight);
+            state.lastActivityNanos = System.nanoTime();
+            return true;
+        }
+    }
+
+    /**
+     * 归还连接许可，评估周期到期时调整上限
+     */
+    public void release(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.inFlight = Math.max(0, state.inFlight - 1);
+            long now = System.nanoTime();
+            state.lastActivityNanos = now;
+            if (now - state.windowStartNanos >= EVALUATION_INTERVAL_NANOS) {
+                evaluate(host, state, now);
+            }
+            state.notifyAll();
+        }
+    }
+
+    /**
+     * 记录从指定主机接收的字节数（热路径，不加锁）
+     */
+    public void recordBytes(String host, long bytes) {
+        HostState state = hosts.get(host);
+        if (state != null) {
+            state.windowBytes.add(bytes);
+        }
+    }
+
+    /**
+     * 记录一次请求错误或连接重置，上限减半
+     *
+     * @return 上限是否被调低
+     */
+    public boolean recordFailure(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            return false;
+        }
+        synchronized (state) {
+            long now = System.nanoTime();
+            if (now - state.lastDecreaseNanos < EVALUATION_INTERVAL_NANOS) {
+                return false;
+            }
+            int newLimit = Math.max(minLimit, (int) (state.limit * ERROR_DECREASE_FACTOR));
+            state.lastDecreaseNanos = now;
+            state.stableWindows = 0;
+            if (newLimit == state.limit) {
+                return false;
+            }
+            state.limit = newLimit;
+            return true;
+        }
+    }
+
+    private void evaluate(String host, HostState state, long now) {
+        double seconds = (now - state.windowStartNanos) / 1_000_000_000.0;
+        double throughput = state.windowBytes.sumThenReset() / seconds;
+        boolean saturated = state.peakInFlight >= state.limit;
+        double perConnection = throughput / Math.max(1, state.peakInFlight);
+
+        if (state.lastThroughput > 0) {
+            if (saturated && state.bestPerConnection > 0 && perConnection < state.bestPerConnection * GOODPUT_DROP_RATIO
+                    && throughput <= state.lastThroughput) {
+                // 单连接吞吐量明显下降而总量没有提高：连接过多，服务器或链路已饱和
+                state.limit = Math.max(minLimit, (int) (state.limit * GOODPUT_DECREASE_FACTOR));
+                state.lastDecreaseNanos = now;
+                state.stableWindows = 0;
+                state.bestPerConnection = perConnection;
+            } else if (saturated && throughput > state.lastThroughput * INCREASE_THRESHOLD) {
+                state.limit = Math.min(maxLimit, state.limit + 1);
+                state.stableWindows = 0;
+            } else if (saturated && ++state.stableWindows >= PROBE_AFTER_STABLE_WINDOWS) {
+                state.limit = Math.min(maxLimit, state.limit + 1);
+                state.stableWindows = 0;
+            }
+        }
+
+        if (throughput > state.bestThroughput) {
+            state.bestThroughput = throughput;
+            learnedLimits.put(host, Math.max(minLimit, state.peakInFlight));
+        }
+        state.bestPerConnection = Math.max(state.bestPerConnection, perConnection);
+        state.lastThroughput = throughput;
+        state.windowStartNanos = now;
+        state.peakInFlight = state.inFlight;
+    }
+
+    private int startLimit(String host, int initialLimit) {
+        Integer learned = learnedLimits.get(host);
+        int limit = learned != null ? learned : initialLimit;
+        return Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    /**
+     * @return 指定主机当前的并发上限，未访问过的主机返回0
+     */
+    public int getLimit(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            return 0;
+        }
+        synchronized (state) {
+            return state.limit;
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return 各主机学习到的最佳并发数
+     */
+    public Map<String, Integer> getLearnedLimits() {
+        return new HashMap<>(learnedLimits);
+    }
+
+    /**
+     * 设置主机的学习值，例如从配置中恢复上次运行的结果
+     */
+    public void setLearnedLimit(String host, int limit) {
+        learnedLimits.put(host, Math.max(minLimit, Math.min(maxLimit, limit)));
+    }
+
+    /**
+     * 单个主机的控制状态，除windowBytes外均由该对象的锁保护
+     */
+    private static class HostState {
+        private final LongAdder windowBytes = new LongAdder();
+        private int limit;
+        private int inFlight;
+        private int peakInFlight;
+        private int stableWindows;
+        private long windowStartNanos;
+        private long lastActivityNanos;
+        private long lastDecreaseNanos;
+        private double lastThroughput;
+        private double bestThroughput;
+        private double bestPerConnection;
+
+        HostState(int limit) {
+            reset(limit, System.nanoTime());
+        }
+
+        void reset(int newLimit, long now) {
+            limit = newLimit;
+            peakInFlight = inFlight;
+            stableWindows = 0;
+            windowStartNanos = now;
+            lastActivityNanos = now;
+            lastDecreaseNanos = now - EVALUATION_INTERVAL_NANOS;
+            lastThroughput = 0;
+            bestThroughput = 0;
+            bestPerConnection = 0;
+            windowBytes.reset();
+        }
+    }
+}
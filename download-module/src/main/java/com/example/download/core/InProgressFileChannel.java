@@ -0,0 +1,94 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 正在下载的文件的顺序读取通道：只读取连续可用水位以内的数据，尚未到达的部分阻塞等待
+ *
+ * 任务暂停或失败时，读完已就绪的数据后抛出异常；任务在队列中等待时继续等待。
+ */
+class InProgressFileChannel implements ReadableByteChannel {
+    private static final long WAIT_MILLIS = 200;
+
+    private final MultiThreadDownloader downloader;
+    private final DownloadTaskInfo taskInfo;
+    private FileChannel file;
+    private long position;
+    private boolean open = true;
+
+    InProgressFileChannel(MultiThreadDownloader downloader, DownloadTaskInfo taskInfo) {
+        this.downloader = downloader;
+        this.taskInfo = taskInfo;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        long available;
+        while (true) {
+            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED && position >= taskInfo.getFileSize()) {
+                return -1;
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            available = downloader.getAvailableBytes(taskInfo) - position;
+            if (available > 0) {
+                break;
+            }
+            try {
+                if (downloader.waitForOffset(taskInfo, position, WAIT_MILLIS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待数据时被中断");
+            }
+            DownloadTaskInfo.TaskStatus status = taskInfo.getStatus();
+            if (status == DownloadTaskInfo.TaskStatus.PAUSED || status == DownloadTaskInfo.TaskStatus.FAILED) {
+                throw new IOException("下载已停止（" + status + "），已读取 " + position + " 字节");
+            }
+        }
+
+        if (file == null) {
+            file = FileChannel.open(Paths.get(downloader.resolveSavePath(taskInfo)), StandardOpenOption.READ);
+        }
+        ByteBuffer slice = dst;
+        if (available < dst.remaining()) {
+            slice = dst.duplicate();
+            slice.limit(slice.position() + (int) available);
+        }
+        int n = file.read(slice, position);
+        if (n > 0) {
+            if (slice != dst) {
+                dst.position(dst.position() + n);
+            }
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        if (file != null) {
+            file.close();
+        }
+    }
+}
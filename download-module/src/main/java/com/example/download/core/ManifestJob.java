@@ -0,0 +1,299 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 清单下载作业：一份清单的全部对象作为一个作业由 {@link MultiThreadDownloader#downloadManifest(ManifestJob)} 执行
+ *
+ * 作业只保存一份紧凑的进度记录：已完成对象的位图（每个对象1位，10万个对象约12KB）、已完成的字节数，
+ * 以及失败对象的错误信息；只有正在下载的对象才临时创建任务信息，下载结束后即释放。
+ * 进度记录保存在进度文件中，格式为：
+ * <pre>
+ * manifest &lt;对象数&gt; &lt;清单指纹&gt;
+ * done &lt;已完成对象位图的Base64编码&gt;
+ * </pre>
+ * 重新执行同一份清单时跳过已完成的对象，跳过前核对目标文件仍存在且大小（以及给出的校验和）与清单一致，
+ * 不一致的对象重新下载；较大对象各自的区块断点仍保存在 .temp-{id} 中。
+ */
+public class ManifestJob {
+    private static final String MANIFEST_PREFIX = "manifest ";
+    private static final String DONE_PREFIX = "done ";
+
+    private final DownloadManifest manifest;
+    private final File progressFile;
+    private final ChunkBitmap completed;
+    private final Map<Integer, String> failures = new ConcurrentHashMap<>();            // 失败对象的编号 -> 错误信息
+    private final Map<Integer, DownloadTaskInfo> active = new ConcurrentHashMap<>();    // 正在下载的对象
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final AtomicLong completedBytes = new AtomicLong();
+    private volatile DownloadTaskInfo.TaskStatus status = DownloadTaskInfo.TaskStatus.WAITING;
+    private volatile boolean dirty;
+    private int concurrency = 16;
+    private int threadsPerObject = 4;
+    private volatile Consumer<DownloadTaskInfo> taskConfigurer;
+
+    /**
+     * @param manifest     清单
+     * @param progressFile 进度文件，为null时不保存进度
+     */
+    public ManifestJob(DownloadManifest manifest, File progressFile) {
+        this.manifest = manifest;
+        this.progressFile = progressFile;
+        this.completed = new ChunkBitmap(manifest.size());
+    }
+
+    public DownloadManifest getManifest() {
+        return manifest;
+    }
+
+    public File getProgressFile() {
+        return progressFile;
+    }
+
+    public DownloadTaskInfo.TaskStatus getStatus() {
+        return status;
+    }
+
+    void setStatus(DownloadTaskInfo.TaskStatus status) {
+        this.status = status;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * 设置同时下载的对象数，小对象在这些连接上逐个连续请求
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public int getThreadsPerObject() {
+        return threadsPerObject;
+    }
+
+    /**
+     * 设置较大对象分段下载时使用的线程数
+     */
+    public void setThreadsPerObject(int threadsPerObject) {
+        this.threadsPerObject = Math.max(1, threadsPerObject);
+    }
+
+    /**
+     * 设置对象下载开始前对任务信息的调整，例如按主机配置设置线程数、限速和请求头
+     */
+    public void setTaskConfigurer(Consumer<DownloadTaskInfo> taskConfigurer) {
+        this.taskConfigurer = taskConfigurer;
+    }
+
+    void configure(DownloadTaskInfo taskInfo) {
+        Consumer<DownloadTaskInfo> configurer = taskConfigurer;
+        if (configurer != null) {
+            configurer.accept(taskInfo);
+        }
+    }
+
+    public int getCompletedCount() {
+        return completed.cardinality();
+    }
+
+    public int getFailedCount() {
+        return failures.size();
+    }
+
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    public boolean isCompleted(int index) {
+        return completed.get(index);
+    }
+
+    /**
+     * @return 失败对象的编号和错误信息
+     */
+    public Map<Integer, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return 已下载的字节数：已完成对象的大小加正在下载的对象已下载的部分
+     */
+    public long getDownloadedBytes() {
+        long bytes = completedBytes.get();
+        for (DownloadTaskInfo taskInfo : active.values()) {
+            bytes += taskInfo.getDownloadedSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * 对象对应的任务ID，由清单指纹和编号确定，重新执行时较大对象沿用同一个 .temp-{id} 断点
+     */
+    String taskIdOf(int index) {
+        return "manifest_" + manifest.getFingerprint() + "_" + index;
+    }
+
+    /**
+     * 开始一次执行：清空失败记录，游标回到开头
+     */
+    void reset() {
+        failures.clear();
+        active.clear();
+        cursor.set(0);
+    }
+
+    /**
+     * 领取下一个未完成的对象
+     *
+     * @return 对象编号，全部领取完时返回-1
+     */
+    int nextPending() {
+        while (true) {
+            int from = cursor.get();
+            int index = completed.nextClearBit(from);
+            if (index >= manifest.size()) {
+                return -1;
+            }
+            if (cursor.compareAndSet(from, index + 1)) {
+                return index;
+            }
+        }
+    }
+
+    void activate(int index, DownloadTaskInfo taskInfo) {
+        active.put(index, taskInfo);
+    }
+
+    void deactivate(int index) {
+        active.remove(index);
+    }
+
+    Iterable<DownloadTaskInfo> activeTasks() {
+        return active.values();
+    }
+
+    void markCompleted(int index, long bytes) {
+        if (completed.set(index)) {
+            completedBytes.addAndGet(bytes);
+            dirty = true;
+        }
+        failures.remove(index);
+    }
+
+    void markFailed(int index, String error) {
+        failures.put(index, String.valueOf(error));
+    }
+
+    /**
+     * 从进度文件恢复已完成的对象；进度文件不存在或属于其他清单时从头开始。
+     * 记录为已完成但目标文件已被删除或改动的对象按未完成处理，下次保存时从记录中去掉
+     */
+    void loadProgress() throws IOException {
+        completed.clear();
+        completedBytes.set(0);
+        if (progressFile == null || !progressFile.isFile()) {
+            return;
+        }
+        int count = -1;
+        String fingerprint = null;
+        byte[] done = null;
+        try (BufferedReader reader = Files.newBufferedReader(progressFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                try {
+                    if (line.startsWith(MANIFEST_PREFIX)) {
+                        String[] fields = line.substring(MANIFEST_PREFIX.length()).trim().split(" ");
+                        count = Integer.parseInt(fields[0]);
+                        fingerprint = fields[1];
+                    } else if (line.startsWith(DONE_PREFIX)) {
+                        done = Base64.getDecoder().decode(line.substring(DONE_PREFIX.length()).trim());
+                    }
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    // 跳过损坏的行
+                }
+            }
+        }
+        if (count != manifest.size() || !manifest.getFingerprint().equals(fingerprint) || done == null) {
+            return;
+        }
+        ChunkBitmap restored = ChunkBitmap.fromByteArray(manifest.size(), done);
+        boolean changed = false;
+        for (int i = restored.nextSetBit(0); i >= 0; i = restored.nextSetBit(i + 1)) {
+            DownloadManifest.Entry entry = manifest.get(i);
+            if (isIntact(entry)) {
+                markCompleted(i, entry.getTarget().length());
+            } else {
+                changed = true;
+            }
+        }
+        dirty = changed;
+    }
+
+    /**
+     * @return 目标文件存在，且大小和校验和（清单中给出时）与清单一致
+     */
+    static boolean isIntact(DownloadManifest.Entry entry) {
+        File target = entry.getTarget();
+        if (!target.isFile() || (entry.getSize() >= 0 && target.length() != entry.getSize())) {
+            return false;
+        }
+        if (entry.getChecksum() == null) {
+            return true;
+        }
+        try {
+            return entry.getChecksum().equals(DownloadManifest.digest(target, entry.getAlgorithm()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 有新完成的对象时写入进度文件：先写临时文件再替换
+     */
+    synchronized void saveProgress() throws IOException {
+        if (progressFile == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            writeProgress();
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+    }
+
+    private void writeProgress() throws IOException {
+        File tempFile = new File(progressFile.getAbsoluteFile().getParentFile(), progressFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(MANIFEST_PREFIX + manifest.size() + " " + manifest.getFingerprint());
+            writer.newLine();
+            writer.write(DONE_PREFIX + Base64.getEncoder().encodeToString(completed.toByteArray()));
+            writer.newLine();
+        }
+        try {
+            Files.move(tempFile.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -3,9 +3,17 @@ package com.example.download.core;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -13,21 +21,75 @@ import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import com.example.download.metrics.Counter;
+import com.example.download.metrics.DownloadMetrics;
 import com.example.download.model.DownloadTaskInfo;
+import com.example.download.model.HostProfile;
+import com.example.download.model.RemoteFileInfo;
 import com.example.download.ui.DownloadGUI;
 
 public class MultiThreadDownloader {
     private static final int DEFAULT_THREAD_COUNT = 4;
     private static final int BUFFER_SIZE = 1024 * 8;
     private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024; // 默认1MB
-    private int chunkSize; // 每个任务下载的大小
-
-    // 进度监听器
-    private DownloadGUI.ProgressListener progressListener;
-    // 文件总大小
-    private long totalFileSize;
-    // 下载任务映射，用于管理正在下载的任务
+    private static final int MAX_ADAPTIVE_CONNECTIONS = 32; // 自适应并发时每个主机的连接数上限
+    private static final long QUEUE_POLL_MILLIS = 200; // 工作线程等待区块和主线程检查任务状态的间隔
+    private static final long DEFAULT_WRITE_BUFFER_BYTES = 64L * 1024 * 1024; // 写缓冲默认64MB
+    private static final long DEFAULT_PROBE_TTL_MILLIS = 5 * 60 * 1000; // 远程文件信息默认有效期5分钟
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 1000; // 区块内断点默认每秒保存一次
+    private static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 1000; // 下载速度默认每秒采样一次
+    private static final long DEFAULT_SMALL_FILE_THRESHOLD_BYTES = 1024 * 1024; // 不超过1MB的文件默认单次请求下载
+    // 下载任务映射，用于管理正在下载的任务；每个任务的分块大小、进度监听器等状态都保存在各自的上下文中，
+    // 同一引擎可以同时执行多个任务
     private Map<String, DownloadTaskContext> downloadTasks = new ConcurrentHashMap<>();
+    // 分段传输协议及对应的传输实现（HTTP/2传输在所有任务间共享，同一主机只使用一条连接）
+    private volatile TransferProtocol transferProtocol = TransferProtocol.HTTP_1_1;
+    private final HttpUrlConnectionTransport http11Transport = new HttpUrlConnectionTransport();
+    private volatile RangeTransport http2Transport;
+    // 所有任务共享的连接预算，为null时不限制同时进行的分段请求数
+    private volatile Semaphore connectionBudget;
+    // 是否将日志输出到控制台
+    private volatile boolean consoleLogging = true;
+    // 分段失败重试策略和按主机的熔断器
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private final HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+    // 按主机自适应调整并发连接数，关闭时每个任务使用固定的线程数
+    private final HostConcurrencyController concurrencyController = new HostConcurrencyController(1, MAX_ADAPTIVE_CONNECTIONS);
+    private volatile boolean adaptiveConcurrency = false;
+    // 分段数据写入方式及写缓冲容量
+    private volatile WriteMode writeMode = WriteMode.DIRECT;
+    private volatile long writeBufferBytes = DEFAULT_WRITE_BUFFER_BYTES;
+    // 本地下载缓存，为null时不使用
+    private volatile DownloadCache downloadCache;
+    private volatile long probeTtlMillis = DEFAULT_PROBE_TTL_MILLIS;
+    private volatile long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+    // 不超过该大小的文件用一个GET请求整体下载，不分段、不创建临时目录和索引文件；为0时关闭
+    private volatile long smallFileThresholdBytes = DEFAULT_SMALL_FILE_THRESHOLD_BYTES;
+    // 所有任务共用一个采样线程计算下载速度和剩余时间
+    private final TransferRateSampler rateSampler = new TransferRateSampler(DEFAULT_SAMPLE_INTERVAL_MILLIS);
+    // 所有任务共享的工作线程池，线程在任务之间复用
+    private final ExecutorService workerPool = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "download-worker-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    // 到期后将待重试区块放回任务队列
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "range-retry-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
 
     /**
      * 多线程下载文件 - 任务队列模式
@@ -47,13 +109,27 @@ public class MultiThreadDownloader {
      * @param taskInfo 任务信息对象
      */
     public void startDownload(DownloadTaskInfo taskInfo) {
+        startDownload(taskInfo, null);
+    }
+    
+    /**
+     * 开始下载任务，下载线程结束（完成、暂停或失败）后回调
+     *
+     * @param taskInfo   任务信息对象
+     * @param onFinished 下载线程结束时的回调，可为null
+     */
+    public void startDownload(DownloadTaskInfo taskInfo, Consumer<DownloadTaskInfo> onFinished) {
+        startDownload(taskInfo, onFinished, null);
+    }
+
+    private void startDownload(DownloadTaskInfo taskInfo, Consumer<DownloadTaskInfo> onFinished, StreamingRangeSink streamSink) {
         // 如果任务已经在下载中，直接返回
         if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
             return;
         }
         
         // 创建下载任务上下文
-        DownloadTaskContext context = new DownloadTaskContext();
+        DownloadTaskContext context = new DownloadTaskContext(taskInfo.getId());
         downloadTasks.put(taskInfo.getId(), context);
         
         // 更新任务状态
@@ -62,12 +138,22 @@ public class MultiThreadDownloader {
         // 启动下载线程
         Thread downloadThread = new Thread(() -> {
             try {
-                download(taskInfo, null, DEFAULT_CHUNK_SIZE);
+                download(taskInfo, null, DEFAULT_CHUNK_SIZE, streamSink, context);
             } catch (Exception e) {
                 taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
                 log("下载失败: " + e.getMessage());
+                if (streamSink != null) {
+                    streamSink.fail(e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e));
+                }
             } finally {
-                downloadTasks.remove(taskInfo.getId());
+                if (streamSink != null) {
+                    streamSink.close();
+                }
+                // 暂停后立即恢复时新一轮下载已放入自己的上下文，只移除本线程的
+                downloadTasks.remove(taskInfo.getId(), context);
+                if (onFinished != null) {
+                    onFinished.accept(taskInfo);
+                }
             }
         });
         
@@ -88,29 +174,12 @@ public class MultiThreadDownloader {
         // 获取任务上下文
         DownloadTaskContext context = downloadTasks.get(taskInfo.getId());
         if (context != null) {
-            // 统计实际已下载大小（从文件块索引）
-            try {
-                // 构建临时目录和索引文件路径
-                File saveDir = new File(taskInfo.getSavePath()).getParentFile();
-                String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskInfo.getId();
-                File tempDir = new File(tempDirPath);
-                File indexFile = new File(tempDir, "index.txt");
-                
-                // 加载已完成的范围
-                Set<DownloadRange> completedRanges = loadCompletedRanges(indexFile);
-                
-                // 计算实际已下载大小
-                long actualDownloadedSize = calculateDownloadedSize(taskInfo.getSavePath(), completedRanges, taskInfo.getFileSize());
-                
-                // 更新任务信息
+            // 统计已写入文件的数据量（已完成区块和部分完成区块的断点），与恢复下载时的起点一致
+            if (context.getPlan() != null) {
+                long actualDownloadedSize = Math.min(context.getPersistedBytes(), taskInfo.getFileSize());
                 taskInfo.setDownloadedSize(actualDownloadedSize);
-                if (context.getDownloadedBytes() != null) {
-                    context.getDownloadedBytes().set((int) actualDownloadedSize);
-                }
-                
+                context.getDownloadedBytes().set(actualDownloadedSize);
                 log("暂停时统计的实际已下载大小: " + actualDownloadedSize + " bytes");
-            } catch (Exception e) {
-                log("暂停时统计已下载大小失败: " + e.getMessage());
             }
         }
         
@@ -135,154 +204,226 @@ public class MultiThreadDownloader {
     }
 
     public void download(DownloadTaskInfo taskInfo, DownloadGUI.ProgressListener listener, int chunkSize) throws Exception {
-        this.chunkSize = chunkSize;
-        if (taskInfo == null || taskInfo.getUrl() == null || taskInfo.getSavePath() == null) {
+        download(taskInfo, listener, chunkSize, null, null);
+    }
+
+    /**
+     * @param streamSink 不为null时为流式读取，数据只写入该缓冲，不需要保存路径
+     * @param context    本次下载的任务上下文，为null时获取或创建；由调用方创建时，任务被暂停并重新开始后不会与新一轮下载共用
+     */
+    private void download(DownloadTaskInfo taskInfo, DownloadGUI.ProgressListener listener, int chunkSize, StreamingRangeSink streamSink,
+                          DownloadTaskContext context) throws Exception {
+        if (taskInfo == null || taskInfo.getUrl() == null || (taskInfo.getSavePath() == null && streamSink == null)) {
             throw new IllegalArgumentException("任务信息、文件URL和保存路径不能为空");
         }
-
-        this.progressListener = listener;
-        
-        // 获取或创建任务上下文
-        DownloadTaskContext context = downloadTasks.get(taskInfo.getId());
         if (context == null) {
-            // 恢复下载时，创建新的任务上下文
-            context = new DownloadTaskContext();
-            downloadTasks.put(taskInfo.getId(), context);
+            context = downloadTasks.computeIfAbsent(taskInfo.getId(), DownloadTaskContext::new);
         }
-        
-        String fileUrl = taskInfo.getUrl();
-        String savePath = taskInfo.getSavePath();
+
+        // 分块大小、监听器、重试策略和限速只属于本次下载，不影响同时进行的其他任务；任务的主机配置优先于全局设置
+        HostProfile profile = taskInfo.getProfile();
+        if (profile != null && profile.getChunkSize() > 0) {
+            chunkSize = profile.getChunkSize();
+        }
+        context.setChunkSize(chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE);
+        context.setListener(listener);
+        context.setRetryPolicy(retryPolicyFor(profile));
+        context.setRateLimiter(profile != null && profile.getRateLimitBytesPerSecond() > 0
+                ? new RateLimiter(profile.getRateLimitBytesPerSecond()) : null);
+        context.getWatermark().reset();
+        try {
+            downloadWithContext(taskInfo, context, streamSink);
+        } finally {
+            // 探测时保存的小文件响应未被读取（例如命中缓存或下载前出错）时关闭连接
+            RangeTransport.RangeConnection pending = context.takePendingResponse();
+            if (pending != null) {
+                pending.close();
+            }
+            // 结束后唤醒等待可用数据的调用方
+            context.getWatermark().finish();
+            finishExtraction(taskInfo, context);
+        }
+    }
+
+    private void downloadWithContext(DownloadTaskInfo taskInfo, DownloadTaskContext context, StreamingRangeSink streamSink) throws Exception {
         int threadCount = taskInfo.getThreadCount();
         
         if (threadCount <= 0) {
             threadCount = DEFAULT_THREAD_COUNT;
         }
 
-        // 从URL提取文件名
-        String fileName = extractFileName(fileUrl);
-        
-        // 检查保存路径是否是目录
-        File saveLocation = new File(savePath);
-        if (saveLocation.isDirectory()) {
-            savePath = new File(saveLocation, fileName).getAbsolutePath();
-        } else if (!saveLocation.getName().contains(".")) {
-            // 如果保存路径没有扩展名，则认为是目录
-            savePath = new File(saveLocation, fileName).getAbsolutePath();
+        taskInfo.setStatus(DownloadTaskInfo.TaskStatus.DOWNLOADING);
+
+        // 获取远程文件信息：创建任务时的探测结果在有效期内直接复用
+        // 同一引擎可能同时执行多个任务，本次下载只使用局部的文件大小
+        RemoteFileInfo previous = taskInfo.getRemoteInfo();
+        // 没有有效的探测结果且可能是小文件时，用一个分段GET代替HEAD，小文件的响应体直接作为下载数据
+        // （使用本地缓存时仍发送HEAD，避免缓存命中时白白传输数据）
+        long smallFileThreshold = streamSink == null && !taskInfo.isCompressedTransfer() ? smallFileThresholdBytes : 0;
+        RemoteFileInfo remote = null;
+        if (smallFileThreshold > 0 && downloadCache == null && (previous == null || !previous.isFresh(probeTtlMillis))) {
+            remote = probeWithSmallFileRequest(taskInfo, context, smallFileThreshold);
+        }
+        if (remote == null) {
+            remote = probe(taskInfo);
         }
+        long totalFileSize = remote.getSize();
+        taskInfo.setFileSize(totalFileSize);
 
-        // 更新任务信息
-        taskInfo.setFileName(fileName);
-        taskInfo.setStatus(DownloadTaskInfo.TaskStatus.DOWNLOADING);
+        // 分段请求直接发往重定向后的地址，省去每个分段的重定向往返
+        String fileUrl = remote.getFinalUrl() != null ? remote.getFinalUrl() : taskInfo.getUrl();
+        // 文件名确定后不再改变，保证恢复下载时写入同一个文件；没有Content-Disposition时按重定向后的地址命名
+        if (taskInfo.getFileName() == null) {
+            taskInfo.setFileName(remote.getFileName() != null ? remote.getFileName() : extractFileName(fileUrl));
+        }
+        String savePath = taskInfo.getSavePath() != null ? resolveSavePath(taskInfo) : null;
         
-        log("开始下载文件: " + fileUrl);
-        log("保存路径: " + savePath);
-        log("线程数: " + threadCount);
-        log("========================================");
+        log(context, "开始下载文件: " + taskInfo.getUrl());
+        if (!fileUrl.equals(taskInfo.getUrl())) {
+            log(context, "重定向到: " + fileUrl);
+        }
+        log(context, "保存路径: " + savePath);
+        log(context, "线程数: " + threadCount);
+        log(context, "========================================");
+        log(context, "文件大小: " + totalFileSize + " bytes");
+        if (!remote.isAcceptRanges()) {
+            log(context, "服务器未声明支持分段请求（Accept-Ranges）");
+        }
 
-        // 获取文件大小
-        this.totalFileSize = getFileSize(fileUrl);
-        taskInfo.setFileSize(totalFileSize);
-        log("文件大小: " + totalFileSize + " bytes");
+        // 上次探测之后远程文件已变化时，丢弃断点重新下载
+        if (previous != null && previous != remote && !remote.isSameContent(previous) && savePath != null) {
+            log(context, "远程文件已变化，丢弃已下载的数据重新开始");
+            cleanupTaskTempFiles(savePath, taskInfo.getId());
+            new File(savePath).delete();
+            context.setChunks(null, null);
+            context.getPartialRanges().clear();
+            context.getWatermark().reset();
+        }
 
         // 创建保存目录
-        File saveDir = new File(savePath).getParentFile();
+        File saveDir = savePath != null ? new File(savePath).getParentFile() : null;
         if (saveDir != null && !saveDir.exists()) {
             saveDir.mkdirs();
         }
 
-        // 创建空文件并设置大小
-        File downloadFile = new File(savePath);
-        try (RandomAccessFile raf = new RandomAccessFile(savePath, "rw")) {
-            // 设置文件大小
-            if (raf.length() < totalFileSize) {
-                raf.setLength(totalFileSize);
+        // 本地缓存中有未变化的同一文件时直接生成目标文件（压缩传输和流式读取不使用缓存）
+        DownloadCache cache = downloadCache;
+        String cacheKey = cache != null && streamSink == null && !taskInfo.isCompressedTransfer()
+                ? DownloadCache.cacheKey(taskInfo.getUrl(), remote) : null;
+        if (cacheKey != null) {
+            if (cache.materialize(cacheKey, new File(savePath))) {
+                DownloadMetrics.CACHE_HITS.inc();
+                taskInfo.setDownloadedSize(totalFileSize);
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+                context.getWatermark().add(0, totalFileSize);
+                // 之前中断的下载留下的临时目录不再需要
+                cleanupTaskTempFiles(savePath, taskInfo.getId());
+                log(context, "从本地缓存获取文件: " + savePath);
+                return;
             }
+            DownloadMetrics.CACHE_MISSES.inc();
         }
-        
-        // 创建临时目录和索引文件
-        String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskInfo.getId();
-        File tempDir = new File(tempDirPath);
-        if (!tempDir.exists()) {
-            tempDir.mkdirs();
-        }
-        File indexFile = new File(tempDir, "index.txt");
-        
-        // 更新上下文信息
-        context.setTempDir(tempDir);
-        context.setIndexFile(indexFile);
-        
-        // 从索引文件加载已完成的任务
-        Set<DownloadRange> completedRanges = loadCompletedRanges(indexFile);
-        if (completedRanges == null) {
-            completedRanges = new HashSet<>();
+
+        // 压缩传输：单流整体下载并边下载边解压，不使用分段和索引文件
+        if (taskInfo.isCompressedTransfer() && streamSink == null) {
+            downloadCompressed(taskInfo, context, fileUrl, savePath);
+            return;
         }
-        
-        // 生成所有文件区块的索引
-        Set<DownloadRange> allRanges = generateAllRanges(totalFileSize);
-        
-        // 合并已完成的范围状态
-        for (DownloadRange completedRange : completedRanges) {
-            for (DownloadRange range : allRanges) {
-                if (range.equals(completedRange)) {
-                    // 使用completedRange的实际状态，而不是直接设置为DOWNLOADED
-                    range.setStatus(completedRange.getStatus());
-                    break;
-                }
+
+        // 小文件：一个GET请求下载到临时文件后改名，不分段、不创建临时目录和索引文件
+        if (totalFileSize > 0 && totalFileSize <= smallFileThreshold) {
+            downloadSmallFile(taskInfo, context, fileUrl, savePath, totalFileSize);
+            if (cacheKey != null && taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
+                admitToCache(context, cache, cacheKey, savePath);
             }
+            return;
         }
-        
-        // 保存所有区块的索引（包括未下载的）到索引文件
-        saveAllRanges(indexFile, allRanges);
-        
-        // 更新上下文和任务信息
-        // 只添加状态为已下载的范围到已完成集合
-        int downloadedCount = 0;
-        for (DownloadRange range : completedRanges) {
-            if (range.isDownloaded()) {
-                context.getCompletedRanges().add(range);
-                downloadedCount++;
+
+        RangeSink sink;
+        if (streamSink != null) {
+            // 流式读取：数据只经过内存中的重排缓冲交给读取方，不创建文件和索引，也不支持断点续传
+            log(context, "流式读取: 数据不写入磁盘");
+            streamSink.setTotalSize(totalFileSize);
+            ChunkPlan plan = planChunks(totalFileSize, context.getChunkSize());
+            context.setChunks(plan, new ChunkBitmap(plan.getChunkCount()));
+            context.getPartialRanges().clear();
+            sink = streamSink;
+        } else {
+            prepareFileAndIndex(taskInfo, context, savePath, totalFileSize);
+            // 压缩包边下载边解压：解压线程读取从文件开头起已连续写入的数据
+            if (extractionFormat(taskInfo) != null) {
+                context.setExtraction(startExtraction(taskInfo, context, savePath, fileUrl, totalFileSize, openStream(taskInfo)));
             }
+            // 选择写入方式：使用写缓冲时区块按偏移顺序排队，使缓冲中的数据尽量连续
+            sink = createRangeSink(new File(savePath), taskInfo, context);
         }
-        log("从索引文件加载已完成任务数: " + downloadedCount);
-        
-        // 计算已下载的大小
-        long downloadedSize = calculateDownloadedSize(savePath, completedRanges, taskInfo.getFileSize());
-        taskInfo.setDownloadedSize(downloadedSize);
-        context.getDownloadedBytes().set((int) downloadedSize);
-        
-        // 创建任务队列
-        BlockingQueue<DownloadRange> taskQueue = new LinkedBlockingQueue<>();
-        int taskCount = generateDownloadTasks(taskQueue, allRanges);
-        log("生成下载任务数: " + taskCount);
+
+        // 创建任务队列：区块在领取时才创建。渐进模式下工作线程总是取偏移最小的区块（重试的区块也会优先），
+        // 使文件开头尽早连续可用；边下载边解压和使用写缓冲时同样按偏移顺序领取，其余情况乱序领取
+        boolean ordered = taskInfo.isProgressive() || context.getExtraction() != null || sink instanceof WriteBehindBuffer;
+        ChunkQueue taskQueue = new ChunkQueue(context.getPlan(), context.getCompletedChunks(), context.getPartialRanges(), ordered);
+        int taskCount = taskQueue.getTaskCount();
+        log(context, "生成下载任务数: " + taskCount);
         
         // 保存总任务数到上下文
         context.setTotalTasks(taskCount);
 
-        // 创建线程池
-        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        // 选择分段传输方式
+        RangeTransport transport = resolveTransport(protocolFor(taskInfo));
+        log(context, "传输方式: " + transport.getName());
+        if (context.getRateLimiter() != null) {
+            log(context, "任务限速: " + context.getRateLimiter().getBytesPerSecond() / 1024 + " KB/s");
+        }
+
+        // 自适应并发时按上限创建工作线程，实际并发数由控制器决定，线程数只作为初始值
+        HostConcurrencyController concurrency = adaptiveConcurrency ? concurrencyController : null;
+        int workerCount = concurrency != null ? Math.max(threadCount, concurrency.getMaxLimit()) : threadCount;
+
+        // 工作线程取自共享线程池
+        List<Future<?>> workers = new ArrayList<>(workerCount);
         CountDownLatch latch = new CountDownLatch(taskCount);
 
-        // 提交下载任务
-        for (int i = 0; i < threadCount; i++) {
-            executor.submit(new DownloadTask(fileUrl, savePath, taskQueue, latch, taskInfo, tempDir, indexFile, context));
-        }
+        // 定期保存已完成的区块和区块内已写入文件的位置，进程意外退出时最多重新下载一个保存间隔内的数据
+        long checkpointInterval = checkpointIntervalMillis;
+        ScheduledFuture<?> checkpoint = context.getIndexFile() != null && checkpointInterval > 0
+                ? retryScheduler.scheduleWithFixedDelay(() -> checkpointIndex(context), checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS)
+                : null;
+        context.setPeriodicCheckpoint(checkpoint != null);
 
-        // 计算下载速度和剩余时间的线程
-        DownloadSpeedCalculator speedCalculator = new DownloadSpeedCalculator(taskInfo, context);
-        Thread speedThread = new Thread(speedCalculator);
-        speedThread.setDaemon(true);
-        speedThread.start();
+        try {
+            // 提交下载任务
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(workerPool.submit(new DownloadTask(fileUrl, savePath, taskQueue, latch, taskInfo, context.getTempDir(), context.getIndexFile(), context, transport, concurrency, sink)));
+            }
 
-        // 等待所有线程完成
-        latch.await();
+            // 由共享的采样线程计算下载速度和剩余时间，以当前已下载字节数为起点
+            rateSampler.register(taskInfo, extractHost(fileUrl), () -> context.getDownloadedBytes().get());
 
-        // 停止速度计算
-        speedCalculator.stop();
-        speedThread.join();
+            // 等待所有区块完成；任务被暂停或因错误预算耗尽而失败时提前结束
+            DownloadMetrics.ACTIVE_TASKS.inc();
+            try {
+                while (!latch.await(QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                        break;
+                    }
+                }
+            } finally {
+                DownloadMetrics.ACTIVE_TASKS.dec();
+            }
 
-        // 关闭线程池
-        executor.shutdown();
-        executor.awaitTermination(1, TimeUnit.MINUTES);
+            // 等待本任务的工作线程退出，线程归还共享线程池
+            awaitWorkers(context, workers, TimeUnit.MINUTES.toMillis(1));
+        } finally {
+            rateSampler.unregister(taskInfo, context.getDownloadedBytes().get() == totalFileSize);
+            if (checkpoint != null) {
+                checkpoint.cancel(false);
+            }
+            context.setPeriodicCheckpoint(false);
+            // 写出缓冲中剩余的数据（暂停时已接收的部分也会保存）
+            sink.close();
+        }
+        // 缓冲中的数据已全部写入文件，保存各区块最终的断点
+        checkpointIndex(context);
 
         // 检查下载是否真的完成
         long finalDownloadedSize = context.getDownloadedBytes().get();
@@ -290,380 +431,1482 @@ public class MultiThreadDownloader {
             // 更新任务状态为已完成
             taskInfo.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
             taskInfo.setDownloadedSize(totalFileSize);
-            log("文件下载完成: " + savePath);
+            context.getWatermark().add(0, totalFileSize);
+            log(context, "文件下载完成: " + savePath);
             
             // 删除临时目录
-            deleteTempDir(tempDir);
+            if (context.getTempDir() != null) {
+                deleteTempDir(context.getTempDir());
+            }
+
+            if (cacheKey != null) {
+                admitToCache(context, cache, cacheKey, savePath);
+            }
         } else {
-            // 如果下载未完成且任务状态仍然是DOWNLOADING，设置为WAITING
+            // 所有区块都已结束但数据不完整时任务失败（WAITING表示在下载队列中等待，不能用于此处）
             if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
-                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.WAITING);
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+            }
+            // 更新任务的已下载大小：保存断点时为已写入文件的数据量，与恢复下载时的起点一致
+            if (context.getIndexFile() != null) {
+                finalDownloadedSize = Math.min(context.getPersistedBytes(), totalFileSize);
             }
-            // 更新任务的已下载大小
             taskInfo.setDownloadedSize(finalDownloadedSize);
-            log("文件下载暂停或部分完成，已下载: " + finalDownloadedSize + " bytes");
-            log("剩余下载区块数量: " + context.getRemainingTasks());
+            log(context, "文件下载暂停或部分完成，已下载: " + finalDownloadedSize + " bytes");
+            log(context, "剩余下载区块数量: " + context.getRemainingTasks());
         }
     }
     
     /**
-     * 下载任务上下文类，用于管理下载任务的状态
+     * 加入本地缓存，失败不影响下载结果
      */
-    private class DownloadTaskContext {
-        private Set<DownloadRange> completedRanges = new HashSet<>();
-        private AtomicInteger downloadedBytes = new AtomicInteger(0);
-        private File tempDir;
-        private File indexFile;
-        private BlockingQueue<DownloadRange> pendingTasks;
-        private int totalTasks;
-        private int completedTasks;
-        
-        public DownloadTaskContext() {
-            this.pendingTasks = new LinkedBlockingQueue<>();
-            this.completedTasks = 0;
-        }
-        
-        public File getTempDir() {
-            return tempDir;
-        }
-        
-        public void setTempDir(File tempDir) {
-            this.tempDir = tempDir;
-        }
-        
-        public File getIndexFile() {
-            return indexFile;
-        }
-        
-        public void setIndexFile(File indexFile) {
-            this.indexFile = indexFile;
-        }
-        
-        public BlockingQueue<DownloadRange> getPendingTasks() {
-            return pendingTasks;
-        }
-        
-        public int getTotalTasks() {
-            return totalTasks;
-        }
-        
-        public void setTotalTasks(int totalTasks) {
-            this.totalTasks = totalTasks;
+    private void admitToCache(DownloadTaskContext context, DownloadCache cache, String cacheKey, String savePath) {
+        try {
+            cache.admit(cacheKey, new File(savePath));
+        } catch (IOException e) {
+            log(context, "加入本地缓存失败: " + e.getMessage());
         }
-        
-        public int getCompletedTasks() {
-            return completedTasks;
+    }
+
+    /**
+     * 等待任务的所有工作线程结束，超时后不再等待
+     */
+    private void awaitWorkers(DownloadTaskContext context, List<Future<?>> workers, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Future<?> worker : workers) {
+            try {
+                worker.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                log(context, "工作线程异常结束: " + e.getCause());
+            } catch (TimeoutException e) {
+                log(context, "等待工作线程结束超时");
+                return;
+            }
         }
-        
-        public int getRemainingTasks() {
-            return totalTasks - completedTasks;
+    }
+
+    /**
+     * 创建目标文件并按文件大小预分配，从索引文件恢复区块划分、已完成的区块和部分完成区块的断点
+     */
+    private void prepareFileAndIndex(DownloadTaskInfo taskInfo, DownloadTaskContext context, String savePath, long totalFileSize) throws Exception {
+        // 创建空文件并设置大小
+        try (RandomAccessFile raf = new RandomAccessFile(savePath, "rw")) {
+            // 设置文件大小
+            if (raf.length() < totalFileSize) {
+                raf.setLength(totalFileSize);
+            }
         }
         
-        public synchronized void incrementCompletedTasks() {
-            completedTasks++;
+        // 创建临时目录和索引文件
+        File saveDir = new File(savePath).getAbsoluteFile().getParentFile();
+        String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskInfo.getId();
+        File tempDir = new File(tempDirPath);
+        if (!tempDir.exists()) {
+            tempDir.mkdirs();
         }
+        File indexFile = new File(tempDir, "index.txt");
         
-        public Set<DownloadRange> getCompletedRanges() {
-            return completedRanges;
-        }
+        // 更新上下文信息
+        context.setTempDir(tempDir);
+        context.setIndexFile(indexFile);
         
-        public void addCompletedRange(DownloadRange range) {
-            // 设置下载状态为已下载
-            range.setStatus(DownloadRange.Status.DOWNLOADED);
-            completedRanges.add(range);
+        // 从索引文件恢复已完成的区块和部分完成区块的断点
+        ChunkPlan plan = planChunks(totalFileSize, context.getChunkSize());
+        ChunkIndex index = ChunkIndex.read(indexFile);
+        ChunkBitmap completed = index.completedChunks(plan);
+        context.getPartialRanges().clear();
+        for (DownloadRange range : index.partialRanges(plan, completed)) {
+            context.addPartialRange(range);
         }
-        
-        public boolean isRangeCompleted(DownloadRange range) {
-            return completedRanges.contains(range);
+        context.setChunks(plan, completed);
+
+        // 索引文件缺失、为旧格式或与当前区块划分不一致时，按当前划分重写
+        if (!index.matches(plan)) {
+            synchronized (context) {
+                saveIndex(context);
+            }
         }
-        
-        public AtomicInteger getDownloadedBytes() {
-            return downloadedBytes;
+
+        // 按连续的已完成区段推进水位
+        int from = completed.nextSetBit(0);
+        while (from >= 0) {
+            int to = completed.nextClearBit(from);
+            context.getWatermark().add(plan.startOf(from), plan.endOf(to - 1) + 1);
+            from = completed.nextSetBit(to);
         }
-        
-        public void setDownloadedBytes(int value) {
-            downloadedBytes.set(value);
+        for (DownloadRange range : context.getPartialRanges()) {
+            context.getWatermark().add(range.getStartByte(), range.getStartByte() + range.getPersistedBytes());
         }
-    }
-    
-    /**
-     * 多线程下载文件 - 任务队列模式（带进度监听）
-     *
-     * @param fileUrl     文件URL
-     * @param savePath    保存路径
-     * @param threadCount 线程数量
-     * @param listener    进度监听器
-     * @throws Exception  下载异常
-     */
-    public void download(String fileUrl, String savePath, int threadCount, DownloadGUI.ProgressListener listener) throws Exception {
-        DownloadTaskInfo taskInfo = new DownloadTaskInfo();
-        taskInfo.setUrl(fileUrl);
-        taskInfo.setSavePath(savePath);
-        taskInfo.setThreadCount(threadCount);
+        log(context, "从索引文件加载已完成任务数: " + completed.cardinality() + "，部分完成的区块数: " + context.getPartialRanges().size());
         
-        download(taskInfo, listener, DEFAULT_CHUNK_SIZE);
+        // 计算已下载的大小
+        long downloadedSize = Math.min(context.getPersistedBytes(), totalFileSize);
+        taskInfo.setDownloadedSize(downloadedSize);
+        context.getDownloadedBytes().set(downloadedSize);
     }
 
     /**
-     * 生成下载任务队列（乱序）
+     * 执行清单下载作业：按作业的并发数从共享线程池取出工作线程，每个线程逐个领取未完成的对象下载，
+     * 上一个对象的连接读完后归还keep-alive连接池，紧接着用于下一个对象的请求。
+     * 所有对象共用引擎的连接池、连接预算、重试调度和速度采样；清单给出大小的对象不发送HEAD请求，
+     * 不超过小文件上限的对象以单个GET下载，较大的对象按区块分段下载。
+     * 已完成的对象记入作业的进度记录并定期保存，重新执行同一份清单时跳过。
      *
-     * @param taskQueue 任务队列
-     * @param fileSize  文件大小
-     * @return 任务总数
+     * @param job 清单作业
+     * @throws Exception 读取或保存进度记录失败
      */
-    /**
-     * 生成所有文件区块的索引
-     * @param fileSize 文件大小
-     * @return 所有文件区块的集合
-     */
-    public Set<DownloadRange> generateAllRanges(long fileSize) {
-        Set<DownloadRange> allRanges = new HashSet<>();
-        long start = 0;
-        long chunkSize;
-        
-        // 根据文件大小确定分块规则
-        if (fileSize < 10 * 1024 * 1024) { // < 10MB
-            // 小于10MB时默认分为10块
-            long blockSize = fileSize / 10;
-            if (blockSize == 0) blockSize = fileSize;
-            
-            for (int i = 0; i < 10; i++) {
-                long end = Math.min(start + blockSize - 1, fileSize - 1);
-                // 创建区块并设置初始状态为未下载
-                DownloadRange range = new DownloadRange(start, end, DownloadRange.Status.NOT_DOWNLOADED);
-                allRanges.add(range);
-                
-                start = end + 1;
-                if (start >= fileSize) break;
+    public void downloadManifest(ManifestJob job) throws Exception {
+        job.loadProgress();
+        job.reset();
+        job.setStatus(DownloadTaskInfo.TaskStatus.DOWNLOADING);
+        DownloadManifest manifest = job.getManifest();
+        log("开始清单下载: " + manifest.size() + " 个对象，已完成 " + job.getCompletedCount() + "，并发数 " + job.getConcurrency());
+
+        // 定期保存进度记录，进程意外退出时最多重新下载一个保存间隔内完成的对象
+        long checkpointInterval = checkpointIntervalMillis;
+        ScheduledFuture<?> checkpoint = job.getProgressFile() != null && checkpointInterval > 0
+                ? retryScheduler.scheduleWithFixedDelay(() -> saveManifestProgress(job), checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS)
+                : null;
+        int workerCount = Math.max(1, Math.min(job.getConcurrency(), manifest.size() - job.getCompletedCount()));
+        List<Future<?>> workers = new ArrayList<>(workerCount);
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(workerPool.submit(() -> runManifestWorker(job)));
             }
-        } else {
-            // 超过10MB的每个文件块大小为1Mb
-            chunkSize = 1024 * 1024;
-            
-            // 生成所有下载任务
-            while (start < fileSize) {
-                long end = Math.min(start + chunkSize - 1, fileSize - 1);
-                // 创建区块并设置初始状态为未下载
-                DownloadRange range = new DownloadRange(start, end, DownloadRange.Status.NOT_DOWNLOADED);
-                allRanges.add(range);
-                
-                start = end + 1;
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    log("清单工作线程异常结束: " + e.getCause());
+                }
+            }
+        } finally {
+            if (checkpoint != null) {
+                checkpoint.cancel(false);
             }
+            job.saveProgress();
         }
-        
-        return allRanges;
+
+        if (job.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+            job.setStatus(job.getCompletedCount() == manifest.size()
+                    ? DownloadTaskInfo.TaskStatus.COMPLETED : DownloadTaskInfo.TaskStatus.FAILED);
+        }
+        log("清单下载结束: 完成 " + job.getCompletedCount() + "/" + manifest.size() + "，失败 " + job.getFailedCount());
     }
-    
+
     /**
-     * 生成下载任务队列（只包含未完成的任务）
-     * @param taskQueue 任务队列
-     * @param allRanges 所有文件区块
-     * @return 任务总数
+     * 暂停清单下载作业，正在下载的对象一并暂停，较大对象的区块断点保留
      */
-    private int generateDownloadTasks(BlockingQueue<DownloadRange> taskQueue, Set<DownloadRange> allRanges) {
-        List<DownloadRange> tasks = new ArrayList<>();
-        
-        // 只添加未完成的任务
-        for (DownloadRange range : allRanges) {
-            if (!range.isDownloaded()) {
-                tasks.add(range);
-            }
+    public void pauseManifest(ManifestJob job) {
+        if (job.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+            return;
         }
+        job.setStatus(DownloadTaskInfo.TaskStatus.PAUSED);
+        for (DownloadTaskInfo taskInfo : job.activeTasks()) {
+            pauseDownload(taskInfo);
+        }
+    }
 
-        // 随机打乱任务顺序
-        Collections.shuffle(tasks);
-
-        // 将乱序后的任务放入队列
-        for (DownloadRange task : tasks) {
-            taskQueue.offer(task);
+    private void saveManifestProgress(ManifestJob job) {
+        try {
+            job.saveProgress();
+        } catch (IOException e) {
+            log("保存清单进度失败: " + e.getMessage());
         }
+    }
 
-        return tasks.size();
+    private void runManifestWorker(ManifestJob job) {
+        int index;
+        while (job.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING && (index = job.nextPending()) >= 0) {
+            downloadManifestEntry(job, index);
+        }
     }
-    
+
     /**
-     * 保存所有文件区块的索引到文件
-     * @param indexFile 索引文件
-     * @param allRanges 所有文件区块
+     * 下载清单中的一个对象：只在下载期间创建任务信息，结束后记入作业的进度记录
      */
-    public void saveAllRanges(File indexFile, Set<DownloadRange> allRanges) throws Exception {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(indexFile))) {
-            for (DownloadRange range : allRanges) {
-                // 格式：startByte-endByte-status
-                // status: 1=已下载, 0=未下载
-                int statusValue = range.isDownloaded() ? 1 : 0;
-                writer.write(range.getStartByte() + "-" + range.getEndByte() + "-" + statusValue);
-                writer.newLine();
+    private void downloadManifestEntry(ManifestJob job, int index) {
+        DownloadManifest.Entry entry = job.getManifest().get(index);
+        File target = entry.getTarget();
+        DownloadTaskInfo taskInfo = new DownloadTaskInfo(job.taskIdOf(index));
+        taskInfo.setUrl(entry.getUrl());
+        // 保存路径设为所在目录并指定文件名，没有扩展名的对象名不会被当作目录
+        File saveDir = target.getAbsoluteFile().getParentFile();
+        saveDir.mkdirs();
+        taskInfo.setSavePath(saveDir.getPath());
+        taskInfo.setFileName(target.getName());
+        taskInfo.setThreadCount(job.getThreadsPerObject());
+        job.configure(taskInfo);
+        // 先放入本次下载的上下文，结束时只移除自己的，不影响同一对象随后开始的下载
+        DownloadTaskContext context = new DownloadTaskContext(taskInfo.getId());
+        downloadTasks.put(taskInfo.getId(), context);
+        job.activate(index, taskInfo);
+        try {
+            boolean verified = false;
+            if (entry.getSize() >= 0 && !new File(saveDir, ".temp-" + taskInfo.getId()).exists() && ManifestJob.isIntact(entry)) {
+                // 进度记录中没有但目标文件已完整（例如上次在保存进度前退出），校验和不一致时重新下载
+                verified = true;
+                taskInfo.setDownloadedSize(entry.getSize());
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+            } else {
+                if (entry.getSize() >= 0) {
+                    // 清单已给出大小，不再发送HEAD请求
+                    taskInfo.setRemoteInfo(new RemoteFileInfo(entry.getSize(), null, null, true, null, null, null, System.currentTimeMillis()));
+                }
+                if (job.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                    return;
+                }
+                download(taskInfo, null, DEFAULT_CHUNK_SIZE, null, context);
             }
-        }
-    }
-    
-    /**
-     * 从索引文件加载已完成的下载范围
-     */
-    private Set<DownloadRange> loadCompletedRanges(File indexFile) throws Exception {
-        Set<DownloadRange> completedRanges = new HashSet<>();
-        
-        if (indexFile.exists() && indexFile.isFile()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty()) continue;
-                    
-                    // 格式：startByte-endByte-status
-                    String[] parts = line.split("-");
-                    if (parts.length == 3) {
-                        try {
-                            long start = Long.parseLong(parts[0]);
-                            long end = Long.parseLong(parts[1]);
-                            String statusStr = parts[2];
-                            DownloadRange.Status status = statusStr.equals("1") ? DownloadRange.Status.DOWNLOADED : DownloadRange.Status.NOT_DOWNLOADED;
-                            DownloadRange range = new DownloadRange(start, end, status);
-                            completedRanges.add(range);
-                        } catch (NumberFormatException e) {
-                            log("解析索引文件行失败: " + line);
-                        }
-                    } else if (parts.length == 2) {
-                        // 兼容旧格式：startByte-endByte
-                        try {
-                            long start = Long.parseLong(parts[0]);
-                            long end = Long.parseLong(parts[1]);
-                            completedRanges.add(new DownloadRange(start, end, DownloadRange.Status.DOWNLOADED));
-                        } catch (NumberFormatException e) {
-                            log("解析索引文件行失败: " + line);
-                        }
+
+            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
+                if (entry.getChecksum() != null && !verified) {
+                    String actual = DownloadManifest.digest(target, entry.getAlgorithm());
+                    if (!actual.equals(entry.getChecksum())) {
+                        job.markFailed(index, "校验和不匹配: " + actual);
+                        return;
                     }
                 }
+                job.markCompleted(index, target.length());
+            } else if (job.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                job.markFailed(index, "下载未完成，状态: " + taskInfo.getStatus());
             }
+        } catch (Exception e) {
+            log("清单对象下载失败: " + entry.getUrl() + " - " + e.getMessage());
+            job.markFailed(index, e.getMessage());
+        } finally {
+            job.deactivate(index);
+            downloadTasks.remove(taskInfo.getId(), context);
         }
-        
-        return completedRanges;
     }
-    
+
     /**
-     * 保存已完成的下载范围到索引文件
+     * 小文件下载：一个GET请求将响应体写入保存目录下的临时文件，大小校验通过后改名为目标文件。
+     * 不分段，也不创建临时目录和索引文件；暂停或失败时删除临时文件，恢复下载时从头开始。
+     * 探测时已收到的响应直接读取，否则通过分段传输发起请求，连接读完后归还连接池供下一个文件复用。
+     *
+     * @param taskInfo      任务信息对象
+     * @param context       任务上下文
+     * @param fileUrl       文件URL
+     * @param savePath      保存路径
+     * @param totalFileSize 文件大小
+     * @throws Exception 下载异常
      */
-    private void saveCompletedRanges(File indexFile, Set<DownloadRange> completedRanges) throws Exception {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(indexFile))) {
-            for (DownloadRange range : completedRanges) {
-                // 格式：startByte-endByte-status
-                // status: 1=已下载, 0=未下载
-                int statusValue = range.isDownloaded() ? 1 : 0;
-                writer.write(range.getStartByte() + "-" + range.getEndByte() + "-" + statusValue);
-                writer.newLine();
-            }
+    private void downloadSmallFile(DownloadTaskInfo taskInfo, DownloadTaskContext context, String fileUrl, String savePath, long totalFileSize) throws Exception {
+        log(context, "小文件下载: 单个请求，不分段");
+        // 之前以分段方式中断的下载留下的临时目录和断点不再使用
+        cleanupTaskTempFiles(savePath, taskInfo.getId());
+        context.setChunks(null, null);
+        context.getPartialRanges().clear();
+        context.getDownloadedBytes().set(0);
+        taskInfo.setDownloadedSize(0);
+
+        File target = new File(savePath);
+        File partFile = new File(savePath + ".part");
+        RangeTransport.RangeConnection connection = context.takePendingResponse();
+        if (connection == null) {
+            connection = resolveTransport(protocolFor(taskInfo)).open(fileUrl, 0, totalFileSize - 1);
+        }
+
+        Counter hostBytesReceived = DownloadMetrics.hostBytesReceived(extractHost(fileUrl));
+        rateSampler.register(taskInfo, extractHost(fileUrl), () -> context.getDownloadedBytes().get());
+        DownloadMetrics.ACTIVE_TASKS.inc();
+        DownloadMetrics.ACTIVE_CONNECTIONS.inc();
+        long received = 0;
+        boolean completed = false;
+        try (RangeTransport.RangeConnection response = connection;
+             FileChannel outputChannel = FileChannel.open(partFile.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int statusCode = response.getStatusCode();
+            if (statusCode != HttpURLConnection.HTTP_OK && statusCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("小文件下载请求失败，HTTP状态码: " + statusCode);
+            }
+
+            InputStream input = response.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            RateLimiter limiter = context.getRateLimiter();
+            int readLimit = limiter != null ? Math.min(buffer.length, limiter.getMaxReadBytes()) : buffer.length;
+            int bytesRead;
+            // 读到流结束，连接才能被复用
+            while ((bytesRead = input.read(buffer, 0, readLimit)) != -1) {
+                if (limiter != null) {
+                    limiter.acquire(bytesRead);
+                }
+                if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                    log(context, "小文件下载已暂停");
+                    break;
+                }
+                if (received + bytesRead > totalFileSize) {
+                    throw new IOException("响应数据超过文件大小: " + totalFileSize + " bytes");
+                }
+                DownloadMetrics.BYTES_RECEIVED.add(bytesRead);
+                hostBytesReceived.add(bytesRead);
+                byteBuffer.clear().limit(bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    outputChannel.write(byteBuffer);
+                }
+                DownloadMetrics.BYTES_WRITTEN.add(bytesRead);
+
+                received += bytesRead;
+                context.getDownloadedBytes().set(received);
+                taskInfo.setDownloadedSize(received);
+                DownloadGUI.ProgressListener listener = context.getListener();
+                if (listener != null) {
+                    listener.onProgress(received, totalFileSize);
+                }
+            }
+            completed = bytesRead == -1 && received == totalFileSize;
+        } finally {
+            DownloadMetrics.ACTIVE_CONNECTIONS.dec();
+            DownloadMetrics.ACTIVE_TASKS.dec();
+            rateSampler.unregister(taskInfo, completed);
+            if (!completed) {
+                partFile.delete();
+            }
+        }
+
+        if (completed) {
+            try {
+                Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            DownloadMetrics.SMALL_FILES.inc();
+            taskInfo.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+            context.getWatermark().add(0, totalFileSize);
+            log(context, "文件下载完成: " + savePath);
+        } else {
+            // 没有断点，暂停或失败后从头下载
+            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+            }
+            context.getDownloadedBytes().set(0);
+            taskInfo.setDownloadedSize(0);
+            log(context, "小文件下载未完成，已接收: " + received + " bytes");
+        }
+    }
+
+    /**
+     * 压缩传输模式下载：请求时携带Accept-Encoding，服务器返回gzip/deflate编码时在流水线中
+     * 直接解压写入输出通道。分别统计网络传输字节数和解压后的字节数。
+     *
+     * @param taskInfo 任务信息对象
+     * @param context  任务上下文
+     * @param fileUrl  文件URL
+     * @param savePath 保存路径
+     * @throws Exception 下载异常
+     */
+    private void downloadCompressed(DownloadTaskInfo taskInfo, DownloadTaskContext context, String fileUrl, String savePath) throws Exception {
+        HttpURLConnection conn = openConnectionWithProxy(new URL(fileUrl));
+        conn.setRequestMethod("GET");
+        conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(5000);
+
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            conn.disconnect();
+            throw new IOException("压缩传输请求失败，HTTP状态码: " + conn.getResponseCode());
+        }
+
+        String contentEncoding = conn.getContentEncoding();
+        log(context, "压缩传输，Content-Encoding: " + (contentEncoding != null ? contentEncoding : "identity"));
+
+        // 压缩流无法从中间恢复，每次都从头开始
+        context.getDownloadedBytes().set(0);
+        taskInfo.setDownloadedSize(0);
+        taskInfo.setTransferredBytes(0);
+
+        AtomicLong wireBytes = new AtomicLong();
+        Counter hostBytesReceived = DownloadMetrics.hostBytesReceived(extractHost(fileUrl));
+        rateSampler.register(taskInfo, extractHost(fileUrl), () -> context.getDownloadedBytes().get());
+        DownloadMetrics.ACTIVE_TASKS.inc();
+        DownloadMetrics.ACTIVE_CONNECTIONS.inc();
+        boolean completed = false;
+        try (InputStream wireStream = new FilterInputStream(conn.getInputStream()) {
+                 @Override
+                 public int read() throws IOException {
+                     int b = super.read();
+                     if (b != -1) {
+                         wireBytes.incrementAndGet();
+                         DownloadMetrics.BYTES_RECEIVED.inc();
+                         hostBytesReceived.inc();
+                     }
+                     return b;
+                 }
+
+                 @Override
+                 public int read(byte[] b, int off, int len) throws IOException {
+                     int n = super.read(b, off, len);
+                     if (n > 0) {
+                         wireBytes.addAndGet(n);
+                         DownloadMetrics.BYTES_RECEIVED.add(n);
+                         hostBytesReceived.add(n);
+                     }
+                     return n;
+                 }
+             };
+             InputStream decodedStream = decodeContent(wireStream, contentEncoding);
+             FileChannel outputChannel = FileChannel.open(new File(savePath).toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            RateLimiter limiter = context.getRateLimiter();
+            int readLimit = limiter != null ? Math.min(buffer.length, limiter.getMaxReadBytes()) : buffer.length;
+            int bytesRead;
+            while ((bytesRead = decodedStream.read(buffer, 0, readLimit)) != -1) {
+                if (limiter != null) {
+                    limiter.acquire(bytesRead);
+                }
+                if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                    log(context, "压缩传输已暂停");
+                    break;
+                }
+                byteBuffer.clear().limit(bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    outputChannel.write(byteBuffer);
+                }
+                DownloadMetrics.BYTES_WRITTEN.add(bytesRead);
+
+                long decoded = context.getDownloadedBytes().addAndGet(bytesRead);
+                taskInfo.setDownloadedSize(decoded);
+                context.getWatermark().add(decoded - bytesRead, decoded);
+                taskInfo.setTransferredBytes(wireBytes.get());
+                DownloadGUI.ProgressListener listener = context.getListener();
+                if (listener != null) {
+                    listener.onProgress(decoded, taskInfo.getFileSize());
+                    listener.onTransferProgress(wireBytes.get(), decoded);
+                }
+            }
+            completed = bytesRead == -1 && (taskInfo.getFileSize() <= 0 || context.getDownloadedBytes().get() == taskInfo.getFileSize());
+        } finally {
+            conn.disconnect();
+            DownloadMetrics.ACTIVE_CONNECTIONS.dec();
+            DownloadMetrics.ACTIVE_TASKS.dec();
+            rateSampler.unregister(taskInfo, completed);
+        }
+
+        long decodedSize = context.getDownloadedBytes().get();
+        taskInfo.setTransferredBytes(wireBytes.get());
+        if (completed) {
+            taskInfo.setFileSize(decodedSize);
+            taskInfo.setDownloadedSize(decodedSize);
+            taskInfo.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+            log(context, "压缩传输完成: 网络传输 " + wireBytes.get() + " bytes, 解压后 " + decodedSize + " bytes");
+        } else {
+            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+            }
+            taskInfo.setDownloadedSize(decodedSize);
+            log(context, "压缩传输未完成，已解压: " + decodedSize + " bytes");
+        }
+    }
+
+    /**
+     * 根据Content-Encoding包装解压流
+     */
+    private InputStream decodeContent(InputStream wireStream, String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) {
+            return wireStream;
+        }
+        if (contentEncoding.equalsIgnoreCase("gzip") || contentEncoding.equalsIgnoreCase("x-gzip")) {
+            return new GZIPInputStream(wireStream, BUFFER_SIZE);
+        }
+        if (contentEncoding.equalsIgnoreCase("deflate")) {
+            return new InflaterInputStream(wireStream, new Inflater(), BUFFER_SIZE);
+        }
+        throw new IOException("不支持的Content-Encoding: " + contentEncoding);
+    }
+
+    /**
+     * 下载任务上下文类，用于管理下载任务的状态
+     *
+     * 一次下载用到的所有可变状态（分块大小、进度监听器、已下载字节数、区块完成情况等）都保存在这里，
+     * 引擎本身只保存所有任务共享的线程池、连接预算和配置，因此同一引擎可以同时执行多个任务。
+     */
+    private class DownloadTaskContext {
+        private final String taskId;
+        private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+        private volatile DownloadGUI.ProgressListener listener;
+        private volatile ChunkPlan plan;              // 区块划分
+        private volatile ChunkBitmap completedChunks; // 已完成的区块，按编号记录
+        private final AtomicLong downloadedBytes = new AtomicLong(0);
+        private File tempDir;
+        private File indexFile;
+        private BlockingQueue<DownloadRange> pendingTasks;
+        private int totalTasks;
+        private int completedTasks;
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private final ContiguousWatermark watermark = new ContiguousWatermark();
+        private final Set<DownloadRange> partialRanges = ConcurrentHashMap.newKeySet(); // 有数据写入文件但尚未完成的区块
+        private volatile boolean checkpointDirty;
+        private volatile boolean periodicCheckpoint; // 是否由定时任务保存索引
+        private volatile RangeTransport.RangeConnection pendingResponse; // 探测时已收到响应头、尚未读取响应体的小文件请求
+        private volatile RetryPolicy retryPolicy;     // 本次下载的重试策略
+        private volatile RateLimiter rateLimiter;     // 本次下载的限速器，不限速时为null
+        private final Map<String, ActiveConnection> activeConnections = new ConcurrentHashMap<>(); // 工作线程名 -> 正在进行的连接
+        private volatile Extraction extraction;       // 与下载并行的解压，不解压时为null
+        
+        public DownloadTaskContext(String taskId) {
+            this.taskId = taskId;
+            this.pendingTasks = new LinkedBlockingQueue<>();
+            this.completedTasks = 0;
+        }
+        
+        public String getTaskId() {
+            return taskId;
+        }
+        
+        public int getChunkSize() {
+            return chunkSize;
+        }
+        
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+        
+        public DownloadGUI.ProgressListener getListener() {
+            return listener;
+        }
+        
+        public void setListener(DownloadGUI.ProgressListener listener) {
+            this.listener = listener;
+        }
+        
+        public File getTempDir() {
+            return tempDir;
+        }
+        
+        public void setTempDir(File tempDir) {
+            this.tempDir = tempDir;
+        }
+        
+        public File getIndexFile() {
+            return indexFile;
+        }
+        
+        public void setIndexFile(File indexFile) {
+            this.indexFile = indexFile;
+        }
+        
+        public RetryPolicy getRetryPolicy() {
+            return retryPolicy != null ? retryPolicy : MultiThreadDownloader.this.retryPolicy;
+        }
+        
+        public void setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+        }
+        
+        public Map<String, ActiveConnection> getActiveConnections() {
+            return activeConnections;
+        }
+        
+        public Extraction getExtraction() {
+            return extraction;
+        }
+        
+        public void setExtraction(Extraction extraction) {
+            this.extraction = extraction;
+        }
+        
+        public RateLimiter getRateLimiter() {
+            return rateLimiter;
+        }
+        
+        public void setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+        }
+        
+        public void setPendingResponse(RangeTransport.RangeConnection pendingResponse) {
+            this.pendingResponse = pendingResponse;
+        }
+
+        /**
+         * 取出探测时保存的小文件响应，取出后由调用方负责关闭
+         */
+        public RangeTransport.RangeConnection takePendingResponse() {
+            RangeTransport.RangeConnection response = pendingResponse;
+            pendingResponse = null;
+            return response;
+        }
+        
+        public BlockingQueue<DownloadRange> getPendingTasks() {
+            return pendingTasks;
+        }
+        
+        public int getTotalTasks() {
+            return totalTasks;
+        }
+        
+        public void setTotalTasks(int totalTasks) {
+            this.totalTasks = totalTasks;
+        }
+        
+        public int getCompletedTasks() {
+            return completedTasks;
+        }
+        
+        public int getRemainingTasks() {
+            return totalTasks - completedTasks;
+        }
+        
+        public synchronized void incrementCompletedTasks() {
+            completedTasks++;
+        }
+        
+        public int incrementFailures() {
+            return failures.incrementAndGet();
+        }
+        
+        public ContiguousWatermark getWatermark() {
+            return watermark;
+        }
+        
+        public ChunkPlan getPlan() {
+            return plan;
+        }
+        
+        public ChunkBitmap getCompletedChunks() {
+            return completedChunks;
+        }
+        
+        public void setChunks(ChunkPlan plan, ChunkBitmap completedChunks) {
+            this.plan = plan;
+            this.completedChunks = completedChunks;
+        }
+        
+        public void addCompletedRange(DownloadRange range) {
+            // 设置下载状态为已下载
+            range.setStatus(DownloadRange.Status.DOWNLOADED);
+            completedChunks.set(range.getChunkIndex());
+            partialRanges.remove(range);
+            checkpointDirty = true;
+        }
+        
+        /**
+         * @return 已写入文件的数据量：已完成区块的大小加上部分完成区块的断点
+         */
+        public long getPersistedBytes() {
+            long bytes = plan != null ? plan.completedBytes(completedChunks) : 0;
+            for (DownloadRange range : partialRanges) {
+                if (!range.isDownloaded()) {
+                    bytes += range.getPersistedBytes();
+                }
+            }
+            return bytes;
+        }
+        
+        public Set<DownloadRange> getPartialRanges() {
+            return partialRanges;
+        }
+        
+        /**
+         * 记录区块内的断点已推进，由定期保存写入索引
+         */
+        public void addPartialRange(DownloadRange range) {
+            partialRanges.add(range);
+            checkpointDirty = true;
+        }
+        
+        public boolean isCheckpointDirty() {
+            return checkpointDirty;
+        }
+        
+        public void clearCheckpointDirty() {
+            checkpointDirty = false;
+        }
+        
+        public boolean isPeriodicCheckpoint() {
+            return periodicCheckpoint;
+        }
+        
+        public void setPeriodicCheckpoint(boolean periodicCheckpoint) {
+            this.periodicCheckpoint = periodicCheckpoint;
+        }
+        
+        public boolean isRangeCompleted(DownloadRange range) {
+            ChunkBitmap completed = completedChunks;
+            return completed != null && range.getChunkIndex() >= 0 && completed.get(range.getChunkIndex());
+        }
+        
+        public AtomicLong getDownloadedBytes() {
+            return downloadedBytes;
+        }
+        
+        public void setDownloadedBytes(long value) {
+            downloadedBytes.set(value);
+        }
+    }
+    
+    /**
+     * 多线程下载文件 - 任务队列模式（带进度监听）
+     *
+     * @param fileUrl     文件URL
+     * @param savePath    保存路径
+     * @param threadCount 线程数量
+     * @param listener    进度监听器
+     * @throws Exception  下载异常
+     */
+    public void download(String fileUrl, String savePath, int threadCount, DownloadGUI.ProgressListener listener) throws Exception {
+        DownloadTaskInfo taskInfo = new DownloadTaskInfo();
+        taskInfo.setUrl(fileUrl);
+        taskInfo.setSavePath(savePath);
+        taskInfo.setThreadCount(threadCount);
+        
+        download(taskInfo, listener, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 按文件大小确定区块划分
+     * @param fileSize  文件大小
+     * @param chunkSize 文件不小于10MB时的分块大小，不大于0时使用默认的1MB
+     * @return 区块划分，区块的起止偏移按编号计算，不为每个区块创建对象
+     */
+    public ChunkPlan planChunks(long fileSize, int chunkSize) {
+        return ChunkPlan.of(fileSize, chunkSize, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * 保存区块划分、已完成的区块和部分完成区块的断点到索引文件，调用方需持有上下文锁
+     */
+    private void saveIndex(DownloadTaskContext context) throws IOException {
+        // 先清除标记再读取各区块的断点，保存期间推进的断点由下一次保存写出
+        context.clearCheckpointDirty();
+        ChunkIndex.write(context.getIndexFile(), context.getPlan(), context.getCompletedChunks(), context.getPartialRanges());
+    }
+
+    /**
+     * 区块完成情况或区块内断点有变化时保存索引文件
+     *
+     * 多个工作线程共享同一个索引，写入期间持有上下文锁；等待锁的时间和写入耗时作为事件上报。
+     */
+    private void checkpointIndex(DownloadTaskContext context) {
+        if (context.getIndexFile() == null || !context.isCheckpointDirty()) {
+            return;
+        }
+        long lockRequestedNanos = System.nanoTime();
+        synchronized (context) {
+            long lockAcquiredNanos = System.nanoTime();
+            // 下载完成后临时目录已删除，不再保存
+            if (!context.getIndexFile().getParentFile().isDirectory()) {
+                return;
+            }
+            try {
+                saveIndex(context);
+                DownloadEvents.sink().indexPersisted(context.getTaskId(), context.getCompletedChunks().cardinality(),
+                        lockAcquiredNanos - lockRequestedNanos, System.nanoTime() - lockAcquiredNanos);
+            } catch (IOException e) {
+                log(context, "保存索引失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 记录已完成的区块
+     *
+     * 定期保存断点时由定时任务写出索引，索引大小与区块数成正比，不在每个区块完成时重写；
+     * 保存间隔为0时每个区块完成后立即保存。
+     */
+    private void persistCompletedRange(DownloadTaskContext context, DownloadRange range) {
+        context.addCompletedRange(range);
+        if (!context.isPeriodicCheckpoint()) {
+            checkpointIndex(context);
+        }
+    }
+    
+    /**
+     * 获取剩余下载区块数量
+     */
+    public int getRemainingTaskCount(String taskId) {
+        DownloadTaskContext context = downloadTasks.get(taskId);
+        if (context != null) {
+            return context.getRemainingTasks();
+        }
+        return 0;
+    }
+    
+    /**
+     * 从索引文件中获取已下载的大小
+     * 
+     * @param taskInfo 任务信息对象
+     * @return 已下载的大小（字节），如果获取失败则返回当前任务信息中的下载大小
+     */
+    public long getDownloadedSizeFromIndex(DownloadTaskInfo taskInfo) {
+        try {
+            // 构建临时目录和索引文件路径
+            File saveDir = new File(taskInfo.getSavePath()).getParentFile();
+            String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskInfo.getId();
+            File tempDir = new File(tempDirPath);
+            File indexFile = new File(tempDir, "index.txt");
+            
+            // 按索引中记录的区块划分统计已完成区块和断点
+            return Math.min(ChunkIndex.read(indexFile).persistedBytes(), taskInfo.getFileSize());
+        } catch (Exception e) {
+            log("从索引文件获取已下载大小失败: " + e.getMessage());
+            // 如果获取失败，返回当前任务信息中的下载大小
+            return taskInfo.getDownloadedSize();
+        }
+    }
+    
+    /**
+     * 删除临时目录
+     */
+    /**
+     * 删除临时目录
+     * @param tempDir 临时目录
+     */
+    private void deleteTempDir(File tempDir) {
+        if (tempDir.exists() && tempDir.isDirectory()) {
+            File[] files = tempDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            tempDir.delete();
         }
     }
     
     /**
-     * 计算已下载的文件大小
+     * 清理指定任务的临时文件和目录
+     * @param savePath 保存路径
+     * @param taskId 任务ID
      */
-    private long calculateDownloadedSize(String savePath, Set<DownloadRange> completedRanges, long fileSize) {
-        // 计算已完成范围的总大小（只统计状态为已下载的范围）
-        long totalRangeSize = 0;
-        for (DownloadRange range : completedRanges) {
-            if (range.isDownloaded()) {
-                totalRangeSize += range.getEndByte() - range.getStartByte() + 1;
-            }
+    public void cleanupTaskTempFiles(String savePath, String taskId) {
+        // 临时目录位于保存目录下，名称为.temp-{taskId}
+        File saveDir = new File(savePath).getParentFile();
+        String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskId;
+        File tempDir = new File(tempDirPath);
+        deleteTempDir(tempDir);
+        
+        // 同时删除可能存在的其他临时文件（索引文件已在tempDir中被删除）
+    }
+
+    /**
+     * 获取文件大小
+     *
+     * @param fileUrl 文件URL
+     * @return 文件大小
+     * @throws Exception 异常
+     */
+    public long getFileSize(String fileUrl) throws Exception {
+        return probeRemoteFile(fileUrl).getSize();
+    }
+
+    /**
+     * 获取任务的远程文件信息：任务保存的探测结果在有效期内直接返回，否则重新探测并保存到任务中
+     *
+     * @param taskInfo 任务信息
+     * @return 远程文件信息
+     * @throws Exception 探测失败
+     */
+    public RemoteFileInfo probe(DownloadTaskInfo taskInfo) throws Exception {
+        RemoteFileInfo remote = taskInfo.getRemoteInfo();
+        if (remote != null && remote.isFresh(probeTtlMillis)) {
+            return remote;
         }
+        remote = probeRemoteFile(taskInfo.getUrl());
+        taskInfo.setRemoteInfo(remote);
+        return remote;
+    }
+
+    /**
+     * 设置远程文件信息的有效期，超过有效期后开始或恢复下载时重新发送HEAD请求
+     */
+    public void setProbeTtlMillis(long probeTtlMillis) {
+        this.probeTtlMillis = Math.max(0, probeTtlMillis);
+    }
+
+    public long getProbeTtlMillis() {
+        return probeTtlMillis;
+    }
+
+    /**
+     * 设置区块内断点的保存间隔，为0时只在区块完成和下载结束时保存
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = Math.max(0, checkpointIntervalMillis);
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    /**
+     * 设置小文件的大小上限，不超过该大小的文件用一个GET请求下载到临时文件后改名为目标文件，
+     * 不分段、不创建临时目录和索引文件，暂停后从头重新下载
+     *
+     * @param smallFileThresholdBytes 大小上限（字节），为0时所有文件都分段下载
+     */
+    public void setSmallFileThresholdBytes(long smallFileThresholdBytes) {
+        this.smallFileThresholdBytes = Math.max(0, smallFileThresholdBytes);
+    }
+
+    public long getSmallFileThresholdBytes() {
+        return smallFileThresholdBytes;
+    }
+
+    /**
+     * 设置下载速度的采样间隔，对正在下载的任务立即生效
+     */
+    public void setSampleIntervalMillis(long sampleIntervalMillis) {
+        rateSampler.setIntervalMillis(sampleIntervalMillis);
+    }
+
+    public long getSampleIntervalMillis() {
+        return rateSampler.getIntervalMillis();
+    }
+
+    /**
+     * @return 所有任务共用的速度采样器，可查询各主机的下载速率
+     */
+    public TransferRateSampler getRateSampler() {
+        return rateSampler;
+    }
+
+    /**
+     * 发送HEAD请求获取远程文件的大小和校验信息
+     *
+     * @param fileUrl 文件URL
+     * @return 远程文件信息
+     * @throws Exception 请求失败
+     */
+    public RemoteFileInfo probeRemoteFile(String fileUrl) throws Exception {
+        URL url = new URL(fileUrl);
+        HttpURLConnection conn = (HttpURLConnection) openConnectionWithProxy(url);
+        conn.setRequestMethod("HEAD");
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(5000);
         
-        // 确保返回值不超过文件总大小
-        return Math.min(totalRangeSize, fileSize);
+        if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+            return remoteInfoOf(conn, fileUrl, conn.getContentLengthLong(), "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")));
+        } else {
+            throw new IOException("无法获取文件大小，HTTP状态码: " + conn.getResponseCode());
+        }
+    }
+
+    /**
+     * 以分段GET代替HEAD探测远程文件：请求文件开头不超过小文件上限的部分，响应头同样给出文件大小和校验信息。
+     * 文件不超过上限时响应体就是完整文件，连接保存在任务上下文中由小文件下载直接读取，省去一次往返；
+     * 否则关闭连接，按探测结果继续分段下载
+     *
+     * @return 远程文件信息，服务器返回其他状态码或未给出文件大小时返回null，由调用方改用HEAD请求
+     */
+    private RemoteFileInfo probeWithSmallFileRequest(DownloadTaskInfo taskInfo, DownloadTaskContext context, long threshold) throws Exception {
+        String fileUrl = taskInfo.getUrl();
+        HttpURLConnection conn = openConnectionWithProxy(new URL(fileUrl));
+        conn.setRequestMethod("GET");
+        conn.setRequestProperty("Range", "bytes=0-" + (threshold - 1));
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(5000);
+
+        int statusCode = conn.getResponseCode();
+        long size = -1;
+        boolean acceptRanges = false;
+        if (statusCode == HttpURLConnection.HTTP_PARTIAL) {
+            // Content-Range: bytes 0-N/总大小
+            String contentRange = conn.getHeaderField("Content-Range");
+            int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+            if (slash >= 0 && contentRange.startsWith("bytes 0-")) {
+                try {
+                    size = Long.parseLong(contentRange.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    // 总大小未知（*），改用HEAD请求
+                }
+            }
+            acceptRanges = true;
+        } else if (statusCode == HttpURLConnection.HTTP_OK) {
+            // 服务器忽略了Range头，响应体为完整文件
+            size = conn.getContentLengthLong();
+            acceptRanges = "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"));
+        }
+        if (size <= 0) {
+            conn.disconnect();
+            return null;
+        }
+
+        RemoteFileInfo remote = remoteInfoOf(conn, fileUrl, size, acceptRanges);
+        taskInfo.setRemoteInfo(remote);
+        if (size <= threshold) {
+            context.setPendingResponse(http11Transport.wrap(conn, statusCode));
+        } else {
+            conn.disconnect();
+        }
+        return remote;
+    }
+
+    /**
+     * 根据响应头生成远程文件信息，响应码读取后getURL()返回跟随重定向后的地址
+     */
+    private RemoteFileInfo remoteInfoOf(HttpURLConnection conn, String fileUrl, long size, boolean acceptRanges) {
+        String finalUrl = conn.getURL().toString();
+        return new RemoteFileInfo(size, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"),
+                acceptRanges, finalUrl.equals(fileUrl) ? null : finalUrl,
+                conn.getContentType(), parseContentDispositionFileName(conn.getHeaderField("Content-Disposition")),
+                System.currentTimeMillis());
+    }
+    
+    /**
+     * 设置分段传输协议
+     *
+     * @param transferProtocol 传输协议，HTTP_2需要JDK 11+构建，不可用时自动回退到HTTP/1.1
+     */
+    public void setTransferProtocol(TransferProtocol transferProtocol) {
+        this.transferProtocol = transferProtocol != null ? transferProtocol : TransferProtocol.HTTP_1_1;
+    }
+
+    public TransferProtocol getTransferProtocol() {
+        return transferProtocol;
+    }
+
+    /**
+     * 设置所有任务共享的最大连接数，多个任务并发下载时分段请求从同一个预算中获取连接
+     *
+     * @param maxConnections 最大连接数，小于等于0表示不限制
+     */
+    public void setConnectionBudget(int maxConnections) {
+        this.connectionBudget = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+    }
+
+    /**
+     * 设置是否按主机自适应调整并发连接数
+     *
+     * @param adaptiveConcurrency 为true时任务线程数只作为初始并发数，之后按吞吐量和错误情况自动增减
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * @return 按主机的并发控制器，可读取或预置各主机学习到的并发数
+     */
+    public HostConcurrencyController getConcurrencyController() {
+        return concurrencyController;
+    }
+
+    /**
+     * 任务要解压的压缩包格式
+     *
+     * @return 格式，任务未设置解压目录、是流式读取或文件不是支持的压缩包时返回null
+     */
+    private static ArchiveFormat extractionFormat(DownloadTaskInfo taskInfo) {
+        if (taskInfo.getExtractDir() == null || taskInfo.getSavePath() == null || taskInfo.getFileName() == null) {
+            return null;
+        }
+        return ArchiveFormat.detect(taskInfo.getFileName());
+    }
+
+    /**
+     * 在后台线程中开始解压
+     *
+     * @param savePath 压缩包文件路径
+     * @param fileUrl  文件URL，zip 文件的中央目录尚未下载到时用范围请求读取
+     * @param fileSize 文件大小
+     * @param source   从文件开头起的顺序读取流，解压结束后关闭
+     */
+    private Extraction startExtraction(DownloadTaskInfo taskInfo, DownloadTaskContext context, String savePath, String fileUrl, long fileSize, InputStream source) {
+        ArchiveFormat format = extractionFormat(taskInfo);
+        String extractDir = taskInfo.getExtractDir();
+        File targetDir = extractDir.isEmpty()
+                ? new File(new File(savePath).getAbsoluteFile().getParentFile(), format.baseName(taskInfo.getFileName()))
+                : new File(extractDir);
+        Consumer<String> extractLog = message -> log(context, message);
+        ArchiveExtractor extractor = format == ArchiveFormat.ZIP
+                ? new ZipExtractor(source, archiveRangeReader(taskInfo, savePath, fileUrl), fileSize, targetDir, extractLog)
+                : new TarExtractor(source, format == ArchiveFormat.TAR_GZ, targetDir, extractLog);
+        log(context, "边下载边解压到: " + targetDir.getAbsolutePath());
+
+        Extraction extraction = new Extraction(extractor, targetDir);
+        Thread thread = new Thread(() -> {
+            try {
+                extractor.extract();
+            } catch (Exception e) {
+                extraction.error = e;
+            } finally {
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }, "extract-" + taskInfo.getId());
+        thread.setDaemon(true);
+        extraction.thread = thread;
+        thread.start();
+        return extraction;
+    }
+
+    /**
+     * 读取压缩包指定范围的数据：已连续写入文件的部分读本地文件，否则发送范围请求
+     */
+    private ZipExtractor.RangeReader archiveRangeReader(DownloadTaskInfo taskInfo, String savePath, String fileUrl) {
+        return (start, length) -> {
+            byte[] data = new byte[length];
+            if (length == 0) {
+                return data;
+            }
+            if (getAvailableBytes(taskInfo) >= start + length || fileUrl == null) {
+                try (RandomAccessFile file = new RandomAccessFile(savePath, "r")) {
+                    file.seek(start);
+                    file.readFully(data);
+                }
+                return data;
+            }
+            try (RangeTransport.RangeConnection connection = resolveTransport(protocolFor(taskInfo)).open(fileUrl, start, start + length - 1)) {
+                int statusCode = connection.getStatusCode();
+                if (statusCode != HttpURLConnection.HTTP_PARTIAL && statusCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("读取压缩包目录失败，HTTP状态码: " + statusCode);
+                }
+                try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+                    // 服务器忽略范围请求时跳过之前的数据
+                    if (statusCode == HttpURLConnection.HTTP_OK) {
+                        ArchiveExtractor.skipFully(in, start);
+                    }
+                    in.readFully(data);
+                }
+            }
+            return data;
+        };
+    }
+
+    /**
+     * 下载结束后等待解压结束：下载完成时等待解压读完整个文件，否则中断解压。
+     * 没有与下载并行的解压（命中缓存、小文件、压缩传输）而任务已完成时，在此解压完整的文件。
+     * 下载完成而解压失败时任务标记为失败。
+     */
+    private void finishExtraction(DownloadTaskInfo taskInfo, DownloadTaskContext context) {
+        Extraction extraction = context.getExtraction();
+        boolean completed = taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED;
+        if (extraction == null && completed && extractionFormat(taskInfo) != null) {
+            String savePath = resolveSavePath(taskInfo);
+            try {
+                extraction = startExtraction(taskInfo, context, savePath, null, taskInfo.getFileSize(), new FileInputStream(savePath));
+            } catch (IOException e) {
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+                log(context, "解压失败: " + e.getMessage());
+                return;
+            }
+        }
+        if (extraction == null) {
+            return;
+        }
+        context.setExtraction(null);
+        if (!completed) {
+            extraction.thread.interrupt();
+        }
+        try {
+            extraction.thread.join();
+        } catch (InterruptedException e) {
+            extraction.thread.interrupt();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        ArchiveExtractor extractor = extraction.extractor;
+        DownloadMetrics.EXTRACTED_ENTRIES.add(extractor.getEntryCount());
+        if (extraction.error == null) {
+            log(context, "解压完成: " + extractor.getEntryCount() + " 个文件，共 " + extractor.getExtractedBytes() + " bytes -> " + extraction.targetDir.getAbsolutePath());
+        } else if (completed) {
+            taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+            log(context, "解压失败: " + extraction.error.getMessage());
+        } else {
+            log(context, "下载未完成，解压已停止（已解压 " + extractor.getEntryCount() + " 个文件），恢复下载时重新解压");
+        }
+    }
+
+    /**
+     * 获取任务从文件开头起已连续写入文件的字节数
+     *
+     * @param taskInfo 任务信息对象
+     * @return 可读取的字节数，任务未在下载时已完成的任务返回文件大小，否则返回0
+     */
+    public long getAvailableBytes(DownloadTaskInfo taskInfo) {
+        DownloadTaskContext context = downloadTasks.get(taskInfo.getId());
+        if (context != null) {
+            return context.getWatermark().get();
+        }
+        return taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED ? taskInfo.getFileSize() : 0;
+    }
+
+    /**
+     * 获取任务区块状态的快照：下载中的任务取自内存中的区块状态，其余任务读取断点索引
+     *
+     * @param taskInfo 任务信息对象
+     * @return 快照，任务不分块下载（小文件、压缩传输）或没有断点索引时返回null
+     */
+    public ChunkMapSnapshot getChunkMap(DownloadTaskInfo taskInfo) {
+        DownloadTaskContext context = downloadTasks.get(taskInfo.getId());
+        ChunkPlan plan = context != null ? context.getPlan() : null;
+        ChunkBitmap completed = context != null ? context.getCompletedChunks() : null;
+        if (plan != null && completed != null) {
+            Map<Integer, Long> partialBytes = new HashMap<>();
+            for (DownloadRange range : context.getPartialRanges()) {
+                if (range.getChunkIndex() >= 0 && !range.isDownloaded()) {
+                    partialBytes.put(range.getChunkIndex(), range.getPersistedBytes());
+                }
+            }
+            long now = System.nanoTime();
+            List<ChunkMapSnapshot.Connection> connections = new ArrayList<>();
+            for (Map.Entry<String, ActiveConnection> entry : context.getActiveConnections().entrySet()) {
+                ActiveConnection active = entry.getValue();
+                DownloadRange range = active.range;
+                long received = range.getReceivedBytes();
+                long elapsedNanos = Math.max(1, now - active.startNanos);
+                if (range.getChunkIndex() >= 0) {
+                    partialBytes.merge(range.getChunkIndex(), received, Math::max);
+                }
+                connections.add(new ChunkMapSnapshot.Connection(entry.getKey(), range.getChunkIndex(), range.getStartByte(), range.getEndByte(),
+                        received, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                        (received - active.startReceivedBytes) * 1e9 / elapsedNanos));
+            }
+            connections.sort(Comparator.comparingInt(ChunkMapSnapshot.Connection::getChunkIndex));
+            return new ChunkMapSnapshot(plan, completed.copy(), partialBytes, connections);
+        }
+        if (context != null || taskInfo.getSavePath() == null || taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED
+                || taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+            // 下载中但还没有上下文（刚启动或已结束）时断点索引随时在变，不读取磁盘
+            return null;
+        }
+        // 未在下载的任务按断点索引记录的区块划分显示（读取磁盘，调用方不应在界面线程上反复调用）
+        try {
+            File indexFile = new File(new File(resolveSavePath(taskInfo)).getParentFile(), ".temp-" + taskInfo.getId() + File.separator + "index.txt");
+            ChunkIndex index = ChunkIndex.read(indexFile);
+            plan = index.getPlan();
+            if (plan == null) {
+                return null;
+            }
+            completed = index.completedChunks(plan);
+            Map<Integer, Long> partialBytes = new HashMap<>();
+            for (DownloadRange range : index.partialRanges(plan, completed)) {
+                partialBytes.put(range.getChunkIndex(), range.getPersistedBytes());
+            }
+            return new ChunkMapSnapshot(plan, completed, partialBytes, new ArrayList<>());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 等待任务文件中指定偏移之前（含）的数据全部写入文件，配合渐进模式可在下载完成前开始读取文件开头
+     *
+     * @param taskInfo      任务信息对象
+     * @param offset        偏移
+     * @param timeoutMillis 最长等待时间
+     * @return 数据已就绪时返回true；超时，或任务已结束（暂停、失败）仍未就绪时返回false
+     * @throws InterruptedException 等待被中断
+     */
+    public boolean waitForOffset(DownloadTaskInfo taskInfo, long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
+                return offset < taskInfo.getFileSize();
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            DownloadTaskContext context = downloadTasks.get(taskInfo.getId());
+            if (context != null) {
+                return context.getWatermark().await(offset, Math.max(0, remaining));
+            }
+            // 下载尚未开始，稍后再查看
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(remaining, QUEUE_POLL_MILLIS));
+        }
+    }
+
+    /**
+     * 打开任务文件的顺序读取通道，与下载并行读取：只返回已连续写入文件的数据，尚未到达的部分阻塞等待。
+     * 任务应使用渐进模式，否则文件开头可能要到下载后期才可用。
+     *
+     * @param taskInfo 任务信息对象（正在下载、等待中或已完成）
+     * @return 读取通道，读到文件末尾返回-1；任务暂停或失败时读完已就绪的数据后抛出IOException
+     */
+    public ReadableByteChannel openChannel(DownloadTaskInfo taskInfo) {
+        return new InProgressFileChannel(this, taskInfo);
+    }
+
+    /**
+     * 以输入流方式打开任务文件的顺序读取视图，参见 {@link #openChannel(DownloadTaskInfo)}
+     */
+    public InputStream openStream(DownloadTaskInfo taskInfo) {
+        return Channels.newInputStream(openChannel(taskInfo));
+    }
+
+    /**
+     * 流式下载：分段仍然并行下载，数据只经过有界的内存重排缓冲按文件顺序交给读取方，不写入磁盘。
+     * 读取跟不上时缓冲之后的分段暂停下载；关闭通道即停止下载。流式下载不支持断点续传和压缩传输。
+     *
+     * @param taskInfo    任务信息对象，不需要保存路径
+     * @param bufferBytes 重排缓冲容量，建议不小于区块大小×线程数
+     * @return 按文件顺序读取的通道
+     */
+    public ReadableByteChannel streamDownload(DownloadTaskInfo taskInfo, long bufferBytes) {
+        if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+            throw new IllegalStateException("任务正在下载: " + taskInfo.getId());
+        }
+        taskInfo.setProgressive(true);
+        StreamingRangeSink sink = new StreamingRangeSink(taskInfo, bufferBytes, () -> pauseDownload(taskInfo));
+        startDownload(taskInfo, null, sink);
+        return sink.channel();
+    }
+
+    /**
+     * 设置分段数据的写入方式
+     *
+     * @param writeMode 写入方式，AUTO时按目标所在存储的类型选择
+     */
+    public void setWriteMode(WriteMode writeMode) {
+        this.writeMode = writeMode != null ? writeMode : WriteMode.DIRECT;
+    }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    /**
+     * 设置每个任务的写缓冲容量，缓冲已满时工作线程暂停从网络读取
+     *
+     * @param writeBufferBytes 容量（字节）
+     */
+    public void setWriteBufferBytes(long writeBufferBytes) {
+        this.writeBufferBytes = writeBufferBytes > 0 ? writeBufferBytes : DEFAULT_WRITE_BUFFER_BYTES;
+    }
+
+    public long getWriteBufferBytes() {
+        return writeBufferBytes;
+    }
+
+    /**
+     * 设置本地下载缓存，为null时不使用缓存
+     */
+    public void setDownloadCache(DownloadCache downloadCache) {
+        this.downloadCache = downloadCache;
+    }
+
+    public DownloadCache getDownloadCache() {
+        return downloadCache;
+    }
+
+    /**
+     * 按写入方式创建任务的写入目标；写缓冲写入失败时任务失败
+     */
+    private RangeSink createRangeSink(File downloadFile, DownloadTaskInfo taskInfo, DownloadTaskContext context) throws IOException {
+        HostProfile profile = taskInfo.getProfile();
+        WriteMode mode = profile != null && profile.getWriteMode() != null ? profile.getWriteMode() : writeMode;
+        long bufferBytes = profile != null && profile.getWriteBufferBytes() > 0 ? profile.getWriteBufferBytes() : writeBufferBytes;
+        if (mode == WriteMode.AUTO) {
+            mode = StorageProbe.prefersSequentialWrites(downloadFile) ? WriteMode.WRITE_BEHIND : WriteMode.DIRECT;
+        }
+        if (mode == WriteMode.WRITE_BEHIND) {
+            log(context, "写入方式: 写缓冲（" + (bufferBytes / 1024 / 1024) + "MB，按偏移顺序合并写入）");
+            return new WriteBehindBuffer(downloadFile, taskInfo.getId(), bufferBytes, e -> {
+                log(context, "写入文件失败: " + e.getMessage());
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+            });
+        }
+        return new DirectRangeSink(downloadFile, taskInfo.getId());
+    }
+
+    /**
+     * 设置分段失败重试策略
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy != null ? retryPolicy : new RetryPolicy();
     }
-    
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
     /**
-     * 获取剩余下载区块数量
+     * 延迟指定时间后将区块放回任务队列
      */
-    public int getRemainingTaskCount(String taskId) {
-        DownloadTaskContext context = downloadTasks.get(taskId);
-        if (context != null) {
-            return context.getRemainingTasks();
-        }
-        return 0;
+    private void scheduleRetry(ChunkQueue taskQueue, DownloadRange range, long delayMillis) {
+        retryScheduler.schedule(() -> {
+            range.setQueuedAtNanos(System.nanoTime());
+            taskQueue.offer(range);
+        }, delayMillis, TimeUnit.MILLISECONDS);
     }
-    
+
     /**
-     * 从索引文件中获取已下载的大小
-     * 
-     * @param taskInfo 任务信息对象
-     * @return 已下载的大小（字节），如果获取失败则返回当前任务信息中的下载大小
+     * 设置是否将日志输出到控制台，进度监听器的日志回调不受影响
      */
-    public long getDownloadedSizeFromIndex(DownloadTaskInfo taskInfo) {
-        try {
-            // 构建临时目录和索引文件路径
-            File saveDir = new File(taskInfo.getSavePath()).getParentFile();
-            String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskInfo.getId();
-            File tempDir = new File(tempDirPath);
-            File indexFile = new File(tempDir, "index.txt");
-            
-            // 加载已完成的范围
-            Set<DownloadRange> completedRanges = loadCompletedRanges(indexFile);
-            
-            // 计算实际已下载大小
-            return calculateDownloadedSize(taskInfo.getSavePath(), completedRanges, taskInfo.getFileSize());
-        } catch (Exception e) {
-            log("从索引文件获取已下载大小失败: " + e.getMessage());
-            // 如果获取失败，返回当前任务信息中的下载大小
-            return taskInfo.getDownloadedSize();
-        }
+    public void setConsoleLogging(boolean consoleLogging) {
+        this.consoleLogging = consoleLogging;
     }
-    
+
     /**
-     * 删除临时目录
+     * 根据当前协议设置获取分段传输实现
+     *
+     * @return 分段传输实现
      */
+    RangeTransport resolveTransport() {
+        return resolveTransport(transferProtocol);
+    }
+
     /**
-     * 删除临时目录
-     * @param tempDir 临时目录
+     * 获取指定协议的分段传输实现
+     *
+     * @param protocol 传输协议
+     * @return 分段传输实现
      */
-    private void deleteTempDir(File tempDir) {
-        if (tempDir.exists() && tempDir.isDirectory()) {
-            File[] files = tempDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    file.delete();
+    RangeTransport resolveTransport(TransferProtocol protocol) {
+        if (protocol != TransferProtocol.HTTP_2) {
+            return http11Transport;
+        }
+        if (http2Transport == null) {
+            synchronized (this) {
+                if (http2Transport == null) {
+                    RangeTransport primary = loadHttp2Transport();
+                    http2Transport = primary != null ? new FallbackRangeTransport(primary, http11Transport) : http11Transport;
                 }
             }
-            tempDir.delete();
         }
+        return http2Transport;
     }
-    
+
     /**
-     * 清理指定任务的临时文件和目录
-     * @param savePath 保存路径
-     * @param taskId 任务ID
+     * 任务的传输协议：主机配置指定时使用配置的协议，否则使用全局设置
      */
-    public void cleanupTaskTempFiles(String savePath, String taskId) {
-        // 临时目录位于保存目录下，名称为.temp-{taskId}
-        File saveDir = new File(savePath).getParentFile();
-        String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskId;
-        File tempDir = new File(tempDirPath);
-        deleteTempDir(tempDir);
-        
-        // 同时删除可能存在的其他临时文件（索引文件已在tempDir中被删除）
+    private TransferProtocol protocolFor(DownloadTaskInfo taskInfo) {
+        HostProfile profile = taskInfo.getProfile();
+        return profile != null && profile.getProtocol() != null ? profile.getProtocol() : transferProtocol;
     }
 
     /**
-     * 获取文件大小
-     *
-     * @param fileUrl 文件URL
-     * @return 文件大小
-     * @throws Exception 异常
+     * 任务的重试策略：主机配置中设置的参数覆盖全局策略的对应参数
      */
-    public long getFileSize(String fileUrl) throws Exception {
-        URL url = new URL(fileUrl);
-        HttpURLConnection conn = (HttpURLConnection) openConnectionWithProxy(url);
-        conn.setRequestMethod("HEAD");
-        conn.setConnectTimeout(5000);
-        conn.setReadTimeout(5000);
-        
-        if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
-            return conn.getContentLengthLong();
-        } else {
-            throw new IOException("无法获取文件大小，HTTP状态码: " + conn.getResponseCode());
+    private RetryPolicy retryPolicyFor(HostProfile profile) {
+        RetryPolicy global = retryPolicy;
+        if (profile == null || (profile.getMaxAttempts() <= 0 && profile.getErrorBudget() <= 0 && profile.getRetryBaseDelayMillis() <= 0)) {
+            return global;
         }
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(profile.getMaxAttempts() > 0 ? profile.getMaxAttempts() : global.getMaxAttempts());
+        policy.setErrorBudget(profile.getErrorBudget() > 0 ? profile.getErrorBudget() : global.getErrorBudget());
+        policy.setBaseDelayMillis(profile.getRetryBaseDelayMillis() > 0 ? profile.getRetryBaseDelayMillis() : global.getBaseDelayMillis());
+        policy.setMaxDelayMillis(global.getMaxDelayMillis());
+        return policy;
     }
-    
+
+    /**
+     * 通过反射加载HTTP/2传输实现，Java 8运行时或未包含该类的构建返回null
+     */
+    private RangeTransport loadHttp2Transport() {
+        try {
+            Class<?> transportClass = Class.forName("com.example.download.core.Http2RangeTransport");
+            return (RangeTransport) transportClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | LinkageError e) {
+            log("当前运行环境不支持HTTP/2传输，回退到HTTP/1.1: " + e);
+        } catch (ReflectiveOperationException e) {
+            log("创建HTTP/2传输失败，回退到HTTP/1.1: " + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * 使用系统代理打开URL连接
      *
@@ -703,10 +1946,102 @@ public class MultiThreadDownloader {
      * @param message 日志消息
      */
     private void log(String message) {
-        System.out.println(message);
-        if (progressListener != null) {
-            progressListener.onLog(message);
+        log(null, message);
+    }
+
+    /**
+     * 记录任务日志，同时通知该任务的进度监听器
+     *
+     * @param context 任务上下文，为null时只输出到控制台
+     * @param message 日志消息
+     */
+    private void log(DownloadTaskContext context, String message) {
+        if (consoleLogging) {
+            System.out.println(message);
+        }
+        DownloadGUI.ProgressListener listener = context != null ? context.getListener() : null;
+        if (listener != null) {
+            listener.onLog(message);
+        }
+    }
+
+    /**
+     * 从URL中提取主机名
+     *
+     * @param urlStr URL字符串
+     * @return 主机名，解析失败时返回空字符串
+     */
+    static String extractHost(String urlStr) {
+        try {
+            String host = new URL(urlStr).getHost();
+            return host != null ? host : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * 获取任务实际写入的文件路径：保存路径是目录（或没有扩展名）时，文件名取自URL
+     *
+     * @param taskInfo 任务信息对象
+     * @return 文件路径
+     */
+    public String resolveSavePath(DownloadTaskInfo taskInfo) {
+        String savePath = taskInfo.getSavePath();
+        File saveLocation = new File(savePath);
+        if (saveLocation.isDirectory() || !saveLocation.getName().contains(".")) {
+            // 如果保存路径没有扩展名，则认为是目录
+            String fileName = taskInfo.getFileName() != null ? taskInfo.getFileName() : extractFileName(taskInfo.getUrl());
+            return new File(saveLocation, fileName).getAbsolutePath();
+        }
+        return savePath;
+    }
+
+    /**
+     * 解析Content-Disposition响应头中的文件名，filename*（RFC 5987编码）优先于filename
+     *
+     * @param header 响应头，可为null
+     * @return 去掉路径部分的文件名，没有时返回null
+     */
+    static String parseContentDispositionFileName(String header) {
+        if (header == null) {
+            return null;
+        }
+        String plain = null;
+        String extended = null;
+        for (String part : header.split(";")) {
+            String param = part.trim();
+            int eq = param.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            String name = param.substring(0, eq).trim().toLowerCase();
+            String value = param.substring(eq + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if ("filename*".equals(name)) {
+                // 格式：字符集'语言'百分号编码的值
+                int first = value.indexOf('\'');
+                int second = first >= 0 ? value.indexOf('\'', first + 1) : -1;
+                if (second > 0) {
+                    try {
+                        extended = java.net.URLDecoder.decode(value.substring(second + 1).replace("+", "%2B"), value.substring(0, first));
+                    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                        // 忽略无法解码的值
+                    }
+                }
+            } else if ("filename".equals(name)) {
+                plain = value;
+            }
+        }
+        String fileName = extended != null ? extended : plain;
+        if (fileName == null) {
+            return null;
         }
+        // 只保留最后一段，防止写到保存目录之外
+        fileName = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1).trim();
+        return fileName.isEmpty() || ".".equals(fileName) || "..".equals(fileName) ? null : fileName;
     }
 
     /**
@@ -715,7 +2050,7 @@ public class MultiThreadDownloader {
      * @param urlStr URL字符串
      * @return 文件名
      */
-    public String extractFileName(String urlStr) {
+    public static String extractFileName(String urlStr) {
         // 首先尝试从response-content-disposition参数中提取文件名
         try {
             // 查找response-content-disposition参数
@@ -767,64 +2102,97 @@ public class MultiThreadDownloader {
     }
 
     /**
-     * 下载速度计算类，用于实时计算下载速度和预计剩余时间
+     * 基于HttpURLConnection的分段传输，完整读取的连接会归还到JVM的keep-alive连接池
      */
-    private class DownloadSpeedCalculator implements Runnable {
-        private final DownloadTaskInfo taskInfo;
-        private final DownloadTaskContext context;
-        private volatile boolean running = true;
-        private long lastDownloadedBytes = 0;
-
-        public DownloadSpeedCalculator(DownloadTaskInfo taskInfo, DownloadTaskContext context) {
-            this.taskInfo = taskInfo;
-            this.context = context;
-        }
-        
+    private class HttpUrlConnectionTransport implements RangeTransport {
         @Override
-        public void run() {
-            while (running) {
-                try {
-                    // 每1秒计算一次
-                    Thread.sleep(1000);
-                    
-                    long currentDownloaded = context.getDownloadedBytes().get();
-                    long bytesDownloadedInSecond = currentDownloaded - lastDownloadedBytes;
-                    
-                    // 计算速度（KB/s）
-                    double speed = bytesDownloadedInSecond / 1024.0;
-                    taskInfo.setDownloadSpeed(speed);
-                    
-                    // 更新已下载大小
-                    taskInfo.setDownloadedSize(currentDownloaded);
-                    
-                    lastDownloadedBytes = currentDownloaded;
-                    
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
+        public RangeConnection open(String fileUrl, long startByte, long endByte) throws IOException {
+            HttpURLConnection conn = openConnectionWithProxy(new URL(fileUrl));
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Range", "bytes=" + startByte + "-" + endByte);
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(5000);
+            return wrap(conn, conn.getResponseCode());
+        }
+
+        /**
+         * 将已收到响应头的连接包装为分段连接
+         */
+        RangeConnection wrap(HttpURLConnection conn, int statusCode) {
+            return new RangeConnection() {
+                private InputStream body;
+                private boolean endOfStream = false;
+
+                @Override
+                public int getStatusCode() {
+                    return statusCode;
                 }
-            }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    if (body == null) {
+                        body = new FilterInputStream(conn.getInputStream()) {
+                            @Override
+                            public int read() throws IOException {
+                                int b = super.read();
+                                endOfStream |= b == -1;
+                                return b;
+                            }
+
+                            @Override
+                            public int read(byte[] b, int off, int len) throws IOException {
+                                int n = super.read(b, off, len);
+                                endOfStream |= n == -1;
+                                return n;
+                            }
+                        };
+                    }
+                    return body;
+                }
+
+                @Override
+                public String getProtocol() {
+                    return "HTTP/1.1";
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (body != null && endOfStream) {
+                        // 响应已读完，关闭流后连接可被复用
+                        body.close();
+                    } else {
+                        conn.disconnect();
+                    }
+                }
+            };
         }
-        
-        public void stop() {
-            running = false;
+
+        @Override
+        public String getName() {
+            return "HTTP/1.1 (HttpURLConnection)";
         }
     }
-    
+
     /**
      * 下载任务类
      */
     private class DownloadTask implements Runnable {
         private final String fileUrl;
         private final String savePath;
-        private final BlockingQueue<DownloadRange> taskQueue;
+        private final ChunkQueue taskQueue;
         private final CountDownLatch latch;
         private final DownloadTaskInfo taskInfo;
         private final File tempDir;
         private final File indexFile;
         private final DownloadTaskContext context;
+        private final RangeTransport transport;
+        private final HostConcurrencyController concurrency; // 为null时使用固定线程数
+        private final RangeSink sink;
+        private final String host;
+        private final Counter hostBytesReceived;
+        private final DownloadEventSink events = DownloadEvents.sink();
 
-        public DownloadTask(String fileUrl, String savePath, BlockingQueue<DownloadRange> taskQueue, CountDownLatch latch, DownloadTaskInfo taskInfo, File tempDir, File indexFile, DownloadTaskContext context) {
+        public DownloadTask(String fileUrl, String savePath, ChunkQueue taskQueue, CountDownLatch latch, DownloadTaskInfo taskInfo, File tempDir, File indexFile, DownloadTaskContext context, RangeTransport transport, HostConcurrencyController concurrency, RangeSink sink) {
             this.fileUrl = fileUrl;
             this.savePath = savePath;
             this.taskQueue = taskQueue;
@@ -833,98 +2201,301 @@ public class MultiThreadDownloader {
             this.tempDir = tempDir;
             this.indexFile = indexFile;
             this.context = context;
+            this.transport = transport;
+            this.concurrency = concurrency;
+            this.sink = sink;
+            this.host = extractHost(fileUrl);
+            this.hostBytesReceived = DownloadMetrics.hostBytesReceived(host);
+        }
+
+        /**
+         * 工作线程的日志通知所属任务的监听器
+         */
+        private void log(String message) {
+            MultiThreadDownloader.this.log(context, message);
         }
 
         @Override
         public void run() {
-            DownloadRange range;
-            while ((range = taskQueue.poll()) != null) {
+            while (latch.getCount() > 0) {
                 // 检查任务状态，如果不是下载中，立即停止
                 if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
                     log("线程 " + Thread.currentThread().getName() + " 检测到任务已暂停，停止下载");
                     break;
                 }
-                
-                // 检查该范围是否已经下载完成
-                DownloadTaskContext context = downloadTasks.get(taskInfo.getId());
-                if (context != null && context.isRangeCompleted(range)) {
-                    log("线程 " + Thread.currentThread().getName() + " 跳过已完成的范围: " + range.getStartByte() + "-" + range.getEndByte());
-                    latch.countDown();
-                    continue;
+
+                if (!downloadNextRange()) {
+                    break;
                 }
-                
+            }
+        }
+
+        /**
+         * 从任务队列取出一个区块并下载
+         *
+         * @return false表示工作线程应当退出
+         */
+        private boolean downloadNextRange() {
+            // 队列暂时为空时可能还有区块在等待重试，返回后继续等待直到所有区块完成
+            DownloadRange range;
+            try {
+                range = taskQueue.poll(QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (range == null) {
+                return true;
+            }
+            
+            // 检查该范围是否已经下载完成
+            if (context.isRangeCompleted(range)) {
+                log("线程 " + Thread.currentThread().getName() + " 跳过已完成的范围: " + range.getStartByte() + "-" + range.getEndByte());
+                latch.countDown();
+                return true;
+            }
+
+            // 主机处于熔断状态时不发出请求，延后重新排队
+            long openMillis = circuitBreaker.remainingOpenMillis(host);
+            if (openMillis > 0) {
+                scheduleRetry(taskQueue, range, openMillis);
+                return true;
+            }
+
+            // 写入目标暂时无法接收该分段（流式读取时超出重排窗口），放回队列后先处理更靠前的分段
+            try {
+                long remainingBytes = range.getEndByte() - range.getStartByte() + 1 - range.getReceivedBytes();
+                if (!sink.awaitCapacity(range.getStartByte() + range.getReceivedBytes(), remainingBytes, QUEUE_POLL_MILLIS)) {
+                    taskQueue.offer(range);
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                taskQueue.offer(range);
+                return false;
+            }
+            
+            // 自适应并发：取到区块后、发出请求前才取得该主机的连接许可，等待区块、熔断和退避期间不占用许可，
+            // 否则空闲的线程也被计为进行中的连接，控制器会误判为并发已饱和
+            boolean permitted = false;
+            if (concurrency != null) {
+                try {
+                    permitted = concurrency.tryAcquire(host, taskInfo.getThreadCount() > 0 ? taskInfo.getThreadCount() : DEFAULT_THREAD_COUNT, QUEUE_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    taskQueue.offer(range);
+                    return false;
+                }
+                if (!permitted) {
+                    // 超过当前上限，放回队列由取得许可的线程下载
+                    taskQueue.offer(range);
+                    return true;
+                }
+            }
+            Semaphore budget = connectionBudget;
+            if (budget != null) {
                 try {
-                    long startByte = range.getStartByte();
-                    long endByte = range.getEndByte();
-                    long taskSize = endByte - startByte + 1;
-                    
-                    log("线程 " + Thread.currentThread().getName() + " 开始下载: " + startByte + "-" + endByte);
-
-                    URL url = new URL(fileUrl);
-                    HttpURLConnection conn = (HttpURLConnection) openConnectionWithProxy(url);
-                    conn.setRequestMethod("GET");
-                    conn.setRequestProperty("Range", "bytes=" + startByte + "-" + endByte);
-                    conn.setConnectTimeout(5000);
-                    conn.setReadTimeout(5000);
-
-                    try (InputStream inputStream = conn.getInputStream();
-                         RandomAccessFile raf = new RandomAccessFile(savePath, "rw")) {
+                    budget.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (permitted) {
+                        concurrency.release(host);
+                    }
+                    taskQueue.offer(range);
+                    return false;
+                }
+            }
+            long rangeStartNanos = System.nanoTime();
+            long totalRead = 0;
+            if (range.getQueuedAtNanos() > 0) {
+                events.queueWait(taskInfo.getId(), range.getStartByte(), rangeStartNanos - range.getQueuedAtNanos());
+            }
+            try {
+                long startByte = range.getStartByte();
+                long endByte = range.getEndByte();
+                long taskSize = endByte - startByte + 1;
+                // 重试时从区块内已接收的位置继续
+                long requestStart = startByte + range.getReceivedBytes();
+                
+                log("线程 " + Thread.currentThread().getName() + " 开始下载: " + requestStart + "-" + endByte);
+
+                // 先取得写入空间：写缓冲已满时在发出请求前等待，不会读到数据后无处存放
+                // 数据写入文件后推进区块断点，暂停或进程退出后从该位置继续
+                LongConsumer onPersisted = end -> {
+                    if (range.advancePersistedBytes(end - startByte) && !range.isDownloaded()) {
+                        context.addPartialRange(range);
+                    }
+                };
+                try (RangeSink.RangeWriter writer = sink.open(requestStart, taskSize - range.getReceivedBytes(), onPersisted)) {
+                    events.rangeRequested(taskInfo.getId(), requestStart, endByte);
+                    RangeTransport.RangeConnection connection = transport.open(fileUrl, requestStart, endByte);
+                    long firstByteNanos = System.nanoTime() - rangeStartNanos;
+                    DownloadMetrics.FIRST_BYTE_LATENCY.observeNanos(firstByteNanos);
+                    events.rangeFirstByte(taskInfo.getId(), requestStart, endByte, firstByteNanos);
+                    DownloadMetrics.ACTIVE_CONNECTIONS.inc();
+                    try {
+                        int statusCode = connection.getStatusCode();
+                        if (statusCode != HttpURLConnection.HTTP_PARTIAL && !(statusCode == HttpURLConnection.HTTP_OK && requestStart == 0)) {
+                            throw new IOException("分段请求失败，HTTP状态码: " + statusCode);
+                        }
+                    } catch (IOException e) {
+                        DownloadMetrics.ACTIVE_CONNECTIONS.dec();
+                        connection.close();
+                        throw e;
+                    }
 
+                    // 登记为正在进行的连接，供区块图显示每个连接的速度
+                    String worker = Thread.currentThread().getName();
+                    context.getActiveConnections().put(worker, new ActiveConnection(range, System.nanoTime(), range.getReceivedBytes()));
+                    try (InputStream inputStream = connection.getInputStream()) {
                         byte[] buffer = new byte[BUFFER_SIZE];
                         int bytesRead;
-                        long totalRead = 0;
+                        // 任务限速时减小单次读取量，等待时间保持在1秒以内
+                        RateLimiter limiter = context.getRateLimiter();
+                        int readLimit = limiter != null ? Math.min(buffer.length, limiter.getMaxReadBytes()) : buffer.length;
+
+                        // 最多读取区块剩余的字节数，服务器返回整个文件（200）时也不会写出区块范围
+                        long remaining = taskSize - range.getReceivedBytes();
+                        while (remaining > 0 && (bytesRead = inputStream.read(buffer, 0, (int) Math.min(readLimit, remaining))) != -1) {
+                            if (limiter != null) {
+                                limiter.acquire(bytesRead);
+                            }
+                            DownloadMetrics.BYTES_RECEIVED.add(bytesRead);
+                            hostBytesReceived.add(bytesRead);
+                            if (concurrency != null) {
+                                concurrency.recordBytes(host, bytesRead);
+                            }
+                            writer.write(buffer, 0, bytesRead);
+                            totalRead += bytesRead;
+                            remaining -= bytesRead;
+                            range.setReceivedBytes(range.getReceivedBytes() + bytesRead);
                         
-                        raf.seek(startByte);
+                            // 更新已下载字节数和任务的已下载大小
+                            long currentDownloaded = context.getDownloadedBytes().addAndGet(bytesRead);
+                            taskInfo.setDownloadedSize(currentDownloaded);
+                        
+                            // 通知进度更新
+                            DownloadGUI.ProgressListener listener = context.getListener();
+                            if (listener != null) {
+                                listener.onProgress(currentDownloaded, taskInfo.getFileSize());
+                            }
 
-                        while ((bytesRead = inputStream.read(buffer)) != -1) {
-                            // 检查任务状态，如果不是下载中，立即停止
+                            // 检查任务状态，如果不是下载中，立即停止；已读取的数据已写入，断点保留到该位置
                             if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
                                 log("线程 " + Thread.currentThread().getName() + " 检测到任务已暂停，停止当前下载块");
-                                // 暂停时忽略当前线程的内容，不保存到文件
                                 break;
                             }
-                            
-                            raf.write(buffer, 0, bytesRead);
-                            totalRead += bytesRead;
-                            
-                            // 获取当前任务的上下文
-                            if (context != null) {
-                                // 更新已下载字节数
-                                context.getDownloadedBytes().addAndGet(bytesRead);
-                                
-                                // 更新任务的已下载大小
-                                long currentDownloaded = context.getDownloadedBytes().get();
-                                taskInfo.setDownloadedSize(currentDownloaded);
-                                
-                                // 通知进度更新
-                                if (progressListener != null) {
-                                    progressListener.onProgress(currentDownloaded, totalFileSize);
-                                }
-                            }
+                        }
+                        if (remaining == 0) {
+                            // 读到响应结束标记，使连接可以归还连接池复用
+                            inputStream.read();
                         }
 
-                        if (totalRead == taskSize && taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                        if (range.getReceivedBytes() == taskSize) {
                             log("线程 " + Thread.currentThread().getName() + " 完成任务: " + startByte + "-" + endByte);
-                            // 记录已完成的范围
-                            if (context != null) {
-                                context.addCompletedRange(range);
-                                // 保存已完成的范围到索引文件
-                                saveCompletedRanges(indexFile, context.getCompletedRanges());
-                                // 更新完成的任务数
-                                context.incrementCompletedTasks();
-                            }
+                            circuitBreaker.recordSuccess(host);
+                            long rangeNanos = System.nanoTime() - rangeStartNanos;
+                            DownloadMetrics.RANGES_COMPLETED.inc();
+                            DownloadMetrics.RANGE_LATENCY.observeNanos(rangeNanos);
+                            events.rangeCompleted(taskInfo.getId(), startByte, endByte, totalRead, rangeNanos);
+                            // 数据写入文件后才记录已完成的范围，写缓冲模式下由写入线程执行
+                            writer.commit(() -> onRangePersisted(range));
+                        } else if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                            // 暂停或任务已失败，区块保持未完成状态，已写入的部分由断点记录
                         } else {
-                            log("线程 " + Thread.currentThread().getName() + " 任务下载不完整: " + startByte + "-" + endByte);
+                            throw new IOException("分段数据不完整，已接收 " + range.getReceivedBytes() + "/" + taskSize + " bytes");
                         }
                     } finally {
-                        conn.disconnect();
-                        latch.countDown();
+                        context.getActiveConnections().remove(worker);
+                        DownloadMetrics.ACTIVE_CONNECTIONS.dec();
+                        connection.close();
                     }
-                } catch (Exception e) {
-                    log("线程 " + Thread.currentThread().getName() + " 下载失败: " + e.getMessage());
-                    latch.countDown();
                 }
+            } catch (Exception e) {
+                log("线程 " + Thread.currentThread().getName() + " 下载失败: " + e.getMessage());
+                DownloadMetrics.RANGES_FAILED.inc();
+                events.rangeFailed(taskInfo.getId(), range.getStartByte(), range.getEndByte(), totalRead,
+                        System.nanoTime() - rangeStartNanos, String.valueOf(e.getMessage()));
+                if (circuitBreaker.recordFailure(host)) {
+                    log("主机 " + host + " 连续失败，暂停请求 " + circuitBreaker.remainingOpenMillis(host) + " 毫秒");
+                }
+                if (concurrency != null && concurrency.recordFailure(host)) {
+                    log("主机 " + host + " 请求出错，并发连接数降为 " + concurrency.getLimit(host));
+                }
+                retryOrFail(range);
+            } finally {
+                if (budget != null) {
+                    budget.release();
+                }
+                if (permitted) {
+                    concurrency.release(host);
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * 区块数据已写入文件：记录到索引并计入完成数
+         */
+        private void onRangePersisted(DownloadRange range) {
+            persistCompletedRange(context, range);
+            context.getWatermark().add(range.getStartByte(), range.getEndByte() + 1);
+            context.incrementCompletedTasks();
+            latch.countDown();
+        }
+
+        /**
+         * 失败的区块按退避时间重新排队；区块重试次数或任务错误预算耗尽时任务失败
+         */
+        private void retryOrFail(DownloadRange range) {
+            if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                return;
+            }
+            int attempt = range.incrementAttempts();
+            int failures = context.incrementFailures();
+            RetryPolicy policy = context.getRetryPolicy();
+            if (attempt > policy.getMaxAttempts() || failures > policy.getErrorBudget()) {
+                log("区块 " + range.getStartByte() + "-" + range.getEndByte() + " 已重试 " + (attempt - 1)
+                        + " 次，任务累计失败 " + failures + " 次，下载失败");
+                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+                return;
             }
+            long delay = policy.backoffMillis(attempt);
+            DownloadMetrics.RANGE_RETRIES.inc();
+            log("区块 " + range.getStartByte() + "-" + range.getEndByte() + " 将在 " + delay + " 毫秒后第 " + attempt
+                    + " 次重试，从偏移 " + (range.getStartByte() + range.getReceivedBytes()) + " 继续");
+            scheduleRetry(taskQueue, range, delay);
+        }
+    }
+
+    /**
+     * 与下载并行的解压
+     */
+    private static class Extraction {
+        private final ArchiveExtractor extractor;
+        private final File targetDir;
+        private Thread thread;
+        private volatile Exception error;
+
+        Extraction(ArchiveExtractor extractor, File targetDir) {
+            this.extractor = extractor;
+            this.targetDir = targetDir;
+        }
+    }
+
+    /**
+     * 正在进行的分段连接：所下载的区块、请求开始的时间和当时区块内已接收的字节数
+     */
+    private static class ActiveConnection {
+        private final DownloadRange range;
+        private final long startNanos;
+        private final long startReceivedBytes;
+
+        ActiveConnection(DownloadRange range, long startNanos, long startReceivedBytes) {
+            this.range = range;
+            this.startNanos = startNanos;
+            this.startReceivedBytes = startReceivedBytes;
         }
     }
 
@@ -932,9 +2503,14 @@ public class MultiThreadDownloader {
      * 下载范围类
      */
     public static class DownloadRange {
+        private final int chunkIndex; // 在区块划分中的编号，不属于任何划分时为-1
         private final long startByte;
         private final long endByte;
         private Status status;
+        private long queuedAtNanos; // 进入任务队列的时间，用于统计队列等待
+        private volatile long receivedBytes; // 区块内已接收的字节数，重试时从此处继续
+        private final AtomicLong persistedBytes = new AtomicLong(); // 区块内已写入文件的字节数，保存为断点
+        private final AtomicInteger attempts = new AtomicInteger(0); // 已重试次数
 
         // 下载状态枚举
         public enum Status {
@@ -946,11 +2522,24 @@ public class MultiThreadDownloader {
         }
 
         public DownloadRange(long startByte, long endByte, Status status) {
+            this(-1, startByte, endByte, status);
+        }
+
+        public DownloadRange(int chunkIndex, long startByte, long endByte) {
+            this(chunkIndex, startByte, endByte, Status.NOT_DOWNLOADED);
+        }
+
+        private DownloadRange(int chunkIndex, long startByte, long endByte, Status status) {
+            this.chunkIndex = chunkIndex;
             this.startByte = startByte;
             this.endByte = endByte;
             this.status = status;
         }
 
+        public int getChunkIndex() {
+            return chunkIndex;
+        }
+        
         public long getStartByte() {
             return startByte;
         }
@@ -967,6 +2556,46 @@ public class MultiThreadDownloader {
             this.status = status;
         }
         
+        public long getQueuedAtNanos() {
+            return queuedAtNanos;
+        }
+        
+        public void setQueuedAtNanos(long queuedAtNanos) {
+            this.queuedAtNanos = queuedAtNanos;
+        }
+        
+        public long getReceivedBytes() {
+            return receivedBytes;
+        }
+        
+        public long getPersistedBytes() {
+            return persistedBytes.get();
+        }
+        
+        /**
+         * 推进区块内已写入文件的字节数，只增不减
+         *
+         * @return 是否有推进
+         */
+        public boolean advancePersistedBytes(long bytes) {
+            long current;
+            do {
+                current = persistedBytes.get();
+                if (bytes <= current) {
+                    return false;
+                }
+            } while (!persistedBytes.compareAndSet(current, bytes));
+            return true;
+        }
+        
+        public void setReceivedBytes(long receivedBytes) {
+            this.receivedBytes = receivedBytes;
+        }
+        
+        public int incrementAttempts() {
+            return attempts.incrementAndGet();
+        }
+        
         // 判断是否已下载
         public boolean isDownloaded() {
             return status == Status.DOWNLOADED;
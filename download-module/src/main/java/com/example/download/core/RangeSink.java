@@ -0,0 +1,63 @@
+package com.example.download.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * 分段数据的写入目标，一个下载任务对应一个实例，所有工作线程共享
+ */
+public interface RangeSink extends Closeable {
+
+    /**
+     * 开始写入文件中的一段数据
+     *
+     * @param offset      起始偏移
+     * @param length      最多写入的字节数
+     * @param onPersisted 数据写入文件后以已落盘数据的结束偏移调用（从offset起连续），用于记录断点；可为null，
+     *                    可能在其他线程中调用，不保存到文件的实现不调用
+     * @return 该段数据的写入器，只由调用线程使用
+     * @throws IOException 打开失败或之前的写入已失败
+     */
+    RangeWriter open(long offset, long length, LongConsumer onPersisted) throws IOException;
+
+    /**
+     * 等待可以写入指定分段，返回false时调用方应把分段放回队列，先处理其他分段
+     *
+     * @param timeoutMillis 最长等待时间
+     * @return 是否可以写入
+     */
+    default boolean awaitCapacity(long offset, long length, long timeoutMillis) throws InterruptedException {
+        return true;
+    }
+
+    /**
+     * 写入所有尚未落盘的数据并释放文件
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * 单个分段的写入器，数据按顺序追加
+     */
+    interface RangeWriter extends Closeable {
+
+        /**
+         * 追加数据，写缓冲已满时阻塞直到有空间
+         */
+        void write(byte[] buffer, int off, int len) throws IOException;
+
+        /**
+         * 分段数据已完整，数据写入文件后执行回调（可能在其他线程中执行）
+         *
+         * @param onPersisted 数据写入文件后的回调
+         */
+        void commit(Runnable onPersisted) throws IOException;
+
+        /**
+         * 结束写入；未提交的分段保留已写入的部分数据
+         */
+        @Override
+        void close() throws IOException;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.download.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 分段传输接口，负责为一个字节范围发起请求并返回响应流
+ *
+ * 默认实现基于HttpURLConnection（HTTP/1.1 keep-alive连接池），
+ * JDK 11及以上构建时可使用基于HttpClient的HTTP/2多路复用实现。
+ */
+public interface RangeTransport {
+
+    /**
+     * 请求文件的一个字节范围
+     *
+     * @param fileUrl   文件URL
+     * @param startByte 起始字节（包含）
+     * @param endByte   结束字节（包含）
+     * @return 范围响应，调用方负责关闭
+     * @throws IOException 请求失败
+     */
+    RangeConnection open(String fileUrl, long startByte, long endByte) throws IOException;
+
+    /**
+     * 获取传输方式名称
+     *
+     * @return 名称
+     */
+    String getName();
+
+    /**
+     * 分段请求的响应
+     */
+    interface RangeConnection extends Closeable {
+        /**
+         * @return HTTP状态码
+         */
+        int getStatusCode();
+
+        /**
+         * @return 响应体输入流
+         */
+        InputStream getInputStream() throws IOException;
+
+        /**
+         * @return 实际协商的协议版本，例如 HTTP/1.1、HTTP/2
+         */
+        String getProtocol();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.download.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务级限速器（令牌桶），由同一任务的所有工作线程共享
+ *
+ * 每读取一段数据后登记字节数，超出速率的部分使调用线程等待到对应的时刻；空闲后最多累积0.1秒的突发额度。
+ * 单次读取不应超过 {@link #getMaxReadBytes()}，使等待时间保持在1秒以内，暂停时能及时响应。
+ */
+public class RateLimiter {
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond 速率上限（字节/秒）
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(1, bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return 限速时单次读取的最大字节数
+     */
+    public int getMaxReadBytes() {
+        return (int) Math.max(1024, Math.min(Integer.MAX_VALUE, bytesPerSecond / 10));
+    }
+
+    /**
+     * 登记已读取的字节数，超出速率时等待；线程被中断时保留中断标记并立即返回
+     *
+     * @param bytes 本次读取的字节数
+     */
+    public void acquire(int bytes) {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now - BURST_NANOS);
+            nextFreeNanos += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            waitNanos = nextFreeNanos - now;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.download.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 分段重试策略：指数退避加随机抖动，并限制单个区块的重试次数和整个任务的失败总数
+ *
+ * 第n次重试的等待时间在 [d/2, d] 之间随机选取，其中 d = min(最大等待, 基础等待 × 2^(n-1))，
+ * 避免多个线程在同一时刻重新请求同一主机。
+ */
+public class RetryPolicy {
+    private int maxAttempts = 8;            // 单个区块最多重试次数
+    private int errorBudget = 64;           // 单个任务允许的失败总数
+    private long baseDelayMillis = 250;
+    private long maxDelayMillis = 15_000;
+
+    /**
+     * 计算第attempt次重试前的等待时间
+     *
+     * @param attempt 重试次数，从1开始
+     * @return 等待毫秒数
+     */
+    public long backoffMillis(int attempt) {
+        int shift = Math.max(0, Math.min(attempt - 1, 20));
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getErrorBudget() {
+        return errorBudget;
+    }
+
+    public void setErrorBudget(int errorBudget) {
+        this.errorBudget = errorBudget;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.download.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 判断下载目标所在存储是否适合顺序写入
+ *
+ * 目前只在Linux上检测：通过/proc/mounts找到目标路径所在的挂载点，网络文件系统或
+ * /sys/block/&lt;设备&gt;/queue/rotational为1的机械硬盘返回true。其他系统或无法判断时返回false。
+ */
+final class StorageProbe {
+    private static final Set<String> NETWORK_FILESYSTEMS = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb3", "smbfs", "9p", "ceph", "glusterfs", "fuse.sshfs", "fuse.glusterfs", "afs"));
+
+    private StorageProbe() {
+    }
+
+    /**
+     * @param target 下载目标文件（可以尚不存在）
+     * @return 目标位于机械硬盘或网络文件系统时返回true
+     */
+    static boolean prefersSequentialWrites(File target) {
+        Path mounts = Paths.get("/proc/mounts");
+        if (!Files.isReadable(mounts)) {
+            return false;
+        }
+        try {
+            String path = existingParent(target).getCanonicalPath();
+            String bestMountPoint = null;
+            String bestDevice = null;
+            String bestType = null;
+            for (String line : Files.readAllLines(mounts, StandardCharsets.UTF_8)) {
+                // 格式：设备 挂载点 文件系统类型 选项 ...
+                String[] fields = line.split(" ");
+                if (fields.length < 3) {
+                    continue;
+                }
+                String mountPoint = unescape(fields[1]);
+                if (isUnder(path, mountPoint) && (bestMountPoint == null || mountPoint.length() >= bestMountPoint.length())) {
+                    bestMountPoint = mountPoint;
+                    bestDevice = fields[0];
+                    bestType = fields[2];
+                }
+            }
+            if (bestType == null) {
+                return false;
+            }
+            if (NETWORK_FILESYSTEMS.contains(bestType)) {
+                return true;
+            }
+            return bestDevice.startsWith("/dev/") && isRotational(Paths.get(bestDevice).toRealPath().getFileName().toString());
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读取块设备的rotational标志，分区读取其所属磁盘的标志
+     */
+    private static boolean isRotational(String deviceName) throws IOException {
+        Path device = Paths.get("/sys/class/block", deviceName).toRealPath();
+        for (Path dir = device; dir != null && dir.startsWith("/sys/devices"); dir = dir.getParent()) {
+            Path flag = dir.resolve("queue").resolve("rotational");
+            if (Files.isReadable(flag)) {
+                List<String> lines = Files.readAllLines(flag, StandardCharsets.UTF_8);
+                return !lines.isEmpty() && "1".equals(lines.get(0).trim());
+            }
+        }
+        return false;
+    }
+
+    private static File existingParent(File target) {
+        File file = target.getAbsoluteFile();
+        while (file != null && !file.exists()) {
+            file = file.getParentFile();
+        }
+        return file != null ? file : new File("/");
+    }
+
+    private static boolean isUnder(String path, String mountPoint) {
+        if ("/".equals(mountPoint) || path.equals(mountPoint)) {
+            return true;
+        }
+        return path.startsWith(mountPoint) && path.charAt(mountPoint.length()) == '/';
+    }
+
+    /**
+     * /proc/mounts中的空格等字符以八进制转义（如\040）
+     */
+    private static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 3 < field.length()) {
+                try {
+                    builder.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+                    i += 3;
+                    continue;
+                } catch (NumberFormatException e) {
+                    // 不是转义序列，原样保留
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
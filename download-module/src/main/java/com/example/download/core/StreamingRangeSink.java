@@ -0,0 +1,267 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * 流式读取使用的有界重排缓冲：各工作线程并行写入分段，读取方按文件顺序读出，数据不经过磁盘
+ *
+ * 缓冲只接受 [读取位置, 读取位置 + 容量) 窗口内的分段，更靠后的分段等待读取方前进（背压），
+ * 等待超时的分段放回任务队列；读取位置所在的分段总是可以写入，即使超过容量，因此最靠前的区块不会被阻塞。
+ * 读取方只在下一个字节尚未到达时阻塞，分段写入一部分即可读出。
+ */
+class StreamingRangeSink implements RangeSink {
+    private static final long WAIT_MILLIS = 200;
+
+    private final DownloadTaskInfo taskInfo;
+    private final long capacityBytes;
+    private final Runnable onConsumerClosed;
+    private final Object lock = new Object();
+    // 以下字段均由lock保护
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private long readPosition;
+    private long totalSize = -1;
+    private boolean producerClosed;
+    private boolean consumerClosed;
+    private IOException failure;
+
+    /**
+     * @param taskInfo         任务信息，任务停止后等待中的写入方退出
+     * @param capacityBytes    缓冲容量
+     * @param onConsumerClosed 读取方提前关闭时的回调，用于停止下载
+     */
+    StreamingRangeSink(DownloadTaskInfo taskInfo, long capacityBytes, Runnable onConsumerClosed) {
+        this.taskInfo = taskInfo;
+        this.capacityBytes = Math.max(1, capacityBytes);
+        this.onConsumerClosed = onConsumerClosed;
+    }
+
+    /**
+     * 设置文件总大小，读取到该位置时返回结束
+     */
+    void setTotalSize(long totalSize) {
+        synchronized (lock) {
+            this.totalSize = totalSize;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 下载异常结束时记录原因，读取方读完已缓冲的数据后抛出
+     */
+    void fail(IOException cause) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = cause;
+            }
+            producerClosed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 分段超出读取窗口时等待读取方前进；超时返回false，工作线程放回该分段后先处理更靠前的分段，
+     * 避免所有工作线程都持有窗口之外的分段而无人下载读取位置处的分段
+     */
+    @Override
+    public boolean awaitCapacity(long offset, long length, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (!fitsWindow(offset, length) && !consumerClosed && !producerClosed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    private boolean fitsWindow(long offset, long length) {
+        return offset <= readPosition || offset + length <= readPosition + capacityBytes;
+    }
+
+    /**
+     * 数据不写入文件，不调用onPersisted
+     */
+    @Override
+    public RangeWriter open(long offset, long length, LongConsumer onPersisted) throws IOException {
+        synchronized (lock) {
+            while (!fitsWindow(offset, length)) {
+                checkWritable();
+                try {
+                    lock.wait(WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待重排缓冲空间时被中断");
+                }
+            }
+            checkWritable();
+            if (offset < readPosition) {
+                throw new IOException("分段已被读取: " + offset);
+            }
+            Segment segment = new Segment(offset, new byte[(int) Math.min(length, Integer.MAX_VALUE - 8)]);
+            segments.put(offset, segment);
+            return segment;
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (consumerClosed) {
+            throw new IOException("读取端已关闭");
+        }
+        if (producerClosed || taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+            throw new IOException("任务已停止");
+        }
+    }
+
+    /**
+     * 下载结束，读取方读完已缓冲的数据后返回结束或抛出异常
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            producerClosed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return 按文件顺序读取的通道
+     */
+    ReadableByteChannel channel() {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return readInOrder(dst);
+            }
+
+            @Override
+            public boolean isOpen() {
+                synchronized (lock) {
+                    return !consumerClosed;
+                }
+            }
+
+            @Override
+            public void close() {
+                boolean stopDownload;
+                synchronized (lock) {
+                    // 读完全部数据后关闭不影响下载线程正常结束
+                    stopDownload = !consumerClosed && !producerClosed && !(totalSize >= 0 && readPosition >= totalSize);
+                    consumerClosed = true;
+                    segments.clear();
+                    lock.notifyAll();
+                }
+                if (stopDownload && onConsumerClosed != null) {
+                    onConsumerClosed.run();
+                }
+            }
+        };
+    }
+
+    private int readInOrder(ByteBuffer dst) throws IOException {
+        synchronized (lock) {
+            while (true) {
+                if (consumerClosed) {
+                    throw new ClosedChannelException();
+                }
+                if (totalSize >= 0 && readPosition >= totalSize) {
+                    return -1;
+                }
+                if (!dst.hasRemaining()) {
+                    return 0;
+                }
+                Map.Entry<Long, Segment> entry = segments.floorEntry(readPosition);
+                if (entry != null) {
+                    Segment segment = entry.getValue();
+                    long available = segment.offset + segment.length - readPosition;
+                    if (available > 0) {
+                        int n = (int) Math.min(available, dst.remaining());
+                        dst.put(segment.data, (int) (readPosition - segment.offset), n);
+                        readPosition += n;
+                        // 已读完的分段释放空间，唤醒等待窗口的写入方
+                        while (!segments.isEmpty() && segments.firstEntry().getValue().isConsumed(readPosition)) {
+                            segments.pollFirstEntry();
+                        }
+                        lock.notifyAll();
+                        return n;
+                    }
+                }
+                if (producerClosed) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    throw new IOException("下载未完成，已读取 " + readPosition + " 字节");
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待数据时被中断");
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个分段的缓冲，数据由一个工作线程顺序追加
+     */
+    private class Segment implements RangeWriter {
+        private final long offset;
+        private final byte[] data;
+        private int length;
+        private boolean finished;
+
+        Segment(long offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+
+        boolean isConsumed(long position) {
+            return finished && offset + length <= position;
+        }
+
+        @Override
+        public void write(byte[] buffer, int off, int len) throws IOException {
+            synchronized (lock) {
+                if (consumerClosed) {
+                    throw new IOException("读取端已关闭");
+                }
+                if (length + len > data.length) {
+                    throw new IOException("写入数据超出分段长度");
+                }
+                System.arraycopy(buffer, off, data, length, len);
+                length += len;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void commit(Runnable onPersisted) {
+            close();
+            onPersisted.run();
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                finished = true;
+                // 没有数据的分段直接移除，重试时从同一位置重新打开
+                if (length == 0 && segments.get(offset) == this) {
+                    segments.remove(offset);
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.download.core;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * tar 和 tar.gz 格式的顺序解压
+ *
+ * 支持 ustar 的路径前缀、GNU 长文件名（L）和 pax 扩展头中的 path、size；
+ * 普通文件和目录被解压，链接和设备文件被跳过。
+ */
+class TarExtractor extends ArchiveExtractor {
+    private static final int BLOCK_SIZE = 512;
+
+    private final InputStream source;
+    private final boolean gzip;
+    private InputStream in;
+
+    /**
+     * @param source    从文件开头起的顺序读取流
+     * @param gzip      是否为 gzip 压缩的 tar
+     * @param targetDir 解压目录
+     * @param log       日志输出
+     */
+    TarExtractor(InputStream source, boolean gzip, File targetDir, Consumer<String> log) {
+        super(targetDir, log);
+        this.source = source;
+        this.gzip = gzip;
+    }
+
+    @Override
+    void extract() throws IOException {
+        // GZIPInputStream 在构造时读取头部，需在解压线程中创建
+        in = gzip ? new GZIPInputStream(source, 64 * 1024) : new BufferedInputStream(source, 64 * 1024);
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        String paxPath = null;
+        long paxSize = -1;
+        while (readBlock(header)) {
+            if (isZeroBlock(header)) {
+                // 归档结束标记
+                return;
+            }
+            if (!checksumMatches(header)) {
+                throw new IOException("tar 头部校验和错误，文件不是有效的 tar 归档");
+            }
+            char type = (char) header[156];
+            long size = paxSize >= 0 ? paxSize : parseNumber(header, 124, 12);
+            String name = paxPath != null ? paxPath : longName != null ? longName : headerName(header);
+            if (type == 'L') {
+                longName = trimNul(new String(readData(size), StandardCharsets.UTF_8));
+                skipPadding(size);
+                continue;
+            }
+            if (type == 'x') {
+                String pax = new String(readData(size), StandardCharsets.UTF_8);
+                skipPadding(size);
+                paxPath = paxValue(pax, "path");
+                String sizeValue = paxValue(pax, "size");
+                paxSize = sizeValue != null ? Long.parseLong(sizeValue) : -1;
+                continue;
+            }
+            if (type == 'g') {
+                skipFully(in, size);
+                skipPadding(size);
+                continue;
+            }
+
+            if (type == '5') {
+                createDirectory(name);
+            } else if (type == '0' || type == '\0' || type == '7') {
+                writeFile(name, bounded(in, size));
+            } else {
+                log.accept("跳过不支持的 tar 条目（类型 " + type + "）: " + name);
+                skipFully(in, size);
+            }
+            skipPadding(size);
+            longName = null;
+            paxPath = null;
+            paxSize = -1;
+        }
+    }
+
+    /**
+     * @return false表示在块边界处到达流结尾（没有结束标记的归档）
+     */
+    private boolean readBlock(byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int n = in.read(block, read, block.length - read);
+            if (n == -1) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("tar 头部不完整");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private byte[] readData(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK_SIZE) {
+            throw new IOException("tar 扩展头过大: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        int read = 0;
+        while (read < data.length) {
+            int n = in.read(data, read, data.length - read);
+            if (n == -1) {
+                throw new EOFException("tar 扩展头不完整");
+            }
+            read += n;
+        }
+        return data;
+    }
+
+    private void skipPadding(long size) throws IOException {
+        skipFully(in, (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 头部校验和：校验和字段按8个空格计算的所有字节之和
+     */
+    private static boolean checksumMatches(byte[] header) {
+        long expected = parseNumber(header, 148, 8);
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        return sum == expected;
+    }
+
+    /**
+     * 解析数值字段：八进制文本，首字节最高位为1时为 base-256 二进制（用于超过8GB的大小）
+     */
+    private static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header[offset + i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                value = value * 8 + (b - '0');
+            } else if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static String headerName(byte[] header) {
+        String name = field(header, 0, 100);
+        if (field(header, 257, 5).equals("ustar")) {
+            String prefix = field(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+
+    /**
+     * 从 pax 扩展头（每条记录为 "长度 键=值\n"）中取出指定键的值
+     */
+    private static String paxValue(String pax, String key) {
+        String value = null;
+        for (String record : pax.split("\n")) {
+            int space = record.indexOf(' ');
+            int equals = record.indexOf('=');
+            if (space > 0 && equals > space && record.substring(space + 1, equals).equals(key)) {
+                value = record.substring(equals + 1);
+            }
+        }
+        return value;
+    }
+}
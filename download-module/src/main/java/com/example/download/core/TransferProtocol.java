@@ -0,0 +1,9 @@
+package com.example.download.core;
+
+/**
+ * 分段传输使用的协议模式
+ */
+public enum TransferProtocol {
+    HTTP_1_1,   // 每个范围一个HttpURLConnection请求，复用keep-alive连接池
+    HTTP_2      // 所有范围作为同一HTTP/2连接上的并发流（需要JDK 11+）
+}
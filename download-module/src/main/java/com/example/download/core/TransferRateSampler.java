@@ -0,0 +1,255 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 下载速度采样器：一个定时线程按固定间隔采样所有正在下载的任务，计算速度和预计剩余时间
+ *
+ * 每个任务和每个主机分别维护两种速率：
+ * <ul>
+ *     <li>指数加权移动平均（EWMA），时间常数5秒，用于显示速度和计算剩余时间，单次波动不会使剩余时间大幅跳动</li>
+ *     <li>最近10秒的滑动窗口平均速率</li>
+ * </ul>
+ * 同时以指数加权方式估计速率的方差，按"平均速率±一个标准差"给出剩余时间的上下界。
+ * 采样结果写入任务信息的下载速度、已下载大小和剩余时间范围。
+ */
+public class TransferRateSampler {
+    private static final double TIME_CONSTANT_SECONDS = 5.0;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "transfer-rate-sampler");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, TaskEntry> tasks = new ConcurrentHashMap<>();
+    // 以下字段只在采样线程中访问
+    private final Map<String, RateEstimator> hosts = new HashMap<>();
+    private final Map<String, Long> hostBytes = new HashMap<>();
+    private volatile Map<String, double[]> hostRates = new HashMap<>(); // 主机 -> {EWMA速率, 窗口速率}，供其他线程读取
+
+    private ScheduledFuture<?> sampling;
+    private long intervalMillis;
+
+    /**
+     * @param intervalMillis 采样间隔
+     */
+    public TransferRateSampler(long intervalMillis) {
+        setIntervalMillis(intervalMillis);
+    }
+
+    public synchronized long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * 设置采样间隔，立即生效
+     */
+    public synchronized void setIntervalMillis(long intervalMillis) {
+        long interval = Math.max(50, intervalMillis);
+        if (sampling != null) {
+            if (interval == this.intervalMillis) {
+                return;
+            }
+            sampling.cancel(false);
+        }
+        this.intervalMillis = interval;
+        sampling = scheduler.scheduleAtFixedRate(this::sampleSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始采样一个任务，以登记时的已下载字节数作为起点，恢复下载时不会把之前下载的数据算作速度
+     *
+     * @param taskInfo        任务信息，采样结果写入其中
+     * @param host            任务所在主机，用于按主机汇总速率
+     * @param downloadedBytes 读取任务当前已下载字节数
+     */
+    public void register(DownloadTaskInfo taskInfo, String host, LongSupplier downloadedBytes) {
+        tasks.put(taskInfo.getId(), new TaskEntry(taskInfo, host != null ? host : "", downloadedBytes, System.nanoTime()));
+    }
+
+    /**
+     * 停止采样一个任务
+     *
+     * @param completed 任务是否已下载完成，完成时速度显示为本次下载的平均速度，否则为0
+     */
+    public void unregister(DownloadTaskInfo taskInfo, boolean completed) {
+        TaskEntry entry = tasks.remove(taskInfo.getId());
+        if (entry == null) {
+            return;
+        }
+        long bytes = entry.downloadedBytes.getAsLong();
+        taskInfo.setDownloadedSize(bytes);
+        double seconds = (System.nanoTime() - entry.startNanos) / 1e9;
+        if (completed && seconds > 0) {
+            taskInfo.setDownloadSpeed((bytes - entry.startBytes) / seconds / 1024.0);
+        } else {
+            taskInfo.setDownloadSpeed(0);
+        }
+        taskInfo.setEtaRange(-1, -1);
+    }
+
+    /**
+     * @return 主机当前的平滑速率（字节/秒），没有数据时为0
+     */
+    public double getHostBytesPerSecond(String host) {
+        double[] rates = hostRates.get(host);
+        return rates != null ? rates[0] : 0;
+    }
+
+    /**
+     * @return 主机最近10秒的平均速率（字节/秒），没有数据时为0
+     */
+    public double getHostWindowBytesPerSecond(String host) {
+        double[] rates = hostRates.get(host);
+        return rates != null ? rates[1] : 0;
+    }
+
+    /**
+     * @return 任务最近10秒的平均速率（字节/秒），任务未在采样时为0
+     */
+    public double getTaskWindowBytesPerSecond(String taskId) {
+        TaskEntry entry = tasks.get(taskId);
+        return entry != null ? entry.rate.windowRate : 0;
+    }
+
+    private void sampleSafely() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            // 采样异常不能终止定时任务
+        }
+    }
+
+    /**
+     * 采样所有任务一次，更新任务和主机的速率
+     */
+    void sample() {
+        long now = System.nanoTime();
+        Map<String, Long> hostDeltas = new HashMap<>();
+        for (TaskEntry entry : tasks.values()) {
+            long bytes = entry.downloadedBytes.getAsLong();
+            long delta = Math.max(0, bytes - entry.rate.lastBytes);
+            hostDeltas.merge(entry.host, delta, Long::sum);
+            entry.rate.update(bytes, now);
+            publish(entry, bytes);
+        }
+
+        for (Map.Entry<String, Long> delta : hostDeltas.entrySet()) {
+            long total = hostBytes.merge(delta.getKey(), delta.getValue(), Long::sum);
+            RateEstimator estimator = hosts.get(delta.getKey());
+            if (estimator == null) {
+                // 主机的第一次采样：本次增量按一个采样间隔计算
+                estimator = new RateEstimator(total - delta.getValue(), now - TimeUnit.MILLISECONDS.toNanos(getIntervalMillis()));
+                hosts.put(delta.getKey(), estimator);
+            }
+            estimator.update(total, now);
+        }
+        // 没有任务的主机不再统计
+        hosts.keySet().retainAll(hostDeltas.keySet());
+        hostBytes.keySet().retainAll(hostDeltas.keySet());
+        Map<String, double[]> rates = new HashMap<>();
+        for (Map.Entry<String, RateEstimator> host : hosts.entrySet()) {
+            rates.put(host.getKey(), new double[]{host.getValue().ewma, host.getValue().windowRate});
+        }
+        hostRates = rates;
+    }
+
+    /**
+     * 将速率和剩余时间写入任务信息
+     */
+    private void publish(TaskEntry entry, long bytes) {
+        DownloadTaskInfo taskInfo = entry.taskInfo;
+        RateEstimator rate = entry.rate;
+        taskInfo.setDownloadedSize(bytes);
+        taskInfo.setDownloadSpeed(rate.ewma / 1024.0);
+
+        long remaining = taskInfo.getFileSize() - bytes;
+        if (remaining <= 0) {
+            taskInfo.setEtaRange(0, 0);
+            return;
+        }
+        double deviation = Math.sqrt(rate.variance);
+        double fastRate = rate.ewma + deviation;
+        double slowRate = rate.ewma - deviation;
+        long low = fastRate > 0 ? (long) Math.ceil(remaining / fastRate) : -1;
+        long high = slowRate > 0 ? (long) Math.ceil(remaining / slowRate) : -1;
+        taskInfo.setEtaRange(low, high);
+    }
+
+    /**
+     * 正在采样的任务
+     */
+    private static class TaskEntry {
+        private final DownloadTaskInfo taskInfo;
+        private final String host;
+        private final LongSupplier downloadedBytes;
+        private final long startNanos;
+        private final long startBytes;
+        private final RateEstimator rate;
+
+        TaskEntry(DownloadTaskInfo taskInfo, String host, LongSupplier downloadedBytes, long startNanos) {
+            this.taskInfo = taskInfo;
+            this.host = host;
+            this.downloadedBytes = downloadedBytes;
+            this.startNanos = startNanos;
+            this.startBytes = downloadedBytes.getAsLong();
+            this.rate = new RateEstimator(startBytes, startNanos);
+        }
+    }
+
+    /**
+     * 由累计字节数的采样序列估计速率
+     */
+    static class RateEstimator {
+        private final ArrayDeque<long[]> window = new ArrayDeque<>(); // {采样时间, 累计字节数}
+        private long lastBytes;
+        private long lastNanos;
+        private final long startNanos;
+        double ewma;        // 平滑速率（字节/秒）
+        double variance;    // 速率的指数加权方差
+        double windowRate;  // 滑动窗口平均速率（字节/秒）
+
+        RateEstimator(long bytes, long nanos) {
+            this.lastBytes = bytes;
+            this.lastNanos = nanos;
+            this.startNanos = nanos;
+            window.addLast(new long[]{nanos, bytes});
+        }
+
+        void update(long bytes, long nanos) {
+            long elapsedNanos = nanos - lastNanos;
+            if (elapsedNanos <= 0) {
+                return;
+            }
+            double seconds = elapsedNanos / 1e9;
+            double rate = Math.max(0, bytes - lastBytes) / seconds;
+            // 按实际采样间隔换算权重，采样间隔变化时平滑程度不变；
+            // 开始的一个时间常数内权重不低于本次间隔占已采样时长的比例，平滑值等于开始以来的平均速率，不会从0缓慢爬升
+            double alpha = Math.max(1 - Math.exp(-seconds / TIME_CONSTANT_SECONDS), elapsedNanos / (double) (nanos - startNanos));
+            double diff = rate - ewma;
+            double increment = alpha * diff;
+            ewma += increment;
+            variance = (1 - alpha) * (variance + diff * increment);
+            lastBytes = bytes;
+            lastNanos = nanos;
+
+            window.addLast(new long[]{nanos, bytes});
+            while (window.size() > 2 && nanos - window.peekFirst()[0] > WINDOW_NANOS) {
+                window.pollFirst();
+            }
+            long[] oldest = window.peekFirst();
+            windowRate = nanos > oldest[0] ? Math.max(0, bytes - oldest[1]) / ((nanos - oldest[0]) / 1e9) : 0;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.example.download.core;
+
+import com.example.download.metrics.DownloadMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * 写缓冲：分段数据先写入有界内存池，由单独的写入线程按偏移升序合并后顺序写入文件
+ *
+ * 多个工作线程直接写文件时，各自的写入位置分散在整个文件中，机械硬盘和网络文件系统上大量随机写入会成为瓶颈。
+ * 本类将已收到的分段暂存在内存中，待缓冲达到一半容量、有工作线程等待空间或数据停留超过一定时间时，
+ * 一次取出全部待写分段按偏移排序，相邻的分段合并为一次聚集写入。
+ * <ul>
+ *     <li>分段开始时按分段长度从内存池申请缓冲，池已满时工作线程阻塞等待（背压），不会继续从网络读取</li>
+ *     <li>提交的回调在数据写入文件后于写入线程中执行，调用方据此记录区块完成，保证索引不会先于数据落盘</li>
+ *     <li>写入失败时通知失败处理器，之后的申请和关闭都会抛出该异常</li>
+ * </ul>
+ * 超过整个内存池容量的分段不经过缓冲，直接按位置写入。
+ */
+public class WriteBehindBuffer implements RangeSink {
+    private static final long LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(500); // 数据在缓冲中的最长停留时间
+    private static final long ACQUIRE_WAIT_MILLIS = 200;
+
+    private final FileChannel channel;
+    private final String taskId;
+    private final long capacityBytes;
+    private final long flushThresholdBytes;
+    private final Consumer<IOException> failureHandler;
+    private final DownloadEventSink events = DownloadEvents.sink();
+    private final Thread flusher;
+
+    // 以下字段均由lock保护
+    private final Object lock = new Object();
+    private final List<Segment> pending = new ArrayList<>();
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    private long allocatedBytes;    // 已分配的缓冲总量（使用中和空闲的）
+    private long pendingBytes;
+    private long oldestPendingNanos;
+    private int blockedWriters;
+    private boolean closing;
+    private IOException failure;
+
+    /**
+     * @param file           目标文件，需已存在并设置好长度
+     * @param taskId         任务ID，用于事件上报
+     * @param capacityBytes  内存池容量
+     * @param failureHandler 写入失败时在写入线程中调用，可为null
+     */
+    public WriteBehindBuffer(File file, String taskId, long capacityBytes, Consumer<IOException> failureHandler) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        this.taskId = taskId;
+        this.capacityBytes = Math.max(1, capacityBytes);
+        this.flushThresholdBytes = Math.max(1, this.capacityBytes / 2);
+        this.failureHandler = failureHandler;
+        this.flusher = new Thread(this::flushLoop, "write-behind-" + taskId);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public RangeWriter open(long offset, long length, LongConsumer onPersisted) throws IOException {
+        if (length > capacityBytes) {
+            return new DirectRangeSink.PositionalWriter(channel, taskId, offset, onPersisted);
+        }
+        return new Segment(offset, acquire((int) length), onPersisted);
+    }
+
+    /**
+     * 从内存池申请至少size字节的缓冲，池已满时等待写入线程释放空间
+     */
+    private byte[] acquire(int size) throws IOException {
+        long waitStartNanos = 0;
+        synchronized (lock) {
+            try {
+                while (true) {
+                    checkUsable();
+                    byte[] buffer = takeFreeBuffer(size);
+                    if (buffer != null) {
+                        return buffer;
+                    }
+                    // 释放尺寸不合适的空闲缓冲，为新缓冲腾出空间
+                    while (allocatedBytes + size > capacityBytes && !freeBuffers.isEmpty()) {
+                        allocatedBytes -= freeBuffers.poll().length;
+                    }
+                    if (allocatedBytes + size <= capacityBytes || allocatedBytes == 0) {
+                        allocatedBytes += size;
+                        return new byte[size];
+                    }
+                    if (waitStartNanos == 0) {
+                        waitStartNanos = System.nanoTime();
+                    }
+                    blockedWriters++;
+                    lock.notifyAll();
+                    try {
+                        lock.wait(ACQUIRE_WAIT_MILLIS);
+                    } finally {
+                        blockedWriters--;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待写缓冲空间时被中断");
+            } finally {
+                if (waitStartNanos != 0) {
+                    DownloadMetrics.WRITE_BUFFER_WAIT.observeNanos(System.nanoTime() - waitStartNanos);
+                }
+            }
+        }
+    }
+
+    private byte[] takeFreeBuffer(int size) {
+        Iterator<byte[]> iterator = freeBuffers.iterator();
+        while (iterator.hasNext()) {
+            byte[] buffer = iterator.next();
+            if (buffer.length >= size) {
+                iterator.remove();
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closing) {
+            throw new IOException("写缓冲已关闭");
+        }
+    }
+
+    /**
+     * 将写完的分段加入待写列表
+     */
+    private void submit(Segment segment) throws IOException {
+        synchronized (lock) {
+            checkUsable();
+            if (pending.isEmpty()) {
+                oldestPendingNanos = System.nanoTime();
+            }
+            pending.add(segment);
+            pendingBytes += segment.length;
+            if (pendingBytes >= flushThresholdBytes) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void release(byte[] buffer) {
+        synchronized (lock) {
+            freeBuffers.push(buffer);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 写入线程：等待刷出条件满足后取出全部待写分段，排序合并后写入文件
+     */
+    private void flushLoop() {
+        while (true) {
+            List<Segment> batch;
+            synchronized (lock) {
+                while (!shouldFlush()) {
+                    if (closing && pending.isEmpty()) {
+                        return;
+                    }
+                    try {
+                        lock.wait(pending.isEmpty() ? ACQUIRE_WAIT_MILLIS
+                                : Math.max(1, TimeUnit.NANOSECONDS.toMillis(LINGER_NANOS - (System.nanoTime() - oldestPendingNanos))));
+                    } catch (InterruptedException e) {
+                        // 写入线程只在关闭时退出，中断时继续写完剩余数据
+                    }
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                pendingBytes = 0;
+            }
+            writeBatch(batch);
+        }
+    }
+
+    private boolean shouldFlush() {
+        return !pending.isEmpty() && (closing || pendingBytes >= flushThresholdBytes || blockedWriters > 0
+                || System.nanoTime() - oldestPendingNanos >= LINGER_NANOS);
+    }
+
+    /**
+     * 按偏移升序写入一批分段，偏移相邻的分段合并为一次聚集写入
+     */
+    private void writeBatch(List<Segment> batch) {
+        batch.sort(Comparator.comparingLong(segment -> segment.offset));
+        int runStart = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            if (i == batch.size() || batch.get(i).offset != batch.get(i - 1).end()) {
+                writeRun(batch.subList(runStart, i));
+                runStart = i;
+            }
+        }
+    }
+
+    private void writeRun(List<Segment> run) {
+        boolean failed;
+        synchronized (lock) {
+            failed = failure != null;
+        }
+        if (!failed) {
+            ByteBuffer[] buffers = new ByteBuffer[run.size()];
+            long runBytes = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                Segment segment = run.get(i);
+                buffers[i] = ByteBuffer.wrap(segment.data, 0, segment.length);
+                runBytes += segment.length;
+            }
+            long runOffset = run.get(0).offset;
+            try {
+                long writeStartNanos = System.nanoTime();
+                channel.position(runOffset);
+                long written = 0;
+                while (written < runBytes) {
+                    written += channel.write(buffers);
+                }
+                long writeNanos = System.nanoTime() - writeStartNanos;
+                DownloadMetrics.DISK_WRITE_LATENCY.observeNanos(writeNanos);
+                DownloadMetrics.BYTES_WRITTEN.add(runBytes);
+                events.fileWrite(taskId, runOffset, runBytes, writeNanos);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                failed = true;
+                if (failureHandler != null) {
+                    failureHandler.accept(e);
+                }
+            }
+        }
+        for (Segment segment : run) {
+            release(segment.data);
+            // 写入失败时不执行回调，对应区块保持未完成状态
+            if (failed) {
+                continue;
+            }
+            try {
+                if (segment.progress != null) {
+                    segment.progress.accept(segment.end());
+                }
+                if (segment.onPersisted != null) {
+                    segment.onPersisted.run();
+                }
+            } catch (RuntimeException e) {
+                // 回调异常不影响其他分段
+            }
+        }
+    }
+
+    /**
+     * 写入全部待写数据后关闭文件
+     *
+     * @throws IOException 缓冲中的数据写入失败
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closing = true;
+            lock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * 一个分段的内存缓冲
+     */
+    private class Segment implements RangeWriter {
+        private final long offset;
+        private final byte[] data;
+        private final LongConsumer progress;
+        private int length;
+        private Runnable onPersisted;
+        private boolean finished;
+
+        Segment(long offset, byte[] data, LongConsumer progress) {
+            this.offset = offset;
+            this.data = data;
+            this.progress = progress;
+        }
+
+        long end() {
+            return offset + length;
+        }
+
+        @Override
+        public void write(byte[] buffer, int off, int len) throws IOException {
+            if (length + len > data.length) {
+                throw new IOException("写入数据超出分段长度");
+            }
+            System.arraycopy(buffer, off, data, length, len);
+            length += len;
+        }
+
+        @Override
+        public void commit(Runnable onPersisted) throws IOException {
+            this.onPersisted = onPersisted;
+            finish();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                finish();
+            }
+        }
+
+        private void finish() throws IOException {
+            finished = true;
+            if (length == 0 && onPersisted == null) {
+                release(data);
+                return;
+            }
+            try {
+                submit(this);
+            } catch (IOException e) {
+                release(data);
+                throw e;
+            }
+        }
+    }
+}
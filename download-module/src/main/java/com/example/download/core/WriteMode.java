@@ -0,0 +1,10 @@
+package com.example.download.core;
+
+/**
+ * 分段数据写入磁盘的方式
+ */
+public enum WriteMode {
+    DIRECT,         // 每个工作线程收到数据后直接写到文件中对应的偏移
+    WRITE_BEHIND,   // 数据先进入有界内存缓冲，由写入线程按偏移升序合并为大块顺序写入
+    AUTO            // 目标位于机械硬盘或网络文件系统时使用WRITE_BEHIND，否则使用DIRECT
+}
@@ -0,0 +1,294 @@
+package com.example.download.core;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * zip 格式的顺序解压
+ *
+ * 条目大小和压缩方式以文件末尾的中央目录为准：先用范围请求单独读取文件末尾的中央目录（已下载完的文件直接读本地），
+ * 再按本地头的偏移顺序从正在下载的文件中读出各条目，不依赖本地头中可能为0的大小（数据描述符）。
+ * 支持 ZIP64；存储（STORED）和 DEFLATE 压缩的条目被解压并校验CRC32，加密条目和其他压缩方式的条目被跳过。
+ */
+class ZipExtractor extends ArchiveExtractor {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final Charset LEGACY_CHARSET = charsetOrDefault("IBM437");
+
+    /**
+     * 读取文件指定范围的数据（中央目录位于文件末尾，通常早于顺序下载到达）
+     */
+    interface RangeReader {
+        byte[] read(long start, int length) throws IOException;
+    }
+
+    private final InputStream source;
+    private final RangeReader rangeReader;
+    private final long fileSize;
+
+    /**
+     * @param source      从文件开头起的顺序读取流
+     * @param rangeReader 读取文件末尾中央目录的方式
+     * @param fileSize    文件大小
+     * @param targetDir   解压目录
+     * @param log         日志输出
+     */
+    ZipExtractor(InputStream source, RangeReader rangeReader, long fileSize, File targetDir, Consumer<String> log) {
+        super(targetDir, log);
+        this.source = source;
+        this.rangeReader = rangeReader;
+        this.fileSize = fileSize;
+    }
+
+    @Override
+    void extract() throws IOException {
+        List<Entry> entries = readCentralDirectory();
+        entries.sort(Comparator.comparingLong(entry -> entry.localOffset));
+
+        CountingInputStream in = new CountingInputStream(new BufferedInputStream(source, 64 * 1024));
+        for (Entry entry : entries) {
+            if (entry.localOffset < in.position) {
+                throw new IOException("zip 条目数据重叠，无法顺序解压: " + entry.name);
+            }
+            skipFully(in, entry.localOffset - in.position);
+            byte[] header = readFully(in, 30);
+            if (readInt(header, 0) != LOCAL_SIGNATURE) {
+                throw new IOException("zip 本地文件头损坏: " + entry.name);
+            }
+            skipFully(in, readShort(header, 26) + readShort(header, 28));
+
+            if (entry.name.endsWith("/")) {
+                createDirectory(entry.name);
+                skipFully(in, entry.compressedSize);
+            } else if ((entry.flags & 1) != 0) {
+                log.accept("跳过加密的 zip 条目: " + entry.name);
+                skipFully(in, entry.compressedSize);
+            } else if (entry.method == METHOD_STORED || entry.method == METHOD_DEFLATED) {
+                extractEntry(in, entry);
+            } else {
+                log.accept("跳过不支持的压缩方式（" + entry.method + "）的 zip 条目: " + entry.name);
+                skipFully(in, entry.compressedSize);
+            }
+        }
+    }
+
+    private void extractEntry(InputStream in, Entry entry) throws IOException {
+        InputStream raw = bounded(in, entry.compressedSize);
+        InputStream data = raw;
+        Inflater inflater = null;
+        if (entry.method == METHOD_DEFLATED) {
+            inflater = new Inflater(true);
+            data = new InflaterInputStream(data, inflater, 64 * 1024);
+        }
+        try {
+            CheckedInputStream checked = new CheckedInputStream(data, new CRC32());
+            long written = writeFile(entry.name, checked);
+            if (written != entry.size || checked.getChecksum().getValue() != entry.crc) {
+                throw new IOException("zip 条目校验失败: " + entry.name);
+            }
+            // 压缩流结束后剩余的字节（如果有）不属于数据
+            while (raw.read(new byte[4096]) != -1) {
+                // 丢弃
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * 读取中央目录：在文件末尾查找目录结束记录（其后可能有最长64KB的注释），需要时再读取 ZIP64 结束记录
+     */
+    private List<Entry> readCentralDirectory() throws IOException {
+        int tailLength = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT + 20);
+        long tailStart = fileSize - tailLength;
+        byte[] tail = rangeReader.read(tailStart, tailLength);
+        int eocd = -1;
+        for (int i = tail.length - EOCD_SIZE; i >= 0; i--) {
+            if (readInt(tail, i) == EOCD_SIGNATURE && i + EOCD_SIZE + readShort(tail, i + 20) <= tail.length) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("找不到 zip 中央目录，文件不是有效的 zip 压缩包");
+        }
+        long entryCount = readShort(tail, eocd + 10);
+        long directorySize = readInt(tail, eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = readInt(tail, eocd + 16) & 0xFFFFFFFFL;
+
+        if (eocd >= 20 && readInt(tail, eocd - 20) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64Offset = readLong(tail, eocd - 12);
+            byte[] zip64 = rangeReader.read(zip64Offset, 56);
+            if (readInt(zip64, 0) != ZIP64_EOCD_SIGNATURE) {
+                throw new IOException("zip64 目录结束记录损坏");
+            }
+            entryCount = readLong(zip64, 32);
+            directorySize = readLong(zip64, 40);
+            directoryOffset = readLong(zip64, 48);
+        }
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > fileSize) {
+            throw new IOException("zip 中央目录位置无效");
+        }
+
+        byte[] directory = rangeReader.read(directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<>((int) Math.min(entryCount, 1 << 20));
+        int pos = 0;
+        while (pos + 46 <= directory.length && readInt(directory, pos) == CENTRAL_SIGNATURE) {
+            Entry entry = new Entry();
+            entry.flags = readShort(directory, pos + 8);
+            entry.method = readShort(directory, pos + 10);
+            entry.crc = readInt(directory, pos + 16) & 0xFFFFFFFFL;
+            entry.compressedSize = readInt(directory, pos + 20) & 0xFFFFFFFFL;
+            entry.size = readInt(directory, pos + 24) & 0xFFFFFFFFL;
+            int nameLength = readShort(directory, pos + 28);
+            int extraLength = readShort(directory, pos + 30);
+            int commentLength = readShort(directory, pos + 32);
+            entry.localOffset = readInt(directory, pos + 42) & 0xFFFFFFFFL;
+            if (pos + 46 + nameLength + extraLength > directory.length) {
+                throw new IOException("zip 中央目录不完整");
+            }
+            // 通用标志第11位表示文件名为UTF-8编码
+            Charset charset = (entry.flags & 0x800) != 0 ? StandardCharsets.UTF_8 : LEGACY_CHARSET;
+            entry.name = new String(directory, pos + 46, nameLength, charset);
+            readZip64Extra(directory, pos + 46 + nameLength, extraLength, entry);
+            entries.add(entry);
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        if (entries.size() != entryCount) {
+            throw new IOException("zip 中央目录条目数不符: " + entries.size() + "/" + entryCount);
+        }
+        return entries;
+    }
+
+    /**
+     * ZIP64 扩展字段（0x0001）：依次为原始大小、压缩大小、本地头偏移，只包含原字段为0xFFFFFFFF的项
+     */
+    private static void readZip64Extra(byte[] data, int offset, int length, Entry entry) {
+        int end = offset + length;
+        while (offset + 4 <= end) {
+            int id = readShort(data, offset);
+            int size = readShort(data, offset + 2);
+            int pos = offset + 4;
+            if (id == 0x0001) {
+                if (entry.size == 0xFFFFFFFFL && pos + 8 <= end) {
+                    entry.size = readLong(data, pos);
+                    pos += 8;
+                }
+                if (entry.compressedSize == 0xFFFFFFFFL && pos + 8 <= end) {
+                    entry.compressedSize = readLong(data, pos);
+                    pos += 8;
+                }
+                if (entry.localOffset == 0xFFFFFFFFL && pos + 8 <= end) {
+                    entry.localOffset = readLong(data, pos);
+                }
+                return;
+            }
+            offset += 4 + size;
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n == -1) {
+                throw new EOFException("zip 数据不完整");
+            }
+            read += n;
+        }
+        return data;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return readShort(data, offset) | readShort(data, offset + 2) << 16;
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return (readInt(data, offset) & 0xFFFFFFFFL) | (long) readInt(data, offset + 4) << 32;
+    }
+
+    private static Charset charsetOrDefault(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    /**
+     * 中央目录中的一个条目
+     */
+    private static class Entry {
+        String name;
+        int flags;
+        int method;
+        long crc;
+        long compressedSize;
+        long size;
+        long localOffset;
+    }
+
+    /**
+     * 记录已读取位置的输入流
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long position;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,601 @@
+package com.example.download.daemon;
+
+import com.example.download.core.MultiThreadDownloader;
+import com.example.download.manager.ConfigManager;
+import com.example.download.manager.DownloadQueueManager;
+import com.example.download.manager.TaskManager;
+import com.example.download.metrics.DownloadMetrics;
+import com.example.download.model.DownloadTaskInfo;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 无界面下载守护进程
+ *
+ * 进程内只持有一个 {@link MultiThreadDownloader} 和一个 {@link TaskManager}，任务经
+ * {@link DownloadQueueManager} 排队，同时下载的任务数不超过配置的上限。在127.0.0.1上提供HTTP/JSON控制接口：
+ * <pre>
+ * POST   /tasks                    创建任务并加入队列，请求体 {"url": "...", "savePath": "...", "threadCount": 4, "priority": 0, "compressed": false, "progressive": false}
+ * GET    /tasks?offset=0&limit=50&status=DOWNLOADING   分页列出任务
+ * GET    /tasks/{id}               查询单个任务
+ * POST   /tasks/{id}/pause         暂停任务
+ * POST   /tasks/{id}/resume        恢复任务（重新加入队列）
+ * DELETE /tasks/{id}?deleteFile=true   删除任务（可同时删除本地文件）
+ * GET    /tasks/{id}/wait?since=&lt;已下载字节&gt;&timeout=30000   长轮询，进度或状态变化时返回
+ * GET    /tasks/{id}/wait?offset=&lt;偏移&gt;&timeout=30000   等待文件中该偏移之前的数据可读取，返回中的availableBytes为连续可用字节数
+ * GET    /events?interval=1000     以SSE推送进度
+ * GET    /metrics                  Prometheus文本格式指标
+ * </pre>
+ *
+ * 每次启动生成新的访问令牌并写入只有当前用户可读的令牌文件（默认 ~/download_daemon.token），所有请求都必须带
+ * {@code Authorization: Bearer <令牌>}；Host头必须是 127.0.0.1:&lt;端口&gt; 或 localhost:&lt;端口&gt;（防DNS重绑定），
+ * POST请求的Content-Type必须是application/json（浏览器跨站表单和text/plain请求无法满足）。
+ *
+ * 用法: java DownloadDaemon [--port 17890] [--save-dir 目录] [--threads 4] [--max-active 3] [--token-file 文件]
+ */
+public class DownloadDaemon {
+    private static final int DEFAULT_PORT = 17890;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final long MAX_WAIT_MILLIS = 120_000;
+    private static final int MIN_THREAD_COUNT = 1;  // 与设置界面线程数微调器的范围一致
+    private static final int MAX_THREAD_COUNT = 32;
+    private static final String TOKEN_FILE = System.getProperty("user.home") + File.separator + "download_daemon.token";
+
+    private final MultiThreadDownloader downloader;
+    private final TaskManager taskManager;
+    private final DownloadQueueManager queueManager;
+    private final String defaultSavePath;
+    private final int defaultThreadCount;
+    private final String apiToken = generateToken();
+    private File tokenFile; // 为null时不写令牌文件，由调用方通过 getApiToken() 获取
+    private ConfigManager configManager; // 为null时不使用主机配置
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public DownloadDaemon(MultiThreadDownloader downloader, TaskManager taskManager, String defaultSavePath, int defaultThreadCount, int maxActiveTasks) {
+        this.downloader = downloader;
+        this.taskManager = taskManager;
+        this.queueManager = new DownloadQueueManager(downloader, taskManager, maxActiveTasks);
+        this.defaultSavePath = defaultSavePath;
+        this.defaultThreadCount = defaultThreadCount;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConfigManager configManager = new ConfigManager();
+        int port = DEFAULT_PORT;
+        String saveDir = configManager.getDefaultDownloadPath();
+        int threadCount = configManager.getDefaultThreadCount();
+        int maxActiveTasks = configManager.getMaxActiveTasks();
+        String tokenFile = TOKEN_FILE;
+        for (int i = 0; i < args.length; i++) {
+            if ("--port".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("--save-dir".equals(args[i]) && i + 1 < args.length) {
+                saveDir = args[++i];
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if ("--max-active".equals(args[i]) && i + 1 < args.length) {
+                maxActiveTasks = Integer.parseInt(args[++i]);
+            } else if ("--token-file".equals(args[i]) && i + 1 < args.length) {
+                tokenFile = args[++i];
+            } else {
+                System.out.println("使用方法: java DownloadDaemon [--port 端口] [--save-dir 目录] [--threads 线程数] [--max-active 最大同时下载任务数] [--token-file 令牌文件]");
+                return;
+            }
+        }
+
+        MultiThreadDownloader downloader = new MultiThreadDownloader();
+        downloader.setAdaptiveConcurrency(configManager.isAdaptiveConcurrency());
+        downloader.setWriteMode(configManager.getWriteMode());
+        downloader.setWriteBufferBytes(configManager.getWriteBufferMb() * 1024L * 1024);
+        downloader.setDownloadCache(configManager.createDownloadCache());
+        downloader.setCheckpointIntervalMillis(configManager.getCheckpointIntervalMillis());
+        downloader.setSampleIntervalMillis(configManager.getSpeedSampleIntervalMillis());
+        downloader.setSmallFileThresholdBytes(configManager.getSmallFileThresholdKb() * 1024);
+        DownloadDaemon daemon = new DownloadDaemon(downloader, new TaskManager(), saveDir, threadCount, maxActiveTasks);
+        daemon.setConfigManager(configManager);
+        daemon.setTokenFile(new File(tokenFile));
+        daemon.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "download-daemon-shutdown"));
+        System.out.println("下载守护进程已启动: http://127.0.0.1:" + daemon.getPort() + "，访问令牌: " + tokenFile);
+    }
+
+    /**
+     * 设置令牌文件：启动时写入本次运行的访问令牌（只有当前用户可读），停止时删除
+     *
+     * @param tokenFile 令牌文件，为null时不写文件
+     */
+    public void setTokenFile(File tokenFile) {
+        this.tokenFile = tokenFile;
+    }
+
+    /**
+     * 获取本次运行的访问令牌，请求需带 {@code Authorization: Bearer <令牌>}
+     */
+    public String getApiToken() {
+        return apiToken;
+    }
+
+    /**
+     * 设置配置管理器：创建任务时匹配主机配置，任务结束后记录主机的学习值
+     *
+     * @param configManager 配置管理器
+     */
+    public void setConfigManager(ConfigManager configManager) {
+        this.configManager = configManager;
+        configManager.restoreLearnedLimits(downloader.getConcurrencyController());
+        queueManager.setTaskFinishedListener(task -> configManager.recordTransfer(task, downloader.getConcurrencyController()));
+    }
+
+    /**
+     * 启动控制接口
+     *
+     * @param port 端口，0表示随机端口
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        if (tokenFile != null) {
+            writeTokenFile(tokenFile, apiToken);
+        }
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "download-daemon-http");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        Filter accessFilter = new AccessFilter();
+        server.createContext("/tasks", this::handleTasks).getFilters().add(accessFilter);
+        server.createContext("/events", this::handleEvents).getFilters().add(accessFilter);
+        server.createContext("/metrics", this::handleMetrics).getFilters().add(accessFilter);
+        server.start();
+
+        // 按保存的队列顺序继续上次未完成的任务
+        queueManager.restore();
+    }
+
+    /**
+     * 停止控制接口并暂停所有正在下载的任务，这些任务保留在队列中，下次启动时继续
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (tokenFile != null) {
+            tokenFile.delete();
+        }
+        queueManager.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleTasks(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] segments = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            if (segments.length == 1) {
+                if ("GET".equals(method)) {
+                    listTasks(exchange, query);
+                } else if ("POST".equals(method)) {
+                    createTask(exchange);
+                } else {
+                    sendError(exchange, 405, "不支持的请求方法");
+                }
+                return;
+            }
+
+            DownloadTaskInfo task = taskManager.getTask(segments[1]);
+            if (task == null) {
+                sendError(exchange, 404, "任务不存在: " + segments[1]);
+                return;
+            }
+
+            String action = segments.length > 2 ? segments[2] : "";
+            if (action.isEmpty() && "GET".equals(method)) {
+                sendJson(exchange, 200, toJson(task));
+            } else if (action.isEmpty() && "DELETE".equals(method)) {
+                deleteTask(exchange, task, Boolean.parseBoolean(query.get("deleteFile")));
+            } else if ("pause".equals(action) && "POST".equals(method)) {
+                queueManager.pause(task);
+                sendJson(exchange, 200, toJson(task));
+            } else if ("resume".equals(action) && "POST".equals(method)) {
+                queueManager.enqueue(task);
+                sendJson(exchange, 200, toJson(task));
+            } else if ("wait".equals(action) && "GET".equals(method)) {
+                waitForChange(exchange, task, query);
+            } else {
+                sendError(exchange, 404, "未知操作: " + action);
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            sendError(exchange, 500, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void listTasks(HttpExchange exchange, Map<String, String> query) throws IOException {
+        int offset = Math.max(0, parseInt(query.get("offset"), 0));
+        int limit = Math.min(MAX_PAGE_SIZE, Math.max(1, parseInt(query.get("limit"), DEFAULT_PAGE_SIZE)));
+        String status = query.get("status");
+
+        List<DownloadTaskInfo> tasks = taskManager.getSortedTasks();
+        DownloadTaskInfo.TaskStatus filter = status != null ? DownloadTaskInfo.TaskStatus.valueOf(status.toUpperCase()) : null;
+        if (filter != null) {
+            tasks.removeIf(task -> task.getStatus() != filter);
+        }
+
+        List<Object> page = new ArrayList<>();
+        for (int i = offset; i < tasks.size() && page.size() < limit; i++) {
+            page.add(toJson(tasks.get(i)));
+        }
+        // 较早完成的任务在历史记录中，排在最近的任务之后，只读取请求的这一页
+        int total = tasks.size();
+        if (filter == null || filter == DownloadTaskInfo.TaskStatus.COMPLETED) {
+            total += taskManager.getHistorySize();
+            if (page.size() < limit) {
+                for (DownloadTaskInfo task : taskManager.getHistoryPage(Math.max(0, offset - tasks.size()), limit - page.size())) {
+                    page.add(toJson(task));
+                }
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("total", total);
+        body.put("offset", offset);
+        body.put("limit", limit);
+        body.put("tasks", page);
+        sendJson(exchange, 200, body);
+    }
+
+    private void createTask(HttpExchange exchange) throws IOException {
+        Object parsed = Json.parse(readBody(exchange));
+        if (!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("请求体必须是JSON对象");
+        }
+        Map<?, ?> request = (Map<?, ?>) parsed;
+        Object url = request.get("url");
+        if (!(url instanceof String) || ((String) url).trim().isEmpty()) {
+            throw new IllegalArgumentException("缺少url");
+        }
+
+        DownloadTaskInfo taskInfo = new DownloadTaskInfo();
+        taskInfo.setUrl(((String) url).trim());
+        Object savePath = request.get("savePath");
+        taskInfo.setSavePath(savePath instanceof String ? (String) savePath : defaultSavePath);
+        taskInfo.setThreadCount(defaultThreadCount);
+        if (configManager != null) {
+            configManager.applyProfile(taskInfo);
+        }
+        // 请求中指定的线程数优先于主机配置
+        Object threadCount = request.get("threadCount");
+        if (threadCount instanceof Number) {
+            double requested = ((Number) threadCount).doubleValue();
+            if (requested < MIN_THREAD_COUNT || requested > MAX_THREAD_COUNT || requested != Math.rint(requested)) {
+                throw new IllegalArgumentException("threadCount必须是" + MIN_THREAD_COUNT + "到" + MAX_THREAD_COUNT + "之间的整数");
+            }
+            taskInfo.setThreadCount((int) requested);
+        } else if (threadCount != null) {
+            throw new IllegalArgumentException("threadCount必须是整数");
+        }
+        taskInfo.setCompressedTransfer(Boolean.TRUE.equals(request.get("compressed")));
+        taskInfo.setProgressive(Boolean.TRUE.equals(request.get("progressive")));
+        // 边下载边解压：extractDir 指定解压目录，extract 为 true 时解压到文件旁与压缩包同名的目录
+        Object extractDir = request.get("extractDir");
+        if (extractDir instanceof String && !((String) extractDir).trim().isEmpty()) {
+            taskInfo.setExtractDir(((String) extractDir).trim());
+        } else if (Boolean.TRUE.equals(request.get("extract"))) {
+            taskInfo.setExtractDir("");
+        }
+        Object priority = request.get("priority");
+        if (priority instanceof Number) {
+            taskInfo.setPriority(((Number) priority).intValue());
+        }
+        // 未指定文件名时留空，由下载开始时探测到的Content-Disposition或重定向后的URL决定
+        Object fileName = request.get("fileName");
+        if (fileName instanceof String && !((String) fileName).trim().isEmpty()) {
+            String name = ((String) fileName).trim();
+            if (name.contains("/") || name.contains("\\") || ".".equals(name) || "..".equals(name)) {
+                throw new IllegalArgumentException("fileName不能包含路径");
+            }
+            taskInfo.setFileName(name);
+        } else if (fileName != null) {
+            throw new IllegalArgumentException("fileName必须是字符串");
+        }
+
+        queueManager.enqueue(taskInfo);
+        sendJson(exchange, 201, toJson(taskInfo));
+    }
+
+    private void deleteTask(HttpExchange exchange, DownloadTaskInfo task, boolean deleteFile) throws IOException {
+        queueManager.remove(task);
+        // 尚未确定文件名的任务还没有写入任何文件，保存目录本身不能当作下载文件删除
+        if (task.getSavePath() != null && (task.getFileName() != null || !new File(task.getSavePath()).isDirectory())) {
+            if (task.getStatus() != DownloadTaskInfo.TaskStatus.COMPLETED) {
+                downloader.cleanupTaskTempFiles(resolveFilePath(task), task.getId());
+            }
+            if (deleteFile) {
+                new File(resolveFilePath(task)).delete();
+            }
+        }
+        taskManager.deleteTask(task.getId());
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("deleted", task.getId());
+        sendJson(exchange, 200, body);
+    }
+
+    /**
+     * 长轮询：任务的已下载大小或状态与请求参数不同时立即返回，否则等待到超时；
+     * 指定offset时等待该偏移之前的数据连续可用
+     */
+    private void waitForChange(HttpExchange exchange, DownloadTaskInfo task, Map<String, String> query) throws IOException {
+        long since = parseLong(query.get("since"), -1);
+        String statusParam = query.get("status");
+        long timeout = Math.min(MAX_WAIT_MILLIS, parseLong(query.get("timeout"), 30_000));
+        if (query.containsKey("offset")) {
+            long offset = parseLong(query.get("offset"), 0);
+            try {
+                downloader.waitForOffset(task, offset, timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Map<String, Object> body = toJson(task);
+            body.put("availableBytes", downloader.getAvailableBytes(task));
+            sendJson(exchange, 200, body);
+            return;
+        }
+        DownloadTaskInfo.TaskStatus status = statusParam != null ? DownloadTaskInfo.TaskStatus.valueOf(statusParam.toUpperCase()) : null;
+        try {
+            task.awaitChange(since, status, timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sendJson(exchange, 200, toJson(task));
+    }
+
+    /**
+     * 以Server-Sent Events推送正在下载或状态有变化的任务进度
+     */
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        long interval = Math.max(100, parseLong(parseQuery(exchange.getRequestURI().getRawQuery()).get("interval"), 1000));
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        Map<String, String> lastSent = new HashMap<>();
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<Object> changed = new ArrayList<>();
+                for (DownloadTaskInfo task : taskManager.getAllTasks()) {
+                    String fingerprint = task.getStatus() + ":" + task.getDownloadedSize();
+                    if (!fingerprint.equals(lastSent.put(task.getId(), fingerprint))) {
+                        changed.add(toJson(task));
+                    }
+                }
+                if (changed.isEmpty()) {
+                    out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    out.write(("event: progress\ndata: " + Json.write(changed) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                }
+                out.flush();
+                Thread.sleep(interval);
+            }
+        } catch (IOException e) {
+            // 客户端断开连接
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = DownloadMetrics.getRegistry().toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 校验每个请求：Host必须是本机回环地址加监听端口，必须带正确的访问令牌，POST请求体必须声明为JSON
+     */
+    private final class AccessFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            String port = ":" + getPort();
+            if (host == null || !(host.equalsIgnoreCase("127.0.0.1" + port) || host.equalsIgnoreCase("localhost" + port))) {
+                reject(exchange, 403, "Host不是本机地址");
+                return;
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Bearer ")
+                    || !MessageDigest.isEqual(authorization.substring(7).trim().getBytes(StandardCharsets.UTF_8), apiToken.getBytes(StandardCharsets.UTF_8))) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                reject(exchange, 401, "缺少或错误的访问令牌");
+                return;
+            }
+            if ("POST".equals(exchange.getRequestMethod())) {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                if (contentType == null || !contentType.split(";")[0].trim().equalsIgnoreCase("application/json")) {
+                    reject(exchange, 415, "Content-Type必须是application/json");
+                    return;
+                }
+            }
+            chain.doFilter(exchange);
+        }
+
+        @Override
+        public String description() {
+            return "Host、访问令牌和Content-Type校验";
+        }
+
+        private void reject(HttpExchange exchange, int status, String message) throws IOException {
+            try {
+                sendError(exchange, status, message);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private static String generateToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b & 0xff));
+        }
+        return token.toString();
+    }
+
+    /**
+     * 重新创建令牌文件，创建时即限定只有当前用户可读写，不会出现其他用户可读的窗口
+     */
+    private static void writeTokenFile(File file, String token) throws IOException {
+        Files.deleteIfExists(file.toPath());
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file.toPath());
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+        Files.write(file.toPath(), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String resolveFilePath(DownloadTaskInfo task) {
+        File saveLocation = new File(task.getSavePath());
+        if (task.getFileName() != null && (saveLocation.isDirectory() || !saveLocation.getName().contains("."))) {
+            return new File(saveLocation, task.getFileName()).getAbsolutePath();
+        }
+        return saveLocation.getAbsolutePath();
+    }
+
+    static Map<String, Object> toJson(DownloadTaskInfo task) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", task.getId());
+        json.put("url", task.getUrl());
+        json.put("fileName", task.getFileName());
+        json.put("savePath", task.getSavePath());
+        json.put("status", task.getStatus());
+        json.put("threadCount", task.getThreadCount());
+        json.put("priority", task.getPriority());
+        json.put("queueOrder", task.getQueueOrder());
+        json.put("fileSize", task.getFileSize());
+        json.put("downloadedSize", task.getDownloadedSize());
+        json.put("transferredBytes", task.getTransferredBytes());
+        json.put("progress", task.getProgress());
+        json.put("speedKBps", task.getDownloadSpeed());
+        json.put("etaSeconds", task.getEstimatedTimeRemaining());
+        json.put("etaLowSeconds", task.getEtaLowSeconds());
+        json.put("etaHighSeconds", task.getEtaHighSeconds());
+        json.put("compressed", task.isCompressedTransfer());
+        json.put("progressive", task.isProgressive());
+        json.put("extractDir", task.getExtractDir());
+        json.put("addTime", task.getAddTime() != null ? task.getAddTime().getTime() : null);
+        json.put("completedTime", task.getCompletedTime() != null ? task.getCompletedTime().getTime() : null);
+        return json;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+            }
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", message);
+        sendJson(exchange, status, body);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            try {
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                } else if (!pair.isEmpty()) {
+                    params.put(URLDecoder.decode(pair, "UTF-8"), "");
+                }
+            } catch (java.io.UnsupportedEncodingException e) {
+                // UTF-8总是可用
+            }
+        }
+        return params;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value != null ? Integer.parseInt(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        try {
+            return value != null ? Long.parseLong(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
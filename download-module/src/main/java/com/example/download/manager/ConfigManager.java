@@ -1,19 +1,62 @@
 package com.example.download.manager;
 
+import com.example.download.core.DownloadCache;
+import com.example.download.core.HostConcurrencyController;
+import com.example.download.core.TransferProtocol;
+import com.example.download.core.WriteMode;
+import com.example.download.model.DownloadTaskInfo;
+import com.example.download.model.HostProfile;
+
 import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 配置管理类，用于读取和写入配置文件
+ *
+ * 配置文件只在创建时读取一次。修改配置只更新内存，在1秒内合并为一次写入，程序退出时写出尚未保存的修改。
+ *
+ * 除全局设置外还保存按主机或URL模式匹配的主机配置（{@code profile.<配置名>.*}），以及从以往下载中学习到的
+ * 每个主机的最佳连接数和平均速度（{@code learned.<主机名>.*}）。创建任务时调用 {@link #applyProfile(DownloadTaskInfo)}
+ * 匹配主机配置，任务结束后调用 {@link #recordTransfer(DownloadTaskInfo, HostConcurrencyController)} 记录学习值。
  */
 public class ConfigManager {
     private static final String CONFIG_FILE_NAME = "download_config.properties";
     private static final String DEFAULT_DOWNLOAD_PATH_KEY = "default_download_path";
     private static final String DEFAULT_THREAD_COUNT_KEY = "default_thread_count";
     private static final String DEFAULT_CHUNK_SIZE_KEY = "default_chunk_size";
+    private static final String METRICS_PORT_KEY = "metrics_port";
+    private static final String MAX_ACTIVE_TASKS_KEY = "max_active_tasks";
+    private static final String ADAPTIVE_CONCURRENCY_KEY = "adaptive_concurrency";
+    private static final String WRITE_MODE_KEY = "write_mode";
+    private static final String WRITE_BUFFER_MB_KEY = "write_buffer_mb";
+    private static final String CHECKPOINT_INTERVAL_MS_KEY = "checkpoint_interval_ms";
+    private static final String SPEED_SAMPLE_INTERVAL_MS_KEY = "speed_sample_interval_ms";
+    private static final String SMALL_FILE_THRESHOLD_KB_KEY = "small_file_threshold_kb";
+    private static final String CACHE_DIR_KEY = "cache_dir";
+    private static final String CACHE_MAX_MB_KEY = "cache_max_mb";
+    private static final String CACHE_DEDUPLICATE_KEY = "cache_deduplicate";
+    private static final String PROFILE_PREFIX = "profile.";
+    private static final String LEARNED_PREFIX = "learned.";
+    private static final String PATTERN_SUFFIX = ".pattern";
+    private static final long SAVE_DELAY_MILLIS = 1000;
+    private static final long MIN_LEARN_FILE_SIZE = 4L * 1024 * 1024; // 小于该大小的文件速度受请求延迟影响，不记录学习值
+    private static final double SPEED_SMOOTHING = 0.3;                 // 平均速度学习值的平滑系数
     
     private Properties properties;
     private File configFile;
+    private final Map<String, HostProfile> profiles = new TreeMap<>(); // 配置名 -> 主机配置
+    private ScheduledExecutorService saveScheduler;
+    private boolean dirty;
+    private boolean saveScheduled;
     
     /**
      * 构造函数，初始化配置文件
@@ -33,8 +76,11 @@ public class ConfigManager {
             setDefaultDownloadPath(System.getProperty("user.home"));
             setDefaultThreadCount(4);
             setDefaultChunkSize(1024 * 1024); // 默认1MB
-            saveConfig();
+            flush();
         }
+        loadProfiles();
+        // 退出时写出尚未保存的修改
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "config-flush"));
     }
     
     /**
@@ -63,6 +109,37 @@ public class ConfigManager {
         }
     }
     
+    /**
+     * 标记配置已修改，在保存间隔后合并写入
+     */
+    private synchronized void markDirty() {
+        dirty = true;
+        if (saveScheduled) {
+            return;
+        }
+        if (saveScheduler == null) {
+            saveScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "config-saver");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        saveScheduled = true;
+        saveScheduler.schedule(this::flush, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 立即写出尚未保存的修改
+     */
+    public synchronized void flush() {
+        saveScheduled = false;
+        if (!dirty && configFile.exists()) {
+            return;
+        }
+        dirty = false;
+        saveConfig();
+    }
+    
     /**
      * 获取默认下载路径
      * 
@@ -79,7 +156,7 @@ public class ConfigManager {
      */
     public void setDefaultDownloadPath(String path) {
         properties.setProperty(DEFAULT_DOWNLOAD_PATH_KEY, path);
-        saveConfig();
+        markDirty();
     }
     
     /**
@@ -105,7 +182,7 @@ public class ConfigManager {
      */
     public void setDefaultThreadCount(int threadCount) {
         properties.setProperty(DEFAULT_THREAD_COUNT_KEY, String.valueOf(threadCount));
-        saveConfig();
+        markDirty();
     }
     
     /**
@@ -131,7 +208,507 @@ public class ConfigManager {
      */
     public void setDefaultChunkSize(int chunkSize) {
         properties.setProperty(DEFAULT_CHUNK_SIZE_KEY, String.valueOf(chunkSize));
-        saveConfig();
+        markDirty();
+    }
+    
+    /**
+     * 获取本地指标抓取端点端口
+     * 
+     * @return 端口，0表示不启用
+     */
+    public int getMetricsPort() {
+        String portStr = properties.getProperty(METRICS_PORT_KEY, "0");
+        try {
+            return Integer.parseInt(portStr);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * 设置本地指标抓取端点端口
+     * 
+     * @param port 端口，0表示不启用
+     */
+    public void setMetricsPort(int port) {
+        properties.setProperty(METRICS_PORT_KEY, String.valueOf(port));
+        markDirty();
+    }
+    
+    /**
+     * 获取最大同时下载任务数
+     * 
+     * @return 最大同时下载任务数，默认3
+     */
+    public int getMaxActiveTasks() {
+        String maxStr = properties.getProperty(MAX_ACTIVE_TASKS_KEY, "3");
+        try {
+            return Math.max(1, Integer.parseInt(maxStr));
+        } catch (NumberFormatException e) {
+            return 3;
+        }
+    }
+    
+    /**
+     * 设置最大同时下载任务数
+     * 
+     * @param maxActiveTasks 最大同时下载任务数
+     */
+    public void setMaxActiveTasks(int maxActiveTasks) {
+        properties.setProperty(MAX_ACTIVE_TASKS_KEY, String.valueOf(maxActiveTasks));
+        markDirty();
+    }
+    
+    /**
+     * 是否按主机自适应调整并发连接数
+     * 
+     * @return 默认true，此时线程数设置只作为初始并发数
+     */
+    public boolean isAdaptiveConcurrency() {
+        return Boolean.parseBoolean(properties.getProperty(ADAPTIVE_CONCURRENCY_KEY, "true"));
+    }
+    
+    /**
+     * 设置是否按主机自适应调整并发连接数
+     * 
+     * @param adaptiveConcurrency 是否启用
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        properties.setProperty(ADAPTIVE_CONCURRENCY_KEY, String.valueOf(adaptiveConcurrency));
+        markDirty();
+    }
+    
+    /**
+     * 获取分段数据的写入方式
+     * 
+     * @return 写入方式，默认AUTO（机械硬盘和网络文件系统上使用写缓冲）
+     */
+    public WriteMode getWriteMode() {
+        try {
+            return WriteMode.valueOf(properties.getProperty(WRITE_MODE_KEY, WriteMode.AUTO.name()).trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return WriteMode.AUTO;
+        }
+    }
+    
+    /**
+     * 设置分段数据的写入方式
+     * 
+     * @param writeMode 写入方式
+     */
+    public void setWriteMode(WriteMode writeMode) {
+        properties.setProperty(WRITE_MODE_KEY, writeMode.name());
+        markDirty();
+    }
+    
+    /**
+     * 获取每个任务的写缓冲容量
+     * 
+     * @return 容量（MB），默认64
+     */
+    public int getWriteBufferMb() {
+        String sizeStr = properties.getProperty(WRITE_BUFFER_MB_KEY, "64");
+        try {
+            return Math.max(1, Integer.parseInt(sizeStr));
+        } catch (NumberFormatException e) {
+            return 64;
+        }
+    }
+    
+    /**
+     * 设置每个任务的写缓冲容量
+     * 
+     * @param writeBufferMb 容量（MB）
+     */
+    public void setWriteBufferMb(int writeBufferMb) {
+        properties.setProperty(WRITE_BUFFER_MB_KEY, String.valueOf(writeBufferMb));
+        markDirty();
+    }
+    
+    /**
+     * 获取区块内断点的保存间隔
+     * 
+     * @return 间隔（毫秒），默认1000，为0时只在区块完成和下载结束时保存
+     */
+    public long getCheckpointIntervalMillis() {
+        String intervalStr = properties.getProperty(CHECKPOINT_INTERVAL_MS_KEY, "1000");
+        try {
+            return Math.max(0, Long.parseLong(intervalStr));
+        } catch (NumberFormatException e) {
+            return 1000;
+        }
+    }
+    
+    /**
+     * 设置区块内断点的保存间隔
+     * 
+     * @param checkpointIntervalMillis 间隔（毫秒）
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        properties.setProperty(CHECKPOINT_INTERVAL_MS_KEY, String.valueOf(checkpointIntervalMillis));
+        markDirty();
+    }
+    
+    /**
+     * 获取下载速度的采样间隔
+     * 
+     * @return 间隔（毫秒），默认1000
+     */
+    public long getSpeedSampleIntervalMillis() {
+        String intervalStr = properties.getProperty(SPEED_SAMPLE_INTERVAL_MS_KEY, "1000");
+        try {
+            return Math.max(50, Long.parseLong(intervalStr));
+        } catch (NumberFormatException e) {
+            return 1000;
+        }
+    }
+    
+    /**
+     * 设置下载速度的采样间隔
+     * 
+     * @param sampleIntervalMillis 间隔（毫秒）
+     */
+    public void setSpeedSampleIntervalMillis(long sampleIntervalMillis) {
+        properties.setProperty(SPEED_SAMPLE_INTERVAL_MS_KEY, String.valueOf(sampleIntervalMillis));
+        markDirty();
+    }
+    
+    /**
+     * 获取小文件的大小上限，不超过该大小的文件用单个请求下载
+     * 
+     * @return 大小上限（KB），默认1024，为0时所有文件都分段下载
+     */
+    public long getSmallFileThresholdKb() {
+        String thresholdStr = properties.getProperty(SMALL_FILE_THRESHOLD_KB_KEY, "1024");
+        try {
+            return Math.max(0, Long.parseLong(thresholdStr));
+        } catch (NumberFormatException e) {
+            return 1024;
+        }
+    }
+    
+    /**
+     * 设置小文件的大小上限
+     * 
+     * @param thresholdKb 大小上限（KB）
+     */
+    public void setSmallFileThresholdKb(long thresholdKb) {
+        properties.setProperty(SMALL_FILE_THRESHOLD_KB_KEY, String.valueOf(thresholdKb));
+        markDirty();
+    }
+    
+    /**
+     * 获取本地下载缓存目录
+     * 
+     * @return 缓存目录，默认为空（不使用缓存）
+     */
+    public String getCacheDir() {
+        return properties.getProperty(CACHE_DIR_KEY, "").trim();
+    }
+    
+    /**
+     * 设置本地下载缓存目录
+     * 
+     * @param cacheDir 缓存目录，为空时不使用缓存
+     */
+    public void setCacheDir(String cacheDir) {
+        properties.setProperty(CACHE_DIR_KEY, cacheDir != null ? cacheDir : "");
+        markDirty();
+    }
+    
+    /**
+     * 获取本地下载缓存的大小上限
+     * 
+     * @return 上限（MB），默认10240
+     */
+    public int getCacheMaxMb() {
+        String sizeStr = properties.getProperty(CACHE_MAX_MB_KEY, "10240");
+        try {
+            return Math.max(1, Integer.parseInt(sizeStr));
+        } catch (NumberFormatException e) {
+            return 10240;
+        }
+    }
+    
+    /**
+     * 设置本地下载缓存的大小上限
+     * 
+     * @param cacheMaxMb 上限（MB）
+     */
+    public void setCacheMaxMb(int cacheMaxMb) {
+        properties.setProperty(CACHE_MAX_MB_KEY, String.valueOf(cacheMaxMb));
+        markDirty();
+    }
+    
+    /**
+     * 获取本地下载缓存是否按内容去重
+     * 
+     * @return 是否去重，默认false
+     */
+    public boolean isCacheDeduplicate() {
+        return Boolean.parseBoolean(properties.getProperty(CACHE_DEDUPLICATE_KEY, "false"));
+    }
+    
+    /**
+     * 设置本地下载缓存是否按内容去重
+     * 
+     * @param cacheDeduplicate 是否去重
+     */
+    public void setCacheDeduplicate(boolean cacheDeduplicate) {
+        properties.setProperty(CACHE_DEDUPLICATE_KEY, String.valueOf(cacheDeduplicate));
+        markDirty();
+    }
+    
+    /**
+     * 按配置创建本地下载缓存
+     * 
+     * @return 缓存，未配置缓存目录时返回null
+     */
+    public DownloadCache createDownloadCache() {
+        String cacheDir = getCacheDir();
+        if (cacheDir.isEmpty()) {
+            return null;
+        }
+        DownloadCache cache = new DownloadCache(new File(cacheDir), getCacheMaxMb() * 1024L * 1024);
+        cache.setContentHashing(isCacheDeduplicate());
+        return cache;
+    }
+    
+    /**
+     * 从配置中读取所有主机配置，格式错误的参数按未设置处理
+     */
+    private synchronized void loadProfiles() {
+        profiles.clear();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(PROFILE_PREFIX) || !key.endsWith(PATTERN_SUFFIX)) {
+                continue;
+            }
+            String name = key.substring(PROFILE_PREFIX.length(), key.length() - PATTERN_SUFFIX.length());
+            String prefix = PROFILE_PREFIX + name + ".";
+            HostProfile profile = new HostProfile(name, properties.getProperty(key).trim());
+            profile.setConnections((int) readLong(prefix + "connections"));
+            profile.setChunkSize((int) Math.min(Integer.MAX_VALUE, readLong(prefix + "chunk_size_kb") * 1024));
+            profile.setRateLimitBytesPerSecond(readLong(prefix + "rate_limit_kb") * 1024);
+            profile.setMaxAttempts((int) readLong(prefix + "max_attempts"));
+            profile.setErrorBudget((int) readLong(prefix + "error_budget"));
+            profile.setRetryBaseDelayMillis(readLong(prefix + "retry_base_delay_ms"));
+            profile.setWriteBufferBytes(readLong(prefix + "write_buffer_mb") * 1024 * 1024);
+            profile.setProtocol(readEnum(TransferProtocol.class, prefix + "protocol"));
+            profile.setWriteMode(readEnum(WriteMode.class, prefix + "write_mode"));
+            profiles.put(name, profile);
+        }
+    }
+    
+    private long readLong(String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private <E extends Enum<E>> E readEnum(Class<E> type, String key) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private void writeProfileValue(String key, long value) {
+        if (value > 0) {
+            properties.setProperty(key, String.valueOf(value));
+        } else {
+            properties.remove(key);
+        }
+    }
+    
+    /**
+     * 获取所有主机配置
+     * 
+     * @return 主机配置的副本，按配置名排序
+     */
+    public synchronized List<HostProfile> getProfiles() {
+        List<HostProfile> result = new ArrayList<>(profiles.size());
+        for (HostProfile profile : profiles.values()) {
+            result.add(profile.copy());
+        }
+        return result;
+    }
+    
+    /**
+     * 添加或替换主机配置
+     * 
+     * @param profile 主机配置，配置名不能包含空白和点号
+     */
+    public synchronized void putProfile(HostProfile profile) {
+        String name = profile.getName();
+        if (name == null || name.isEmpty() || !name.matches("[^\\s.=:]+")) {
+            throw new IllegalArgumentException("主机配置名无效: " + name);
+        }
+        if (profile.getPattern() == null || profile.getPattern().trim().isEmpty()) {
+            throw new IllegalArgumentException("主机配置缺少匹配模式: " + name);
+        }
+        removeProfileKeys(name);
+        String prefix = PROFILE_PREFIX + name + ".";
+        properties.setProperty(prefix + "pattern", profile.getPattern().trim());
+        writeProfileValue(prefix + "connections", profile.getConnections());
+        writeProfileValue(prefix + "chunk_size_kb", profile.getChunkSize() / 1024);
+        writeProfileValue(prefix + "rate_limit_kb", profile.getRateLimitBytesPerSecond() / 1024);
+        writeProfileValue(prefix + "max_attempts", profile.getMaxAttempts());
+        writeProfileValue(prefix + "error_budget", profile.getErrorBudget());
+        writeProfileValue(prefix + "retry_base_delay_ms", profile.getRetryBaseDelayMillis());
+        writeProfileValue(prefix + "write_buffer_mb", profile.getWriteBufferBytes() / 1024 / 1024);
+        if (profile.getProtocol() != null) {
+            properties.setProperty(prefix + "protocol", profile.getProtocol().name());
+        }
+        if (profile.getWriteMode() != null) {
+            properties.setProperty(prefix + "write_mode", profile.getWriteMode().name());
+        }
+        profiles.put(name, profile.copy());
+        markDirty();
+    }
+    
+    /**
+     * 删除主机配置
+     * 
+     * @param name 配置名
+     */
+    public synchronized void removeProfile(String name) {
+        if (profiles.remove(name) != null) {
+            removeProfileKeys(name);
+            markDirty();
+        }
+    }
+    
+    private void removeProfileKeys(String name) {
+        String prefix = PROFILE_PREFIX + name + ".";
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                properties.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * 查找与URL匹配的主机配置，多个配置都匹配时取最具体的一个
+     * 
+     * @param url 下载URL
+     * @return 主机配置的副本，没有匹配的配置时返回null
+     */
+    public synchronized HostProfile matchProfile(String url) {
+        HostProfile best = null;
+        for (HostProfile profile : profiles.values()) {
+            if (profile.matches(url) && (best == null || profile.getSpecificity() > best.getSpecificity())) {
+                best = profile;
+            }
+        }
+        return best != null ? best.copy() : null;
+    }
+    
+    /**
+     * 创建任务时应用主机配置：匹配的配置随任务保存，下载时覆盖引擎的全局设置；
+     * 配置指定了连接数时替换任务的线程数。学习到的连接数不改变调用方选择的线程数，
+     * 只通过 {@link #restoreLearnedLimits(HostConcurrencyController)} 作为自适应并发的初始上限
+     * 
+     * @param taskInfo 已设置URL的任务
+     * @return 匹配的主机配置，没有时返回null
+     */
+    public HostProfile applyProfile(DownloadTaskInfo taskInfo) {
+        HostProfile profile = matchProfile(taskInfo.getUrl());
+        taskInfo.setProfile(profile);
+        if (profile != null && profile.getConnections() > 0) {
+            taskInfo.setThreadCount(profile.getConnections());
+        }
+        return profile;
+    }
+    
+    /**
+     * 获取主机学习到的最佳连接数
+     * 
+     * @param host 主机名
+     * @return 连接数，没有学习值时返回0
+     */
+    public int getLearnedConnections(String host) {
+        return (int) readLong(LEARNED_PREFIX + host + ".connections");
+    }
+    
+    /**
+     * 获取主机以往下载的平均速度
+     * 
+     * @param host 主机名
+     * @return 速度（KB/s），没有学习值时返回0
+     */
+    public long getLearnedSpeedKbps(String host) {
+        return readLong(LEARNED_PREFIX + host + ".speed_kbps");
+    }
+    
+    /**
+     * 记录一次下载的学习值：自适应并发控制器为该主机学习到的最佳连接数，以及平滑后的平均速度。
+     * 只记录下载完成且不小于4MB的任务
+     * 
+     * @param taskInfo   已结束的任务
+     * @param controller 下载引擎的并发控制器，可为null
+     */
+    public void recordTransfer(DownloadTaskInfo taskInfo, HostConcurrencyController controller) {
+        if (taskInfo.getStatus() != DownloadTaskInfo.TaskStatus.COMPLETED || taskInfo.getFileSize() < MIN_LEARN_FILE_SIZE) {
+            return;
+        }
+        String host = hostOf(taskInfo.getUrl());
+        if (host.isEmpty()) {
+            return;
+        }
+        String prefix = LEARNED_PREFIX + host + ".";
+        synchronized (this) {
+            // 并发控制器按重定向后的主机学习
+            String finalUrl = taskInfo.getRemoteInfo() != null ? taskInfo.getRemoteInfo().getFinalUrl() : null;
+            Integer learned = controller != null
+                    ? controller.getLearnedLimits().get(finalUrl != null ? hostOf(finalUrl) : host) : null;
+            if (learned != null && learned > 0) {
+                properties.setProperty(prefix + "connections", String.valueOf(learned));
+            }
+            long speed = (long) taskInfo.getDownloadSpeed();
+            if (speed > 0) {
+                long previous = readLong(prefix + "speed_kbps");
+                long smoothed = previous > 0 ? Math.round(previous + SPEED_SMOOTHING * (speed - previous)) : speed;
+                properties.setProperty(prefix + "speed_kbps", String.valueOf(smoothed));
+            }
+            markDirty();
+        }
+    }
+    
+    /**
+     * 把保存的最佳连接数交给并发控制器，自适应并发从学习值开始而不是从线程数开始
+     * 
+     * @param controller 下载引擎的并发控制器
+     */
+    public synchronized void restoreLearnedLimits(HostConcurrencyController controller) {
+        String suffix = ".connections";
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(LEARNED_PREFIX) && key.endsWith(suffix)) {
+                int connections = (int) readLong(key);
+                if (connections > 0) {
+                    controller.setLearnedLimit(key.substring(LEARNED_PREFIX.length(), key.length() - suffix.length()), connections);
+                }
+            }
+        }
+    }
+    
+    private static String hostOf(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return host != null ? host : "";
+        } catch (Exception e) {
+            return "";
+        }
     }
     
     /**
@@ -0,0 +1,199 @@
+package com.example.download.manager;
+
+import com.example.download.core.MultiThreadDownloader;
+import com.example.download.metrics.DownloadMetrics;
+import com.example.download.model.DownloadTaskInfo;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 下载队列管理器，限制同时下载的任务数并自动调度等待中的任务
+ *
+ * 加入队列的任务状态为WAITING，有空闲名额时按优先级（高者优先）、入队顺序（先到先得）依次启动。
+ * 入队顺序和优先级保存在任务信息中，随任务列表一起持久化，程序重启后按原顺序继续调度。
+ */
+public class DownloadQueueManager {
+    private static final Comparator<DownloadTaskInfo> QUEUE_ORDER =
+            Comparator.comparingInt(DownloadTaskInfo::getPriority).reversed()
+                    .thenComparingLong(DownloadTaskInfo::getQueueOrder);
+
+    private final MultiThreadDownloader downloader;
+    private final TaskManager taskManager;
+    private final Set<String> activeTaskIds = new HashSet<>();      // 下载线程尚未结束的任务，结束时在 onFinished 中释放名额
+    private final Set<String> pendingResumeIds = new HashSet<>();   // 暂停后下载线程结束前又被恢复的任务
+    private int maxActiveTasks;
+    private boolean suspended = false;
+    private Consumer<DownloadTaskInfo> taskFinishedListener; // 任务下载线程结束时的回调，例如记录主机学习值
+
+    public DownloadQueueManager(MultiThreadDownloader downloader, TaskManager taskManager, int maxActiveTasks) {
+        this.downloader = downloader;
+        this.taskManager = taskManager;
+        this.maxActiveTasks = Math.max(1, maxActiveTasks);
+    }
+
+    /**
+     * 设置任务下载线程结束（完成、暂停或失败）时的回调
+     *
+     * @param taskFinishedListener 回调，可为null
+     */
+    public synchronized void setTaskFinishedListener(Consumer<DownloadTaskInfo> taskFinishedListener) {
+        this.taskFinishedListener = taskFinishedListener;
+    }
+
+    /**
+     * 恢复上次退出时的队列：异常退出时仍处于下载中的任务重新排队，然后开始调度
+     */
+    public synchronized void restore() {
+        for (DownloadTaskInfo task : taskManager.getDownloadingTasks()) {
+            task.setStatus(DownloadTaskInfo.TaskStatus.WAITING);
+            taskManager.updateTask(task);
+        }
+        schedule();
+    }
+
+    /**
+     * 将任务加入等待队列
+     *
+     * @param task 任务信息，已完成或已在下载中的任务将被忽略
+     */
+    public synchronized void enqueue(DownloadTaskInfo task) {
+        if (task.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
+            return;
+        }
+        if (activeTaskIds.contains(task.getId())) {
+            // 已暂停但下载线程还没有结束：线程结束时再重新入队，而不是丢弃这次恢复
+            if (task.getStatus() != DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+                pendingResumeIds.add(task.getId());
+            }
+            return;
+        }
+        if (task.getStatus() != DownloadTaskInfo.TaskStatus.WAITING || task.getQueueOrder() == 0) {
+            // 重新入队的任务排到队尾
+            task.setQueueOrder(nextQueueOrder());
+        }
+        task.setStatus(DownloadTaskInfo.TaskStatus.WAITING);
+        if (taskManager.getTask(task.getId()) == null) {
+            taskManager.addTask(task);
+        } else {
+            taskManager.updateTask(task);
+        }
+        schedule();
+    }
+
+    /**
+     * 暂停任务：正在下载的任务停止下载，等待中的任务移出队列
+     */
+    public synchronized void pause(DownloadTaskInfo task) {
+        pendingResumeIds.remove(task.getId());
+        if (task.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+            downloader.pauseDownload(task);
+        } else if (task.getStatus() == DownloadTaskInfo.TaskStatus.WAITING) {
+            task.setStatus(DownloadTaskInfo.TaskStatus.PAUSED);
+        }
+        taskManager.updateTask(task);
+        schedule();
+    }
+
+    /**
+     * 从队列中移除任务，正在下载时先暂停（任务记录本身由调用方删除）；
+     * 下载线程结束前仍占用名额，避免同时下载的任务数超过上限
+     */
+    public synchronized void remove(DownloadTaskInfo task) {
+        pause(task);
+    }
+
+    /**
+     * 停止调度并暂停正在下载的任务，这些任务保持在队列中，下次 {@link #restore()} 时优先继续
+     */
+    public synchronized void shutdown() {
+        suspended = true;
+        for (String taskId : new HashSet<>(activeTaskIds)) {
+            DownloadTaskInfo task = taskManager.getTask(taskId);
+            if (task != null) {
+                downloader.pauseDownload(task);
+                task.setStatus(DownloadTaskInfo.TaskStatus.WAITING);
+                taskManager.updateTask(task);
+            }
+        }
+    }
+
+    /**
+     * 修改任务优先级，数值越大越先启动
+     */
+    public synchronized void setPriority(DownloadTaskInfo task, int priority) {
+        task.setPriority(priority);
+        taskManager.updateTask(task);
+        schedule();
+    }
+
+    /**
+     * 修改最大同时下载任务数，调大时立即启动等待中的任务；调小时不中断正在下载的任务
+     */
+    public synchronized void setMaxActiveTasks(int maxActiveTasks) {
+        this.maxActiveTasks = Math.max(1, maxActiveTasks);
+        schedule();
+    }
+
+    public synchronized int getMaxActiveTasks() {
+        return maxActiveTasks;
+    }
+
+    public synchronized int getActiveTaskCount() {
+        return activeTaskIds.size();
+    }
+
+    /**
+     * 获取按调度顺序排列的等待中任务
+     */
+    public synchronized List<DownloadTaskInfo> getWaitingTasks() {
+        List<DownloadTaskInfo> waiting = taskManager.getAllTasks();
+        waiting.removeIf(task -> task.getStatus() != DownloadTaskInfo.TaskStatus.WAITING || activeTaskIds.contains(task.getId()));
+        waiting.sort(QUEUE_ORDER);
+        return waiting;
+    }
+
+    /**
+     * 在名额允许的范围内按队列顺序启动等待中的任务
+     */
+    private void schedule() {
+        if (suspended) {
+            return;
+        }
+        List<DownloadTaskInfo> waiting = getWaitingTasks();
+        int started = 0;
+        while (activeTaskIds.size() < maxActiveTasks && started < waiting.size()) {
+            DownloadTaskInfo next = waiting.get(started++);
+            activeTaskIds.add(next.getId());
+            downloader.startDownload(next, this::onFinished);
+        }
+        DownloadMetrics.QUEUE_DEPTH.set(waiting.size() - started);
+    }
+
+    /**
+     * 下载线程结束（完成、暂停或失败）时释放名额并调度下一个任务
+     */
+    private synchronized void onFinished(DownloadTaskInfo task) {
+        activeTaskIds.remove(task.getId());
+        taskManager.updateTask(task);
+        if (taskFinishedListener != null) {
+            taskFinishedListener.accept(task);
+        }
+        if (pendingResumeIds.remove(task.getId()) && taskManager.getTask(task.getId()) != null) {
+            enqueue(task);
+        } else {
+            schedule();
+        }
+    }
+
+    private long nextQueueOrder() {
+        long max = 0;
+        for (DownloadTaskInfo task : taskManager.getAllTasks()) {
+            max = Math.max(max, task.getQueueOrder());
+        }
+        return max + 1;
+    }
+}
@@ -1,40 +1,71 @@
 package com.example.download.manager;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.stream.Collectors;
 import com.example.download.model.DownloadTaskInfo;
 
 /**
- * 任务管理器类，用于管理下载任务的历史记录
+ * 任务管理器类，用于管理下载任务的历史记录（线程安全，可被界面线程、下载线程和控制接口同时访问）
+ *
+ * 任务分两个文件保存：任务文件只保存未完成的任务和最近完成的 {@value #RECENT_COMPLETED_LIMIT} 个任务，
+ * 更早完成的任务追加到历史文件（任务文件名加 ".history"）。任务文件在第一次访问时才读取，
+ * 历史文件由后台线程只读取各块的块头建立索引，任务本身按页读取，启动时间与历史记录的多少无关。
  */
 public class TaskManager {
     private static final String TASKS_FILE = System.getProperty("user.home") + File.separator + "download_tasks.dat";
-    private List<DownloadTaskInfo> allTasks = new ArrayList<>();
-    
+    /** 保留在任务文件中的已完成任务数，更早完成的任务移入历史文件 */
+    public static final int RECENT_COMPLETED_LIMIT = 200;
+    private static final int HISTORY_MAGIC = 0x44544831; // "DTH1"
+    private static final int HISTORY_BLOCK_SIZE = 64;   // 历史文件每块的最多任务数
+    private static final int COMPACT_MIN_DELETED = 1000;
+
+    private final File tasksFile;
+    private final File historyFile;
+    private List<DownloadTaskInfo> allTasks;               // 未完成和最近完成的任务，第一次访问时加载
+    private final Set<String> deletedHistoryIds = new HashSet<>(); // 已删除但仍在历史文件中的任务
+    private List<HistoryRecord> historyIndex = new ArrayList<>();   // 历史记录索引，按完成时间升序
+    private final Map<String, HistoryRecord> historyById = new HashMap<>();
+    private final Map<String, DownloadTaskInfo> pendingHistoryUpdates = new LinkedHashMap<>(); // 索引建立前更新的、可能在历史记录中的任务
+    private boolean historyIndexed;
+
     /**
-     * 构造函数，加载历史任务
+     * 构造函数，使用用户目录下的任务文件；任务在第一次访问时加载
      */
     public TaskManager() {
-        loadTasks();
+        this(new File(TASKS_FILE));
     }
-    
+
+    /**
+     * @param tasksFile 任务文件，历史文件与其同目录
+     */
+    public TaskManager(File tasksFile) {
+        this.tasksFile = tasksFile;
+        this.historyFile = new File(tasksFile.getPath() + ".history");
+    }
+
     /**
      * 添加新任务
-     * 
+     *
      * @param taskInfo 任务信息
      */
-    public void addTask(DownloadTaskInfo taskInfo) {
+    public synchronized void addTask(DownloadTaskInfo taskInfo) {
+        ensureLoaded();
         allTasks.add(taskInfo);
         saveTasks();
     }
-    
+
     /**
-     * 更新任务信息
-     * 
+     * 更新任务信息，历史记录中的任务被更新时移回任务文件；不存在（例如已删除）的任务被忽略。
+     * 历史文件尚未建立索引时先记下，建立索引时确认任务在历史记录中才移回
+     *
      * @param taskInfo 任务信息
      */
-    public void updateTask(DownloadTaskInfo taskInfo) {
+    public synchronized void updateTask(DownloadTaskInfo taskInfo) {
+        ensureLoaded();
         for (int i = 0; i < allTasks.size(); i++) {
             if (allTasks.get(i).getId().equals(taskInfo.getId())) {
                 allTasks.set(i, taskInfo);
@@ -42,113 +73,633 @@ public class TaskManager {
                 return;
             }
         }
+        if (!historyIndexed) {
+            pendingHistoryUpdates.put(taskInfo.getId(), taskInfo);
+        } else if (removeFromHistory(taskInfo.getId())) {
+            allTasks.add(taskInfo);
+            saveTasks();
+        }
     }
-    
+
     /**
-     * 获取所有任务
-     * 
+     * 获取所有任务（不含历史记录，历史记录通过 {@link #getHistoryPage(int, int)} 按页读取）
+     *
      * @return 任务列表
      */
-    public List<DownloadTaskInfo> getAllTasks() {
+    public synchronized List<DownloadTaskInfo> getAllTasks() {
+        ensureLoaded();
         return new ArrayList<>(allTasks);
     }
-    
+
+    /**
+     * 根据ID获取任务，不在任务文件中时查找历史记录
+     *
+     * @param taskId 任务ID
+     * @return 任务信息，不存在时返回null
+     */
+    public synchronized DownloadTaskInfo getTask(String taskId) {
+        ensureLoaded();
+        for (DownloadTaskInfo task : allTasks) {
+            if (task.getId().equals(taskId)) {
+                return task;
+            }
+        }
+        awaitHistoryIndex();
+        HistoryRecord record = historyById.get(taskId);
+        if (record == null) {
+            return null;
+        }
+        try {
+            return readHistory(Collections.singletonList(record)).get(0);
+        } catch (IOException e) {
+            System.err.println("读取历史任务失败: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * 获取已完成的任务（按完成时间降序排序）
-     * 
+     *
      * @return 已完成任务列表
      */
-    public List<DownloadTaskInfo> getCompletedTasks() {
+    public synchronized List<DownloadTaskInfo> getCompletedTasks() {
+        ensureLoaded();
         return allTasks.stream()
                 .filter(task -> task.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED)
-                .sorted(Comparator.comparing(DownloadTaskInfo::getCompletedTime).reversed())
+                .sorted(Comparator.comparing(DownloadTaskInfo::getCompletedTime, Comparator.nullsFirst(Comparator.naturalOrder())).reversed())
                 .collect(Collectors.toList());
     }
-    
+
     /**
      * 获取未完成的任务（按添加时间降序排序）
-     * 
+     *
      * @return 未完成任务列表
      */
-    public List<DownloadTaskInfo> getUncompletedTasks() {
+    public synchronized List<DownloadTaskInfo> getUncompletedTasks() {
+        ensureLoaded();
         return allTasks.stream()
                 .filter(task -> task.getStatus() != DownloadTaskInfo.TaskStatus.COMPLETED)
                 .sorted(Comparator.comparing(DownloadTaskInfo::getAddTime).reversed())
                 .collect(Collectors.toList());
     }
-    
+
     /**
      * 获取正在下载的任务
-     * 
+     *
      * @return 正在下载任务列表
      */
-    public List<DownloadTaskInfo> getDownloadingTasks() {
+    public synchronized List<DownloadTaskInfo> getDownloadingTasks() {
+        ensureLoaded();
         return allTasks.stream()
                 .filter(task -> task.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING)
                 .collect(Collectors.toList());
     }
-    
+
     /**
-     * 按要求排序所有任务：
+     * 按要求排序所有任务（不含历史记录）：
      * 1. 已完成的任务按完成时间降序排序
      * 2. 未完成的任务按添加时间降序排序
-     * 
+     *
      * @return 排序后的任务列表
      */
-    public List<DownloadTaskInfo> getSortedTasks() {
+    public synchronized List<DownloadTaskInfo> getSortedTasks() {
         List<DownloadTaskInfo> completedTasks = getCompletedTasks();
         List<DownloadTaskInfo> uncompletedTasks = getUncompletedTasks();
-        
+
         List<DownloadTaskInfo> sortedTasks = new ArrayList<>();
         sortedTasks.addAll(completedTasks);
         sortedTasks.addAll(uncompletedTasks);
-        
+
         return sortedTasks;
     }
-    
+
+    /**
+     * 获取历史记录的任务数，历史文件尚未建立索引时等待索引完成
+     *
+     * @return 历史任务数
+     */
+    public synchronized int getHistorySize() {
+        ensureLoaded();
+        awaitHistoryIndex();
+        return historyIndex.size();
+    }
+
+    /**
+     * @return 历史文件是否已建立索引（此前读取历史记录需要等待）
+     */
+    public synchronized boolean isHistoryIndexed() {
+        return historyIndexed;
+    }
+
+    /**
+     * 按页读取历史记录，按完成时间降序排列（紧接在 {@link #getCompletedTasks()} 之后），只读取该页的任务
+     *
+     * @param offset 起始位置
+     * @param limit  最多读取的任务数
+     * @return 历史任务，超出范围时为空列表
+     */
+    public synchronized List<DownloadTaskInfo> getHistoryPage(int offset, int limit) {
+        ensureLoaded();
+        awaitHistoryIndex();
+        List<HistoryRecord> records = new ArrayList<>();
+        for (int i = historyIndex.size() - 1 - offset; i >= 0 && records.size() < limit; i--) {
+            records.add(historyIndex.get(i));
+        }
+        try {
+            return readHistory(records);
+        } catch (IOException e) {
+            System.err.println("读取历史任务失败: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
     /**
      * 删除任务
-     * 
+     *
      * @param taskId 任务ID
      */
-    public void deleteTask(String taskId) {
-        allTasks.removeIf(task -> task.getId().equals(taskId));
+    public synchronized void deleteTask(String taskId) {
+        ensureLoaded();
+        if (!allTasks.removeIf(task -> task.getId().equals(taskId))) {
+            pendingHistoryUpdates.remove(taskId);
+            removeFromHistory(taskId);
+        }
         saveTasks();
     }
-    
+
     /**
-     * 保存任务列表到文件
+     * 将历史记录中的任务标记为已删除；历史文件尚未建立索引时先记下，建立索引时排除，
+     * 不在历史文件中的记录随后丢弃
+     *
+     * @return 索引已建立且任务在历史记录中时返回true
+     */
+    private boolean removeFromHistory(String taskId) {
+        if (!historyIndexed) {
+            if (historyFile.exists()) {
+                deletedHistoryIds.add(taskId);
+            }
+            return false;
+        }
+        HistoryRecord record = historyById.remove(taskId);
+        if (record == null) {
+            return false;
+        }
+        historyIndex.remove(record);
+        deletedHistoryIds.add(taskId);
+        return true;
+    }
+
+    /**
+     * 第一次访问时读取任务文件，然后在后台为历史文件建立索引
+     */
+    private void ensureLoaded() {
+        if (allTasks != null) {
+            return;
+        }
+        loadTasks();
+        // 旧版本的任务文件包含全部已完成的任务，第一次加载时把较早的任务移入历史文件
+        if (countCompleted() > RECENT_COMPLETED_LIMIT) {
+            saveTasks();
+        }
+        if (historyFile.exists()) {
+            long scanEnd = historyFile.length();
+            Thread indexer = new Thread(() -> buildHistoryIndex(scanEnd), "task-history-index");
+            indexer.setDaemon(true);
+            indexer.start();
+        } else {
+            historyIndexed = true;
+        }
+    }
+
+    private void awaitHistoryIndex() {
+        boolean interrupted = false;
+        while (!historyIndexed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int countCompleted() {
+        int count = 0;
+        for (DownloadTaskInfo task : allTasks) {
+            if (task.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 保存任务列表到文件，最近完成的任务之外的已完成任务先追加到历史文件
      */
     private void saveTasks() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(TASKS_FILE))) {
+        archiveOldCompleted();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tasksFile)))) {
             oos.writeObject(allTasks);
+            // 旧版本只读取第一个对象，新增的删除记录写在其后
+            oos.writeObject(new HashSet<>(deletedHistoryIds));
         } catch (IOException e) {
             System.err.println("保存任务列表失败: " + e.getMessage());
         }
     }
-    
+
     /**
      * 从文件加载任务列表
      */
+    @SuppressWarnings("unchecked")
     private void loadTasks() {
-        File file = new File(TASKS_FILE);
-        if (!file.exists()) {
+        allTasks = new ArrayList<>();
+        if (!tasksFile.exists()) {
             return;
         }
-        
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(TASKS_FILE))) {
+
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(tasksFile)))) {
             List<DownloadTaskInfo> loadedTasks = (List<DownloadTaskInfo>) ois.readObject();
             // 确保列表不为null且不包含null元素
             if (loadedTasks != null) {
                 allTasks = loadedTasks.stream()
                         .filter(task -> task != null)
                         .collect(Collectors.toList());
-            } else {
-                allTasks = new ArrayList<>();
+            }
+            try {
+                deletedHistoryIds.addAll((Set<String>) ois.readObject());
+            } catch (EOFException e) {
+                // 旧版本的任务文件没有删除记录
             }
         } catch (IOException | ClassNotFoundException e) {
             System.err.println("加载任务列表失败: " + e.getMessage());
-            allTasks = new ArrayList<>();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 已完成的任务超过 {@value #RECENT_COMPLETED_LIMIT} 个时，把较早完成的任务追加到历史文件并从任务列表移除
+     */
+    private void archiveOldCompleted() {
+        List<DownloadTaskInfo> completed = allTasks.stream()
+                .filter(task -> task.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED)
+                .sorted(Comparator.comparing(DownloadTaskInfo::getCompletedTime, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .collect(Collectors.toList());
+        if (completed.size() <= RECENT_COMPLETED_LIMIT) {
+            return;
+        }
+        List<DownloadTaskInfo> archived = completed.subList(0, completed.size() - RECENT_COMPLETED_LIMIT);
+        try {
+            appendHistory(archived);
+        } catch (IOException e) {
+            // 追加失败时任务留在任务文件中，下次保存时重试
+            System.err.println("写入历史记录失败: " + e.getMessage());
+            return;
+        }
+        Set<DownloadTaskInfo> archivedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        archivedSet.addAll(archived);
+        allTasks.removeIf(archivedSet::contains);
+    }
+
+    /**
+     * 向历史文件追加任务
+     */
+    private void appendHistory(List<DownloadTaskInfo> tasks) throws IOException {
+        long offset = historyFile.length();
+        List<HistoryRecord> appended;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(historyFile, true)))) {
+            if (offset == 0) {
+                out.writeInt(HISTORY_MAGIC);
+                offset = 4;
+            }
+            appended = writeBlocks(out, offset, tasks);
+        }
+        // 索引尚未建立时新记录暂存在列表中，索引完成时合并
+        for (HistoryRecord record : appended) {
+            deletedHistoryIds.remove(record.id);
+            HistoryRecord previous = historyById.put(record.id, record);
+            if (previous != null) {
+                historyIndex.remove(previous);
+            }
+            historyIndex.add(record);
+        }
+    }
+
+    /**
+     * 按块写出历史任务。每块最多 {@value #HISTORY_BLOCK_SIZE} 个任务：任务数、各任务的ID和完成时间、数据长度、
+     * 序列化的任务列表。同一块中的任务共用类描述，建立索引时只读取块头
+     *
+     * @param offset 第一块在文件中的位置
+     * @return 写出的各任务的位置
+     */
+    private static List<HistoryRecord> writeBlocks(DataOutputStream out, long offset, List<DownloadTaskInfo> tasks) throws IOException {
+        List<HistoryRecord> records = new ArrayList<>(tasks.size());
+        for (int from = 0; from < tasks.size(); from += HISTORY_BLOCK_SIZE) {
+            List<DownloadTaskInfo> block = new ArrayList<>(tasks.subList(from, Math.min(tasks.size(), from + HISTORY_BLOCK_SIZE)));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(block);
+            }
+            int sizeBefore = out.size();
+            out.writeInt(block.size());
+            for (int i = 0; i < block.size(); i++) {
+                DownloadTaskInfo task = block.get(i);
+                long completedTime = task.getCompletedTime() != null ? task.getCompletedTime().getTime() : 0;
+                out.writeUTF(task.getId());
+                out.writeLong(completedTime);
+                records.add(new HistoryRecord(offset, i, task.getId(), completedTime));
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            offset += out.size() - sizeBefore;
+        }
+        return records;
+    }
+
+    /**
+     * 后台线程：读取历史文件中各块的块头建立索引，不反序列化任务
+     *
+     * @param scanEnd 开始建立索引时的文件长度，之后追加的记录已在内存中登记
+     */
+    private void buildHistoryIndex(long scanEnd) {
+        List<HistoryRecord> scanned = new ArrayList<>();
+        long validEnd = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(historyFile), 64 * 1024))) {
+            if (scanEnd >= 4 && in.readInt() == HISTORY_MAGIC) {
+                validEnd = scanBlocks(in, 4, scanEnd, scanned);
+            } else {
+                System.err.println("历史记录文件格式错误: " + historyFile);
+            }
+        } catch (IOException e) {
+            System.err.println("读取历史记录索引失败: " + e.getMessage());
+        }
+
+        boolean compact;
+        synchronized (this) {
+            Set<String> activeIds = new HashSet<>();
+            for (DownloadTaskInfo task : allTasks) {
+                activeIds.add(task.getId());
+            }
+            Map<String, HistoryRecord> byId = new LinkedHashMap<>();
+            for (HistoryRecord record : scanned) {
+                byId.put(record.id, record);
+            }
+            // 建立索引期间追加的记录覆盖文件中的同一任务；位于扫描范围内的记录（如迁移时追加的）已经计入
+            int recordCount = scanned.size();
+            for (HistoryRecord record : historyIndex) {
+                byId.remove(record.id);
+                byId.put(record.id, record);
+                if (record.blockOffset >= scanEnd) {
+                    recordCount++;
+                }
+            }
+            // 只保留历史文件中确实存在的任务的删除记录
+            deletedHistoryIds.retainAll(byId.keySet());
+            byId.keySet().removeAll(deletedHistoryIds);
+            byId.keySet().removeAll(activeIds);
+
+            // 建立索引期间被更新的任务，确认在历史记录中时才移回任务列表
+            boolean moved = false;
+            for (DownloadTaskInfo task : pendingHistoryUpdates.values()) {
+                if (byId.remove(task.getId()) != null) {
+                    deletedHistoryIds.add(task.getId());
+                    allTasks.add(task);
+                    moved = true;
+                }
+            }
+            pendingHistoryUpdates.clear();
+
+            List<HistoryRecord> index = new ArrayList<>(byId.values());
+            index.sort(Comparator.comparingLong(record -> record.completedTime));
+            setHistoryIndex(index);
+            historyIndexed = true;
+            notifyAll();
+            if (moved) {
+                saveTasks();
+            }
+
+            int removed = recordCount - index.size();
+            compact = removed > 0 && (removed >= COMPACT_MIN_DELETED || removed * 4 >= recordCount);
+            if (!compact && validEnd > 0 && validEnd < scanEnd) {
+                if (historyFile.length() == scanEnd) {
+                    truncateHistory(validEnd);
+                } else {
+                    // 不完整的块之后已追加了新块，截断会丢失它们，改为重写
+                    compact = true;
+                }
+            }
+        }
+        if (compact) {
+            compactHistory();
+        }
+    }
+
+    /**
+     * 读取从offset到end之间各块的块头，遇到不完整的块时停止
+     *
+     * @return 最后一个完整的块的结束位置
+     */
+    private static long scanBlocks(DataInputStream in, long offset, long end, List<HistoryRecord> records) {
+        long validEnd = offset;
+        List<HistoryRecord> block = new ArrayList<>(HISTORY_BLOCK_SIZE);
+        try {
+            while (offset < end) {
+                int count = in.readInt();
+                long headerLength = 4 + 4;
+                block.clear();
+                for (int i = 0; i < count; i++) {
+                    String id = in.readUTF();
+                    block.add(new HistoryRecord(offset, i, id, in.readLong()));
+                    headerLength += 2 + utfLength(id) + 8;
+                }
+                int length = in.readInt();
+                if (count <= 0 || length < 0 || offset + headerLength + length > end) {
+                    break;
+                }
+                skipFully(in, length);
+                records.addAll(block);
+                offset += headerLength + length;
+                validEnd = offset;
+            }
+        } catch (IOException e) {
+            // 末尾不完整的块（写入时进程退出）被忽略
+            System.err.println("读取历史记录索引时遇到不完整的记录: " + e.getMessage());
+        }
+        return validEnd;
+    }
+
+    private void setHistoryIndex(List<HistoryRecord> index) {
+        historyIndex = index;
+        historyById.clear();
+        for (HistoryRecord record : index) {
+            historyById.put(record.id, record);
+        }
+    }
+
+    /**
+     * 重写历史文件，去掉已删除和重复的记录（删除的记录较多时在建立索引后执行）。
+     * 在锁外按索引快照写出临时文件，不阻塞界面线程读取任务；替换文件时在锁内补上期间追加的块并更新索引
+     */
+    private void compactHistory() {
+        List<HistoryRecord> snapshot;
+        long snapshotLength;
+        synchronized (this) {
+            snapshot = new ArrayList<>(historyIndex);
+            snapshotLength = historyFile.length();
+        }
+
+        File compacted = new File(historyFile.getPath() + ".tmp");
+        Map<String, HistoryRecord> movedById = new HashMap<>();
+        long compactedLength;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+            out.writeInt(HISTORY_MAGIC);
+            // 按块读出快照中的任务，重新组成完整的块；追加只写在文件末尾，快照中的位置不会失效
+            for (int from = 0; from < snapshot.size(); from += HISTORY_BLOCK_SIZE * 16) {
+                List<HistoryRecord> batch = snapshot.subList(from, Math.min(snapshot.size(), from + HISTORY_BLOCK_SIZE * 16));
+                for (HistoryRecord record : writeBlocks(out, out.size(), readHistory(batch))) {
+                    movedById.put(record.id, record);
+                }
+            }
+            compactedLength = out.size();
+        } catch (IOException e) {
+            System.err.println("整理历史记录失败: " + e.getMessage());
+            compacted.delete();
+            return;
+        }
+
+        synchronized (this) {
+            long shift = compactedLength - snapshotLength;
+            Set<String> fileIds = new HashSet<>(movedById.keySet());
+            try {
+                // 整理期间追加的块原样复制到新文件末尾
+                long tailLength = historyFile.length() - snapshotLength;
+                if (tailLength > 0) {
+                    try (RandomAccessFile source = new RandomAccessFile(historyFile, "r");
+                         FileOutputStream target = new FileOutputStream(compacted, true)) {
+                        source.seek(snapshotLength);
+                        byte[] tail = new byte[(int) tailLength];
+                        source.readFully(tail);
+                        target.write(tail);
+                        List<HistoryRecord> tailRecords = new ArrayList<>();
+                        scanBlocks(new DataInputStream(new ByteArrayInputStream(tail)), snapshotLength, snapshotLength + tailLength, tailRecords);
+                        for (HistoryRecord record : tailRecords) {
+                            fileIds.add(record.id);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("整理历史记录失败: " + e.getMessage());
+                compacted.delete();
+                return;
+            }
+            // 当前索引反映了整理期间的删除和追加：快照中的记录换成新位置，追加的记录整体平移
+            List<HistoryRecord> index = new ArrayList<>(historyIndex.size());
+            for (HistoryRecord record : historyIndex) {
+                HistoryRecord moved = record.blockOffset >= snapshotLength
+                        ? new HistoryRecord(record.blockOffset + shift, record.indexInBlock, record.id, record.completedTime)
+                        : movedById.get(record.id);
+                if (moved == null) {
+                    System.err.println("整理历史记录失败: 找不到任务 " + record.id);
+                    compacted.delete();
+                    return;
+                }
+                index.add(moved);
+            }
+            // 直接替换，任何时刻历史文件都完整存在；替换失败时保留原文件和原索引
+            try {
+                try {
+                    Files.move(compacted.toPath(), historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(compacted.toPath(), historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                System.err.println("整理历史记录失败: 无法替换 " + historyFile + ": " + e.getMessage());
+                compacted.delete();
+                return;
+            }
+            setHistoryIndex(index);
+            deletedHistoryIds.retainAll(fileIds);
+            saveTasks();
+        }
+    }
+
+    private void truncateHistory(long length) {
+        try (RandomAccessFile file = new RandomAccessFile(historyFile, "rw")) {
+            file.setLength(length);
+        } catch (IOException e) {
+            System.err.println("截断历史记录失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按记录位置读取历史任务，同一块中的任务只反序列化一次
+     */
+    @SuppressWarnings("unchecked")
+    private List<DownloadTaskInfo> readHistory(List<HistoryRecord> records) throws IOException {
+        List<DownloadTaskInfo> tasks = new ArrayList<>(records.size());
+        if (records.isEmpty()) {
+            return tasks;
+        }
+        Map<Long, List<DownloadTaskInfo>> blocks = new HashMap<>();
+        try (RandomAccessFile file = new RandomAccessFile(historyFile, "r")) {
+            for (HistoryRecord record : records) {
+                List<DownloadTaskInfo> block = blocks.get(record.blockOffset);
+                if (block == null) {
+                    file.seek(record.blockOffset);
+                    int count = file.readInt();
+                    for (int i = 0; i < count; i++) {
+                        file.readUTF();
+                        file.readLong();
+                    }
+                    byte[] data = new byte[file.readInt()];
+                    file.readFully(data);
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                        block = (List<DownloadTaskInfo>) ois.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException("历史任务格式错误: " + record.id, e);
+                    }
+                    blocks.put(record.blockOffset, block);
+                }
+                tasks.add(block.get(record.indexInBlock));
+            }
+        }
+        return tasks;
+    }
+
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+
+    private static void skipFully(DataInputStream in, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("历史记录不完整");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * 历史文件中一个任务的位置
+     */
+    private static class HistoryRecord {
+        final long blockOffset;  // 所在块在文件中的位置
+        final int indexInBlock;  // 在块中的序号
+        final String id;
+        final long completedTime;
+
+        HistoryRecord(long blockOffset, int indexInBlock, String id, long completedTime) {
+            this.blockOffset = blockOffset;
+            this.indexInBlock = indexInBlock;
+            this.id = id;
+            this.completedTime = completedTime;
+        }
+    }
+}
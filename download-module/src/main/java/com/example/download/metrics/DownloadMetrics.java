@@ -0,0 +1,64 @@
+package com.example.download.metrics;
+
+/**
+ * 下载引擎的标准指标集合
+ *
+ * 所有指标注册在同一个 {@link MetricsRegistry} 中，可通过 {@link #getRegistry()} 以编程方式读取，
+ * 或由 {@link MetricsHttpServer} 以文本格式对外暴露。
+ */
+public final class DownloadMetrics {
+    private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final Counter BYTES_RECEIVED = REGISTRY.counter(
+            "download_bytes_received_total", "从网络接收的字节数");
+    public static final Counter BYTES_WRITTEN = REGISTRY.counter(
+            "download_bytes_written_total", "写入磁盘的字节数");
+    public static final Gauge ACTIVE_CONNECTIONS = REGISTRY.gauge(
+            "download_active_connections", "当前活动的分段连接数");
+    public static final Gauge ACTIVE_TASKS = REGISTRY.gauge(
+            "download_active_tasks", "当前正在下载的任务数");
+    public static final Gauge QUEUE_DEPTH = REGISTRY.gauge(
+            "download_queue_depth", "等待调度的任务数");
+    public static final Counter RANGES_COMPLETED = REGISTRY.counter(
+            "download_ranges_completed_total", "成功完成的分段数");
+    public static final Counter RANGES_FAILED = REGISTRY.counter(
+            "download_ranges_failed_total", "失败的分段请求数");
+    public static final Counter RANGE_RETRIES = REGISTRY.counter(
+            "download_range_retries_total", "分段重试次数");
+    public static final Histogram RANGE_LATENCY = REGISTRY.histogram(
+            "download_range_latency_seconds", "单个分段从发起请求到写完的耗时");
+    public static final Histogram FIRST_BYTE_LATENCY = REGISTRY.histogram(
+            "download_range_first_byte_seconds", "分段请求到收到响应头的耗时");
+    public static final Histogram DISK_WRITE_LATENCY = REGISTRY.histogram(
+            "download_disk_write_seconds", "单次磁盘写入耗时");
+    public static final Histogram WRITE_BUFFER_WAIT = REGISTRY.histogram(
+            "download_write_buffer_wait_seconds", "写缓冲已满时工作线程等待空间的耗时");
+    public static final Counter CACHE_HITS = REGISTRY.counter(
+            "download_cache_hits_total", "从本地缓存直接生成目标文件的任务数");
+    public static final Counter CACHE_MISSES = REGISTRY.counter(
+            "download_cache_misses_total", "本地缓存未命中的任务数");
+    public static final Counter SMALL_FILES = REGISTRY.counter(
+            "download_small_files_total", "以单个请求下载完成的小文件数");
+    public static final Counter EXTRACTED_ENTRIES = REGISTRY.counter(
+            "download_extracted_entries_total", "边下载边解压写出的文件数");
+
+    private static final String HOST_BYTES_NAME = "download_host_bytes_received_total";
+    private static final String HOST_BYTES_HELP = "按主机统计的接收字节数";
+
+    private DownloadMetrics() {
+    }
+
+    public static MetricsRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    /**
+     * 获取指定主机的接收字节计数器，调用方应在分段开始时获取一次并在读循环中复用
+     *
+     * @param host 主机名
+     * @return 计数器
+     */
+    public static Counter hostBytesReceived(String host) {
+        return REGISTRY.counter(HOST_BYTES_NAME, HOST_BYTES_HELP, "host", host != null ? host : "");
+    }
+}
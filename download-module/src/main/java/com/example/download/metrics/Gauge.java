@@ -0,0 +1,26 @@
+package com.example.download.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可增可减的瞬时值指标，例如活动连接数、队列长度
+ */
+public class Gauge {
+    private final AtomicLong value = new AtomicLong();
+
+    public void inc() {
+        value.incrementAndGet();
+    }
+
+    public void dec() {
+        value.decrementAndGet();
+    }
+
+    public void set(long newValue) {
+        value.set(newValue);
+    }
+
+    public long get() {
+        return value.get();
+    }
+}
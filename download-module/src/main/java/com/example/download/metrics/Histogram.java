@@ -0,0 +1,74 @@
+package com.example.download.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定桶边界的延迟直方图（单位：秒），记录时只做数组查找和LongAdder累加
+ */
+public class Histogram {
+    /** 默认桶边界：1ms到60s */
+    public static final double[] DEFAULT_BUCKETS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private final double[] upperBounds;
+    private final long[] upperBoundNanos;
+    private final LongAdder[] bucketCounts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    public Histogram(double[] upperBounds) {
+        this.upperBounds = upperBounds.clone();
+        this.upperBoundNanos = new long[upperBounds.length];
+        this.bucketCounts = new LongAdder[upperBounds.length];
+        for (int i = 0; i < upperBounds.length; i++) {
+            upperBoundNanos[i] = (long) (upperBounds[i] * 1_000_000_000L);
+            bucketCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void observeNanos(long nanos) {
+        for (int i = 0; i < upperBoundNanos.length; i++) {
+            if (nanos <= upperBoundNanos[i]) {
+                bucketCounts[i].increment();
+                break;
+            }
+        }
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    public double[] getUpperBounds() {
+        return upperBounds.clone();
+    }
+
+    /**
+     * 获取各桶的累计计数（小于等于对应边界的样本数）
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[bucketCounts.length];
+        long running = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            running += bucketCounts[i].sum();
+            cumulative[i] = running;
+        }
+        return cumulative;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1_000_000_000.0;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.download.metrics;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 指标注册表，按名称管理计数器、瞬时值和直方图，并输出Prometheus文本格式
+ *
+ * 每个指标族最多带一个标签（例如 host），标签值对应的子指标在首次使用时创建，
+ * 调用方应缓存返回的子指标对象，避免在热路径上重复查找。
+ */
+public class MetricsRegistry {
+    private final Map<String, Family<?>> families = new LinkedHashMap<>();
+
+    /**
+     * 注册或获取无标签计数器
+     */
+    public Counter counter(String name, String help) {
+        return family(name, help, "counter", null, Counter::new).child("");
+    }
+
+    /**
+     * 注册或获取带标签的计数器
+     */
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return family(name, help, "counter", labelName, Counter::new).child(labelValue);
+    }
+
+    /**
+     * 注册或获取无标签瞬时值
+     */
+    public Gauge gauge(String name, String help) {
+        return family(name, help, "gauge", null, Gauge::new).child("");
+    }
+
+    /**
+     * 注册或获取无标签直方图
+     */
+    public Histogram histogram(String name, String help) {
+        return family(name, help, "histogram", null, Histogram::new).child("");
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Family<T> family(String name, String help, String type, String labelName, Supplier<T> factory) {
+        Family<?> family = families.get(name);
+        if (family == null) {
+            family = new Family<>(name, help, type, labelName, factory);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("指标类型冲突: " + name);
+        }
+        return (Family<T>) family;
+    }
+
+    /**
+     * 获取指定指标的当前值（计数器/瞬时值），不存在时返回0
+     *
+     * @param name       指标名
+     * @param labelValue 标签值，无标签指标传null
+     * @return 当前值
+     */
+    public synchronized long getValue(String name, String labelValue) {
+        Family<?> family = families.get(name);
+        if (family == null) {
+            return 0;
+        }
+        Object metric = family.children.get(labelValue != null ? labelValue : "");
+        if (metric instanceof Counter) {
+            return ((Counter) metric).get();
+        } else if (metric instanceof Gauge) {
+            return ((Gauge) metric).get();
+        } else if (metric instanceof Histogram) {
+            return ((Histogram) metric).getCount();
+        }
+        return 0;
+    }
+
+    /**
+     * 以Prometheus文本格式输出所有指标
+     *
+     * @param out 输出目标
+     */
+    public void writeText(Appendable out) throws IOException {
+        Family<?>[] snapshot;
+        synchronized (this) {
+            snapshot = families.values().toArray(new Family<?>[0]);
+        }
+        for (Family<?> family : snapshot) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, ?> entry : new TreeMap<>(family.children).entrySet()) {
+                String labels = family.labelName == null ? "" : family.labelName + "=\"" + escape(entry.getKey()) + "\"";
+                Object metric = entry.getValue();
+                if (metric instanceof Histogram) {
+                    writeHistogram(out, family.name, labels, (Histogram) metric);
+                } else {
+                    long value = metric instanceof Counter ? ((Counter) metric).get() : ((Gauge) metric).get();
+                    out.append(family.name).append(labels.isEmpty() ? "" : "{" + labels + "}")
+                            .append(' ').append(Long.toString(value)).append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Prometheus文本格式的全部指标
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeText(sb);
+        } catch (IOException e) {
+            // StringBuilder不会抛出IOException
+        }
+        return sb.toString();
+    }
+
+    private void writeHistogram(Appendable out, String name, String labels, Histogram histogram) throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        double[] bounds = histogram.getUpperBounds();
+        long[] cumulative = histogram.getCumulativeCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(Double.toString(bounds[i]))
+                    .append("\"} ").append(Long.toString(cumulative[i])).append('\n');
+        }
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ")
+                .append(Long.toString(histogram.getCount())).append('\n');
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ').append(Double.toString(histogram.getSumSeconds())).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(Long.toString(histogram.getCount())).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * 同名指标族
+     */
+    private static class Family<T> {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String labelName;
+        private final Supplier<T> factory;
+        private final Map<String, T> children = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type, String labelName, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+            this.factory = factory;
+        }
+
+        T child(String labelValue) {
+            return children.computeIfAbsent(labelValue, key -> factory.get());
+        }
+    }
+}
@@ -2,12 +2,14 @@ package com.example.download.model;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 下载任务信息类，用于记录下载任务的详细信息
  */
 public class DownloadTaskInfo implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong(); // 同一毫秒内创建的任务按序号区分
     
     public enum TaskStatus {
         WAITING,    // 等待中
@@ -23,12 +25,23 @@ public class DownloadTaskInfo implements Serializable {
     private String savePath;          // 保存路径
     private String fileName;          // 文件名
     private int threadCount;          // 线程数
-    private TaskStatus status;        // 任务状态
+    private volatile TaskStatus status; // 任务状态（下载线程与界面线程共享）
     private Date addTime;             // 添加时间
     private Date completedTime;       // 完成时间
     private long fileSize;            // 文件大小
-    private long downloadedSize;      // 已下载大小
+    private volatile long downloadedSize; // 已下载大小（下载线程与界面、守护进程线程共享）
     private double downloadSpeed;     // 下载速度（KB/s）
+    private long etaLowSeconds = -1;  // 预计剩余时间下界（秒），按平均速度加一个标准差计算
+    private long etaHighSeconds = -1; // 预计剩余时间上界（秒），按平均速度减一个标准差计算，-1表示无法估计
+    private boolean compressedTransfer; // 是否启用压缩传输（单流整体下载，边下载边解压）
+    private long transferredBytes;    // 实际网络传输字节数（压缩传输时小于已下载大小）
+    private int priority;             // 队列优先级，数值越大越先启动
+    private long queueOrder;          // 入队顺序，同优先级时先入队的先启动
+    private boolean progressive;      // 是否按偏移顺序下载，使文件开头的数据尽早可读
+    private volatile RemoteFileInfo remoteInfo; // 最近一次HEAD请求得到的远程文件信息
+    private HostProfile profile;      // 创建任务时匹配的主机配置，为null时使用全局设置
+    private String extractDir;        // 边下载边解压的目录，为null时不解压，为空字符串时解压到文件旁与压缩包同名的目录
+    private transient volatile int changeWaiters; // 正在 awaitChange 中等待的线程数，为0时修改进度不加锁
     
     public DownloadTaskInfo() {
         this.id = generateId();
@@ -36,13 +49,23 @@ public class DownloadTaskInfo implements Serializable {
         this.status = TaskStatus.WAITING;
     }
     
+    /**
+     * 使用指定ID创建任务，相同ID的任务共用同一个断点续传临时目录（.temp-{id}）
+     * 
+     * @param id 任务ID
+     */
+    public DownloadTaskInfo(String id) {
+        this();
+        this.id = id;
+    }
+    
     /**
      * 生成任务ID
      * 
      * @return 任务ID
      */
     private String generateId() {
-        return "task_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+        return "task_" + System.currentTimeMillis() + "_" + ID_SEQUENCE.incrementAndGet();
     }
     
     // Getters and Setters
@@ -91,6 +114,7 @@ public class DownloadTaskInfo implements Serializable {
         if (status == TaskStatus.COMPLETED) {
             this.completedTime = new Date();
         }
+        signalChange();
     }
     
     public Date getAddTime() {
@@ -115,6 +139,43 @@ public class DownloadTaskInfo implements Serializable {
     
     public void setDownloadedSize(long downloadedSize) {
         this.downloadedSize = downloadedSize;
+        signalChange();
+    }
+    
+    /**
+     * 等待任务的已下载大小或状态发生变化
+     *
+     * @param downloadedSize 调用方已知的已下载大小
+     * @param status         调用方已知的状态，为null时只等待已下载大小变化
+     * @param timeoutMillis  最长等待时间（毫秒）
+     * @return 超时前是否发生了变化
+     */
+    public boolean awaitChange(long downloadedSize, TaskStatus status, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            changeWaiters++;
+            try {
+                while (this.downloadedSize == downloadedSize && (status == null || this.status == status)) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait(remaining);
+                }
+                return true;
+            } finally {
+                changeWaiters--;
+            }
+        }
+    }
+    
+    private void signalChange() {
+        // 先写字段再读等待数，与 awaitChange 先写等待数再读字段配对（均为volatile），不会漏掉通知
+        if (changeWaiters > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
     }
     
     public double getDownloadSpeed() {
@@ -125,6 +186,89 @@ public class DownloadTaskInfo implements Serializable {
         this.downloadSpeed = downloadSpeed;
     }
     
+    /**
+     * @return 预计剩余时间的下界（秒），无法计算时返回-1
+     */
+    public long getEtaLowSeconds() {
+        return status == TaskStatus.DOWNLOADING ? etaLowSeconds : -1;
+    }
+    
+    /**
+     * @return 预计剩余时间的上界（秒），无法计算时返回-1
+     */
+    public long getEtaHighSeconds() {
+        return status == TaskStatus.DOWNLOADING ? etaHighSeconds : -1;
+    }
+    
+    public void setEtaRange(long etaLowSeconds, long etaHighSeconds) {
+        this.etaLowSeconds = etaLowSeconds;
+        this.etaHighSeconds = etaHighSeconds;
+    }
+    
+    public boolean isCompressedTransfer() {
+        return compressedTransfer;
+    }
+    
+    public void setCompressedTransfer(boolean compressedTransfer) {
+        this.compressedTransfer = compressedTransfer;
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+    
+    public long getQueueOrder() {
+        return queueOrder;
+    }
+    
+    public void setQueueOrder(long queueOrder) {
+        this.queueOrder = queueOrder;
+    }
+    
+    public boolean isProgressive() {
+        return progressive;
+    }
+    
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+    
+    public String getExtractDir() {
+        return extractDir;
+    }
+    
+    public void setExtractDir(String extractDir) {
+        this.extractDir = extractDir;
+    }
+    
+    public RemoteFileInfo getRemoteInfo() {
+        return remoteInfo;
+    }
+    
+    public void setRemoteInfo(RemoteFileInfo remoteInfo) {
+        this.remoteInfo = remoteInfo;
+    }
+    
+    public HostProfile getProfile() {
+        return profile;
+    }
+    
+    public void setProfile(HostProfile profile) {
+        this.profile = profile;
+    }
+    
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+    
+    public void setTransferredBytes(long transferredBytes) {
+        this.transferredBytes = transferredBytes;
+    }
+    
     /**
      * 获取下载进度百分比
      * 
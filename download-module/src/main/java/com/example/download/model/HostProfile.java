@@ -0,0 +1,214 @@
+package com.example.download.model;
+
+import com.example.download.core.TransferProtocol;
+import com.example.download.core.WriteMode;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 主机配置：按主机名或URL模式匹配的一组下载参数，创建任务时匹配并随任务保存
+ *
+ * 模式不含 "://" 时与主机名比较（不区分大小写），例如 {@code mirror.example.com} 或 {@code *.example.com}；
+ * 含 "://" 时与完整URL比较，例如 {@code https://cdn.example.com/releases/*}。{@code *} 匹配任意字符，{@code ?} 匹配单个字符。
+ * 数值为0、枚举为null的参数未设置，下载时使用引擎的全局设置。
+ */
+public class HostProfile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;                  // 配置名
+    private String pattern;               // 主机名或URL模式
+    private int connections;              // 连接数（任务线程数）
+    private int chunkSize;                // 分块大小（字节）
+    private long rateLimitBytesPerSecond; // 任务限速（字节/秒）
+    private int maxAttempts;              // 单个区块最多重试次数
+    private int errorBudget;              // 单个任务允许的失败总数
+    private long retryBaseDelayMillis;    // 重试的基础等待时间
+    private long writeBufferBytes;        // 写缓冲容量（字节）
+    private TransferProtocol protocol;    // 传输协议
+    private WriteMode writeMode;          // 写入方式
+    private transient Pattern compiled;
+
+    public HostProfile() {
+    }
+
+    public HostProfile(String name, String pattern) {
+        this.name = name;
+        this.pattern = pattern;
+    }
+
+    /**
+     * 判断URL是否匹配本配置
+     *
+     * @param url 下载URL
+     * @return 是否匹配
+     */
+    public boolean matches(String url) {
+        if (pattern == null || pattern.isEmpty() || url == null) {
+            return false;
+        }
+        if (compiled == null) {
+            compiled = Pattern.compile(globToRegex(pattern), Pattern.CASE_INSENSITIVE);
+        }
+        return compiled.matcher(isUrlPattern() ? url : hostOf(url)).matches();
+    }
+
+    /**
+     * 匹配的具体程度：多个配置都匹配时取最具体的一个。URL模式比主机名模式具体，同类模式中通配符以外的字符越多越具体
+     */
+    public int getSpecificity() {
+        if (pattern == null) {
+            return 0;
+        }
+        int literal = pattern.replace("*", "").replace("?", "").length();
+        return isUrlPattern() ? 10000 + literal : literal;
+    }
+
+    private boolean isUrlPattern() {
+        return pattern.contains("://");
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = new java.net.URL(url).getHost();
+            return host != null ? host.toLowerCase(Locale.ROOT) : "";
+        } catch (java.net.MalformedURLException e) {
+            return "";
+        }
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * @return 参数相同的副本，随任务保存后不受配置修改的影响
+     */
+    public HostProfile copy() {
+        HostProfile copy = new HostProfile(name, pattern);
+        copy.connections = connections;
+        copy.chunkSize = chunkSize;
+        copy.rateLimitBytesPerSecond = rateLimitBytesPerSecond;
+        copy.maxAttempts = maxAttempts;
+        copy.errorBudget = errorBudget;
+        copy.retryBaseDelayMillis = retryBaseDelayMillis;
+        copy.writeBufferBytes = writeBufferBytes;
+        copy.protocol = protocol;
+        copy.writeMode = writeMode;
+        return copy;
+    }
+
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+        this.compiled = null;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public long getRateLimitBytesPerSecond() {
+        return rateLimitBytesPerSecond;
+    }
+
+    public void setRateLimitBytesPerSecond(long rateLimitBytesPerSecond) {
+        this.rateLimitBytesPerSecond = rateLimitBytesPerSecond;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getErrorBudget() {
+        return errorBudget;
+    }
+
+    public void setErrorBudget(int errorBudget) {
+        this.errorBudget = errorBudget;
+    }
+
+    public long getRetryBaseDelayMillis() {
+        return retryBaseDelayMillis;
+    }
+
+    public void setRetryBaseDelayMillis(long retryBaseDelayMillis) {
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+    }
+
+    public long getWriteBufferBytes() {
+        return writeBufferBytes;
+    }
+
+    public void setWriteBufferBytes(long writeBufferBytes) {
+        this.writeBufferBytes = writeBufferBytes;
+    }
+
+    public TransferProtocol getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(TransferProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void setWriteMode(WriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    @Override
+    public String toString() {
+        return "HostProfile{" +
+                "name='" + name + '\'' +
+                ", pattern='" + pattern + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.download.model;
+
+import java.io.Serializable;
+
+/**
+ * HEAD请求得到的远程文件信息
+ *
+ * 创建任务时探测一次并随任务保存，在有效期内开始或恢复下载时直接复用，不再重复发送HEAD请求。
+ */
+public class RemoteFileInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long size;
+    private final String etag;           // 没有时为null
+    private final String lastModified;   // Last-Modified响应头原文，没有时为null
+    private final boolean acceptRanges;  // 服务器是否声明支持分段请求（Accept-Ranges: bytes）
+    private final String finalUrl;       // 跟随重定向后的最终地址
+    private final String contentType;    // 没有时为null
+    private final String fileName;       // Content-Disposition中的文件名，没有时为null
+    private final long probedAt;         // 探测时间（毫秒）
+
+    public RemoteFileInfo(long size, String etag, String lastModified, boolean acceptRanges,
+                          String finalUrl, String contentType, String fileName, long probedAt) {
+        this.size = size;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.acceptRanges = acceptRanges;
+        this.finalUrl = finalUrl;
+        this.contentType = contentType;
+        this.fileName = fileName;
+        this.probedAt = probedAt;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isAcceptRanges() {
+        return acceptRanges;
+    }
+
+    public String getFinalUrl() {
+        return finalUrl;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getProbedAt() {
+        return probedAt;
+    }
+
+    /**
+     * @return 是否有可用于判断文件是否变化的校验信息（ETag或Last-Modified）
+     */
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * @param ttlMillis 有效期
+     * @return 探测结果是否仍在有效期内
+     */
+    public boolean isFresh(long ttlMillis) {
+        long age = System.currentTimeMillis() - probedAt;
+        return age >= 0 && age < ttlMillis;
+    }
+
+    /**
+     * 判断两次探测得到的是否为同一文件内容：大小相同，且双方都有的校验信息相同
+     */
+    public boolean isSameContent(RemoteFileInfo other) {
+        if (other == null || size != other.size) {
+            return false;
+        }
+        if (etag != null && other.etag != null && !etag.equals(other.etag)) {
+            return false;
+        }
+        return lastModified == null || other.lastModified == null || lastModified.equals(other.lastModified);
+    }
+}
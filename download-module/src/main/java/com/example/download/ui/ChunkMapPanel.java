@@ -0,0 +1,248 @@
+package com.example.download.ui;
+
+import com.example.download.core.ChunkBitmap;
+import com.example.download.core.ChunkMapSnapshot;
+import com.example.download.core.ChunkPlan;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseEvent;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 区块图：每个格子对应一个或多个相邻区块，颜色深浅表示完成比例，有连接正在下载的格子以橙色描边
+ *
+ * 区块数超过可显示的格子数时每格合并多个区块，10万个以上的区块也只绘制固定数量的格子。
+ * 每次更新只比较各格的显示级别，只重绘发生变化的行；绘制时只画裁剪区域内的格子。
+ */
+class ChunkMapPanel extends JComponent {
+    private static final int MIN_CELL_SIZE = 4;
+    private static final int MAX_CELL_SIZE = 14;
+    private static final int GAP = 1;
+    private static final int LEVELS = 16;           // 完成比例的显示级别数
+    private static final Color EMPTY_COLOR = new Color(225, 225, 225);
+    private static final Color DONE_COLOR = new Color(67, 160, 71);
+    private static final Color ACTIVE_COLOR = new Color(255, 143, 0);
+    private static final Color[] LEVEL_COLORS = new Color[LEVELS + 1];
+
+    static {
+        for (int i = 0; i <= LEVELS; i++) {
+            float t = (float) i / LEVELS;
+            LEVEL_COLORS[i] = new Color(
+                    Math.round(EMPTY_COLOR.getRed() + (DONE_COLOR.getRed() - EMPTY_COLOR.getRed()) * t),
+                    Math.round(EMPTY_COLOR.getGreen() + (DONE_COLOR.getGreen() - EMPTY_COLOR.getGreen()) * t),
+                    Math.round(EMPTY_COLOR.getBlue() + (DONE_COLOR.getBlue() - EMPTY_COLOR.getBlue()) * t));
+        }
+    }
+
+    private ChunkMapSnapshot snapshot;
+    private String message = "暂无分块信息";
+    private int chunkCount;
+    private int chunksPerCell = 1;
+    private int cellCount;
+    private int columns = 1;
+    private int cellSize = MAX_CELL_SIZE;
+    private byte[] levels = new byte[0];                // 每格的完成级别
+    private Set<Integer> activeCells = new HashSet<>(); // 有连接正在下载的格子
+
+    ChunkMapPanel() {
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        setPreferredSize(new Dimension(0, 160));
+        ToolTipManager.sharedInstance().registerComponent(this);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                layoutCells();
+                recomputeLevels(true);
+                repaint();
+            }
+        });
+    }
+
+    /**
+     * 更新区块状态，只重绘发生变化的行
+     *
+     * @param snapshot 区块状态快照，为null时显示提示文字
+     * @param message  没有快照时显示的提示
+     */
+    void setSnapshot(ChunkMapSnapshot snapshot, String message) {
+        this.message = message;
+        if (snapshot == null) {
+            boolean changed = this.snapshot != null;
+            this.snapshot = null;
+            chunkCount = 0;
+            cellCount = 0;
+            levels = new byte[0];
+            activeCells = new HashSet<>();
+            if (changed || message != null) {
+                repaint();
+            }
+            return;
+        }
+        boolean relayout = this.snapshot == null || snapshot.getChunkCount() != chunkCount;
+        this.snapshot = snapshot;
+        if (relayout) {
+            chunkCount = snapshot.getChunkCount();
+            layoutCells();
+        }
+        recomputeLevels(relayout);
+    }
+
+    /**
+     * @return 每个格子包含的区块数
+     */
+    int getChunksPerCell() {
+        return chunksPerCell;
+    }
+
+    /**
+     * 按组件大小选择格子尺寸：格子从大到小尝试，放不下全部区块时每格合并多个区块
+     */
+    private void layoutCells() {
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        cellSize = MAX_CELL_SIZE;
+        while (cellSize > MIN_CELL_SIZE && capacity(width, height, cellSize) < chunkCount) {
+            cellSize--;
+        }
+        long capacity = Math.max(1, capacity(width, height, cellSize));
+        chunksPerCell = (int) Math.max(1, (chunkCount + capacity - 1) / capacity);
+        cellCount = (chunkCount + chunksPerCell - 1) / chunksPerCell;
+        columns = Math.max(1, width / (cellSize + GAP));
+        levels = new byte[cellCount];
+        activeCells = new HashSet<>();
+    }
+
+    private static long capacity(int width, int height, int size) {
+        return (long) (width / (size + GAP)) * (height / (size + GAP));
+    }
+
+    /**
+     * 重新计算各格的完成级别，记录变化的格子所在行的范围并只重绘这些行
+     *
+     * @param full 是否全部重绘（布局已改变）
+     */
+    private void recomputeLevels(boolean full) {
+        if (snapshot == null || cellCount == 0) {
+            return;
+        }
+        ChunkPlan plan = snapshot.getPlan();
+        ChunkBitmap completed = snapshot.getCompleted();
+        // 部分完成的区块按已接收比例计入所在格子，这类区块只有少数几个
+        Map<Integer, Double> partialFractions = new HashMap<>();
+        for (Map.Entry<Integer, Long> entry : snapshot.getPartialBytes().entrySet()) {
+            int chunk = entry.getKey();
+            if (chunk < chunkCount && !completed.get(chunk)) {
+                double fraction = Math.min(1.0, (double) entry.getValue() / plan.lengthOf(chunk));
+                partialFractions.merge(chunk / chunksPerCell, fraction, Double::sum);
+            }
+        }
+        Set<Integer> newActive = new HashSet<>();
+        for (ChunkMapSnapshot.Connection connection : snapshot.getConnections()) {
+            if (connection.getChunkIndex() >= 0 && connection.getChunkIndex() < chunkCount) {
+                newActive.add(connection.getChunkIndex() / chunksPerCell);
+            }
+        }
+
+        int firstDirty = Integer.MAX_VALUE;
+        int lastDirty = -1;
+        for (int cell = 0; cell < cellCount; cell++) {
+            int from = cell * chunksPerCell;
+            int to = Math.min(chunkCount, from + chunksPerCell);
+            double done = completed.cardinality(from, to);
+            Double partial = partialFractions.get(cell);
+            if (partial != null) {
+                done += partial;
+            }
+            byte level = (byte) Math.min(LEVELS, (int) (done * LEVELS / (to - from)));
+            if (level != levels[cell] || newActive.contains(cell) != activeCells.contains(cell)) {
+                levels[cell] = level;
+                firstDirty = Math.min(firstDirty, cell);
+                lastDirty = cell;
+            }
+        }
+        for (Integer cell : activeCells) {
+            if (!newActive.contains(cell)) {
+                firstDirty = Math.min(firstDirty, cell);
+                lastDirty = Math.max(lastDirty, cell);
+            }
+        }
+        activeCells = newActive;
+
+        if (full) {
+            repaint();
+        } else if (lastDirty >= 0) {
+            int step = cellSize + GAP;
+            int firstRow = firstDirty / columns;
+            int lastRow = lastDirty / columns;
+            repaint(0, firstRow * step, getWidth(), (lastRow - firstRow + 1) * step);
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        if (snapshot == null || cellCount == 0) {
+            if (message != null) {
+                g.setColor(Color.GRAY);
+                FontMetrics metrics = g.getFontMetrics();
+                g.drawString(message, Math.max(0, (getWidth() - metrics.stringWidth(message)) / 2), getHeight() / 2);
+            }
+            return;
+        }
+
+        int step = cellSize + GAP;
+        int firstRow = Math.max(0, clip.y / step);
+        int lastRow = Math.min((cellCount - 1) / columns, (clip.y + clip.height) / step);
+        int firstColumn = Math.max(0, clip.x / step);
+        int lastColumn = Math.min(columns - 1, (clip.x + clip.width) / step);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                if (cell >= cellCount) {
+                    break;
+                }
+                int x = column * step;
+                int y = row * step;
+                g.setColor(LEVEL_COLORS[levels[cell]]);
+                g.fillRect(x, y, cellSize, cellSize);
+                if (activeCells.contains(cell)) {
+                    g.setColor(ACTIVE_COLOR);
+                    g.drawRect(x, y, cellSize - 1, cellSize - 1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        if (snapshot == null || cellCount == 0) {
+            return null;
+        }
+        int step = cellSize + GAP;
+        int column = event.getX() / step;
+        int cell = (event.getY() / step) * columns + column;
+        if (column >= columns || cell >= cellCount) {
+            return null;
+        }
+        ChunkPlan plan = snapshot.getPlan();
+        int from = cell * chunksPerCell;
+        int to = Math.min(chunkCount, from + chunksPerCell) - 1;
+        int done = snapshot.getCompleted().cardinality(from, to + 1);
+        String chunks = from == to ? "区块 " + from : "区块 " + from + "-" + to;
+        return chunks + "，偏移 " + plan.startOf(from) + "-" + plan.endOf(to) + "，已完成 " + done + "/" + (to - from + 1)
+                + (activeCells.contains(cell) ? "，下载中" : "");
+    }
+}
@@ -8,17 +8,33 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import com.example.download.core.ChunkMapSnapshot;
+import com.example.download.core.MultiThreadDownloader;
 import com.example.download.model.DownloadTaskInfo;
 
 /**
  * 下载详情对话框，显示下载任务的详细信息和进度
+ *
+ * 分块下载进度以区块图显示下载引擎中的真实区块状态，并列出每个正在进行的连接及其速度，
+ * 速度不到各连接中位数一半的连接标记为偏慢，便于发现拖慢下载的分段和慢速镜像。
  */
 public class DownloadDetailDialog extends JDialog {
+    private static final double SLOW_CONNECTION_RATIO = 0.5;   // 速度低于中位数的该比例时视为偏慢
+    private static final long SLOW_CONNECTION_MIN_MILLIS = 2000; // 请求进行超过该时间后才判断是否偏慢
+
     private DownloadTaskInfo taskInfo;
+    private MultiThreadDownloader downloader;
     private JProgressBar totalProgressBar;
-    private JTable chunkProgressTable;
-    private DefaultTableModel chunkProgressModel;
+    private ChunkMapPanel chunkMapPanel;
+    private JLabel chunkSummaryLabel;
+    private JTable connectionTable;
+    private DefaultTableModel connectionModel;
+    private DownloadTaskInfo.TaskStatus lastChunkMapStatus; // 任务未在下载时断点索引不变，状态不变时不重复读取
+    private SwingWorker<ChunkMapSnapshot, Void> indexLoader; // 在后台读取未在下载的任务的断点索引
     private JTextArea logTextArea;
     private Timer refreshTimer;
     private DecimalFormat df = new DecimalFormat("0.00");
@@ -27,12 +43,11 @@ public class DownloadDetailDialog extends JDialog {
     private JTextField downloadedSizeField;
     private JTextField speedField;
     private JTextField remainingTimeField;
-    // 保存平均下载速度，用于下载完成后显示
-    private double averageDownloadSpeed = 0.0;
 
-    public DownloadDetailDialog(JFrame parent, DownloadTaskInfo taskInfo) {
+    public DownloadDetailDialog(JFrame parent, DownloadTaskInfo taskInfo, MultiThreadDownloader downloader) {
         super(parent, "下载详情 - " + taskInfo.getFileName(), true);
         this.taskInfo = taskInfo;
+        this.downloader = downloader;
         
         initializeUI();
         startRefreshTimer();
@@ -114,7 +129,7 @@ public class DownloadDetailDialog extends JDialog {
         
         // 剩余时间信息区域
         JPanel remainingTimePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        remainingTimeField = new JTextField(15);
+        remainingTimeField = new JTextField(28);
         remainingTimeField.setEditable(false);
         remainingTimePanel.add(new JLabel("剩余时间:"));
         remainingTimePanel.add(remainingTimeField);
@@ -128,39 +143,38 @@ public class DownloadDetailDialog extends JDialog {
         
         progressTabPanel.add(totalProgressPanel, BorderLayout.CENTER);
         
-        // 分块下载进度表格
-        JPanel chunkProgressPanel = new JPanel(new BorderLayout());
+        // 分块下载进度：区块图和正在进行的连接
+        JPanel chunkProgressPanel = new JPanel(new BorderLayout(0, 5));
         chunkProgressPanel.setBorder(BorderFactory.createTitledBorder("分块下载进度"));
         
-        String[] columnNames = {"分块ID", "开始字节", "结束字节", "大小", "状态", "下载进度"};
-        chunkProgressModel = new DefaultTableModel(columnNames, 0) {
+        chunkSummaryLabel = new JLabel(" ");
+        chunkProgressPanel.add(chunkSummaryLabel, BorderLayout.NORTH);
+        
+        chunkMapPanel = new ChunkMapPanel();
+        chunkProgressPanel.add(chunkMapPanel, BorderLayout.CENTER);
+        
+        String[] columnNames = {"连接", "区块", "范围", "已接收", "速度", "耗时", "状态"};
+        connectionModel = new DefaultTableModel(columnNames, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
                 return false;
             }
         };
         
-        chunkProgressTable = new JTable(chunkProgressModel);
+        connectionTable = new JTable(connectionModel);
         // 设置自动调整列宽模式，让表格内容铺满整个宽度
-        chunkProgressTable.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
+        connectionTable.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
         
         // 设置网格线可见
-        chunkProgressTable.setShowGrid(true);
-        chunkProgressTable.setGridColor(Color.GRAY);
+        connectionTable.setShowGrid(true);
+        connectionTable.setGridColor(Color.GRAY);
         
         // 确保表头与表体之间有分隔线
-        chunkProgressTable.getTableHeader().setBorder(BorderFactory.createEtchedBorder());
+        connectionTable.getTableHeader().setBorder(BorderFactory.createEtchedBorder());
         
-        // 设置列宽，表格会根据需要自动调整
-        chunkProgressTable.getColumnModel().getColumn(0).setPreferredWidth(60);
-        chunkProgressTable.getColumnModel().getColumn(1).setPreferredWidth(100);
-        chunkProgressTable.getColumnModel().getColumn(2).setPreferredWidth(100);
-        chunkProgressTable.getColumnModel().getColumn(3).setPreferredWidth(100);
-        chunkProgressTable.getColumnModel().getColumn(4).setPreferredWidth(100);
-        chunkProgressTable.getColumnModel().getColumn(5).setPreferredWidth(150);
-        
-        JScrollPane chunkProgressScrollPane = new JScrollPane(chunkProgressTable);
-        chunkProgressPanel.add(chunkProgressScrollPane, BorderLayout.CENTER);
+        JScrollPane connectionScrollPane = new JScrollPane(connectionTable);
+        connectionScrollPane.setPreferredSize(new Dimension(0, 110));
+        chunkProgressPanel.add(connectionScrollPane, BorderLayout.SOUTH);
         
         // 为分块进度面板设置合适的高度，避免占用过多空间
         chunkProgressPanel.setPreferredSize(new Dimension(0, 300));
@@ -230,22 +244,12 @@ public class DownloadDetailDialog extends JDialog {
             String downloadedSizeStr = formatFileSize(taskInfo.getDownloadedSize()) + "/ " + formatFileSize(taskInfo.getFileSize());
             downloadedSizeField.setText(downloadedSizeStr);
             
-            // 更新下载速度
+            // 更新下载速度：下载中为下载引擎平滑后的速度，完成后为本次下载的平均速度
             double currentSpeed = taskInfo.getDownloadSpeed();
             String speedStr;
-            
-            // 如果是下载中状态，实时更新速度
-            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
-                if (currentSpeed > 0) {
-                    averageDownloadSpeed = (averageDownloadSpeed * 0.9) + (currentSpeed * 0.1); // 平滑计算平均速度
-                    speedStr = df.format(currentSpeed) + " KB/s";
-                } else {
-                    speedStr = "0.00 KB/s";
-                }
-            } 
-            // 如果是已完成状态，显示平均下载速度
-            else if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
-                speedStr = df.format(averageDownloadSpeed) + " KB/s";
+            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING
+                    || taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
+                speedStr = df.format(Math.max(0, currentSpeed)) + " KB/s";
             } 
             // 其他状态显示0
             else {
@@ -260,7 +264,7 @@ public class DownloadDetailDialog extends JDialog {
             
             if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
                 if (remainingTime > 0) {
-                    remainingTimeStr = formatTime(remainingTime);
+                    remainingTimeStr = formatTime(remainingTime) + formatEtaRange(taskInfo.getEtaLowSeconds(), taskInfo.getEtaHighSeconds());
                 } else if (remainingTime == 0) {
                     remainingTimeStr = "00:00:00";
                 } else {
@@ -274,48 +278,117 @@ public class DownloadDetailDialog extends JDialog {
             
             remainingTimeField.setText(remainingTimeStr);
             
-            // 更新分块进度表格
-            updateChunkProgressTable();
+            // 更新区块图和连接列表
+            updateChunkMap();
         }
     }
     
-    private void updateChunkProgressTable() {
-        // 这里需要根据实际的分块下载实现来更新表格
-        // 暂时显示模拟数据
-        chunkProgressModel.setRowCount(0);
-        
-        // 根据线程数模拟分块数据
-        int threadCount = taskInfo.getThreadCount();
-        long fileSize = taskInfo.getFileSize();
-        long chunkSize = fileSize / threadCount;
-        
-        for (int i = 0; i < threadCount; i++) {
-            String[] rowData = new String[6];
-            rowData[0] = String.valueOf(i + 1);
-            rowData[1] = String.valueOf(i * chunkSize);
-            rowData[2] = String.valueOf((i + 1) * chunkSize - 1);
-            rowData[3] = formatFileSize(chunkSize);
-            
-            // 根据任务状态设置分块状态
-            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
-                rowData[4] = "下载中";
-                rowData[5] = taskInfo.getProgress() + "%";
-            } else if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED) {
-                rowData[4] = "已完成";
-                rowData[5] = "100%";
-            } else if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.CANCELED) {
-                rowData[4] = "已取消";
-                rowData[5] = taskInfo.getProgress() + "%";
-            } else if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.FAILED) {
-                rowData[4] = "下载失败";
-                rowData[5] = taskInfo.getProgress() + "%";
-            } else {
-                rowData[4] = "等待中";
-                rowData[5] = "0%";
+    /**
+     * 格式化剩余时间的估计范围，下界和上界相同或无法估计下界时不显示
+     */
+    private String formatEtaRange(long low, long high) {
+        if (low < 0 || low == high) {
+            return "";
+        }
+        return " (" + formatTime(low) + " ~ " + (high >= 0 ? formatTime(high) : "--:--:--") + ")";
+    }
+    
+    /**
+     * 从下载引擎获取区块状态快照并更新区块图和连接列表；任务未在下载时只在状态变化后
+     * 在后台线程读取一次断点索引，界面线程不读磁盘
+     */
+    private void updateChunkMap() {
+        DownloadTaskInfo.TaskStatus status = taskInfo.getStatus();
+        if (status != DownloadTaskInfo.TaskStatus.DOWNLOADING && status == lastChunkMapStatus) {
+            return;
+        }
+        lastChunkMapStatus = status;
+        if (indexLoader != null) {
+            indexLoader.cancel(false);
+            indexLoader = null;
+        }
+        if (downloader == null || status == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
+            // 正在下载的任务直接取内存中的快照
+            showChunkMap(downloader != null ? downloader.getChunkMap(taskInfo) : null, status);
+            return;
+        }
+        SwingWorker<ChunkMapSnapshot, Void> loader = new SwingWorker<ChunkMapSnapshot, Void>() {
+            @Override
+            protected ChunkMapSnapshot doInBackground() {
+                return downloader.getChunkMap(taskInfo);
             }
-            
-            chunkProgressModel.addRow(rowData);
+
+            @Override
+            protected void done() {
+                // 读取期间状态已变化时丢弃结果，由下一次刷新重新读取
+                if (isCancelled() || indexLoader != this || taskInfo.getStatus() != status) {
+                    return;
+                }
+                indexLoader = null;
+                try {
+                    showChunkMap(get(), status);
+                } catch (Exception e) {
+                    showChunkMap(null, status);
+                }
+            }
+        };
+        indexLoader = loader;
+        loader.execute();
+    }
+    
+    private void showChunkMap(ChunkMapSnapshot snapshot, DownloadTaskInfo.TaskStatus status) {
+        if (snapshot == null) {
+            String message = status == DownloadTaskInfo.TaskStatus.COMPLETED ? "下载已完成"
+                    : status == DownloadTaskInfo.TaskStatus.DOWNLOADING ? "暂无分块信息（小文件和压缩传输不分段下载）" : "暂无分块信息";
+            chunkMapPanel.setSnapshot(null, message);
+            chunkSummaryLabel.setText(" ");
+            connectionModel.setRowCount(0);
+            return;
+        }
+        chunkMapPanel.setSnapshot(snapshot, null);
+        
+        int chunkCount = snapshot.getChunkCount();
+        int chunksPerCell = chunkMapPanel.getChunksPerCell();
+        chunkSummaryLabel.setText("区块: " + snapshot.getCompleted().cardinality() + "/" + chunkCount
+                + "，每块 " + formatFileSize(snapshot.getPlan().getChunkSize())
+                + (chunksPerCell > 1 ? "，每格 " + chunksPerCell + " 个区块" : "")
+                + "，连接数: " + snapshot.getConnections().size());
+        
+        // 连接数不超过线程数，逐格更新而不是重建表格
+        List<ChunkMapSnapshot.Connection> connections = snapshot.getConnections();
+        double median = medianSpeed(connections);
+        connectionModel.setRowCount(connections.size());
+        for (int row = 0; row < connections.size(); row++) {
+            ChunkMapSnapshot.Connection connection = connections.get(row);
+            long size = connection.getEndByte() - connection.getStartByte() + 1;
+            boolean slow = connections.size() > 1 && connection.getElapsedMillis() >= SLOW_CONNECTION_MIN_MILLIS
+                    && connection.getBytesPerSecond() < median * SLOW_CONNECTION_RATIO;
+            setCell(row, 0, connection.getWorker());
+            setCell(row, 1, String.valueOf(connection.getChunkIndex()));
+            setCell(row, 2, connection.getStartByte() + "-" + connection.getEndByte());
+            setCell(row, 3, formatFileSize(connection.getReceivedBytes()) + " / " + formatFileSize(size));
+            setCell(row, 4, df.format(connection.getBytesPerSecond() / 1024) + " KB/s");
+            setCell(row, 5, df.format(connection.getElapsedMillis() / 1000.0) + " s");
+            setCell(row, 6, slow ? "偏慢" : "正常");
+        }
+    }
+    
+    private void setCell(int row, int column, String value) {
+        if (!value.equals(connectionModel.getValueAt(row, column))) {
+            connectionModel.setValueAt(value, row, column);
+        }
+    }
+    
+    private static double medianSpeed(List<ChunkMapSnapshot.Connection> connections) {
+        if (connections.isEmpty()) {
+            return 0;
+        }
+        List<Double> speeds = new ArrayList<>(connections.size());
+        for (ChunkMapSnapshot.Connection connection : connections) {
+            speeds.add(connection.getBytesPerSecond());
         }
+        Collections.sort(speeds);
+        return speeds.get(speeds.size() / 2);
     }
     
     /**
@@ -12,15 +12,15 @@ import java.util.Date;
 import java.util.List;
 import javax.swing.Timer;
 import com.example.download.core.MultiThreadDownloader;
-import com.example.download.core.MultiThreadDownloader.DownloadRange;
 import com.example.download.manager.ConfigManager;
+import com.example.download.manager.DownloadQueueManager;
+import com.example.download.metrics.DownloadMetrics;
+import com.example.download.metrics.MetricsHttpServer;
 import com.example.download.manager.TaskManager;
 import com.example.download.model.DownloadTaskInfo;
+import com.example.download.model.RemoteFileInfo;
 import com.example.download.ui.DownloadDetailDialog;
 import java.io.File;
-import java.io.RandomAccessFile;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.Set;
 
 public class DownloadGUI extends JFrame {
@@ -36,22 +36,159 @@ public class DownloadGUI extends JFrame {
     private MultiThreadDownloader downloader;
     private ConfigManager configManager;
     private TaskManager taskManager;
+    private volatile DownloadQueueManager queueManager; // 下载队列，限制同时下载的任务数，启动后在后台创建
+    private JSpinner maxActiveTasksSpinner;
     private JTable taskTable;
     private DefaultTableModel taskTableModel;
     private Timer refreshTimer; // 用于刷新任务列表的定时器
     private java.util.Set<String> selectedTaskIds; // 用于保存选中的任务ID
     private boolean isRestoringSelection = false; // 用于指示当前是否正在恢复选中状态
+    private MetricsHttpServer metricsServer; // 本地指标抓取端点（可选）
+    private static final int HISTORY_PAGE_SIZE = 100; // 每次读取的历史任务数
+    private final java.util.List<DownloadTaskInfo> historyTasks = new java.util.ArrayList<>(); // 已读取的历史任务，显示在列表末尾
+    private int historyOffset; // 下一页历史任务的起始位置
+    private boolean historyLoading; // 是否正在读取下一页历史任务
+    private boolean historyExhausted; // 历史任务是否已全部读取
+    private boolean tasksLoaded; // 任务列表和下载队列是否已准备好
 
     public DownloadGUI() {
         downloader = new MultiThreadDownloader();
         configManager = new ConfigManager();
+        // 任务文件在后台第一次访问时才读取
         taskManager = new TaskManager();
         selectedTaskIds = new java.util.HashSet<>();
         initializeUI();
         
-        // 启动定时器，每秒刷新一次任务列表
-        refreshTimer = new Timer(1000, e -> refreshTaskList());
-        refreshTimer.start();
+        // 窗口先显示，任务列表和下载队列在后台准备
+        loadInBackground();
+    }
+    
+    /**
+     * 在后台线程中配置下载引擎、读取任务文件并恢复下载队列，完成后开始刷新任务列表。
+     * 历史任务在滚动到列表末尾时按页读取
+     */
+    private void loadInBackground() {
+        disableInputControls();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                downloader.setAdaptiveConcurrency(configManager.isAdaptiveConcurrency());
+                downloader.setWriteMode(configManager.getWriteMode());
+                downloader.setWriteBufferBytes(configManager.getWriteBufferMb() * 1024L * 1024);
+                downloader.setDownloadCache(configManager.createDownloadCache());
+                downloader.setCheckpointIntervalMillis(configManager.getCheckpointIntervalMillis());
+                downloader.setSampleIntervalMillis(configManager.getSpeedSampleIntervalMillis());
+                downloader.setSmallFileThresholdBytes(configManager.getSmallFileThresholdKb() * 1024);
+                DownloadQueueManager queue = new DownloadQueueManager(downloader, taskManager, configManager.getMaxActiveTasks());
+                // 自适应并发从上次学习到的连接数开始，任务结束后记录新的学习值
+                configManager.restoreLearnedLimits(downloader.getConcurrencyController());
+                queue.setTaskFinishedListener(task -> configManager.recordTransfer(task, downloader.getConcurrencyController()));
+                // 继续调度上次退出时仍在队列中的任务
+                queue.restore();
+                queueManager = queue;
+                startMetricsServer();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (Exception e) {
+                    Throwable cause = e instanceof java.util.concurrent.ExecutionException && e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(DownloadGUI.this, "加载任务列表失败: " + cause.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                tasksLoaded = true;
+                enableInputControls();
+                refreshTaskList();
+                loadMoreHistoryIfNeeded();
+                // 启动定时器，每秒刷新一次任务列表
+                refreshTimer = new Timer(1000, e -> refreshTaskList());
+                refreshTimer.start();
+            }
+        }.execute();
+    }
+    
+    /**
+     * 列表滚动到接近末尾（或不足一屏）时在后台读取下一页历史任务
+     */
+    private void loadMoreHistoryIfNeeded() {
+        if (!tasksLoaded || historyLoading || historyExhausted) {
+            return;
+        }
+        JScrollBar bar = ((JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, taskTable)).getVerticalScrollBar();
+        int remaining = bar.getMaximum() - (bar.getValue() + bar.getVisibleAmount());
+        if (remaining > taskTable.getRowHeight() * 10) {
+            return;
+        }
+        historyLoading = true;
+        int offset = historyOffset;
+        new SwingWorker<java.util.List<DownloadTaskInfo>, Void>() {
+            @Override
+            protected java.util.List<DownloadTaskInfo> doInBackground() {
+                return taskManager.getHistoryPage(offset, HISTORY_PAGE_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                historyLoading = false;
+                try {
+                    java.util.List<DownloadTaskInfo> page = get();
+                    historyOffset += page.size();
+                    // 本次运行中移入历史记录的任务会使后面的页错位，已显示的任务不重复加入
+                    Set<String> listed = new java.util.HashSet<>();
+                    for (DownloadTaskInfo task : historyTasks) {
+                        listed.add(task.getId());
+                    }
+                    for (DownloadTaskInfo task : page) {
+                        if (listed.add(task.getId())) {
+                            historyTasks.add(task);
+                        }
+                    }
+                    historyExhausted = page.size() < HISTORY_PAGE_SIZE;
+                } catch (Exception e) {
+                    historyExhausted = true;
+                    return;
+                }
+                refreshTaskList();
+            }
+        }.execute();
+    }
+    
+    /**
+     * 按ID查找列表中显示的任务（包括已读取的历史任务）
+     */
+    private DownloadTaskInfo findListedTask(String taskId) {
+        for (DownloadTaskInfo task : taskManager.getAllTasks()) {
+            if (task != null && task.getId().equals(taskId)) {
+                return task;
+            }
+        }
+        for (DownloadTaskInfo task : historyTasks) {
+            if (task.getId().equals(taskId)) {
+                return task;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 按配置启动本地指标抓取端点
+     */
+    private void startMetricsServer() {
+        int metricsPort = configManager.getMetricsPort();
+        if (metricsPort <= 0) {
+            return;
+        }
+        metricsServer = new MetricsHttpServer(DownloadMetrics.getRegistry());
+        try {
+            metricsServer.start(metricsPort);
+            System.out.println("指标端点已启动: http://127.0.0.1:" + metricsServer.getPort() + "/metrics");
+        } catch (java.io.IOException e) {
+            System.err.println("启动指标端点失败: " + e.getMessage());
+            metricsServer = null;
+        }
     }
     
     /**
@@ -60,19 +197,13 @@ public class DownloadGUI extends JFrame {
     private void performBatchDelete() {
         java.util.List<DownloadTaskInfo> tasksToDelete = new java.util.ArrayList<>();
         
-        // 获取所有任务
-        java.util.List<DownloadTaskInfo> allTasks = taskManager.getAllTasks();
-        
         // 遍历表格的每一行，检查复选框是否被选中
         for (int i = 0; i < taskTableModel.getRowCount(); i++) {
             Boolean isChecked = (Boolean) taskTableModel.getValueAt(i, 0);
             if (Boolean.TRUE.equals(isChecked)) {
                 // 获取该行对应的任务ID（隐藏列）
                 String taskId = (String) taskTableModel.getValueAt(i, 8);
-                DownloadTaskInfo taskToDelete = allTasks.stream()
-                        .filter(task -> task != null && task.getId().equals(taskId))
-                        .findFirst()
-                        .orElse(null);
+                DownloadTaskInfo taskToDelete = findListedTask(taskId);
                 
                 if (taskToDelete != null) {
                     tasksToDelete.add(taskToDelete);
@@ -93,6 +224,8 @@ public class DownloadGUI extends JFrame {
             
             if (confirm == JOptionPane.YES_OPTION) {
                 for (DownloadTaskInfo task : tasksToDelete) {
+                                // 先停止下载并移出队列
+                                queueManager.remove(task);
                                 String savePath = task.getSavePath();
                                 String taskId = task.getId();
                                 
@@ -132,6 +265,7 @@ public class DownloadGUI extends JFrame {
                                 }
                                 // 无论文件删除是否成功，都从本地任务记录删除
                                 taskManager.deleteTask(task.getId());
+                                historyTasks.remove(task);
                             }
                 // 刷新任务列表
                 refreshTaskList();
@@ -180,7 +314,7 @@ public class DownloadGUI extends JFrame {
             System.out.println("Starting " + tasksToStart.size() + " tasks");
             for (DownloadTaskInfo task : tasksToStart) {
                 System.out.println("Starting task: " + task.getId());
-                downloader.startDownload(task);
+                queueManager.enqueue(task);
             }
         } else {
             System.out.println("No tasks to start, showing message");
@@ -206,9 +340,10 @@ public class DownloadGUI extends JFrame {
             System.out.println("Checking task: " + task.getId());
             if (selectedTaskIds.contains(task.getId())) {
                 System.out.println("Task found in selectedTaskIds: " + task.getId());
-                if (task.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING) {
-                    // 只暂停正在下载的任务
-                    downloader.pauseDownload(task);
+                if (task.getStatus() == DownloadTaskInfo.TaskStatus.DOWNLOADING
+                        || task.getStatus() == DownloadTaskInfo.TaskStatus.WAITING) {
+                    // 暂停正在下载的任务，等待中的任务移出队列
+                    queueManager.pause(task);
                     hasTasksToPause = true;
                     System.out.println("Task paused: " + task.getId());
                 } else {
@@ -341,14 +476,11 @@ public class DownloadGUI extends JFrame {
                     if (selectedRow >= 0) {
                         // 获取选中的任务
                         String taskId = (String) taskTableModel.getValueAt(selectedRow, 8);
-                        DownloadTaskInfo selectedTask = taskManager.getAllTasks().stream()
-                                .filter(task -> task.getId().equals(taskId))
-                                .findFirst()
-                                .orElse(null);
+                        DownloadTaskInfo selectedTask = findListedTask(taskId);
                         
                         if (selectedTask != null) {
                             // 显示下载详情页
-                            DownloadDetailDialog detailDialog = new DownloadDetailDialog(DownloadGUI.this, selectedTask);
+                            DownloadDetailDialog detailDialog = new DownloadDetailDialog(DownloadGUI.this, selectedTask, downloader);
                             detailDialog.setVisible(true);
                         }
                     }
@@ -372,6 +504,8 @@ public class DownloadGUI extends JFrame {
         // 设置表格自动调整
         taskTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
         JScrollPane taskScrollPane = new JScrollPane(taskTable);
+        // 滚动到列表末尾时读取更早的历史任务
+        taskScrollPane.getVerticalScrollBar().addAdjustmentListener(e -> loadMoreHistoryIfNeeded());
         taskPanel.add(taskScrollPane, BorderLayout.CENTER);
         
         // 添加批量操作按钮面板
@@ -442,6 +576,21 @@ public class DownloadGUI extends JFrame {
         gbc.gridwidth = 2;
         settingsTabPanel.add(threadCountSpinner, gbc);
 
+        // 最大同时下载任务数标签
+        gbc.gridx = 0;
+        gbc.gridy = 2;
+        gbc.gridwidth = 1;
+        settingsTabPanel.add(new JLabel("最大同时下载任务数:"), gbc);
+
+        // 最大同时下载任务数微调器
+        SpinnerNumberModel maxActiveTasksModel = new SpinnerNumberModel(
+                configManager.getMaxActiveTasks(), 1, 32, 1);
+        maxActiveTasksSpinner = new JSpinner(maxActiveTasksModel);
+        gbc.gridx = 1;
+        gbc.gridy = 2;
+        gbc.gridwidth = 2;
+        settingsTabPanel.add(maxActiveTasksSpinner, gbc);
+
         // 按钮面板
         JPanel settingsButtonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         
@@ -456,7 +605,7 @@ public class DownloadGUI extends JFrame {
         settingsButtonPanel.add(cancelButton);
 
         gbc.gridx = 0;
-        gbc.gridy = 2;
+        gbc.gridy = 3;
         gbc.gridwidth = 3;
         gbc.anchor = GridBagConstraints.EAST;
         settingsTabPanel.add(settingsButtonPanel, gbc);
@@ -481,6 +630,9 @@ public class DownloadGUI extends JFrame {
                 if (refreshTimer != null) {
                     refreshTimer.stop();
                 }
+                if (metricsServer != null) {
+                    metricsServer.stop();
+                }
                 
                 // 退出程序
                 dispose();
@@ -494,7 +646,7 @@ public class DownloadGUI extends JFrame {
     private void showCreateTaskDialog() {
         // 创建下载任务对话框
         JDialog createTaskDialog = new JDialog(this, "创建下载任务", true);
-        createTaskDialog.setSize(400, 200);
+        createTaskDialog.setSize(400, 230);
         createTaskDialog.setLocationRelativeTo(this);
         createTaskDialog.setResizable(false);
         
@@ -518,9 +670,25 @@ public class DownloadGUI extends JFrame {
         JTextField dialogUrlTextField = new JTextField(25);
         contentPanel.add(dialogUrlTextField, gbc);
         
+        // 压缩传输选项（适用于日志、CSV、JSON等文本类文件）
+        gbc.gridx = 1;
+        gbc.gridy = 1;
+        JCheckBox compressedCheckBox = new JCheckBox("压缩传输（单流下载，边下载边解压）");
+        contentPanel.add(compressedCheckBox, gbc);
+        
+        // 渐进模式选项（适用于视频、大型压缩包等需要边下载边读取的文件）
+        gbc.gridy = 2;
+        JCheckBox progressiveCheckBox = new JCheckBox("渐进下载（按顺序下载，文件开头尽早可用）");
+        contentPanel.add(progressiveCheckBox, gbc);
+        
+        // 边下载边解压选项（.zip、.tar、.tar.gz，解压到文件旁与压缩包同名的目录）
+        gbc.gridy = 3;
+        JCheckBox extractCheckBox = new JCheckBox("边下载边解压（zip、tar、tar.gz）");
+        contentPanel.add(extractCheckBox, gbc);
+        
         // 开始下载按钮
         gbc.gridx = 0;
-        gbc.gridy = 1;
+        gbc.gridy = 4;
         gbc.gridwidth = 2;
         gbc.anchor = GridBagConstraints.CENTER;
         JButton dialogStartButton = new JButton("开始下载");
@@ -530,7 +698,7 @@ public class DownloadGUI extends JFrame {
                 // 关闭对话框
                 createTaskDialog.dispose();
                 // 执行下载
-                startDownload(url);
+                startDownload(url, compressedCheckBox.isSelected(), progressiveCheckBox.isSelected(), extractCheckBox.isSelected());
             } else {
                 JOptionPane.showMessageDialog(createTaskDialog, "请输入下载URL", "错误", JOptionPane.ERROR_MESSAGE);
             }
@@ -560,6 +728,7 @@ public class DownloadGUI extends JFrame {
     private void saveSettings() {
         String savePath = savePathTextField.getText().trim();
         int threadCount = (int) threadCountSpinner.getValue();
+        int maxActiveTasks = (int) maxActiveTasksSpinner.getValue();
 
         if (savePath.isEmpty()) {
             JOptionPane.showMessageDialog(this, "请选择保存路径", "错误", JOptionPane.ERROR_MESSAGE);
@@ -569,6 +738,10 @@ public class DownloadGUI extends JFrame {
         try {
             configManager.setDefaultDownloadPath(savePath);
             configManager.setDefaultThreadCount(threadCount);
+            configManager.setMaxActiveTasks(maxActiveTasks);
+            if (queueManager != null) {
+                queueManager.setMaxActiveTasks(maxActiveTasks);
+            }
             JOptionPane.showMessageDialog(this, "设置保存成功", "提示", JOptionPane.INFORMATION_MESSAGE);
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "保存设置失败: " + e.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
@@ -581,9 +754,10 @@ public class DownloadGUI extends JFrame {
     private void resetSettings() {
         savePathTextField.setText(configManager.getDefaultDownloadPath());
         threadCountSpinner.setValue(configManager.getDefaultThreadCount());
+        maxActiveTasksSpinner.setValue(configManager.getMaxActiveTasks());
     }
 
-    private void startDownload(String url) {
+    private void startDownload(String url, boolean compressedTransfer, boolean progressive, boolean extract) {
         String savePath = configManager.getDefaultDownloadPath();
         int threadCount = configManager.getDefaultThreadCount();
 
@@ -602,78 +776,36 @@ public class DownloadGUI extends JFrame {
         taskInfo.setUrl(url);
         taskInfo.setSavePath(savePath);
         taskInfo.setThreadCount(threadCount);
-        
-        // 在创建任务时就生成所有文件区块的索引并设置初始下载状态为未下载
-        try {
-            // 获取文件大小
-            long fileSize = downloader.getFileSize(url);
-            taskInfo.setFileSize(fileSize);
-            
-            // 创建保存目录和空文件
-            File saveDir = new File(savePath);
-            if (!saveDir.exists()) {
-                saveDir.mkdirs();
-            }
-            
-            // 从URL提取文件名
-            String fileName = downloader.extractFileName(url);
-            taskInfo.setFileName(fileName);
-            String fullSavePath = new File(saveDir, fileName).getAbsolutePath();
-            
-            // 创建空文件并设置大小
-            File downloadFile = new File(fullSavePath);
-            try (RandomAccessFile raf = new RandomAccessFile(fullSavePath, "rw")) {
-                raf.setLength(fileSize);
-            }
-            
-            // 创建临时目录和索引文件
-            String tempDirPath = saveDir.getAbsolutePath() + File.separator + ".temp-" + taskInfo.getId();
-            File tempDir = new File(tempDirPath);
-            if (!tempDir.exists()) {
-                tempDir.mkdirs();
+        taskInfo.setCompressedTransfer(compressedTransfer);
+        taskInfo.setProgressive(progressive);
+        taskInfo.setExtractDir(extract ? "" : null);
+        // 匹配主机配置：连接数、分块大小、限速等按主机的最佳设置
+        configManager.applyProfile(taskInfo);
+        
+        // 在后台线程中探测远程文件信息，不阻塞界面；探测结果随任务保存，开始下载时在有效期内直接复用。
+        // 目标文件和断点索引由下载引擎在开始下载时创建
+        new SwingWorker<RemoteFileInfo, Void>() {
+            @Override
+            protected RemoteFileInfo doInBackground() throws Exception {
+                return downloader.probe(taskInfo);
             }
-            File indexFile = new File(tempDir, "index.txt");
-            
-            // 生成所有文件区块的索引
-            Set<DownloadRange> allRanges = downloader.generateAllRanges(fileSize);
-            
-            // 保存所有区块的索引（包括未下载的）到索引文件
-            downloader.saveAllRanges(indexFile, allRanges);
-            
-            // 将索引文件复制到下载文件目录下，方便检查
-            String downloadFileName = downloadFile.getName();
-            String idxFileName = downloadFileName + ".idx";
-            File idxFileCopy = new File(saveDir, idxFileName);
-            Files.copy(indexFile.toPath(), idxFileCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            
-            JOptionPane.showMessageDialog(this, "下载任务创建成功", "提示", JOptionPane.INFORMATION_MESSAGE);
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "创建下载任务失败: " + e.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-        
-        // 添加任务到任务管理器
-        taskManager.addTask(taskInfo);
-        
-        // 启动下载线程
-        new Thread(() -> {
-            try {
-                // 执行下载，使用配置的分块大小
-                downloader.startDownload(taskInfo);
-                
-                // 更新任务信息
-                taskManager.updateTask(taskInfo);
-                
-                // 显示开始下载的提示
-                // JOptionPane.showMessageDialog(DownloadGUI.this, "开始下载文件！", "提示", JOptionPane.INFORMATION_MESSAGE);
-            } catch (Exception e) {
-                // 更新任务状态为失败
-                taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
-                taskManager.updateTask(taskInfo);
-                
-                JOptionPane.showMessageDialog(DownloadGUI.this, "下载失败: " + e.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+
+            @Override
+            protected void done() {
+                try {
+                    RemoteFileInfo remote = get();
+                    taskInfo.setFileSize(remote.getSize());
+                    taskInfo.setFileName(remote.getFileName() != null ? remote.getFileName() : MultiThreadDownloader.extractFileName(url));
+                } catch (Exception e) {
+                    Throwable cause = e instanceof java.util.concurrent.ExecutionException && e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(DownloadGUI.this, "创建下载任务失败: " + cause.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                // 加入下载队列，有空闲名额时自动开始下载
+                queueManager.enqueue(taskInfo);
+                JOptionPane.showMessageDialog(DownloadGUI.this, "下载任务创建成功", "提示", JOptionPane.INFORMATION_MESSAGE);
             }
-        }).start();
+        }.execute();
     }
 
     private void appendLog(String message) {
@@ -750,8 +882,9 @@ public class DownloadGUI extends JFrame {
      * 刷新任务列表
      */
     private void refreshTaskList() {
-        // 获取排序后的任务列表
+        // 获取排序后的任务列表，已读取的历史任务排在最后
         java.util.List<DownloadTaskInfo> sortedTasks = taskManager.getSortedTasks();
+        sortedTasks.addAll(historyTasks);
         
         // 更新任务表格
         SwingUtilities.invokeLater(() -> {
@@ -821,6 +954,12 @@ public class DownloadGUI extends JFrame {
     public interface ProgressListener {
         void onProgress(long downloaded, long total);
         void onLog(String message);
+
+        /**
+         * 压缩传输进度：网络传输字节数和解压后的字节数
+         */
+        default void onTransferProgress(long wireBytes, long decodedBytes) {
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,172 @@
+package com.example.download.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于JDK 11 HttpClient的分段传输实现
+ *
+ * 同一个HttpClient对每个主机只维持一条HTTP/2连接，所有范围请求作为该连接上的并发流发出，
+ * 避免了每个范围单独建立TCP/TLS连接和慢启动。服务器不支持HTTP/2时HttpClient会自动协商为HTTP/1.1。
+ * HttpClient的请求超时只限制等待响应头的时间，响应体读取由 {@link IdleTimeoutInputStream} 限制：
+ * 超过 {@value #READ_TIMEOUT_MILLIS} 毫秒没有收到数据时关闭响应体（取消该流），与HTTP/1.1路径的读取超时一致。
+ * 该类位于 src/main/java11，只在JDK 11+构建时编译，由 {@link MultiThreadDownloader} 通过反射加载。
+ */
+public class Http2RangeTransport implements RangeTransport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(5000);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofMillis(5000);
+    private static final long READ_TIMEOUT_MILLIS = 5000;
+    private static final long WATCHDOG_INTERVAL_MILLIS = 500;
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "http2-read-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HttpClient client;
+
+    public Http2RangeTransport() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT);
+        ProxySelector proxySelector = ProxySelector.getDefault();
+        if (proxySelector != null) {
+            builder.proxy(proxySelector);
+        }
+        this.client = builder.build();
+    }
+
+    @Override
+    public RangeConnection open(String fileUrl, long startByte, long endByte) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(fileUrl))
+                .header("Range", "bytes=" + startByte + "-" + endByte)
+                .timeout(RESPONSE_TIMEOUT)
+                .GET()
+                .build();
+
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("请求被中断: " + e.getMessage());
+        }
+
+        final HttpResponse<InputStream> finalResponse = response;
+        final String protocol = response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1";
+        final IdleTimeoutInputStream body = new IdleTimeoutInputStream(response.body());
+        return new RangeConnection() {
+            @Override
+            public int getStatusCode() {
+                return finalResponse.statusCode();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return body;
+            }
+
+            @Override
+            public String getProtocol() {
+                return protocol;
+            }
+
+            @Override
+            public void close() throws IOException {
+                // 未读完时关闭会重置该流（HTTP/2）或关闭连接（HTTP/1.1）
+                body.close();
+            }
+        };
+    }
+
+    /**
+     * 带空闲超时的响应体：读取阻塞超过读取超时后由看门狗关闭底层流，读取方得到 {@link SocketTimeoutException}，
+     * 与其他I/O错误一样按可重试的失败处理
+     */
+    private static class IdleTimeoutInputStream extends InputStream {
+        private final InputStream in;
+        private final ScheduledFuture<?> watchdog;
+        private volatile long readStartedMillis; // 正在进行的读取的开始时间，0表示当前没有阻塞中的读取
+        private volatile boolean timedOut;
+
+        IdleTimeoutInputStream(InputStream in) {
+            this.in = in;
+            this.watchdog = WATCHDOG.scheduleWithFixedDelay(this::check, WATCHDOG_INTERVAL_MILLIS, WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void check() {
+            long started = readStartedMillis;
+            if (started > 0 && System.currentTimeMillis() - started > READ_TIMEOUT_MILLIS) {
+                timedOut = true;
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // 关闭失败时读取方仍会在下一次检查时被关闭
+                }
+                watchdog.cancel(false);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (timedOut) {
+                throw timeout();
+            }
+            readStartedMillis = System.currentTimeMillis();
+            try {
+                int n = in.read(b, off, len);
+                if (n == -1 && timedOut) {
+                    throw timeout();
+                }
+                return n;
+            } catch (IOException e) {
+                if (timedOut) {
+                    throw timeout();
+                }
+                throw e;
+            } finally {
+                readStartedMillis = 0;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            watchdog.cancel(false);
+            in.close();
+        }
+
+        private SocketTimeoutException timeout() {
+            return new SocketTimeoutException("读取超时: " + READ_TIMEOUT_MILLIS + "ms内没有收到数据");
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "HTTP/2 (HttpClient)";
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.download.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 基于Java Flight Recorder的下载事件实现
+ *
+ * 未开启录制时事件的isEnabled()为false，只有一次字段读取的开销。
+ * 文件写入事件频率较高，只记录耗时不低于阈值（系统属性 download.jfr.writeThresholdMicros，默认1000微秒）的写入。
+ * 该类位于 src/main/java11，由 {@link DownloadEvents} 通过反射加载。
+ */
+public class JfrDownloadEventSink implements DownloadEventSink {
+    private static final long WRITE_THRESHOLD_NANOS =
+            Long.getLong("download.jfr.writeThresholdMicros", 1000L) * 1000L;
+
+    @Override
+    public void rangeRequested(String taskId, long startByte, long endByte) {
+        RangeRequestedEvent event = new RangeRequestedEvent();
+        if (event.isEnabled()) {
+            event.taskId = taskId;
+            event.startByte = startByte;
+            event.endByte = endByte;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void rangeFirstByte(String taskId, long startByte, long endByte, long durationNanos) {
+        RangeFirstByteEvent event = new RangeFirstByteEvent();
+        if (event.isEnabled()) {
+            event.taskId = taskId;
+            event.startByte = startByte;
+            event.endByte = endByte;
+            event.timeToFirstByte = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void rangeCompleted(String taskId, long startByte, long endByte, long bytes, long durationNanos) {
+        RangeCompletedEvent event = new RangeCompletedEvent();
+        if (event.isEnabled()) {
+            event.taskId = taskId;
+            event.startByte = startByte;
+            event.endByte = endByte;
+            event.bytes = bytes;
+            event.rangeDuration = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void rangeFailed(String taskId, long startByte, long endByte, long bytes, long durationNanos, String reason) {
+        RangeFailedEvent event = new RangeFailedEvent();
+        if (event.isEnabled()) {
+            event.taskId = taskId;
+            event.startByte = startByte;
+            event.endByte = endByte;
+            event.bytes = bytes;
+            event.rangeDuration = durationNanos;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void indexPersisted(String taskId, int entries, long lockWaitNanos, long durationNanos) {
+        IndexPersistedEvent event = new IndexPersistedEvent();
+        if (event.isEnabled()) {
+            event.taskId = taskId;
+            event.entries = entries;
+            event.lockWait = lockWaitNanos;
+            event.writeDuration = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void fileWrite(String taskId, long offset, long bytes, long durationNanos) {
+        if (durationNanos < WRITE_THRESHOLD_NANOS) {
+            return;
+        }
+        FileWriteEvent event = new FileWriteEvent();
+        if (event.isEnabled()) {
+            event.taskId = taskId;
+            event.offset = offset;
+            event.bytes = bytes;
+            event.writeDuration = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void queueWait(String taskId, long startByte, long durationNanos) {
+        QueueWaitEvent event = new QueueWaitEvent();
+        if (event.isEnabled()) {
+            event.taskId = taskId;
+            event.startByte = startByte;
+            event.waitDuration = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Name("com.example.download.RangeRequested")
+    @Label("Range Requested")
+    @Category({"Download", "Range"})
+    @StackTrace(false)
+    static class RangeRequestedEvent extends Event {
+        @Label("Task Id")
+        String taskId;
+        @Label("Start Byte")
+        long startByte;
+        @Label("End Byte")
+        long endByte;
+    }
+
+    @Name("com.example.download.RangeFirstByte")
+    @Label("Range First Byte")
+    @Category({"Download", "Range"})
+    @StackTrace(false)
+    static class RangeFirstByteEvent extends Event {
+        @Label("Task Id")
+        String taskId;
+        @Label("Start Byte")
+        long startByte;
+        @Label("End Byte")
+        long endByte;
+        @Label("Time To First Byte")
+        @Timespan(Timespan.NANOSECONDS)
+        long timeToFirstByte;
+    }
+
+    @Name("com.example.download.RangeCompleted")
+    @Label("Range Completed")
+    @Category({"Download", "Range"})
+    @StackTrace(false)
+    static class RangeCompletedEvent extends Event {
+        @Label("Task Id")
+        String taskId;
+        @Label("Start Byte")
+        long startByte;
+        @Label("End Byte")
+        long endByte;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Range Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long rangeDuration;
+    }
+
+    @Name("com.example.download.RangeFailed")
+    @Label("Range Failed")
+    @Category({"Download", "Range"})
+    @StackTrace(false)
+    static class RangeFailedEvent extends Event {
+        @Label("Task Id")
+        String taskId;
+        @Label("Start Byte")
+        long startByte;
+        @Label("End Byte")
+        long endByte;
+        @Label("Bytes Received")
+        @DataAmount
+        long bytes;
+        @Label("Range Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long rangeDuration;
+        @Label("Reason")
+        String reason;
+    }
+
+    @Name("com.example.download.IndexPersisted")
+    @Label("Index Persisted")
+    @Description("Range index written to disk, including time spent waiting for the index lock")
+    @Category({"Download", "I/O"})
+    @StackTrace(false)
+    static class IndexPersistedEvent extends Event {
+        @Label("Task Id")
+        String taskId;
+        @Label("Entries")
+        int entries;
+        @Label("Lock Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWait;
+        @Label("Write Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long writeDuration;
+    }
+
+    @Name("com.example.download.FileWrite")
+    @Label("File Write")
+    @Category({"Download", "I/O"})
+    @StackTrace(false)
+    static class FileWriteEvent extends Event {
+        @Label("Task Id")
+        String taskId;
+        @Label("Offset")
+        long offset;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Write Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long writeDuration;
+    }
+
+    @Name("com.example.download.QueueWait")
+    @Label("Queue Wait")
+    @Category({"Download", "Range"})
+    @StackTrace(false)
+    static class QueueWaitEvent extends Event {
+        @Label("Task Id")
+        String taskId;
+        @Label("Start Byte")
+        long startByte;
+        @Label("Wait Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitDuration;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.download.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 区块位图：64位字边界、最后一个不满的字、越过末尾的查找和字节数组的导入导出
+ */
+public class ChunkBitmapTest {
+
+    @Test
+    public void bitsOnWordBoundariesAreIndependent() {
+        ChunkBitmap bitmap = new ChunkBitmap(130);
+        for (int index : new int[]{63, 64, 127, 128, 129}) {
+            assertTrue(bitmap.set(index));
+        }
+        assertFalse(bitmap.set(64));
+        assertEquals(5, bitmap.cardinality());
+        assertTrue(bitmap.get(63));
+        assertTrue(bitmap.get(64));
+        assertFalse(bitmap.get(62));
+        assertFalse(bitmap.get(65));
+        assertFalse(bitmap.get(126));
+        assertTrue(bitmap.get(127));
+
+        assertEquals(2, bitmap.cardinality(63, 65));
+        assertEquals(1, bitmap.cardinality(0, 64));
+        assertEquals(2, bitmap.cardinality(64, 128));
+        assertEquals(3, bitmap.cardinality(127, 1000));
+        assertEquals(0, bitmap.cardinality(65, 127));
+        assertEquals(0, bitmap.cardinality(129, 129));
+    }
+
+    @Test
+    public void searchStopsAtSizeInFinalPartialWord() {
+        ChunkBitmap bitmap = new ChunkBitmap(130);
+        assertEquals(-1, bitmap.nextSetBit(0));
+        assertEquals(0, bitmap.nextClearBit(0));
+
+        bitmap.set(127);
+        assertEquals(127, bitmap.nextSetBit(64));
+        assertEquals(127, bitmap.nextSetBit(127));
+        assertEquals(-1, bitmap.nextSetBit(128));
+        assertEquals(128, bitmap.nextClearBit(127));
+
+        for (int i = 0; i < 130; i++) {
+            bitmap.set(i);
+        }
+        assertEquals(130, bitmap.cardinality());
+        assertEquals(130, bitmap.nextClearBit(0));
+        assertEquals(130, bitmap.nextClearBit(129));
+        assertEquals(129, bitmap.nextSetBit(129));
+
+        // 越过末尾的查找
+        assertEquals(-1, bitmap.nextSetBit(130));
+        assertEquals(-1, bitmap.nextSetBit(1000));
+        assertEquals(130, bitmap.nextClearBit(130));
+        assertEquals(130, bitmap.nextClearBit(1000));
+    }
+
+    @Test
+    public void byteArrayRoundTripIgnoresBitsBeyondSize() {
+        ChunkBitmap bitmap = new ChunkBitmap(130);
+        bitmap.set(0);
+        bitmap.set(63);
+        bitmap.set(64);
+        bitmap.set(129);
+        byte[] bytes = bitmap.toByteArray();
+        assertEquals(17, bytes.length);
+
+        ChunkBitmap restored = ChunkBitmap.fromByteArray(130, bytes);
+        assertEquals(4, restored.cardinality());
+        assertArrayEquals(bytes, restored.toByteArray());
+
+        // 最后一个字节中超出区块数量的位和多余的字节被忽略
+        byte[] full = new byte[20];
+        Arrays.fill(full, (byte) 0xFF);
+        ChunkBitmap all = ChunkBitmap.fromByteArray(130, full);
+        assertEquals(130, all.cardinality());
+        assertEquals(130, all.nextClearBit(0));
+        assertEquals(-1, all.nextSetBit(130));
+
+        // 较短的数组按未完成处理
+        ChunkBitmap shortInput = ChunkBitmap.fromByteArray(130, new byte[]{(byte) 0x81});
+        assertEquals(2, shortInput.cardinality());
+        assertEquals(8, shortInput.nextClearBit(7));
+        assertEquals(-1, shortInput.nextSetBit(8));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        ChunkBitmap bitmap = new ChunkBitmap(70);
+        bitmap.set(65);
+        ChunkBitmap copy = bitmap.copy();
+        bitmap.set(1);
+        assertEquals(1, copy.cardinality());
+        assertTrue(copy.get(65));
+        assertFalse(copy.get(1));
+        bitmap.clear();
+        assertEquals(0, bitmap.cardinality());
+        assertEquals(-1, bitmap.nextSetBit(0));
+        assertTrue(copy.get(65));
+    }
+}
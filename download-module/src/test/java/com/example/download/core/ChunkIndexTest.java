@@ -0,0 +1,119 @@
+package com.example.download.core;
+
+import com.example.download.core.MultiThreadDownloader.DownloadRange;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 断点索引文件：新格式的读写、旧格式的换算和损坏或截断的行
+ */
+public class ChunkIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writtenIndexIsReadBack() throws Exception {
+        File indexFile = folder.newFile("index.txt");
+        ChunkPlan plan = ChunkPlan.withChunkSize(1000, 100);
+        ChunkBitmap completed = new ChunkBitmap(plan.getChunkCount());
+        completed.set(0);
+        completed.set(3);
+        completed.set(9);
+        DownloadRange partial = plan.range(5);
+        partial.setReceivedBytes(40);
+        partial.advancePersistedBytes(40);
+        ChunkIndex.write(indexFile, plan, completed, Arrays.asList(partial, plan.range(6)));
+
+        ChunkIndex index = ChunkIndex.read(indexFile);
+        assertTrue(index.matches(plan));
+        assertFalse(index.matches(ChunkPlan.withChunkSize(1000, 200)));
+        ChunkBitmap restored = index.completedChunks(plan);
+        assertEquals(3, restored.cardinality());
+        assertTrue(restored.get(0) && restored.get(3) && restored.get(9));
+
+        List<DownloadRange> ranges = index.partialRanges(plan, restored);
+        assertEquals(1, ranges.size());
+        assertEquals(5, ranges.get(0).getChunkIndex());
+        assertEquals(40, ranges.get(0).getPersistedBytes());
+        assertEquals(340, index.persistedBytes());
+    }
+
+    @Test
+    public void legacyLinesAreMappedOntoCurrentPlan() throws Exception {
+        File indexFile = write("0-99-1", "100-199-0", "200-399", "400-449-1");
+
+        ChunkIndex index = ChunkIndex.read(indexFile);
+        assertNull(index.getPlan());
+        ChunkPlan plan = ChunkPlan.withChunkSize(1000, 100);
+        assertFalse(index.matches(plan));
+        ChunkBitmap completed = index.completedChunks(plan);
+        // 400-449只覆盖区块4的一半，不算完成
+        assertEquals(3, completed.cardinality());
+        assertTrue(completed.get(0) && completed.get(2) && completed.get(3));
+        assertEquals(350, index.persistedBytes());
+
+        // 划分改变时只有完全落在已完成区间内的区块算作完成
+        ChunkBitmap coarse = index.completedChunks(ChunkPlan.withChunkSize(1000, 200));
+        assertEquals(1, coarse.cardinality());
+        assertTrue(coarse.get(1));
+    }
+
+    @Test
+    public void truncatedAndCorruptLinesAreIgnored() throws Exception {
+        ChunkPlan plan = ChunkPlan.withChunkSize(1000, 100);
+        ChunkBitmap completed = new ChunkBitmap(plan.getChunkCount());
+        completed.set(1);
+        String done = "done " + Base64.getEncoder().encodeToString(completed.toByteArray());
+        File indexFile = write("chunks 1000 100", done,
+                "200-299-0-",       // 截断在已写入字节数之前
+                "300-3",            // 截断在结束偏移中间
+                "400-499-0-1x",     // 损坏的数字
+                "500-599-0-100",    // 已写入字节数不小于区块长度
+                "650-699-0-20",     // 不是本划分的区块
+                "700-799-0-25");
+
+        ChunkIndex index = ChunkIndex.read(indexFile);
+        assertTrue(index.matches(plan));
+        ChunkBitmap restored = index.completedChunks(plan);
+        assertEquals(1, restored.cardinality());
+        assertTrue(restored.get(1));
+        assertFalse(restored.get(3));
+
+        List<DownloadRange> ranges = index.partialRanges(plan, restored);
+        assertEquals(1, ranges.size());
+        assertEquals(7, ranges.get(0).getChunkIndex());
+        assertEquals(25, ranges.get(0).getPersistedBytes());
+        assertEquals(145, index.persistedBytes());
+    }
+
+    @Test
+    public void missingIndexIsEmpty() throws Exception {
+        ChunkIndex index = ChunkIndex.read(new File(folder.getRoot(), "missing.txt"));
+        ChunkPlan plan = ChunkPlan.withChunkSize(1000, 100);
+        assertFalse(index.matches(plan));
+        assertEquals(0, index.completedChunks(plan).cardinality());
+        assertEquals(Collections.emptyList(), index.partialRanges(plan, new ChunkBitmap(plan.getChunkCount())));
+        assertEquals(0, index.persistedBytes());
+    }
+
+    private File write(String... lines) throws IOException {
+        File indexFile = new File(folder.getRoot(), "index.txt");
+        Files.write(indexFile.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return indexFile;
+    }
+}
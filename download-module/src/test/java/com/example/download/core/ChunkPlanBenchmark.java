@@ -0,0 +1,123 @@
+package com.example.download.core;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 区块划分、完成位图、任务队列和断点索引在百万到千万级区块数下的耗时与内存
+ *
+ * 对每个区块数依次测量：
+ * <ul>
+ *     <li>划分：创建区块划分和完成位图</li>
+ *     <li>下载：乱序/顺序领取全部区块并标记完成（模拟工作线程，不发起网络请求）</li>
+ *     <li>断点：完成一半区块后写入索引，再读取并恢复，统计剩余任务数</li>
+ * </ul>
+ * 作为对照，同时测量为每个区块创建对象放入HashSet的旧做法（区块数较大时可能内存不足，此时跳过）。
+ *
+ * 用法: java ChunkPlanBenchmark [区块数...]，默认1000000和10000000
+ */
+public class ChunkPlanBenchmark {
+    private static final long CHUNK_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        long[] counts = args.length > 0 ? new long[args.length] : new long[]{1_000_000L, 10_000_000L};
+        for (int i = 0; i < args.length; i++) {
+            counts[i] = Long.parseLong(args[i]);
+        }
+        File workDir = Files.createTempDirectory("chunk-plan-bench").toFile();
+        for (long count : counts) {
+            run(count, workDir);
+        }
+    }
+
+    private static void run(long count, File workDir) throws Exception {
+        // 最后一块不满，检查边界计算
+        long fileSize = count * CHUNK_SIZE - CHUNK_SIZE / 2;
+        System.out.println("==== 区块数: " + count + "，文件大小: " + (fileSize >> 30) + " GB ====");
+
+        long begin = System.nanoTime();
+        ChunkPlan plan = ChunkPlan.of(fileSize, CHUNK_SIZE, CHUNK_SIZE);
+        ChunkBitmap completed = new ChunkBitmap(plan.getChunkCount());
+        System.out.printf("划分: %.1f ms，位图 %d KB%n", millis(begin), ((plan.getChunkCount() + 63) / 64 * 8) / 1024);
+
+        for (boolean ordered : new boolean[]{false, true}) {
+            completed.clear();
+            begin = System.nanoTime();
+            ChunkQueue queue = new ChunkQueue(plan, completed, new ArrayList<>(), ordered);
+            long bytes = drain(queue, completed);
+            System.out.printf("%s领取并完成全部区块: %.1f ms，字节数%s%n", ordered ? "顺序" : "乱序", millis(begin),
+                    bytes == fileSize && plan.completedBytes(completed) == fileSize ? "正确" : "错误");
+        }
+
+        // 随机完成一半区块，另有100个区块部分完成
+        completed.clear();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < plan.getChunkCount() / 2; i++) {
+            completed.set(random.nextInt(plan.getChunkCount()));
+        }
+        Set<MultiThreadDownloader.DownloadRange> partial = new HashSet<>();
+        while (partial.size() < 100) {
+            int index = random.nextInt(plan.getChunkCount() - 1);
+            if (!completed.get(index)) {
+                MultiThreadDownloader.DownloadRange range = plan.range(index);
+                range.advancePersistedBytes(CHUNK_SIZE / 3);
+                partial.add(range);
+            }
+        }
+        File indexFile = new File(workDir, "index-" + count + ".txt");
+        begin = System.nanoTime();
+        ChunkIndex.write(indexFile, plan, completed, partial);
+        System.out.printf("写入索引: %.1f ms，%d KB%n", millis(begin), indexFile.length() / 1024);
+
+        begin = System.nanoTime();
+        ChunkIndex index = ChunkIndex.read(indexFile);
+        ChunkBitmap restored = index.completedChunks(plan);
+        ChunkQueue queue = new ChunkQueue(plan, restored, index.partialRanges(plan, restored), false);
+        System.out.printf("读取索引并恢复: %.1f ms，剩余任务 %d（应为 %d），部分完成 %d%n", millis(begin),
+                queue.getTaskCount(), plan.getChunkCount() - completed.cardinality(), index.partialRanges(plan, restored).size());
+
+        legacy(plan);
+        System.out.println();
+    }
+
+    /**
+     * 旧做法：为每个区块创建对象并放入HashSet
+     */
+    private static void legacy(ChunkPlan plan) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long begin = System.nanoTime();
+        try {
+            Set<MultiThreadDownloader.DownloadRange> ranges = new HashSet<>();
+            for (int i = 0; i < plan.getChunkCount(); i++) {
+                ranges.add(new MultiThreadDownloader.DownloadRange(plan.startOf(i), plan.endOf(i)));
+            }
+            double elapsed = millis(begin);
+            System.gc();
+            long used = runtime.totalMemory() - runtime.freeMemory() - usedBefore;
+            System.out.printf("对照（每个区块一个对象的HashSet）: %.1f ms，约 %d MB，%d 个对象%n", elapsed, used >> 20, ranges.size());
+        } catch (OutOfMemoryError e) {
+            System.out.println("对照（每个区块一个对象的HashSet）: 内存不足");
+        }
+    }
+
+    private static long drain(ChunkQueue queue, ChunkBitmap completed) throws InterruptedException {
+        long bytes = 0;
+        MultiThreadDownloader.DownloadRange range;
+        while ((range = queue.poll(0, TimeUnit.MILLISECONDS)) != null) {
+            bytes += range.getEndByte() - range.getStartByte() + 1;
+            completed.set(range.getChunkIndex());
+        }
+        return bytes;
+    }
+
+    private static double millis(long beginNanos) {
+        return (System.nanoTime() - beginNanos) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.download.core;
+
+import com.example.download.core.MultiThreadDownloader.DownloadRange;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 任务队列：跳过已完成的区块、恢复部分完成的区块、放回的区块和两种领取顺序
+ */
+public class ChunkQueueTest {
+
+    @Test
+    public void orderedQueueTakesLowestOffsetFirst() throws Exception {
+        ChunkPlan plan = ChunkPlan.withChunkSize(1000, 100);
+        ChunkBitmap completed = new ChunkBitmap(plan.getChunkCount());
+        completed.set(0);
+        completed.set(1);
+        completed.set(5);
+        DownloadRange partial = resumed(plan, 3, 30);
+        ChunkQueue queue = new ChunkQueue(plan, completed, Collections.singletonList(partial), true);
+        assertEquals(7, queue.getTaskCount());
+
+        assertEquals(2, poll(queue).getChunkIndex());
+        assertSame(partial, poll(queue));
+        assertEquals(4, poll(queue).getChunkIndex());
+        DownloadRange six = poll(queue);
+        assertEquals(6, six.getChunkIndex());
+        assertEquals(7, poll(queue).getChunkIndex());
+
+        // 重试的区块排在偏移更大的区块之前
+        queue.offer(six);
+        assertSame(six, poll(queue));
+        assertEquals(8, poll(queue).getChunkIndex());
+        assertEquals(9, poll(queue).getChunkIndex());
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void unorderedQueueVisitsEveryPendingChunkOnce() throws Exception {
+        ChunkPlan plan = ChunkPlan.withChunkSize(130 * 100, 100);
+        ChunkBitmap completed = new ChunkBitmap(plan.getChunkCount());
+        for (int index : new int[]{0, 63, 64, 127, 129}) {
+            completed.set(index);
+        }
+        DownloadRange partial = resumed(plan, 100, 10);
+        // 已完成区块的断点被忽略
+        DownloadRange stale = resumed(plan, 64, 10);
+        ChunkQueue queue = new ChunkQueue(plan, completed, Arrays.asList(partial, stale), false);
+        assertEquals(125, queue.getTaskCount());
+
+        // 恢复的部分完成区块最先处理
+        assertSame(partial, poll(queue));
+        Set<Integer> seen = new HashSet<>();
+        seen.add(100);
+        DownloadRange range;
+        while ((range = queue.poll(0, TimeUnit.MILLISECONDS)) != null) {
+            assertTrue(seen.add(range.getChunkIndex()));
+            assertFalse(completed.get(range.getChunkIndex()));
+        }
+        assertEquals(125, seen.size());
+    }
+
+    @Test
+    public void returnedRangeIsTakenAfterCursorInUnorderedMode() throws Exception {
+        ChunkPlan plan = ChunkPlan.withChunkSize(300, 100);
+        ChunkQueue queue = new ChunkQueue(plan, new ChunkBitmap(plan.getChunkCount()), Collections.emptyList(), false);
+        DownloadRange first = poll(queue);
+        queue.offer(first);
+        List<DownloadRange> rest = new ArrayList<>();
+        DownloadRange range;
+        while ((range = queue.poll(0, TimeUnit.MILLISECONDS)) != null) {
+            rest.add(range);
+        }
+        assertEquals(3, rest.size());
+        assertSame(first, rest.get(2));
+    }
+
+    @Test
+    public void pollWaitsForOfferedRange() throws Exception {
+        ChunkPlan plan = ChunkPlan.withChunkSize(100, 100);
+        ChunkBitmap completed = new ChunkBitmap(plan.getChunkCount());
+        completed.set(0);
+        ChunkQueue queue = new ChunkQueue(plan, completed, Collections.emptyList(), true);
+        assertEquals(0, queue.getTaskCount());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+        DownloadRange range = plan.range(0);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.offer(range);
+        });
+        producer.start();
+        assertSame(range, queue.poll(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    private static DownloadRange resumed(ChunkPlan plan, int index, long persisted) {
+        DownloadRange range = plan.range(index);
+        range.setReceivedBytes(persisted);
+        range.advancePersistedBytes(persisted);
+        return range;
+    }
+
+    private static DownloadRange poll(ChunkQueue queue) throws InterruptedException {
+        return queue.poll(0, TimeUnit.MILLISECONDS);
+    }
+}
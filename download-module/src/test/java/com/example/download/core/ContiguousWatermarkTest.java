@@ -0,0 +1,65 @@
+package com.example.download.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 连续可用水位：乱序完成、重叠和重复的区间、等待与结束
+ */
+public class ContiguousWatermarkTest {
+
+    @Test
+    public void outOfOrderRangesAdvanceOnceTheGapIsFilled() {
+        ContiguousWatermark watermark = new ContiguousWatermark();
+        watermark.add(200, 300);
+        watermark.add(100, 200);
+        assertEquals(0, watermark.get());
+        watermark.add(400, 500);
+        watermark.add(0, 100);
+        assertEquals(300, watermark.get());
+        watermark.add(300, 400);
+        assertEquals(500, watermark.get());
+    }
+
+    @Test
+    public void overlappingAndDuplicateRangesAreMerged() {
+        ContiguousWatermark watermark = new ContiguousWatermark();
+        watermark.add(100, 250);
+        watermark.add(200, 300);
+        watermark.add(100, 250);
+        watermark.add(120, 180);
+        watermark.add(0, 150);
+        assertEquals(300, watermark.get());
+        // 水位之前的重复区间不改变水位
+        watermark.add(0, 300);
+        watermark.add(50, 100);
+        assertEquals(300, watermark.get());
+        // 跨过水位的区间直接推进
+        watermark.add(250, 350);
+        assertEquals(350, watermark.get());
+    }
+
+    @Test
+    public void awaitReturnsWhenOffsetBecomesAvailableOrDownloadEnds() throws Exception {
+        ContiguousWatermark watermark = new ContiguousWatermark();
+        watermark.add(0, 10);
+        assertTrue(watermark.await(9, 0));
+        assertFalse(watermark.await(10, 20));
+
+        Thread writer = new Thread(() -> watermark.add(10, 20));
+        writer.start();
+        assertTrue(watermark.await(15, 5000));
+        writer.join();
+
+        watermark.finish();
+        long start = System.currentTimeMillis();
+        assertFalse(watermark.await(100, 5000));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        watermark.reset();
+        assertEquals(0, watermark.get());
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端吞吐/负载测试工具
+ *
+ * 使用 {@link LoopbackRangeServer} 作为下载源，在不同线程数、分块大小和并发任务数下
+ * 驱动 {@link MultiThreadDownloader#download(DownloadTaskInfo, com.example.download.ui.DownloadGUI.ProgressListener, int)}，
+ * 输出吞吐量（MB/s）、分块请求p50/p99延迟、CPU时间和内存分配量。
+ *
+ * 用法: java DownloadLoadHarness [文件大小MB] [--verify]
+ */
+public class DownloadLoadHarness {
+    private static final int[] THREAD_COUNTS = {1, 4, 8, 16};
+    private static final int[] CHUNK_SIZES = {256 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+    private static final int[] CONCURRENT_TASKS = {1, 4};
+
+    public static void main(String[] args) throws Exception {
+        long fileSizeMb = args.length > 0 ? Long.parseLong(args[0]) : 64;
+        boolean verify = args.length > 1 && "--verify".equals(args[1]);
+        long fileSize = fileSizeMb * 1024 * 1024;
+
+        File workDir = Files.createTempDirectory("download-harness").toFile();
+        LoopbackRangeServer server = new LoopbackRangeServer();
+        server.start();
+
+        PrintStream console = System.out;
+        console.println("文件大小: " + fileSizeMb + " MB, 工作目录: " + workDir);
+        console.println(String.format("%-10s %-8s %-8s %-6s %10s %10s %10s %10s %12s %8s",
+                "scenario", "threads", "chunkKB", "tasks", "MB/s", "p50(ms)", "p99(ms)", "cpu(ms)", "alloc(MB)", "ok"));
+        try {
+            // 预热
+            runScenario(server, workDir, "warmup", fileSize, 4, 1024 * 1024, 1, false, null);
+
+            for (int tasks : CONCURRENT_TASKS) {
+                for (int threads : THREAD_COUNTS) {
+                    for (int chunk : CHUNK_SIZES) {
+                        runScenario(server, workDir, "clean", fileSize, threads, chunk, tasks, verify, console);
+                    }
+                }
+            }
+
+            // 故障注入场景：首字节延迟 + 限速 + 连接重置 + 5xx
+            server.setFirstByteLatencyMillis(20);
+            server.setBandwidthBytesPerSecond(32L * 1024 * 1024);
+            runScenario(server, workDir, "slow", fileSize, 8, 1024 * 1024, 1, verify, console);
+            server.setResetProbability(0.02);
+            server.setErrorProbability(0.02);
+            runScenario(server, workDir, "faulty", fileSize, 8, 1024 * 1024, 1, verify, console);
+        } finally {
+            server.stop();
+            deleteRecursively(workDir);
+        }
+    }
+
+    private static void runScenario(LoopbackRangeServer server, File workDir, String name, long fileSize,
+                                    int threads, int chunkSize, int taskCount, boolean verify, PrintStream report) throws Exception {
+        server.resetStats();
+        List<DownloadTaskInfo> taskInfos = new ArrayList<>();
+        for (int i = 0; i < taskCount; i++) {
+            DownloadTaskInfo taskInfo = new DownloadTaskInfo();
+            taskInfo.setUrl(server.url(name + "-" + i + ".bin", fileSize));
+            taskInfo.setSavePath(new File(workDir, name + "-" + threads + "-" + chunkSize + "-" + i + ".bin").getAbsolutePath());
+            taskInfo.setThreadCount(threads);
+            taskInfos.add(taskInfo);
+        }
+
+        AllocationMeter allocationMeter = new AllocationMeter();
+        long cpuBefore = processCpuNanos();
+        long begin = System.nanoTime();
+
+        // 下载引擎会逐块打印日志，测量期间屏蔽标准输出
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        ExecutorService pool = Executors.newFixedThreadPool(taskCount);
+        // 所有并发任务共用同一个下载引擎，每个任务的状态保存在各自的上下文中
+        MultiThreadDownloader downloader = new MultiThreadDownloader();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (DownloadTaskInfo taskInfo : taskInfos) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        downloader.download(taskInfo, null, chunkSize);
+                    } catch (Exception e) {
+                        taskInfo.setStatus(DownloadTaskInfo.TaskStatus.FAILED);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+            System.setOut(originalOut);
+        }
+
+        long elapsedNanos = System.nanoTime() - begin;
+        long cpuNanos = processCpuNanos() - cpuBefore;
+        long allocated = allocationMeter.stop();
+
+        boolean ok = true;
+        for (DownloadTaskInfo taskInfo : taskInfos) {
+            File file = new File(taskInfo.getSavePath());
+            ok &= taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED && file.length() == fileSize;
+            if (ok && verify) {
+                ok = verifyContent(file, fileSize);
+            }
+            file.delete();
+        }
+
+        if (report != null) {
+            double megabytes = (double) fileSize * taskCount / (1024 * 1024);
+            double seconds = elapsedNanos / 1_000_000_000.0;
+            report.println(String.format("%-10s %-8d %-8d %-6d %10.1f %10.2f %10.2f %10d %12.1f %8s",
+                    name, threads, chunkSize / 1024, taskCount, megabytes / seconds,
+                    server.latencyPercentileMillis(50), server.latencyPercentileMillis(99),
+                    cpuNanos / 1_000_000, allocated / (1024.0 * 1024.0), ok ? "yes" : "NO"));
+        }
+    }
+
+    private static boolean verifyContent(File file, long fileSize) throws IOException {
+        byte[] actual = new byte[64 * 1024];
+        byte[] expected = new byte[actual.length];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long pos = 0;
+            while (pos < fileSize) {
+                int len = (int) Math.min(actual.length, fileSize - pos);
+                raf.readFully(actual, 0, len);
+                LoopbackRangeServer.fill(expected, pos, len);
+                for (int i = 0; i < len; i++) {
+                    if (actual[i] != expected[i]) {
+                        return false;
+                    }
+                }
+                pos += len;
+            }
+        }
+        return true;
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * 通过堆使用量变化加上期间各次GC回收的字节数估算内存分配量
+     */
+    private static class AllocationMeter implements NotificationListener {
+        private final AtomicLong collectedBytes = new AtomicLong();
+        private final long heapUsedBefore;
+
+        AllocationMeter() {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+                }
+            }
+            heapUsedBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long before = 0;
+            long after = 0;
+            for (Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+                before += entry.getValue().getUsed();
+            }
+            for (Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                after += entry.getValue().getUsed();
+            }
+            collectedBytes.addAndGet(Math.max(0, before - after));
+        }
+
+        long stop() {
+            long heapUsedAfter = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    try {
+                        ((NotificationEmitter) gc).removeNotificationListener(this);
+                    } catch (Exception e) {
+                        // 忽略
+                    }
+                }
+            }
+            return Math.max(0, heapUsedAfter - heapUsedBefore + collectedBytes.get());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+/**
+ * HTTP/1.1连接池与HTTP/2多路复用传输的对比测试
+ *
+ * 默认使用 {@link LoopbackRangeServer}（仅支持HTTP/1.1，HTTP_2模式下会经协商回退，可用于测量回退路径开销）；
+ * 传入支持HTTP/2的外部URL时对比真实的多路复用效果。
+ *
+ * 用法: java Http2TransportBenchmark [文件URL] [线程数] [轮数]
+ */
+public class Http2TransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        LoopbackRangeServer server = null;
+        String fileUrl;
+        if (args.length > 0) {
+            fileUrl = args[0];
+        } else {
+            server = new LoopbackRangeServer();
+            server.setFirstByteLatencyMillis(5);
+            server.start();
+            fileUrl = server.url("h2-bench.bin", 64L * 1024 * 1024);
+        }
+
+        File workDir = Files.createTempDirectory("http2-bench").toFile();
+        PrintStream console = System.out;
+        console.println("URL: " + fileUrl + ", 线程数: " + threads);
+        try {
+            for (TransferProtocol protocol : TransferProtocol.values()) {
+                MultiThreadDownloader downloader = new MultiThreadDownloader();
+                downloader.setTransferProtocol(protocol);
+
+                RangeTransport transport = downloader.resolveTransport();
+                String negotiated;
+                try (RangeTransport.RangeConnection connection = transport.open(fileUrl, 0, 0)) {
+                    connection.getInputStream().read(new byte[1]);
+                    negotiated = connection.getProtocol();
+                }
+
+                // 首轮作为预热
+                for (int round = 0; round <= rounds; round++) {
+                    DownloadTaskInfo taskInfo = new DownloadTaskInfo();
+                    taskInfo.setUrl(fileUrl);
+                    taskInfo.setSavePath(new File(workDir, protocol + "-" + round + ".bin").getAbsolutePath());
+                    taskInfo.setThreadCount(threads);
+
+                    long begin = System.nanoTime();
+                    silenced(() -> downloader.download(taskInfo, null, 1024 * 1024));
+                    double seconds = (System.nanoTime() - begin) / 1_000_000_000.0;
+
+                    if (round > 0) {
+                        double megabytes = taskInfo.getFileSize() / (1024.0 * 1024.0);
+                        console.println(String.format("%-9s negotiated=%-9s round=%d %8.1f MB/s %s",
+                                protocol, negotiated, round, megabytes / seconds, taskInfo.getStatus()));
+                    }
+                    new File(taskInfo.getSavePath()).delete();
+                }
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            File[] files = workDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            workDir.delete();
+        }
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    private static void silenced(Action action) throws Exception {
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        try {
+            action.run();
+        } finally {
+            System.setOut(originalOut);
+        }
+    }
+}
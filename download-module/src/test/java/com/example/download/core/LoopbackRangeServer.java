@@ -0,0 +1,361 @@
+package com.example.download.core;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 测试用本地回环HTTP服务器，按需生成任意大小的确定性内容
+ *
+ * 请求路径格式：/files/{size}/{name}，内容由 {@link #byteAt(long)} 生成，
+ * 支持HEAD、Range、ETag/If-Range和chunked响应，并可注入延迟、限速、连接重置和5xx错误。
+ */
+public class LoopbackRangeServer {
+    private static final int WRITE_BLOCK_SIZE = 64 * 1024;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // 故障注入与响应方式配置
+    private volatile long firstByteLatencyMillis = 0;
+    private volatile long bandwidthBytesPerSecond = 0; // 每个连接的带宽上限，0表示不限速
+    private volatile double resetProbability = 0;
+    private volatile double errorProbability = 0;
+    private volatile boolean chunkedResponses = false;
+    private volatile boolean rangeSupported = true;
+    private volatile boolean gzipEncoding = false; // 客户端接受gzip且未请求Range时以gzip编码响应
+    private final Random random = new Random(20240601L);
+
+    // 统计信息
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong rangeRequestCount = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong resetCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final ConcurrentLinkedQueue<Long> requestLatencies = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 启动服务器，监听127.0.0.1上的随机端口
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "loopback-http");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/files/", this::handle);
+        server.start();
+    }
+
+    /**
+     * 停止服务器
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * 获取指定大小合成文件的下载地址
+     *
+     * @param name 文件名
+     * @param size 文件大小（字节）
+     * @return 下载URL
+     */
+    public String url(String name, long size) {
+        return "http://127.0.0.1:" + getPort() + "/files/" + size + "/" + name;
+    }
+
+    /**
+     * 确定性内容生成器：返回指定偏移处的字节
+     */
+    public static byte byteAt(long pos) {
+        long x = pos * 0x9E3779B97F4A7C15L;
+        return (byte) ((x >>> 56) ^ (pos >>> 12));
+    }
+
+    /**
+     * 用确定性内容填充缓冲区
+     */
+    public static void fill(byte[] buffer, long pos, int length) {
+        for (int i = 0; i < length; i++) {
+            buffer[i] = byteAt(pos + i);
+        }
+    }
+
+    public static String etagFor(long size) {
+        return "\"loopback-" + size + "\"";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long begin = System.nanoTime();
+        requestCount.incrementAndGet();
+        try {
+            long size = parseSize(exchange.getRequestURI().getPath());
+            if (size < 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            if (firstByteLatencyMillis > 0) {
+                sleepQuietly(firstByteLatencyMillis);
+            }
+
+            if (roll(errorProbability)) {
+                errorCount.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            Headers responseHeaders = exchange.getResponseHeaders();
+            String etag = etagFor(size);
+            responseHeaders.set("ETag", etag);
+            responseHeaders.set("Content-Type", "application/octet-stream");
+            if (rangeSupported) {
+                responseHeaders.set("Accept-Ranges", "bytes");
+            }
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                responseHeaders.set("Content-Length", String.valueOf(size));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = size - 1;
+            int status = 200;
+            String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (rangeSupported && rangeHeader != null && (ifRange == null || ifRange.equals(etag))) {
+                long[] range = parseRange(rangeHeader, size);
+                if (range == null) {
+                    responseHeaders.set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                start = range[0];
+                end = range[1];
+                status = 206;
+                rangeRequestCount.incrementAndGet();
+                responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+
+            long length = end - start + 1;
+            long resetAt = roll(resetProbability) ? start + (long) (length * nextDouble()) : -1;
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (gzipEncoding && status == 200 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                responseHeaders.set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(status, 0);
+                try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody(), WRITE_BLOCK_SIZE)) {
+                    writeBody(out, start, end, resetAt);
+                }
+                return;
+            }
+            exchange.sendResponseHeaders(status, chunkedResponses ? 0 : length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                writeBody(out, start, end, resetAt);
+            }
+        } finally {
+            requestLatencies.add(System.nanoTime() - begin);
+            exchange.close();
+        }
+    }
+
+    private void writeBody(OutputStream out, long start, long end, long resetAt) throws IOException {
+        byte[] block = new byte[WRITE_BLOCK_SIZE];
+        long pos = start;
+        long windowStart = System.nanoTime();
+        long windowBytes = 0;
+        while (pos <= end) {
+            int len = (int) Math.min(block.length, end - pos + 1);
+            if (resetAt >= 0 && pos + len > resetAt) {
+                // 模拟连接重置：写出部分数据后直接中断
+                len = (int) (resetAt - pos);
+                fill(block, pos, len);
+                out.write(block, 0, len);
+                out.flush();
+                resetCount.incrementAndGet();
+                throw new IOException("injected reset at " + resetAt);
+            }
+            fill(block, pos, len);
+            out.write(block, 0, len);
+            bytesSent.addAndGet(len);
+            pos += len;
+
+            if (bandwidthBytesPerSecond > 0) {
+                windowBytes += len;
+                long expectedNanos = windowBytes * 1_000_000_000L / bandwidthBytesPerSecond;
+                long elapsed = System.nanoTime() - windowStart;
+                if (expectedNanos > elapsed) {
+                    sleepQuietly((expectedNanos - elapsed) / 1_000_000L);
+                }
+            }
+        }
+    }
+
+    private static long parseSize(String path) {
+        // /files/{size}/{name}
+        String[] parts = path.split("/");
+        if (parts.length < 3) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析单个Range头，支持 bytes=a-b、bytes=a- 和 bytes=-n
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            if (start > end || start >= size) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private boolean roll(double probability) {
+        return probability > 0 && nextDouble() < probability;
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 清空统计信息
+     */
+    public void resetStats() {
+        requestCount.set(0);
+        rangeRequestCount.set(0);
+        bytesSent.set(0);
+        resetCount.set(0);
+        errorCount.set(0);
+        requestLatencies.clear();
+    }
+
+    /**
+     * 获取请求处理耗时的分位数（毫秒）
+     *
+     * @param percentile 分位数（0-100）
+     */
+    public double latencyPercentileMillis(double percentile) {
+        List<Long> samples = new ArrayList<>(requestLatencies);
+        if (samples.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(samples);
+        int index = (int) Math.ceil(percentile / 100.0 * samples.size()) - 1;
+        index = Math.max(0, Math.min(index, samples.size() - 1));
+        return samples.get(index) / 1_000_000.0;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getRangeRequestCount() {
+        return rangeRequestCount.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getResetCount() {
+        return resetCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public void setFirstByteLatencyMillis(long firstByteLatencyMillis) {
+        this.firstByteLatencyMillis = firstByteLatencyMillis;
+    }
+
+    public void setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+    }
+
+    public void setResetProbability(double resetProbability) {
+        this.resetProbability = resetProbability;
+    }
+
+    public void setErrorProbability(double errorProbability) {
+        this.errorProbability = errorProbability;
+    }
+
+    public void setChunkedResponses(boolean chunkedResponses) {
+        this.chunkedResponses = chunkedResponses;
+    }
+
+    public void setGzipEncoding(boolean gzipEncoding) {
+        this.gzipEncoding = gzipEncoding;
+    }
+
+    public void setRangeSupported(boolean rangeSupported) {
+        this.rangeSupported = rangeSupported;
+    }
+}
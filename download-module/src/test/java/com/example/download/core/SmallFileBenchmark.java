@@ -0,0 +1,119 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 大量小文件的下载吞吐：分段下载与单请求小文件下载的对比
+ *
+ * 使用 {@link LoopbackRangeServer} 提供文件，按以下方式各下载一批相同大小的文件，统计每秒完成的文件数、
+ * 每个文件的平均请求数，以及结束后保存目录中残留的文件数（临时目录、索引等）：
+ * <ul>
+ *     <li>分段：关闭小文件下载，HEAD探测后按区块发出多个分段请求</li>
+ *     <li>小文件（已探测）：任务创建时已探测，下载时只发一个GET</li>
+ *     <li>小文件（未探测）：以分段GET代替HEAD，响应体直接作为下载数据</li>
+ * </ul>
+ *
+ * 用法: java SmallFileBenchmark [文件数] [文件大小(字节)] [并发任务数] [首字节延迟(毫秒)]，默认500、16384、8、1
+ */
+public class SmallFileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long fileSize = args.length > 1 ? Long.parseLong(args[1]) : 16 * 1024;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long latencyMillis = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        // 服务器分两次写出响应头和响应体，未关闭Nagle算法时每个小响应都要等待约40ms的延迟确认
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        LoopbackRangeServer server = new LoopbackRangeServer();
+        server.setFirstByteLatencyMillis(latencyMillis);
+        server.start();
+        File workDir = Files.createTempDirectory("small-file-bench").toFile();
+        System.out.println("文件数: " + fileCount + "，文件大小: " + fileSize + " bytes，并发任务数: " + concurrency
+                + "，首字节延迟: " + latencyMillis + " ms");
+        try {
+            // 首轮作为预热
+            for (int round = 0; round <= 1; round++) {
+                run("分段", server, workDir, fileCount, fileSize, concurrency, 0, false, round > 0);
+                run("小文件（已探测）", server, workDir, fileCount, fileSize, concurrency, 1024 * 1024, true, round > 0);
+                run("小文件（未探测）", server, workDir, fileCount, fileSize, concurrency, 1024 * 1024, false, round > 0);
+            }
+        } finally {
+            server.stop();
+            deleteRecursively(workDir);
+        }
+    }
+
+    private static void run(String label, LoopbackRangeServer server, File workDir, int fileCount, long fileSize,
+                            int concurrency, long threshold, boolean probed, boolean report) throws Exception {
+        MultiThreadDownloader downloader = new MultiThreadDownloader();
+        downloader.setConsoleLogging(false);
+        downloader.setSmallFileThresholdBytes(threshold);
+        File dir = new File(workDir, label.hashCode() + "-" + System.nanoTime());
+        dir.mkdirs();
+
+        List<DownloadTaskInfo> tasks = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            DownloadTaskInfo taskInfo = new DownloadTaskInfo();
+            taskInfo.setUrl(server.url("small-" + i + ".bin", fileSize));
+            taskInfo.setSavePath(new File(dir, "small-" + i + ".bin").getAbsolutePath());
+            taskInfo.setThreadCount(4);
+            if (probed) {
+                // 模拟创建任务时的探测，不计入下载耗时和请求数
+                downloader.probe(taskInfo);
+            }
+            tasks.add(taskInfo);
+        }
+
+        server.resetStats();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long begin = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>(fileCount);
+            for (DownloadTaskInfo taskInfo : tasks) {
+                futures.add(executor.submit(() -> {
+                    downloader.download(taskInfo, null, 1024 * 1024);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - begin) / 1_000_000_000.0;
+
+        int completed = 0;
+        for (DownloadTaskInfo taskInfo : tasks) {
+            if (taskInfo.getStatus() == DownloadTaskInfo.TaskStatus.COMPLETED && new File(taskInfo.getSavePath()).length() == fileSize) {
+                completed++;
+            }
+        }
+        String[] leftovers = dir.list();
+        int extraEntries = leftovers != null ? leftovers.length - completed : 0;
+        if (report) {
+            System.out.println(String.format("%-12s %8.1f 文件/秒  每文件请求数 %.2f  完成 %d/%d  残留文件/目录 %d",
+                    label, fileCount / seconds, server.getRequestCount() / (double) fileCount, completed, fileCount, extraEntries));
+        }
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
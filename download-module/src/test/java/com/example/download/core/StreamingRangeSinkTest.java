@@ -0,0 +1,126 @@
+package com.example.download.core;
+
+import com.example.download.model.DownloadTaskInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 流式读取的重排缓冲：乱序到达、窗口之外的分段、重复分段和未写完时结束
+ */
+public class StreamingRangeSinkTest {
+    private DownloadTaskInfo taskInfo;
+
+    @Before
+    public void setUp() {
+        taskInfo = new DownloadTaskInfo();
+        taskInfo.setStatus(DownloadTaskInfo.TaskStatus.DOWNLOADING);
+    }
+
+    @Test
+    public void outOfOrderSegmentsAreReadInFileOrder() throws Exception {
+        StreamingRangeSink sink = new StreamingRangeSink(taskInfo, 1024, null);
+        sink.setTotalSize(300);
+        write(sink, 200, 100);
+        write(sink, 100, 100);
+        write(sink, 0, 100);
+        sink.close();
+
+        byte[] read = readAll(sink.channel(), 300);
+        assertArrayEquals(expected(0, 300), read);
+    }
+
+    @Test
+    public void segmentOutsideWindowWaitsForReader() throws Exception {
+        StreamingRangeSink sink = new StreamingRangeSink(taskInfo, 100, null);
+        sink.setTotalSize(300);
+        assertFalse(sink.awaitCapacity(100, 100, 20));
+        // 读取位置所在的分段即使超过容量也可以写入
+        assertTrue(sink.awaitCapacity(0, 250, 0));
+        write(sink, 0, 100);
+
+        ReadableByteChannel channel = sink.channel();
+        ByteBuffer buffer = ByteBuffer.allocate(50);
+        assertEquals(50, channel.read(buffer));
+        assertTrue(sink.awaitCapacity(100, 50, 0));
+        assertFalse(sink.awaitCapacity(100, 100, 0));
+        buffer.clear();
+        assertEquals(50, channel.read(buffer));
+        assertTrue(sink.awaitCapacity(100, 100, 0));
+    }
+
+    @Test
+    public void segmentBeforeReadPositionIsRejectedAndRetryReplacesEmptySegment() throws Exception {
+        StreamingRangeSink sink = new StreamingRangeSink(taskInfo, 1024, null);
+        sink.setTotalSize(200);
+        // 失败的分段没有写入数据就关闭，重试时在同一位置重新打开
+        sink.open(0, 100, null).close();
+        write(sink, 0, 100);
+        ReadableByteChannel channel = sink.channel();
+        assertArrayEquals(expected(0, 100), readAll(channel, 100));
+        try {
+            sink.open(50, 100, null);
+            fail("已读取的分段不能再写入");
+        } catch (IOException expected) {
+            // 预期
+        }
+        write(sink, 100, 100);
+        assertArrayEquals(expected(100, 100), readAll(channel, 100));
+        assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void closeAfterPartialWriteDeliversBufferedDataThenFails() throws Exception {
+        StreamingRangeSink sink = new StreamingRangeSink(taskInfo, 1024, null);
+        sink.setTotalSize(200);
+        RangeSink.RangeWriter writer = sink.open(0, 200, null);
+        byte[] data = expected(0, 80);
+        writer.write(data, 0, data.length);
+        writer.close();
+        sink.close();
+
+        ReadableByteChannel channel = sink.channel();
+        assertArrayEquals(data, readAll(channel, 80));
+        try {
+            channel.read(ByteBuffer.allocate(1));
+            fail("下载未完成时应抛出异常");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    private static void write(RangeSink sink, long offset, int length) throws IOException {
+        try (RangeSink.RangeWriter writer = sink.open(offset, length, null)) {
+            byte[] data = expected(offset, length);
+            writer.write(data, 0, data.length);
+            writer.commit(() -> { });
+        }
+    }
+
+    private static byte[] expected(long offset, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ((offset + i) * 31);
+        }
+        return data;
+    }
+
+    private static byte[] readAll(ReadableByteChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.array();
+    }
+}
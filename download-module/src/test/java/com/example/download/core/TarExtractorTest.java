@@ -0,0 +1,227 @@
+package com.example.download.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * tar 顺序解压：普通文件、目录、长文件名、符号链接和跳出解压目录的条目
+ */
+public class TarExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File targetDir;
+    private final List<String> logs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        targetDir = folder.newFolder("out");
+    }
+
+    @Test
+    public void extractsFilesDirectoriesAndLongNames() throws Exception {
+        byte[] data = content(70_000);
+        String longName = "deep/" + repeat("x", 150) + ".bin";
+        TarBuilder tar = new TarBuilder()
+                .directory("deep/")
+                .file("deep/data.bin", data)
+                .longName(longName)
+                .file("ignored-short-name", "long".getBytes(StandardCharsets.UTF_8))
+                .file("empty.txt", new byte[0]);
+
+        for (boolean gzip : new boolean[]{false, true}) {
+            File dir = folder.newFolder(gzip ? "gz" : "plain");
+            TarExtractor extractor = new TarExtractor(new ByteArrayInputStream(tar.build(gzip)), gzip, dir, logs::add);
+            extractor.extract();
+            assertArrayEquals(data, Files.readAllBytes(new File(dir, "deep/data.bin").toPath()));
+            assertArrayEquals("long".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(new File(dir, longName).toPath()));
+            assertFalse(new File(dir, "ignored-short-name").exists());
+            assertEquals(0, new File(dir, "empty.txt").length());
+            assertEquals(3, extractor.getEntryCount());
+            assertEquals(data.length + 4L, extractor.getExtractedBytes());
+        }
+    }
+
+    @Test
+    public void symlinkEntryIsSkippedAndNotFollowed() throws Exception {
+        File outside = folder.newFolder("outside");
+        byte[] archive = new TarBuilder()
+                .symlink("link", outside.getAbsolutePath())
+                .file("link/passwd", "data".getBytes(StandardCharsets.UTF_8))
+                .build(false);
+
+        new TarExtractor(new ByteArrayInputStream(archive), false, targetDir, logs::add).extract();
+
+        File link = new File(targetDir, "link");
+        assertFalse(Files.isSymbolicLink(link.toPath()));
+        assertTrue(new File(link, "passwd").isFile());
+        assertEquals(0, outside.list().length);
+        assertEquals(1, logs.size());
+    }
+
+    @Test
+    public void parentTraversalEntryIsRejected() throws Exception {
+        byte[] archive = new TarBuilder()
+                .file("ok.txt", "ok".getBytes(StandardCharsets.UTF_8))
+                .file("../evil.txt", "evil".getBytes(StandardCharsets.UTF_8))
+                .build(false);
+        try {
+            new TarExtractor(new ByteArrayInputStream(archive), false, targetDir, logs::add).extract();
+            fail("跳出解压目录的条目应被拒绝");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("../evil.txt"));
+        }
+        assertTrue(new File(targetDir, "ok.txt").isFile());
+        assertFalse(new File(folder.getRoot(), "evil.txt").exists());
+    }
+
+    @Test
+    public void traversalThroughLongNameIsRejected() throws Exception {
+        byte[] archive = new TarBuilder()
+                .longName("a/../../evil.txt")
+                .file("a/safe.txt", "evil".getBytes(StandardCharsets.UTF_8))
+                .build(true);
+        try {
+            new TarExtractor(new ByteArrayInputStream(archive), true, targetDir, logs::add).extract();
+            fail("跳出解压目录的条目应被拒绝");
+        } catch (IOException expected) {
+            // 预期
+        }
+        assertFalse(new File(folder.getRoot(), "evil.txt").exists());
+    }
+
+    @Test
+    public void absolutePathEntryIsRejected() throws Exception {
+        File outside = new File(folder.getRoot(), "abs.txt");
+        byte[] archive = new TarBuilder()
+                .file(outside.getAbsolutePath(), "abs".getBytes(StandardCharsets.UTF_8))
+                .build(false);
+        try {
+            new TarExtractor(new ByteArrayInputStream(archive), false, targetDir, logs::add).extract();
+            fail("绝对路径的条目应被拒绝");
+        } catch (IOException expected) {
+            // 预期
+        }
+        assertFalse(outside.exists());
+        assertEquals(0, targetDir.list().length);
+    }
+
+    @Test
+    public void truncatedArchiveFails() throws Exception {
+        byte[] archive = new TarBuilder().file("data.bin", content(5000)).build(false);
+        byte[] truncated = new byte[512 + 1000];
+        System.arraycopy(archive, 0, truncated, 0, truncated.length);
+        try {
+            new TarExtractor(new ByteArrayInputStream(truncated), false, targetDir, logs::add).extract();
+            fail("数据不完整时应失败");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    private static byte[] content(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + i / 1000);
+        }
+        return data;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 按 ustar 格式逐个写出条目
+     */
+    private static class TarBuilder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        TarBuilder file(String name, byte[] data) {
+            return entry(name, '0', data, "");
+        }
+
+        TarBuilder directory(String name) {
+            return entry(name, '5', new byte[0], "");
+        }
+
+        TarBuilder symlink(String name, String target) {
+            return entry(name, '2', new byte[0], target);
+        }
+
+        /**
+         * GNU 长文件名：作为下一个条目的名称
+         */
+        TarBuilder longName(String name) {
+            return entry("././@LongLink", 'L', (name + "\0").getBytes(StandardCharsets.UTF_8), "");
+        }
+
+        byte[] build(boolean gzip) throws IOException {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            archive.write(out.toByteArray());
+            archive.write(new byte[1024]);
+            if (!gzip) {
+                return archive.toByteArray();
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gz = new GZIPOutputStream(compressed)) {
+                gz.write(archive.toByteArray());
+            }
+            return compressed.toByteArray();
+        }
+
+        private TarBuilder entry(String name, char type, byte[] data, String linkName) {
+            byte[] header = new byte[512];
+            put(header, 0, 100, name);
+            put(header, 100, 8, "0000644");
+            put(header, 108, 8, "0000000");
+            put(header, 116, 8, "0000000");
+            put(header, 124, 12, String.format("%011o", data.length));
+            put(header, 136, 12, "00000000000");
+            header[156] = (byte) type;
+            put(header, 157, 100, linkName);
+            put(header, 257, 6, "ustar");
+            put(header, 263, 2, "00");
+            for (int i = 148; i < 156; i++) {
+                header[i] = ' ';
+            }
+            long sum = 0;
+            for (byte b : header) {
+                sum += b & 0xFF;
+            }
+            put(header, 148, 8, String.format("%06o", sum));
+            out.write(header, 0, header.length);
+            out.write(data, 0, data.length);
+            int padding = (512 - data.length % 512) % 512;
+            out.write(new byte[padding], 0, padding);
+            return this;
+        }
+
+        private static void put(byte[] header, int offset, int length, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+        }
+    }
+}
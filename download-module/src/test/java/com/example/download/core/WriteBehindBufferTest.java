@@ -0,0 +1,115 @@
+package com.example.download.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 写缓冲：乱序提交、超过容量的分段、重复分段和关闭时写出未提交的部分数据
+ */
+public class WriteBehindBufferTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void outOfOrderSegmentsAreWrittenToTheirOffsets() throws Exception {
+        File file = newFile(1000);
+        List<Long> persisted = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindBuffer buffer = new WriteBehindBuffer(file, "t", 4096, null);
+        for (long offset : new long[]{600, 200, 0, 800, 400}) {
+            write(buffer, offset, 200, () -> persisted.add(offset));
+        }
+        buffer.close();
+
+        assertArrayEquals(expected(0, 1000), Files.readAllBytes(file.toPath()));
+        assertEquals(5, persisted.size());
+    }
+
+    @Test
+    public void segmentLargerThanCapacityIsWrittenDirectly() throws Exception {
+        File file = newFile(1000);
+        WriteBehindBuffer buffer = new WriteBehindBuffer(file, "t", 100, null);
+        AtomicInteger committed = new AtomicInteger();
+        write(buffer, 0, 800, committed::incrementAndGet);
+        write(buffer, 800, 100, committed::incrementAndGet);
+        write(buffer, 900, 100, committed::incrementAndGet);
+        buffer.close();
+
+        assertArrayEquals(expected(0, 1000), Files.readAllBytes(file.toPath()));
+        assertEquals(3, committed.get());
+    }
+
+    @Test
+    public void duplicateAndOverlappingSegmentsKeepFileContent() throws Exception {
+        File file = newFile(600);
+        AtomicInteger committed = new AtomicInteger();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(file, "t", 4096, null);
+        // 重试的区块可能再次提交同一范围
+        write(buffer, 0, 300, committed::incrementAndGet);
+        write(buffer, 0, 300, committed::incrementAndGet);
+        write(buffer, 200, 400, committed::incrementAndGet);
+        buffer.close();
+
+        assertArrayEquals(expected(0, 600), Files.readAllBytes(file.toPath()));
+        assertEquals(3, committed.get());
+    }
+
+    @Test
+    public void closeFlushesPartialSegmentAndReportsPersistedEnd() throws Exception {
+        File file = newFile(1000);
+        List<Long> persistedEnds = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger committed = new AtomicInteger();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(file, "t", 4096, null);
+        RangeSink.RangeWriter writer = buffer.open(100, 500, persistedEnds::add);
+        byte[] data = expected(100, 250);
+        writer.write(data, 0, data.length);
+        // 连接中断：未提交就结束，已接收的部分仍需写入文件并推进断点
+        writer.close();
+        buffer.close();
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] written = new byte[250];
+        System.arraycopy(content, 100, written, 0, 250);
+        assertArrayEquals(data, written);
+        assertEquals(0, content[99]);
+        assertEquals(0, content[350]);
+        assertEquals(Collections.singletonList(350L), persistedEnds);
+        assertEquals(0, committed.get());
+    }
+
+    private File newFile(long length) throws IOException {
+        File file = folder.newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+        return file;
+    }
+
+    private static void write(RangeSink sink, long offset, int length, Runnable onPersisted) throws IOException {
+        try (RangeSink.RangeWriter writer = sink.open(offset, length, null)) {
+            byte[] data = expected(offset, length);
+            writer.write(data, 0, data.length);
+            writer.commit(onPersisted);
+        }
+    }
+
+    private static byte[] expected(long offset, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ((offset + i) * 31 + 7);
+        }
+        return data;
+    }
+}
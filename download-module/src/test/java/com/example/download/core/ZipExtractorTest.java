@@ -0,0 +1,182 @@
+package com.example.download.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * zip 顺序解压：数据描述符、存储条目、目录条目和跳出解压目录的条目
+ */
+public class ZipExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File targetDir;
+    private final List<String> logs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        targetDir = folder.newFolder("out");
+    }
+
+    @Test
+    public void extractsDeflatedEntriesWithDataDescriptorAndStoredEntries() throws Exception {
+        byte[] large = content(300_000);
+        byte[] small = "hello zip".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("docs/"));
+            zip.closeEntry();
+            // DEFLATED 条目的大小和CRC写在数据之后的数据描述符中，本地头中为0
+            zip.putNextEntry(new ZipEntry("docs/large.bin"));
+            zip.write(large);
+            zip.closeEntry();
+            putStored(zip, "small.txt", small);
+            putStored(zip, "empty.txt", new byte[0]);
+            zip.putNextEntry(new ZipEntry("docs/deflated.txt"));
+            zip.write(small);
+            zip.closeEntry();
+        }
+        byte[] archive = bytes.toByteArray();
+        assertTrue("应包含使用数据描述符的条目", hasDescriptorFlag(archive));
+
+        ZipExtractor extractor = extractor(archive);
+        extractor.extract();
+
+        assertArrayEquals(large, Files.readAllBytes(new File(targetDir, "docs/large.bin").toPath()));
+        assertArrayEquals(small, Files.readAllBytes(new File(targetDir, "small.txt").toPath()));
+        assertArrayEquals(small, Files.readAllBytes(new File(targetDir, "docs/deflated.txt").toPath()));
+        assertEquals(0, new File(targetDir, "empty.txt").length());
+        assertEquals(4, extractor.getEntryCount());
+        assertEquals(large.length + 2L * small.length, extractor.getExtractedBytes());
+    }
+
+    @Test
+    public void parentTraversalEntryIsRejected() throws Exception {
+        byte[] archive = zip("ok.txt", "../evil.txt");
+        try {
+            extractor(archive).extract();
+            fail("跳出解压目录的条目应被拒绝");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("../evil.txt"));
+        }
+        assertTrue(new File(targetDir, "ok.txt").isFile());
+        assertFalse(new File(folder.getRoot(), "evil.txt").exists());
+    }
+
+    @Test
+    public void nestedTraversalEntryIsRejected() throws Exception {
+        byte[] archive = zip("a/b/../../../evil.txt");
+        try {
+            extractor(archive).extract();
+            fail("跳出解压目录的条目应被拒绝");
+        } catch (IOException expected) {
+            // 预期
+        }
+        assertFalse(new File(folder.getRoot(), "evil.txt").exists());
+    }
+
+    @Test
+    public void absolutePathEntryIsRejected() throws Exception {
+        File outside = new File(folder.getRoot(), "abs.txt");
+        for (String name : Arrays.asList(outside.getAbsolutePath(), "/abs.txt", "C:\\abs.txt")) {
+            try {
+                extractor(zip(name)).extract();
+                fail("绝对路径的条目应被拒绝: " + name);
+            } catch (IOException expected) {
+                // 预期
+            }
+        }
+        assertFalse(outside.exists());
+        assertEquals(0, targetDir.list().length);
+    }
+
+    @Test
+    public void corruptedEntryFailsCrcCheck() throws Exception {
+        byte[] data = content(1000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            putStored(zip, "data.bin", data);
+        }
+        byte[] archive = bytes.toByteArray();
+        // 存储条目的数据紧跟在30字节的本地头和文件名之后
+        archive[30 + "data.bin".length() + 10] ^= 0x55;
+        try {
+            extractor(archive).extract();
+            fail("CRC不符时应失败");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    private ZipExtractor extractor(byte[] archive) {
+        ZipExtractor.RangeReader reader = (start, length) -> Arrays.copyOfRange(archive, (int) start, (int) start + length);
+        return new ZipExtractor(new ByteArrayInputStream(archive), reader, archive.length, targetDir, logs::add);
+    }
+
+    private static byte[] zip(String... names) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (String name : names) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(name.getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void putStored(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    /**
+     * @return 是否有本地头设置了数据描述符标志（通用标志第3位）
+     */
+    private static boolean hasDescriptorFlag(byte[] archive) {
+        for (int i = 0; i + 8 < archive.length; i++) {
+            if (archive[i] == 0x50 && archive[i + 1] == 0x4b && archive[i + 2] == 0x03 && archive[i + 3] == 0x04
+                    && (archive[i + 6] & 0x08) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] content(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i % 251 + i / 4096);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.download.manager;
+
+import com.example.download.model.DownloadTaskInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 任务历史较多时的启动耗时：一次性读取全部任务与按需加载的对比
+ *
+ * 生成包含大量已完成任务的旧格式任务文件，测量：
+ * <ul>
+ *     <li>全部读取：旧版本的启动方式，反序列化整个任务列表</li>
+ *     <li>首次迁移：新版本第一次打开旧文件，把较早完成的任务移入历史文件（只发生一次）</li>
+ *     <li>按需加载：迁移后打开任务管理器并取得排序后的任务列表（界面可以显示的时刻），
+ *         之后后台为历史文件建立索引的耗时，以及读取第一页历史任务的耗时</li>
+ * </ul>
+ *
+ * 用法: java TaskHistoryStartupBenchmark [已完成任务数] [未完成任务数] [重复次数]，默认50000、20、5
+ */
+public class TaskHistoryStartupBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        int completedCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int pendingCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File workDir = Files.createTempDirectory("task-history-bench").toFile();
+        File legacyFile = new File(workDir, "legacy_tasks.dat");
+        File tasksFile = new File(workDir, "download_tasks.dat");
+        try {
+            writeLegacyFile(legacyFile, completedCount, pendingCount);
+            System.out.println("已完成任务: " + completedCount + "，未完成任务: " + pendingCount
+                    + "，旧格式任务文件: " + legacyFile.length() / 1024 + " KB");
+
+            // 旧版本：构造时反序列化全部任务
+            long[] eager = new long[rounds];
+            for (int i = 0; i < rounds; i++) {
+                long begin = System.nanoTime();
+                int loaded = readLegacyFile(legacyFile);
+                eager[i] = System.nanoTime() - begin;
+                if (loaded != completedCount + pendingCount) {
+                    throw new IllegalStateException("读取的任务数不符: " + loaded);
+                }
+            }
+            System.out.printf("全部读取:   %8.1f ms%n", median(eager));
+
+            Files.copy(legacyFile.toPath(), tasksFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            long begin = System.nanoTime();
+            TaskManager migrating = new TaskManager(tasksFile);
+            migrating.getSortedTasks();
+            long migrate = System.nanoTime() - begin;
+            migrating.getHistorySize();
+            System.out.printf("首次迁移:   %8.1f ms（任务文件 %d KB，历史文件 %d KB）%n", migrate / 1e6,
+                    tasksFile.length() / 1024, new File(tasksFile.getPath() + ".history").length() / 1024);
+
+            long[] firstList = new long[rounds];
+            long[] indexed = new long[rounds];
+            long[] firstPage = new long[rounds];
+            for (int i = 0; i < rounds; i++) {
+                begin = System.nanoTime();
+                TaskManager manager = new TaskManager(tasksFile);
+                int recent = manager.getSortedTasks().size();
+                firstList[i] = System.nanoTime() - begin;
+                int history = manager.getHistorySize();
+                indexed[i] = System.nanoTime() - begin;
+                long pageBegin = System.nanoTime();
+                List<DownloadTaskInfo> page = manager.getHistoryPage(0, PAGE_SIZE);
+                firstPage[i] = System.nanoTime() - pageBegin;
+                if (recent + history != completedCount + pendingCount || page.size() != Math.min(PAGE_SIZE, history)) {
+                    throw new IllegalStateException("任务数不符: " + recent + " + " + history);
+                }
+            }
+            System.out.printf("按需加载:   %8.1f ms 显示最近任务，%8.1f ms 历史索引完成，第一页历史 %.1f ms%n",
+                    median(firstList), median(indexed), median(firstPage));
+        } finally {
+            for (File file : workDir.listFiles()) {
+                file.delete();
+            }
+            workDir.delete();
+        }
+    }
+
+    private static void writeLegacyFile(File file, int completedCount, int pendingCount) throws Exception {
+        List<DownloadTaskInfo> tasks = new ArrayList<>(completedCount + pendingCount);
+        for (int i = 0; i < completedCount + pendingCount; i++) {
+            DownloadTaskInfo task = new DownloadTaskInfo();
+            task.setUrl("https://mirror.example.com/releases/" + i + "/package-" + i + ".tar.gz");
+            task.setSavePath("/home/user/Downloads");
+            task.setFileName("package-" + i + ".tar.gz");
+            task.setThreadCount(8);
+            task.setFileSize(1024L * 1024 * (1 + i % 500));
+            if (i < completedCount) {
+                task.setDownloadedSize(task.getFileSize());
+                task.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+            } else {
+                task.setStatus(DownloadTaskInfo.TaskStatus.PAUSED);
+            }
+            tasks.add(task);
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeObject(tasks);
+        }
+    }
+
+    private static int readLegacyFile(File file) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return ((List<?>) in.readObject()).size();
+        }
+    }
+
+    private static double median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1e6;
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.download.manager;
+
+import com.example.download.model.DownloadTaskInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 任务文件与分块历史文件的行为测试：旧格式迁移、按页读取顺序、删除记录的持久化、
+ * 建立索引前的更新、不完整的末尾块和整理
+ */
+public class TaskManagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File tasksFile;
+    private File historyFile;
+
+    @Before
+    public void setUp() {
+        tasksFile = new File(folder.getRoot(), "tasks.dat");
+        historyFile = new File(tasksFile.getPath() + ".history");
+    }
+
+    @Test
+    public void migratesLegacyFileAndPagesHistoryNewestFirst() throws Exception {
+        writeLegacyTasksFile(300);
+
+        TaskManager manager = new TaskManager(tasksFile);
+        assertEquals(TaskManager.RECENT_COMPLETED_LIMIT, manager.getAllTasks().size());
+        assertEquals(100, manager.getHistorySize());
+        assertTrue(historyFile.isFile());
+        assertEquals(ids(99, 90), idsOf(manager.getHistoryPage(0, 10)));
+        assertEquals(ids(4, 0), idsOf(manager.getHistoryPage(95, 10)));
+        assertTrue(manager.getHistoryPage(100, 10).isEmpty());
+
+        // 重新打开后内容不变，旧版本仍能读取任务文件中的第一个对象
+        TaskManager reopened = new TaskManager(tasksFile);
+        assertEquals(TaskManager.RECENT_COMPLETED_LIMIT, reopened.getAllTasks().size());
+        assertEquals(idsOf(manager.getHistoryPage(0, 100)), idsOf(reopened.getHistoryPage(0, 100)));
+        DownloadTaskInfo oldest = reopened.getTask("t0");
+        assertNotNull(oldest);
+        assertEquals("f0", oldest.getFileName());
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(tasksFile))) {
+            assertEquals(TaskManager.RECENT_COMPLETED_LIMIT, ((List<?>) in.readObject()).size());
+        }
+    }
+
+    @Test
+    public void deletedHistoryTaskStaysDeletedAfterReopen() throws Exception {
+        writeLegacyTasksFile(300);
+        new TaskManager(tasksFile).getHistorySize();
+
+        // 删除可能发生在后台索引完成之前
+        TaskManager manager = new TaskManager(tasksFile);
+        manager.deleteTask("t50");
+        assertNull(manager.getTask("t50"));
+        assertEquals(99, manager.getHistorySize());
+
+        TaskManager reopened = new TaskManager(tasksFile);
+        assertEquals(99, reopened.getHistorySize());
+        assertNull(reopened.getTask("t50"));
+        assertFalse(idsOf(reopened.getHistoryPage(0, 100)).contains("t50"));
+    }
+
+    @Test
+    public void updateMovesHistoryTaskBackToActiveList() throws Exception {
+        writeLegacyTasksFile(300);
+        new TaskManager(tasksFile).getHistorySize();
+
+        TaskManager manager = new TaskManager(tasksFile);
+        DownloadTaskInfo resumed = task(10);
+        resumed.setStatus(DownloadTaskInfo.TaskStatus.PAUSED);
+        manager.updateTask(resumed);
+        assertEquals(99, manager.getHistorySize());
+        assertEquals(DownloadTaskInfo.TaskStatus.PAUSED, manager.getTask("t10").getStatus());
+        assertTrue(idsOf(manager.getAllTasks()).contains("t10"));
+
+        TaskManager reopened = new TaskManager(tasksFile);
+        assertEquals(99, reopened.getHistorySize());
+        assertEquals(DownloadTaskInfo.TaskStatus.PAUSED, reopened.getTask("t10").getStatus());
+    }
+
+    @Test
+    public void updateOfUnknownOrDeletedTaskIsIgnored() throws Exception {
+        writeLegacyTasksFile(300);
+        new TaskManager(tasksFile).getHistorySize();
+
+        // 下载线程在任务删除后才回调 updateTask，且历史文件的索引可能尚未建立
+        TaskManager manager = new TaskManager(tasksFile);
+        manager.updateTask(new DownloadTaskInfo("ghost-task"));
+        manager.deleteTask("t20");
+        manager.updateTask(task(20));
+        assertNull(manager.getTask("ghost-task"));
+        assertNull(manager.getTask("t20"));
+        assertEquals(99, manager.getHistorySize());
+        assertEquals(TaskManager.RECENT_COMPLETED_LIMIT, manager.getAllTasks().size());
+
+        TaskManager reopened = new TaskManager(tasksFile);
+        assertNull(reopened.getTask("ghost-task"));
+        assertNull(reopened.getTask("t20"));
+        assertEquals(99, reopened.getHistorySize());
+    }
+
+    @Test
+    public void truncatedLastBlockIsDropped() throws Exception {
+        writeLegacyTasksFile(300);
+        new TaskManager(tasksFile).getHistorySize();
+        try (RandomAccessFile file = new RandomAccessFile(historyFile, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        // 100个历史任务分为64和36两块，不完整的第二块被忽略并截掉
+        TaskManager manager = new TaskManager(tasksFile);
+        assertEquals(64, manager.getHistorySize());
+        assertEquals(ids(63, 0), idsOf(manager.getHistoryPage(0, 100)));
+
+        DownloadTaskInfo finished = new DownloadTaskInfo("t-new");
+        manager.addTask(finished);
+        finished.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+        manager.updateTask(finished);
+        assertEquals(65, manager.getHistorySize());
+
+        TaskManager reopened = new TaskManager(tasksFile);
+        assertEquals(65, reopened.getHistorySize());
+        assertEquals(ids(63, 0), idsOf(reopened.getHistoryPage(1, 100)));
+    }
+
+    @Test
+    public void compactionKeepsRemainingTasks() throws Exception {
+        writeLegacyTasksFile(1200);
+        TaskManager manager = new TaskManager(tasksFile);
+        assertEquals(1000, manager.getHistorySize());
+        for (int i = 100; i < 400; i++) {
+            manager.deleteTask("t" + i);
+        }
+        long before = historyFile.length();
+
+        // 建立索引后发现删除的记录较多，在后台重写历史文件
+        TaskManager compacting = new TaskManager(tasksFile);
+        assertEquals(700, compacting.getHistorySize());
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (historyFile.length() >= before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(historyFile.length() < before);
+        assertEquals(700, compacting.getHistorySize());
+        assertEquals("t99", compacting.getTask("t99").getId());
+
+        TaskManager reopened = new TaskManager(tasksFile);
+        List<String> expected = new ArrayList<>(ids(999, 400));
+        expected.addAll(ids(99, 0));
+        assertEquals(expected, idsOf(reopened.getHistoryPage(0, 1000)));
+    }
+
+    /**
+     * 写出旧版本的任务文件：只有一个包含全部任务的列表，按添加顺序依次完成
+     */
+    private void writeLegacyTasksFile(int count) throws IOException {
+        List<DownloadTaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(task(i));
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tasksFile)))) {
+            out.writeObject(tasks);
+        }
+    }
+
+    private static DownloadTaskInfo task(int i) {
+        DownloadTaskInfo task = new DownloadTaskInfo("t" + i);
+        task.setUrl("http://example.com/f" + i);
+        task.setFileName("f" + i);
+        task.setStatus(DownloadTaskInfo.TaskStatus.COMPLETED);
+        return task;
+    }
+
+    /**
+     * @return 从from到to（含）逐个递减的任务ID
+     */
+    private static List<String> ids(int from, int to) {
+        List<String> ids = new ArrayList<>();
+        for (int i = from; i >= to; i--) {
+            ids.add("t" + i);
+        }
+        return ids;
+    }
+
+    private static List<String> idsOf(List<DownloadTaskInfo> tasks) {
+        List<String> ids = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (DownloadTaskInfo task : tasks) {
+            assertTrue("重复的任务: " + task.getId(), seen.add(task.getId()));
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}